@@ -0,0 +1,105 @@
+package com.nlaw.leadDedupe.benchmarks;
+
+import com.nlaw.leadDedupe.LeadGenerator;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ *  BenchmarkInput
+ *
+ *  The input file for a benchmark, generated by the LeadGenerator the first
+ *  time a size and profile are asked for and reused after that.  Inputs are
+ *  kept in benchmark-inputs under the working directory, since the utility
+ *  resolves input paths against it.  The profiles are:
+ *
+ *    unique    no duplicates
+ *    dup10     about 10% of leads share an id, an email or both with an
+ *              earlier lead
+ *    dup50     about 50% of leads do
+ *    threeWay  30% of leads take the id of one earlier lead and the email
+ *              of another
+ *
+ *  A third of the duplicates share their entry date with the lead they
+ *  duplicate, so ties are exercised too.
+ *
+ *  The change log is turned off, so the benchmarks measure the engine and
+ *  not log4j.
+ *
+ *  @author nlawrence
+ *
+ */
+@State(Scope.Benchmark)
+public class BenchmarkInput {
+    public static final String INPUT_DIRECTORY = "benchmark-inputs";
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int leads;
+
+    @Param({"unique", "dup10", "dup50", "threeWay"})
+    public String profile;
+
+    /** The input's path, relative to the working directory */
+    public String path;
+
+    /** The input file itself */
+    public File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        Configurator.setLevel("com.nlaw.leadDedupe", Level.OFF);
+
+        File directory = new File(System.getProperty("user.dir"), INPUT_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Could not create " + directory);
+        }
+        String name = "leads-" + leads + "-" + profile + ".json";
+        path = INPUT_DIRECTORY + File.separator + name;
+        file = new File(directory, name);
+        if (!file.exists()){
+            generate();
+        }
+    }
+
+    private void generate() throws IOException {
+        LeadGenerator generator = new LeadGenerator();
+        generator.setLeads(leads);
+        generator.setSeed(leads);
+        generator.setDateTieRate(0.3);
+        switch (profile){
+            case "unique":
+                break;
+            case "dup10":
+                generator.setIdDuplicateRate(0.05);
+                generator.setEmailDuplicateRate(0.05);
+                break;
+            case "dup50":
+                generator.setIdDuplicateRate(0.3);
+                generator.setEmailDuplicateRate(0.3);
+                break;
+            case "threeWay":
+                generator.setThreeWayRate(0.3);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown profile " + profile);
+        }
+
+        // write next to the input and move it into place, so an interrupted
+        // run doesn't leave a partial input behind to be reused
+        File partFile = new File(file.getPath() + ".part");
+        try (OutputStream out = new FileOutputStream(partFile)){
+            generator.write(out);
+        }
+        if (!partFile.renameTo(file)){
+            throw new IOException("Could not move " + partFile + " to " + file);
+        }
+    }
+}
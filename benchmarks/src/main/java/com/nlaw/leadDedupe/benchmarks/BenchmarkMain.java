@@ -0,0 +1,78 @@
+package com.nlaw.leadDedupe.benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ *  BenchmarkMain
+ *
+ *  Runs the benchmarks with the GC profiler attached, then prints a summary
+ *  per record: records per second, and bytes allocated per record.  JMH
+ *  itself reports per operation, and an operation here is a whole input.
+ *
+ *  Takes the usual JMH command line, e.g. to only run the dedupe benchmark
+ *  on the smaller inputs:
+ *
+ *    java -jar benchmarks.jar DedupeServiceBenchmark -p leads=10000,100000
+ *
+ *  @author nlawrence
+ *
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException {
+        Options options;
+        try {
+            options = new OptionsBuilder()
+                    .parent(new CommandLineOptions(args))
+                    .include(BenchmarkMain.class.getPackage().getName() + ".*Benchmark")
+                    .addProfiler(GCProfiler.class)
+                    .build();
+        } catch (CommandLineOptionException e) {
+            System.out.println("Error parsing command line:");
+            System.out.println(" " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        Collection<RunResult> results = new Runner(options).run();
+
+        System.out.println();
+        System.out.println("Per record:");
+        System.out.printf("%-50s %10s %10s %15s %15s%n", "Benchmark", "leads", "profile",
+                "records/s", "bytes/record");
+        for (RunResult result : results){
+            BenchmarkParams params = result.getParams();
+            long leads = Long.parseLong(params.getParam("leads"));
+            double recordsPerSecond = result.getPrimaryResult().getScore() * leads;
+            double bytesPerRecord = allocatedBytesPerOperation(result) / leads;
+            System.out.printf("%-50s %10d %10s %15.0f %15.1f%n", shortName(params.getBenchmark()), leads,
+                    params.getParam("profile"), recordsPerSecond, bytesPerRecord);
+        }
+    }
+
+    private static double allocatedBytesPerOperation(RunResult result) {
+        for (Map.Entry<String, Result> entry : result.getSecondaryResults().entrySet()){
+            if (entry.getKey().endsWith("gc.alloc.rate.norm")){
+                return entry.getValue().getScore();
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static String shortName(String benchmark) {
+        String[] parts = benchmark.split("\\.");
+        return parts.length < 2 ? benchmark : parts[parts.length - 2] + "." + parts[parts.length - 1];
+    }
+}
@@ -0,0 +1,39 @@
+package com.nlaw.leadDedupe.benchmarks;
+
+import com.nlaw.leadDedupe.DedupeOptions;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.Lead;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+/**
+ *  DedupeServiceBenchmark
+ *
+ *  Measures a whole streaming deduplication, from reading the input file to
+ *  holding the deduplicated leads.  Every survivor is turned into a Lead, as
+ *  writing the output would, so lazily created leads are paid for here.
+ *
+ *  @author nlawrence
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DedupeServiceBenchmark {
+
+    @Benchmark
+    public void deduplicateItems(BenchmarkInput input, Blackhole blackhole) {
+        List<Lead> outputLeads = new DedupeServiceImpl(new DedupeOptions()).deduplicateItems(input.path);
+        for (Lead lead : outputLeads){
+            blackhole.consume(lead);
+        }
+    }
+}
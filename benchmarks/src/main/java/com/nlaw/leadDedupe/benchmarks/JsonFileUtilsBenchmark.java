@@ -0,0 +1,64 @@
+package com.nlaw.leadDedupe.benchmarks;
+
+import com.nlaw.leadDedupe.JsonFileUtilsImpl;
+import com.nlaw.leadDedupe.Lead;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ *  JsonFileUtilsBenchmark
+ *
+ *  Measures reading a whole input into a list of leads, and writing a list
+ *  of leads back out, on their own.
+ *
+ *  @author nlawrence
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class JsonFileUtilsBenchmark {
+
+    /**
+     * The parsed input, for the output benchmark to write.
+     */
+    @State(Scope.Benchmark)
+    public static class ParsedInput {
+        List<Lead> leads;
+        File outputFile;
+
+        @Setup
+        public void setUp(BenchmarkInput input) throws IOException {
+            leads = new JsonFileUtilsImpl().parseJson(input.file);
+            outputFile = File.createTempFile("benchmark-output", ".json");
+        }
+
+        @TearDown
+        public void tearDown() {
+            outputFile.delete();
+        }
+    }
+
+    @Benchmark
+    public List<Lead> parseJson(BenchmarkInput input) throws IOException {
+        return new JsonFileUtilsImpl().parseJson(input.file);
+    }
+
+    @Benchmark
+    public void writeOutputFile(ParsedInput input) throws IOException {
+        new JsonFileUtilsImpl().writeOutputFile(input.outputFile, input.leads);
+    }
+}
@@ -0,0 +1,439 @@
+package com.nlaw.leadDedupe;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *  AsyncAuditLogImpl
+ *
+ *  Writes audit events to a file as JSON lines, one object per event, on a
+ *  background thread:
+ *
+ *    {"seq":3,"event":"replace","old":{...},"new":{...},"changed":["email"]}
+ *
+ *  The event is one of "add", "replace", "remove" or "collision", and each
+ *  lead is written with its fields and its ordinal in the input.
+ *
+ *  Events go through a bounded ring buffer.  Reporting an event only copies
+ *  the rows involved into the event's slot, which is reused once the event
+ *  has been written, so the merging thread doesn't create any objects and
+ *  never waits on the disk.  The writer thread wakes up once the buffer is
+ *  half full, or every few milliseconds when it's quiet, takes every event
+ *  waiting at once, writes them through a large buffer and flushes once per
+ *  batch, so a busy log costs one write call per batch rather than per
+ *  event.  If the writer falls a whole buffer behind, reporting blocks until
+ *  it catches up, so no events are ever dropped.
+ *
+ *  If writing fails, even with an unchecked exception, the rest of the
+ *  events are discarded and the failure is thrown from close().  The writer
+ *  carries on taking events, so reporting never waits on a writer that has
+ *  died.
+ *
+ *  @author nlawrence
+ *
+ */
+public class AsyncAuditLogImpl implements AuditLog {
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+    // how long an event may wait for others to be written with it
+    private static final long MAX_BATCH_DELAY_NANOS = 10_000_000L;
+
+    private static final int ADDED = 0;
+    private static final int REPLACED = 1;
+    private static final int REMOVED = 2;
+    private static final int COLLIDED = 3;
+    private static final String[] EVENT_NAMES = {"add", "replace", "remove", "collision"};
+    private static final String[][] ROW_NAMES = {
+            {"lead"}, {"old", "new"}, {"lead"}, {"lead", "emailMatch", "idMatch"}};
+    private static final String[] FIELD_NAMES = {
+            "_id", "email", "firstName", "lastName", "address", "entryDate"};
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final Event[] ring;
+    private final int mask;
+    private long head = 0; // the next event to be written
+    private long tail = 0; // the next event to be reported
+    private boolean closed = false;
+    private IOException failure;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final OutputStream out;
+    // only used by the writer thread
+    private final byte[] buffer = new byte[WRITE_BUFFER_BYTES];
+    private int bufferPosition = 0;
+    private final byte[] digits = new byte[20];
+    private final Thread writerThread;
+
+    /**
+     * @param file The file to write the events to, replacing anything in it
+     * @throws IOException if the file can't be opened
+     */
+    public AsyncAuditLogImpl(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param file The file to write the events to, replacing anything in it
+     * @param capacity The number of events that can wait to be written,
+     *                 rounded up to a power of two
+     * @throws IOException if the file can't be opened
+     */
+    public AsyncAuditLogImpl(File file, int capacity) throws IOException {
+        this(new FileOutputStream(file), capacity);
+    }
+
+    /**
+     * @param out The stream to write the events to, closed along with the log
+     * @param capacity The number of events that can wait to be written,
+     *                 rounded up to a power of two
+     */
+    public AsyncAuditLogImpl(OutputStream out, int capacity) {
+        if (capacity < 1){
+            throw new IllegalArgumentException("The capacity must be positive, got " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        ring = new Event[size];
+        for (int i = 0; i < size; i++){
+            ring[i] = new Event();
+        }
+        mask = size - 1;
+
+        this.out = out;
+        writerThread = new Thread(this::writeEvents, "audit-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public void added(LeadColumns columns, int row) {
+        report(ADDED, columns, row, -1, -1);
+    }
+
+    public void replaced(LeadColumns columns, int oldRow, int newRow) {
+        report(REPLACED, columns, oldRow, newRow, -1);
+    }
+
+    public void removed(LeadColumns columns, int row) {
+        report(REMOVED, columns, row, -1, -1);
+    }
+
+    public void collided(LeadColumns columns, int row, int emailMatchRow, int idMatchRow) {
+        report(COLLIDED, columns, row, emailMatchRow, idMatchRow);
+    }
+
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed){
+                return;
+            }
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (writerThread.isAlive()){
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted){
+            Thread.currentThread().interrupt();
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (failure == null){
+                failure = e;
+            }
+        }
+        if (failure != null){
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits for a free slot and copies the event's rows into it.  Rows of -1
+     * are left out.
+     */
+    private void report(int type, LeadColumns columns, int first, int second, int third) {
+        lock.lock();
+        try {
+            if (closed){
+                throw new IllegalStateException("The audit log has been closed");
+            }
+            while (tail - head == ring.length){
+                notFull.awaitUninterruptibly();
+            }
+            Event event = ring[(int) tail & mask];
+            event.reset(type);
+            event.addRow(columns, first);
+            if (second >= 0){
+                event.addRow(columns, second);
+            }
+            if (third >= 0){
+                event.addRow(columns, third);
+            }
+            tail++;
+            if (tail - head >= ring.length / 2){
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The writer thread's loop.  Events between head and tail belong to the
+     * writer until head is moved past them, so they can be written without
+     * holding the lock.
+     */
+    private void writeEvents() {
+        while (true){
+            long start;
+            long end;
+            lock.lock();
+            try {
+                waitForBatch();
+                if (head == tail){
+                    return;
+                }
+                start = head;
+                end = tail;
+            } finally {
+                lock.unlock();
+            }
+
+            if (failure == null){
+                try {
+                    for (long sequence = start; sequence < end; sequence++){
+                        writeEvent(ring[(int) sequence & mask], sequence);
+                    }
+                    flushBuffer();
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = new IOException("Writing the audit log failed", e);
+                }
+            }
+
+            lock.lock();
+            try {
+                head = end;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits until the buffer is half full, or until events have been waiting
+     * for MAX_BATCH_DELAY_NANOS, or until the log is closed.  Reporting only
+     * wakes the writer once the buffer is half full, so a steady stream of
+     * events is written in large batches instead of one at a time.
+     */
+    private void waitForBatch() {
+        while (!closed && tail - head < ring.length / 2){
+            boolean waiting = head != tail;
+            try {
+                notEmpty.awaitNanos(MAX_BATCH_DELAY_NANOS);
+            } catch (InterruptedException e) {
+                // nothing interrupts the writer, keep waiting
+            }
+            if (waiting && head != tail){
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes an event as a line of JSON.  Rows are already UTF-8, so field
+     * values are copied straight from the row's bytes, escaping only what
+     * JSON requires.
+     */
+    private void writeEvent(Event event, long sequence) throws IOException {
+        writeAscii("{\"seq\":");
+        writeNumber(sequence);
+        writeAscii(",\"event\":\"");
+        writeAscii(EVENT_NAMES[event.type]);
+        put('"');
+        for (int i = 0; i < event.rowCount; i++){
+            writeAscii(",\"");
+            writeAscii(ROW_NAMES[event.type][i]);
+            writeAscii("\":");
+            writeLead(event, i);
+        }
+        if (event.type == REPLACED){
+            writeAscii(",\"changed\":[");
+            boolean first = true;
+            for (int field = 0; field < FIELD_NAMES.length; field++){
+                if (!fieldEquals(event, field)){
+                    if (!first){
+                        put(',');
+                    }
+                    put('"');
+                    writeAscii(FIELD_NAMES[field]);
+                    put('"');
+                    first = false;
+                }
+            }
+            put(']');
+        }
+        writeAscii("}\n");
+    }
+
+    private void writeLead(Event event, int index) throws IOException {
+        byte[] bytes = event.bytes;
+        int rowOffset = event.offsets[index];
+        put('{');
+        for (int field = 0; field < FIELD_NAMES.length; field++){
+            put('"');
+            writeAscii(FIELD_NAMES[field]);
+            writeAscii("\":");
+            int length = LeadColumns.fieldLength(bytes, rowOffset, field);
+            if (length < 0){
+                writeAscii("null");
+            } else {
+                writeString(bytes, LeadColumns.fieldOffset(bytes, rowOffset, field), length);
+            }
+            put(',');
+        }
+        writeAscii("\"ordinal\":");
+        writeNumber(event.ordinals[index]);
+        put('}');
+    }
+
+    /**
+     * Compares a field of the two rows of a replace event.
+     */
+    private static boolean fieldEquals(Event event, int field) {
+        byte[] bytes = event.bytes;
+        int oldLength = LeadColumns.fieldLength(bytes, event.offsets[0], field);
+        if (oldLength != LeadColumns.fieldLength(bytes, event.offsets[1], field)){
+            return false;
+        }
+        int oldOffset = LeadColumns.fieldOffset(bytes, event.offsets[0], field);
+        int newOffset = LeadColumns.fieldOffset(bytes, event.offsets[1], field);
+        for (int i = 0; i < oldLength; i++){
+            if (bytes[oldOffset + i] != bytes[newOffset + i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes UTF-8 bytes as a JSON string.  Bytes of multi-byte characters
+     * are all 0x80 or above, so they can never be mistaken for a quote, a
+     * backslash or a control character and are copied as they are.
+     */
+    private void writeString(byte[] bytes, int offset, int length) throws IOException {
+        put('"');
+        int start = offset;
+        int end = offset + length;
+        for (int i = offset; i < end; i++){
+            int b = bytes[i] & 0xff;
+            if (b == '"' || b == '\\' || b < 0x20){
+                put(bytes, start, i - start);
+                put('\\');
+                if (b == '"' || b == '\\'){
+                    put(b);
+                } else {
+                    writeAscii("u00");
+                    put(HEX_DIGITS[b >> 4]);
+                    put(HEX_DIGITS[b & 0xf]);
+                }
+                start = i + 1;
+            }
+        }
+        put(bytes, start, end - start);
+        put('"');
+    }
+
+    private void writeAscii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++){
+            put(text.charAt(i));
+        }
+    }
+
+    private void writeNumber(long number) throws IOException {
+        if (number < 0){
+            put('-');
+            number = -number;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+        put(digits, position, digits.length - position);
+    }
+
+    private void put(int b) throws IOException {
+        if (bufferPosition == buffer.length){
+            flushBuffer();
+        }
+        buffer[bufferPosition++] = (byte) b;
+    }
+
+    private void put(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0){
+            if (bufferPosition == buffer.length){
+                flushBuffer();
+            }
+            int count = Math.min(length, buffer.length - bufferPosition);
+            System.arraycopy(bytes, offset, buffer, bufferPosition, count);
+            bufferPosition += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, bufferPosition);
+        bufferPosition = 0;
+    }
+
+    /**
+     * A slot in the ring buffer.  Holds up to three rows, copied out of the
+     * merger's store, and is reused for every event that passes through the
+     * slot.
+     */
+    private static class Event {
+        int type;
+        int rowCount;
+        byte[] bytes = new byte[512];
+        int length;
+        final int[] offsets = new int[3];
+        final long[] ordinals = new long[3];
+
+        void reset(int type) {
+            this.type = type;
+            rowCount = 0;
+            length = 0;
+        }
+
+        void addRow(LeadColumns columns, int row) {
+            int rowBytes = columns.rowBytes(row);
+            if (bytes.length < length + rowBytes){
+                bytes = Arrays.copyOf(bytes, Math.max(length + rowBytes, bytes.length * 2));
+            }
+            offsets[rowCount] = length;
+            ordinals[rowCount] = columns.getOrdinal(row);
+            length += columns.copyRow(row, bytes, length);
+            rowCount++;
+        }
+    }
+}
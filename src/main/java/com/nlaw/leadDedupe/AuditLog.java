@@ -0,0 +1,49 @@
+package com.nlaw.leadDedupe;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ *  AuditLog
+ *
+ *  Receives a structured event for each change the LeadMerger makes to its
+ *  output.  Leads are passed as rows of the merger's LeadColumns store, and
+ *  are only valid for the length of the call, so implementations have to
+ *  copy whatever they need before returning.
+ *
+ *  Events are reported from the merging thread, so implementations should
+ *  hand them off as cheaply as they can.
+ *
+ *  @author nlawrence
+ *
+ */
+public interface AuditLog extends Closeable {
+
+    /**
+     * A lead that didn't collide with anything was added to the output.
+     */
+    void added(LeadColumns columns, int row);
+
+    /**
+     * A lead replaced the one existing lead it collided with.
+     */
+    void replaced(LeadColumns columns, int oldRow, int newRow);
+
+    /**
+     * A lead was removed from the output while resolving a 3-way collision.
+     */
+    void removed(LeadColumns columns, int row);
+
+    /**
+     * A lead collided with two existing leads, one by email and one by id.
+     * The changes made to resolve the collision are reported separately.
+     */
+    void collided(LeadColumns columns, int row, int emailMatchRow, int idMatchRow);
+
+    /**
+     * Writes out every event reported so far and releases the log.
+     *
+     * @throws IOException if any of the events couldn't be written
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,209 @@
+package com.nlaw.leadDedupe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ *  BackgroundInputStream
+ *
+ *  Reads another stream ahead of the caller on a thread of its own, so that
+ *  whatever that stream does to produce its bytes, e.g. decompress them,
+ *  happens while the caller works on the bytes it already has.
+ *
+ *  The thread reads the stream in large chunks and hands them over a queue
+ *  that only holds a few of them, so it never gets more than a few chunks
+ *  ahead.  Chunks the caller has finished with are handed back to be filled
+ *  again, so after the first few no more buffers are allocated.  If the
+ *  stream fails, the failure is thrown to the caller once it has read every
+ *  byte that came before it.
+ *
+ *  Closing this stream stops the thread and closes the other stream.
+ *
+ *  @author nlawrence
+ *
+ */
+public class BackgroundInputStream extends InputStream {
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+
+    private static final int QUEUED_CHUNKS = 4;
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final InputStream in;
+    private final int chunkBytes;
+    private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+    private final BlockingQueue<byte[]> spareBuffers = new ArrayBlockingQueue<>(QUEUED_CHUNKS + 1);
+    private final Thread readerThread;
+
+    private ByteBuffer chunk = END_OF_STREAM; // the chunk being read, empty before the first one
+    private boolean ended = false;
+    private boolean closed = false;
+    private volatile Throwable failure; // set before END_OF_STREAM is queued
+
+    /**
+     * @param in The stream to read ahead of the caller
+     * @param threadName What to call the thread that reads it
+     */
+    public BackgroundInputStream(InputStream in, String threadName) {
+        this(in, threadName, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param in The stream to read ahead of the caller
+     * @param threadName What to call the thread that reads it
+     * @param chunkBytes How many bytes to read at a time
+     */
+    public BackgroundInputStream(InputStream in, String threadName, int chunkBytes) {
+        if (chunkBytes < 1){
+            throw new IllegalArgumentException("Chunks must hold at least one byte, got " + chunkBytes);
+        }
+        this.in = in;
+        this.chunkBytes = chunkBytes;
+        readerThread = new Thread(this::readChunks, threadName);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()){
+            return -1;
+        }
+        return chunk.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > bytes.length - offset){
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0){
+            return 0;
+        }
+        if (!nextChunk()){
+            return -1;
+        }
+        int count = Math.min(length, chunk.remaining());
+        chunk.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return chunk.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed){
+            return;
+        }
+        closed = true;
+        ended = true;
+        chunk = END_OF_STREAM;
+        readerThread.interrupt();
+        boolean interrupted = false;
+        while (readerThread.isAlive()){
+            try {
+                readerThread.join();
+            } catch (InterruptedException e){
+                interrupted = true;
+            }
+        }
+        if (interrupted){
+            Thread.currentThread().interrupt();
+        }
+        in.close();
+    }
+
+    /**
+     * Moves on to the next chunk once the current one has been read, handing
+     * its buffer back.  Returns false at the end of the stream.
+     */
+    private boolean nextChunk() throws IOException {
+        if (closed){
+            throw new IOException("Stream closed");
+        }
+        while (!chunk.hasRemaining()){
+            if (ended){
+                return false;
+            }
+            if (chunk != END_OF_STREAM){
+                spareBuffers.offer(chunk.array());
+            }
+            try {
+                chunk = chunks.take();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for input");
+            }
+            if (chunk == END_OF_STREAM){
+                ended = true;
+                throwFailure();
+            }
+        }
+        return true;
+    }
+
+    private void throwFailure() throws IOException {
+        Throwable cause = failure;
+        if (cause instanceof IOException){
+            throw new IOException(cause.getMessage(), cause);
+        }
+        if (cause instanceof RuntimeException){
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error){
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * The reader thread: fills chunks until the stream runs out, followed by
+     * END_OF_STREAM, which is queued after a failure too.
+     */
+    private void readChunks() {
+        try {
+            int length;
+            do {
+                byte[] buffer = spareBuffers.poll();
+                if (buffer == null){
+                    buffer = new byte[chunkBytes];
+                }
+                length = fill(buffer);
+                if (length > 0){
+                    chunks.put(ByteBuffer.wrap(buffer, 0, length));
+                }
+            } while (length == chunkBytes);
+        } catch (InterruptedException e){
+            // closed, so nobody wants the rest
+            return;
+        } catch (IOException | RuntimeException | Error e){
+            failure = e;
+        }
+        try {
+            chunks.put(END_OF_STREAM);
+        } catch (InterruptedException e){
+            // likewise
+        }
+    }
+
+    /**
+     * @return The number of bytes read into the buffer, which is less than
+     *         its length only at the end of the stream
+     */
+    private int fill(byte[] buffer) throws IOException {
+        int length = 0;
+        while (length < buffer.length){
+            int count = in.read(buffer, length, buffer.length - length);
+            if (count < 0){
+                break;
+            }
+            length += count;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,190 @@
+package com.nlaw.leadDedupe;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ *  BackgroundOutputStream
+ *
+ *  Writes to another stream on a thread of its own, so that whatever that
+ *  stream does with the bytes, e.g. compress them, happens while the caller
+ *  carries on producing more.
+ *
+ *  Bytes are gathered into large chunks, and each full chunk is handed over
+ *  a queue that only holds a few of them, so the caller only ever waits
+ *  when it gets more than a few chunks ahead.  Written chunks are handed
+ *  back to be filled again.  flush() hands over what has been gathered so
+ *  far without waiting for it to be written; close() waits for everything
+ *  to be written, closes the other stream on the writing thread and throws
+ *  anything that went wrong.  A failure is also thrown by the first write
+ *  after it's noticed.
+ *
+ *  @author nlawrence
+ *
+ */
+public class BackgroundOutputStream extends OutputStream {
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+
+    private static final int QUEUED_CHUNKS = 4;
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final OutputStream out;
+    private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+    private final BlockingQueue<byte[]> spareBuffers = new ArrayBlockingQueue<>(QUEUED_CHUNKS + 2);
+    private final Thread writerThread;
+
+    private byte[] buffer; // the chunk being gathered
+    private int position = 0;
+    private boolean closed = false;
+    private volatile Throwable failure;
+
+    /**
+     * @param out The stream to write to
+     * @param threadName What to call the thread that writes to it
+     */
+    public BackgroundOutputStream(OutputStream out, String threadName) {
+        this(out, threadName, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param out The stream to write to
+     * @param threadName What to call the thread that writes to it
+     * @param chunkBytes How many bytes to hand over at a time
+     */
+    public BackgroundOutputStream(OutputStream out, String threadName, int chunkBytes) {
+        if (chunkBytes < 1){
+            throw new IllegalArgumentException("Chunks must hold at least one byte, got " + chunkBytes);
+        }
+        this.out = out;
+        this.buffer = new byte[chunkBytes];
+        writerThread = new Thread(this::writeChunks, threadName);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        if (position == buffer.length){
+            handOver();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > bytes.length - offset){
+            throw new IndexOutOfBoundsException();
+        }
+        checkOpen();
+        while (length > 0){
+            if (position == buffer.length){
+                handOver();
+            }
+            int count = Math.min(length, buffer.length - position);
+            System.arraycopy(bytes, offset, buffer, position, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        if (position > 0){
+            handOver();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed){
+            return;
+        }
+        try {
+            if (position > 0 && failure == null){
+                handOver();
+            }
+            chunks.put(END_OF_STREAM);
+            writerThread.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            writerThread.interrupt();
+            throw new InterruptedIOException("Interrupted while finishing output");
+        } finally {
+            closed = true;
+        }
+        throwFailure();
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed){
+            throw new IOException("Stream closed");
+        }
+        throwFailure();
+    }
+
+    /**
+     * Queues the gathered chunk and starts on a spare one.
+     */
+    private void handOver() throws IOException {
+        try {
+            chunks.put(ByteBuffer.wrap(buffer, 0, position));
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing output");
+        }
+        byte[] spare = spareBuffers.poll();
+        buffer = spare != null ? spare : new byte[buffer.length];
+        position = 0;
+    }
+
+    private void throwFailure() throws IOException {
+        Throwable cause = failure;
+        if (cause instanceof IOException){
+            throw new IOException(cause.getMessage(), cause);
+        }
+        if (cause instanceof RuntimeException){
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error){
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * The writer thread: writes chunks until END_OF_STREAM and then closes
+     * the stream.  After a failure it carries on taking chunks, so the
+     * caller is never left waiting for room in the queue.
+     */
+    private void writeChunks() {
+        try {
+            for (ByteBuffer chunk = chunks.take(); chunk != END_OF_STREAM; chunk = chunks.take()){
+                if (failure == null){
+                    try {
+                        out.write(chunk.array(), 0, chunk.limit());
+                    } catch (IOException | RuntimeException | Error e){
+                        failure = e;
+                    }
+                }
+                spareBuffers.offer(chunk.array());
+            }
+        } catch (InterruptedException e){
+            if (failure == null){
+                failure = new InterruptedIOException("Interrupted while writing output");
+            }
+        }
+        try {
+            out.close();
+        } catch (IOException | RuntimeException | Error e){
+            if (failure == null){
+                failure = e;
+            }
+        }
+    }
+}
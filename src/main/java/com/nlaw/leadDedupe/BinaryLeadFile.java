@@ -0,0 +1,224 @@
+package com.nlaw.leadDedupe;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *  BinaryLeadFile
+ *
+ *  A read only view of a binary lead file written by a BinaryLeadWriter,
+ *  for jobs that need to look up a handful of leads in a deduplicated
+ *  output by id or email.  The file is memory mapped rather than read, so
+ *  opening it costs about the same for ten leads as for ten million, and
+ *  each lookup only touches the few pages it needs: a hash table entry or
+ *  two and the record itself.
+ *
+ *  The file is laid out as, with every number big-endian:
+ *
+ *    | magic (4) |
+ *    | record length (4) | lead, as BinaryLeadFormat writes it |  ...one per lead
+ *    | id table: capacity entries of | fingerprint (8) | record offset (8) | |
+ *    | email table: the same, for emails |
+ *    | id table offset (8) | email table offset (8) | lead count (4) | capacity (4) | magic (4) |
+ *
+ *  The tables are open addressed with linear probing, starting at the entry
+ *  picked by the low bits of the key's KeyBytes fingerprint.  A record offset
+ *  of zero marks an empty entry, which no record can have since the magic
+ *  comes first.  Fingerprints only narrow the search down, and a match is
+ *  confirmed by comparing the key's bytes with the record's.
+ *
+ *  Lookups only use absolute reads of the mapping, so a BinaryLeadFile can
+ *  be shared between threads.
+ *
+ *  @author nlawrence
+ *
+ */
+public class BinaryLeadFile implements Closeable {
+    static final int MAGIC = 0x4c444231; // "LDB1"
+    static final int HEADER_BYTES = 4;
+    static final int FOOTER_BYTES = 28;
+    static final int ENTRY_BYTES = 16;
+    // a mapping can't be larger than Integer.MAX_VALUE, so big files are mapped in pieces
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int SEGMENT_BYTES = 1 << SEGMENT_SHIFT;
+
+    private static final int ID_FIELD = 0;
+    private static final int EMAIL_FIELD = 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long idTable;
+    private final long emailTable;
+    private final int size;
+    private final int capacity;
+
+    /**
+     * @param file The binary lead file to map
+     * @throws IOException if the file can't be mapped or isn't a binary lead file
+     */
+    public BinaryLeadFile(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long length = channel.size();
+            if (length < HEADER_BYTES + FOOTER_BYTES){
+                throw new IOException(file + " is not a binary lead file");
+            }
+            segments = new MappedByteBuffer[(int) ((length + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++){
+                long start = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_BYTES, length - start));
+            }
+
+            long footer = length - FOOTER_BYTES;
+            idTable = readLong(footer);
+            emailTable = readLong(footer + 8);
+            size = readInt(footer + 16);
+            capacity = readInt(footer + 20);
+            if (readInt(0) != MAGIC || readInt(footer + 24) != MAGIC
+                    || size < 0 || capacity != tableCapacity(size)
+                    || idTable < HEADER_BYTES
+                    || emailTable != idTable + (long) capacity * ENTRY_BYTES
+                    || footer != emailTable + (long) capacity * ENTRY_BYTES){
+                throw new IOException(file + " is not a binary lead file");
+            }
+        } catch (IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     *
+     * The number of entries in each of a file's tables: the smallest power of
+     * two at least twice the number of leads, so probes stay short.
+     *
+     * @param leads The number of leads in the file
+     * @return The table capacity
+     */
+    static int tableCapacity(int leads) {
+        return Integer.highestOneBit(Math.max(1, leads) * 2 - 1) << 1;
+    }
+
+    /**
+     *
+     * @return The number of leads in the file
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     * Looks up the lead with an id.
+     *
+     * @param id The id to look for
+     * @return The lead, or null if there's none with that id
+     */
+    public Lead findById(String id) {
+        return find(idTable, ID_FIELD, id);
+    }
+
+    /**
+     *
+     * Looks up the lead with an email.
+     *
+     * @param email The email to look for
+     * @return The lead, or null if there's none with that email
+     */
+    public Lead findByEmail(String email) {
+        return find(emailTable, EMAIL_FIELD, email);
+    }
+
+    /**
+     *
+     * Closes the file.  The mapping itself is only released once it's been
+     * garbage collected, so no leads may be looked up after closing.
+     *
+     * @throws IOException if the file can't be closed
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Lead find(long table, int field, String key) {
+        if (key == null){
+            return null;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long fingerprint = KeyBytes.fingerprint(keyBytes, 0, keyBytes.length);
+        int mask = capacity - 1;
+        for (int entry = (int) fingerprint & mask; ; entry = (entry + 1) & mask){
+            long position = table + (long) entry * ENTRY_BYTES;
+            long record = readLong(position + 8);
+            if (record == 0){
+                return null;
+            }
+            if (readLong(position) == fingerprint && fieldEquals(record, field, keyBytes)){
+                return readLead(record);
+            }
+        }
+    }
+
+    private boolean fieldEquals(long record, int field, byte[] key) {
+        long position = record + 4;
+        for (int i = 0; i < field; i++){
+            position += 4 + Math.max(0, readInt(position));
+        }
+        if (readInt(position) != key.length){
+            return false;
+        }
+        position += 4;
+        for (int i = 0; i < key.length; i++){
+            if (readByte(position + i) != key[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Lead readLead(long record) {
+        long position = record + 4;
+        String[] fields = new String[6];
+        for (int i = 0; i < fields.length; i++){
+            int length = readInt(position);
+            position += 4;
+            if (length >= 0){
+                byte[] bytes = new byte[length];
+                for (int b = 0; b < length; b++){
+                    bytes[b] = readByte(position + b);
+                }
+                fields[i] = new String(bytes, StandardCharsets.UTF_8);
+                position += length;
+            }
+        }
+        return new Lead(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5]);
+    }
+
+    private byte readByte(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & (SEGMENT_BYTES - 1)));
+    }
+
+    private int readInt(long position) {
+        int offset = (int) (position & (SEGMENT_BYTES - 1));
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        if (offset + 4 <= segment.limit()){
+            return segment.getInt(offset);
+        }
+        // straddles two segments
+        int value = 0;
+        for (int i = 0; i < 4; i++){
+            value = (value << 8) | (readByte(position + i) & 0xff);
+        }
+        return value;
+    }
+
+    private long readLong(long position) {
+        return ((long) readInt(position) << 32) | (readInt(position + 4) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,81 @@
+package com.nlaw.leadDedupe;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *  BinaryLeadFormat
+ *
+ *  A compact binary encoding of a single lead, for when leads need to be
+ *  written to disk and read back by the program itself rather than by
+ *  people.  Each of the six fields is written as a length followed by its
+ *  UTF-8 bytes, with a length of -1 standing for a missing (null) field.
+ *
+ *  @author nlawrence
+ *
+ */
+public final class BinaryLeadFormat {
+
+    private BinaryLeadFormat() {
+    }
+
+    /**
+     *
+     * Writes a lead to the output.
+     *
+     * @param out Where to write the lead
+     * @param lead The lead to write
+     * @return The number of bytes written
+     * @throws IOException if the output can't be written to
+     */
+    public static long write(DataOutput out, Lead lead) throws IOException {
+        return writeField(out, lead.get_id())
+                + writeField(out, lead.getEmail())
+                + writeField(out, lead.getFirstName())
+                + writeField(out, lead.getLastName())
+                + writeField(out, lead.getAddress())
+                + writeField(out, lead.getEntryDate());
+    }
+
+    /**
+     *
+     * Reads a lead written by write().  The lead's ordinal is left at zero
+     * for the caller to fill in.
+     *
+     * @param in Where to read the lead from
+     * @return The lead
+     * @throws IOException if the input can't be read
+     */
+    public static Lead read(DataInput in) throws IOException {
+        String id = readField(in);
+        String email = readField(in);
+        String firstName = readField(in);
+        String lastName = readField(in);
+        String address = readField(in);
+        String entryDate = readField(in);
+        return new Lead(id, email, firstName, lastName, address, entryDate);
+    }
+
+    private static long writeField(DataOutput out, String value) throws IOException {
+        if (value == null){
+            out.writeInt(-1);
+            return 4;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return 4 + bytes.length;
+    }
+
+    private static String readField(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0){
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,126 @@
+package com.nlaw.leadDedupe;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ *  BinaryLeadWriter
+ *
+ *  A LeadWriter for binary lead files, which downstream jobs can memory map
+ *  and look leads up in by id or email with a BinaryLeadFile, instead of
+ *  parsing the whole output.  See BinaryLeadFile for the layout.
+ *
+ *  Records are streamed out as they're written.  Only the offset of each
+ *  record and the fingerprints of its id and email are remembered, 24 bytes
+ *  a lead, and the two hash tables are built from them and appended when
+ *  the writer is closed.  If several leads share an id or an email, lookups
+ *  find the first of them written; the survivors of a run never do.
+ *
+ *  @author nlawrence
+ *
+ */
+public class BinaryLeadWriter implements LeadWriter {
+    // keeps the tables' long arrays within what Java can allocate
+    private static final int MAX_LEADS = 1 << 28;
+
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final KeyBytes keyBytes = new KeyBytes();
+    private long position; // where the next record starts
+
+    private long[] offsets = new long[1024];
+    private long[] idFingerprints = new long[1024];
+    private long[] emailFingerprints = new long[1024];
+    private final BitSet missingIds = new BitSet();
+    private final BitSet missingEmails = new BitSet();
+    private int count = 0;
+
+    /**
+     * @param out Where to write the file, which is closed along with the
+     *            writer.  It's buffered here.
+     * @throws IOException if the start of the file can't be written
+     */
+    public BinaryLeadWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.out.writeInt(BinaryLeadFile.MAGIC);
+        position = BinaryLeadFile.HEADER_BYTES;
+    }
+
+    public void write(Lead lead) throws IOException {
+        if (count == MAX_LEADS){
+            throw new IOException("A binary lead file can't hold more than " + MAX_LEADS + " leads");
+        }
+        if (count == offsets.length){
+            offsets = Arrays.copyOf(offsets, count * 2);
+            idFingerprints = Arrays.copyOf(idFingerprints, count * 2);
+            emailFingerprints = Arrays.copyOf(emailFingerprints, count * 2);
+        }
+        offsets[count] = position;
+        idFingerprints[count] = fingerprint(lead.get_id(), missingIds);
+        emailFingerprints[count] = fingerprint(lead.getEmail(), missingEmails);
+
+        record.reset();
+        BinaryLeadFormat.write(recordOut, lead);
+        out.writeInt(record.size());
+        record.writeTo(out);
+        position += 4 + record.size();
+        count++;
+    }
+
+    public void close() throws IOException {
+        int capacity = BinaryLeadFile.tableCapacity(count);
+        long idTable = position;
+        writeTable(idFingerprints, missingIds, capacity);
+        long emailTable = position;
+        writeTable(emailFingerprints, missingEmails, capacity);
+
+        out.writeLong(idTable);
+        out.writeLong(emailTable);
+        out.writeInt(count);
+        out.writeInt(capacity);
+        out.writeInt(BinaryLeadFile.MAGIC);
+        out.close();
+    }
+
+    /**
+     * Fingerprints the current lead's key, noting it in missing instead if
+     * the key is null.
+     */
+    private long fingerprint(String key, BitSet missing) {
+        if (key == null){
+            missing.set(count);
+            return 0;
+        }
+        return keyBytes.set(key).fingerprint();
+    }
+
+    /**
+     * Writes an open addressing table of the leads' keys, with linear
+     * probing, so each key sits at or after the entry its fingerprint picks.
+     */
+    private void writeTable(long[] fingerprints, BitSet missing, int capacity) throws IOException {
+        long[] table = new long[capacity * 2]; // fingerprint, then record offset
+        int mask = capacity - 1;
+        for (int lead = 0; lead < count; lead++){
+            if (missing.get(lead)){
+                continue;
+            }
+            int entry = (int) fingerprints[lead] & mask;
+            while (table[entry * 2 + 1] != 0){
+                entry = (entry + 1) & mask;
+            }
+            table[entry * 2] = fingerprints[lead];
+            table[entry * 2 + 1] = offsets[lead];
+        }
+        for (long value : table){
+            out.writeLong(value);
+        }
+        position += (long) capacity * BinaryLeadFile.ENTRY_BYTES;
+    }
+}
@@ -0,0 +1,331 @@
+package com.nlaw.leadDedupe;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *  ClusterDedupeServiceImpl
+ *
+ *  A batch implementation of the DedupeService that splits the input into
+ *  independent collision clusters before applying any of our rules.
+ *
+ *  Two leads can only ever affect each other if they share an id or an
+ *  email, directly or through a chain of other leads.  We find those chains
+ *  with a union-find over the id and email keys: every id and every email
+ *  gets a node, and each lead joins the node for its id with the node for its
+ *  email.  Leads whose nodes end up with the same root belong to the same
+ *  cluster.
+ *
+ *  Each cluster is then resolved on its own by a LeadMerger, feeding it the
+ *  cluster's leads in input order, so the rules (including the three-way
+ *  collision handling) are exactly those of the DedupeServiceImpl.  Leads
+ *  that don't collide with anything skip the merger entirely, though they're
+ *  still logged as a merger would have.  Finally the
+ *  survivors of all clusters are put back into the order the streaming
+ *  implementation would have produced, using the ordinal of the lead that
+ *  first claimed each survivor's place in the output.
+ *
+ *  Since clusters are independent, they can be resolved in parallel.  When
+ *  constructed with more than one thread, large inputs are parsed in chunks
+ *  on up to that many threads (no more than there are processors) by a
+ *  ParallelLeadParser, and the clusters are split into batches and resolved
+ *  on a ForkJoinPool.  Every survivor is stored at its own ordinal, so the
+ *  output is identical no matter how the work was scheduled.
+ *
+ *  Unlike the DedupeServiceImpl, this holds the whole input in memory.  The
+ *  key to node maps can be kept off the heap for very large inputs; the
+ *  per-cluster indexes are small, so they always stay on the heap.
+ *
+ *  @author nlawrence
+ *
+ */
+public class ClusterDedupeServiceImpl implements DedupeService {
+    // clusters are handed out to threads in batches of up to this many leads
+    private static final int MAX_LEADS_PER_TASK = 8192;
+    // aim for a few batches per thread so that big clusters even out
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final int threads;
+    private final boolean logFieldDiffs;
+    private final String inputFormat; // null to go by the file extension
+    private final DedupeMetrics metrics = new DedupeMetrics();
+    private int leadsPerTask;
+
+    private File inputJson;
+
+    private JsonFileUtilsImpl fileUtils = new JsonFileUtilsImpl();
+
+    private List<Lead> inputLeads = new ArrayList<>();
+    private KeyIndex idNodes; // maps id to union-find node
+    private KeyIndex emailNodes; // maps email to union-find node
+    private int[] parents = new int[16]; // union-find forest, indexed by node
+    private int nodeCount = 0;
+
+    public ClusterDedupeServiceImpl() {
+        this(1);
+    }
+
+    /**
+     * @param threads The number of threads to resolve clusters on
+     */
+    public ClusterDedupeServiceImpl(int threads) {
+        this(threadOptions(threads));
+    }
+
+    /**
+     * @param options The options for this run, used for the number of
+     *                threads and the kind of key index to find clusters with
+     */
+    public ClusterDedupeServiceImpl(DedupeOptions options) {
+        if (options.getThreads() < 1){
+            throw new IllegalArgumentException("At least one thread is required, got "
+                    + options.getThreads());
+        }
+        this.threads = options.getThreads();
+        this.idNodes = options.createKeyIndex();
+        this.emailNodes = options.createKeyIndex();
+        this.logFieldDiffs = options.isLogFieldDiffs();
+        this.inputFormat = options.getInputFormat();
+    }
+
+    private static DedupeOptions threadOptions(int threads) {
+        DedupeOptions options = new DedupeOptions();
+        options.setThreads(threads);
+        return options;
+    }
+
+    /**
+     *
+     * Reads the whole input, groups it into collision clusters, resolves each
+     * cluster (in parallel if we have more than one thread) and returns the
+     * survivors in the same order the streaming DedupeServiceImpl would.
+     *
+     * @param inputFilename The filename of the input file
+     * @return A list of unique (deduplicated) Leads
+     */
+    public List<Lead> deduplicateItems(String inputFilename) {
+
+        inputJson = fileUtils.getInputFile(inputFilename);
+        metrics.startPhase(DedupeMetrics.PARSE);
+        try {
+            // chunks arrive in input order, so the leads are joined up here
+            // while the later chunks are still being decoded; with a single
+            // processor the chunk scan is pure overhead, so read sequentially
+            int parserThreads = Math.min(threads, Runtime.getRuntime().availableProcessors());
+            new ParallelLeadParser(parserThreads).parse(inputJson, inputFormat, leads -> {
+                for (Lead lead : leads){
+                    inputLeads.add(lead);
+                    union(node(idNodes, lead.get_id()), node(emailNodes, lead.getEmail()));
+                }
+            });
+        } catch (IOException e){
+            System.out.println("Could not parse input Json");
+            e.printStackTrace();
+            System.out.println("Aborting!");
+            System.exit(1);
+        }
+        metrics.endPhase(DedupeMetrics.PARSE);
+        metrics.addRecordsRead(inputLeads.size());
+        metrics.recordIndexKeys(idNodes.size() + emailNodes.size());
+
+        metrics.startPhase(DedupeMetrics.MERGE);
+        int[] clusterStarts = groupIntoClusters();
+        Lead[] survivorsByOrdinal = new Lead[inputLeads.size()];
+        int clusterCount = clusterStarts.length - 1;
+        if (threads == 1){
+            resolveClusters(0, clusterCount, clusterStarts, survivorsByOrdinal);
+        } else {
+            leadsPerTask = Math.max(1, Math.min(MAX_LEADS_PER_TASK,
+                    inputLeads.size() / (threads * TASKS_PER_THREAD)));
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new ResolveClustersTask(0, clusterCount, clusterStarts, survivorsByOrdinal));
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        List<Lead> outputLeads = new ArrayList<>();
+        for (Lead lead : survivorsByOrdinal){
+            if (lead != null){
+                outputLeads.add(lead);
+            }
+        }
+        metrics.endPhase(DedupeMetrics.MERGE);
+        metrics.setRecordsKept(outputLeads.size());
+        return outputLeads;
+    }
+
+    public DedupeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     *
+     * Resolves a range of clusters, one after the other.
+     *
+     * @param firstCluster The first cluster to resolve
+     * @param endCluster One past the last cluster to resolve
+     * @param clusterStarts The index of the first lead of each cluster
+     * @param survivorsByOrdinal Where the survivors are stored
+     */
+    private void resolveClusters(int firstCluster, int endCluster, int[] clusterStarts,
+                                 Lead[] survivorsByOrdinal) {
+        for (int cluster = firstCluster; cluster < endCluster; cluster++){
+            resolveCluster(clusterStarts[cluster], clusterStarts[cluster + 1], survivorsByOrdinal);
+        }
+    }
+
+    /**
+     *
+     * Resolves one cluster, a range of inputLeads once they've been grouped,
+     * and stores each survivor at the ordinal that decides its output
+     * position.
+     *
+     * @param start The index of the cluster's first lead
+     * @param end One past the index of the cluster's last lead
+     * @param survivorsByOrdinal Where the survivors are stored
+     */
+    private void resolveCluster(int start, int end, Lead[] survivorsByOrdinal) {
+        if (end - start == 1){
+            // nothing to collide with, so the lead survives as it is
+            Lead lead = inputLeads.get(start);
+            survivorsByOrdinal[(int) lead.getOrdinal()] = lead;
+            metrics.count(DedupeMetrics.ADDED);
+            LeadMerger.logUncontested(lead);
+            return;
+        }
+        LeadMerger merger = new LeadMerger();
+        merger.setLogFieldDiffs(logFieldDiffs);
+        merger.setMetrics(metrics);
+        for (int i = start; i < end; i++){
+            merger.merge(inputLeads.get(i));
+        }
+        merger.forEachOutputLead((lead, ordinal) -> survivorsByOrdinal[(int) ordinal] = lead);
+    }
+
+    /**
+     *
+     * Reorders inputLeads so that the leads of each cluster are next to each
+     * other, keeping input order within each cluster.  Clusters are ordered
+     * by their first lead.
+     *
+     * @return The index of the first lead of each cluster, followed by the
+     *         number of leads
+     */
+    private int[] groupIntoClusters() {
+        int leadCount = inputLeads.size();
+        int[] clusterOfNode = new int[nodeCount];
+        Arrays.fill(clusterOfNode, -1);
+        int[] clusterOfLead = new int[leadCount];
+        int[] clusterSizes = new int[leadCount];
+        int clusterCount = 0;
+
+        for (int i = 0; i < leadCount; i++){
+            int root = find(idNodes.get(inputLeads.get(i).get_id()));
+            if (clusterOfNode[root] < 0){
+                clusterOfNode[root] = clusterCount++;
+            }
+            clusterOfLead[i] = clusterOfNode[root];
+            clusterSizes[clusterOfLead[i]]++;
+        }
+
+        int[] clusterStarts = new int[clusterCount + 1];
+        for (int cluster = 0; cluster < clusterCount; cluster++){
+            clusterStarts[cluster + 1] = clusterStarts[cluster] + clusterSizes[cluster];
+        }
+        int[] nextPosition = Arrays.copyOf(clusterStarts, clusterCount);
+        Lead[] grouped = new Lead[leadCount];
+        for (int i = 0; i < leadCount; i++){
+            grouped[nextPosition[clusterOfLead[i]]++] = inputLeads.get(i);
+        }
+        inputLeads = Arrays.asList(grouped);
+        return clusterStarts;
+    }
+
+    /**
+     *
+     * Resolves a range of clusters on a ForkJoinPool, splitting the range in
+     * half until each half holds few enough leads to resolve directly.  The
+     * clusters only write to their own survivors' slots in
+     * survivorsByOrdinal, so the tasks never need to coordinate.
+     *
+     */
+    private class ResolveClustersTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int firstCluster;
+        private final int endCluster;
+        private final int[] clusterStarts;
+        private final Lead[] survivorsByOrdinal;
+
+        ResolveClustersTask(int firstCluster, int endCluster, int[] clusterStarts,
+                            Lead[] survivorsByOrdinal) {
+            this.firstCluster = firstCluster;
+            this.endCluster = endCluster;
+            this.clusterStarts = clusterStarts;
+            this.survivorsByOrdinal = survivorsByOrdinal;
+        }
+
+        @Override
+        protected void compute() {
+            int leadCount = clusterStarts[endCluster] - clusterStarts[firstCluster];
+            if (leadCount <= leadsPerTask || endCluster - firstCluster == 1){
+                resolveClusters(firstCluster, endCluster, clusterStarts, survivorsByOrdinal);
+                return;
+            }
+            int middle = (firstCluster + endCluster) >>> 1;
+            invokeAll(new ResolveClustersTask(firstCluster, middle, clusterStarts, survivorsByOrdinal),
+                    new ResolveClustersTask(middle, endCluster, clusterStarts, survivorsByOrdinal));
+        }
+    }
+
+    /**
+     * Looks up the node for a key, creating a new single node tree if the key
+     * hasn't been seen yet.
+     */
+    private int node(KeyIndex nodes, String key) {
+        int node = nodes.get(key);
+        if (node < 0){
+            if (nodeCount == parents.length){
+                parents = Arrays.copyOf(parents, parents.length * 2);
+            }
+            node = nodeCount++;
+            parents[node] = node;
+            nodes.put(key, node);
+        }
+        return node;
+    }
+
+    private int find(int node) {
+        int root = node;
+        while (parents[root] != root){
+            root = parents[root];
+        }
+        // compress the path so later lookups are quicker
+        while (parents[node] != root){
+            int next = parents[node];
+            parents[node] = root;
+            node = next;
+        }
+        return root;
+    }
+
+    private void union(int first, int second) {
+        int firstRoot = find(first);
+        int secondRoot = find(second);
+        if (firstRoot != secondRoot){
+            // keep the older node as the root
+            if (firstRoot < secondRoot){
+                parents[secondRoot] = firstRoot;
+            } else {
+                parents[firstRoot] = secondRoot;
+            }
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.nlaw.leadDedupe;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+
+/**
+ *  ConcurrentLeadMerger
+ *
+ *  A thread safe counterpart of the LeadMerger, for feeds with many
+ *  producers, e.g. several clients posting to a DedupeServer at once.  Any
+ *  number of threads may merge leads at the same time, and the result is
+ *  always the one the LeadMerger would give for some single order of all
+ *  the leads merged, the order they're deemed to have arrived in.  That
+ *  order respects real time: a lead merged after another's merge returned
+ *  always counts as arriving later, so leads merged in turn by one thread
+ *  keep their order.  The rules, three-way collisions included, are the
+ *  LeadMerger's own; see LeadMerger.threeWayCase().
+ *
+ *  Survivors are kept as immutable Survivor records in two concurrent maps,
+ *  by id and by email, and in a third by the ordinal of the lead that first
+ *  claimed their place in the output, which keeps them in output order.
+ *  Merging a lead only touches the survivors that share its id or email,
+ *  so instead of one lock, keys are guarded by a fixed set of lock stripes,
+ *  picked by the keys' hashes.  Merging a lead holds the stripes of its own
+ *  id and email and of every key of the survivors it collides with, since
+ *  replacing or removing a survivor unindexes both of its keys.  In a
+ *  three-way collision that's up to four stripes.  They're always taken in
+ *  ascending order, so two merges can never wait on each other.
+ *
+ *  The survivors to lock are only known after looking the keys up, so a
+ *  merge looks them up, takes the stripes, and checks that the lookups
+ *  still hold before changing anything, starting over if a merge that held
+ *  one of those stripes got there first.  The lead is stamped with its
+ *  ordinal while all of its stripes are held, which is the moment it's
+ *  deemed to arrive.  Merges that share no stripes don't affect each other,
+ *  so they can safely run in either order.
+ *
+ *  Changes are logged as the LeadMerger logs them, and the kept leads can
+ *  be saved to and loaded from the same LeadSnapshots.  Unlike the
+ *  LeadMerger, leads are kept as objects rather than packed rows.
+ *
+ *  @author nlawrence
+ *
+ */
+public class ConcurrentLeadMerger implements KeptLeads {
+    public static final int DEFAULT_STRIPES = 1024;
+
+    // stands in for a missing id or email, which collide like any other key
+    private static final Object NULL_KEY = new Object();
+
+    private final ReentrantLock[] stripes;
+    private final Map<Object, Survivor> idIndex = new ConcurrentHashMap<>();
+    private final Map<Object, Survivor> emailIndex = new ConcurrentHashMap<>();
+    // survivors by slot ordinal, i.e. in output order
+    private final ConcurrentSkipListMap<Long, Survivor> survivors = new ConcurrentSkipListMap<>();
+    // kept alongside, since counting the skip list walks all of it
+    private final AtomicInteger outputSize = new AtomicInteger();
+    private final AtomicLong nextOrdinal = new AtomicLong();
+    private boolean logFieldDiffs = true;
+    private DedupeMetrics metrics; // null unless collision cases are counted
+
+    public ConcurrentLeadMerger() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripeCount How many locks to spread keys over, rounded up to
+     *                    a power of two
+     */
+    public ConcurrentLeadMerger(int stripeCount) {
+        if (stripeCount < 1){
+            throw new IllegalArgumentException("There must be at least one stripe, got " + stripeCount);
+        }
+        stripes = new ReentrantLock[Integer.highestOneBit(stripeCount * 2 - 1)];
+        for (int i = 0; i < stripes.length; i++){
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param logFieldDiffs Whether replacing a lead should log each field
+     *                      that changed, on top of the old and new records
+     */
+    public void setLogFieldDiffs(boolean logFieldDiffs) {
+        this.logFieldDiffs = logFieldDiffs;
+    }
+
+    /**
+     * @param metrics Where to count each collision case, or null to not
+     *                count them
+     */
+    public void setMetrics(DedupeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     *
+     * Merges a single lead into the output.  Safe to call from any number of
+     * threads at once.  The lead is stamped with the ordinal of its arrival,
+     * and mustn't be changed afterwards.
+     *
+     * @param lead The lead to merge
+     * @return LeadMerger.ACCEPTED, REPLACED or DROPPED
+     */
+    public int merge(Lead lead) {
+        Object id = key(lead.get_id());
+        Object email = key(lead.getEmail());
+        int[] held = new int[4];
+        while (true){
+            Survivor idMatch = idIndex.get(id);
+            Survivor emailMatch = emailIndex.get(email);
+            int heldCount = stripesFor(id, email, idMatch, emailMatch, held);
+            for (int i = 0; i < heldCount; i++){
+                stripes[held[i]].lock();
+            }
+            try {
+                // a merge that held one of our stripes may have changed them
+                if (idIndex.get(id) == idMatch && emailIndex.get(email) == emailMatch){
+                    lead.setOrdinal(nextOrdinal.getAndIncrement());
+                    return merge(lead, idMatch, emailMatch);
+                }
+            } finally {
+                for (int i = heldCount - 1; i >= 0; i--){
+                    stripes[held[i]].unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * Copies out the leads kept so far, in output order.
+     *
+     * @return The leads kept so far, in output order
+     */
+    public List<Lead> getOutputLeads() {
+        List<Lead> leads = new ArrayList<>(outputSize.get());
+        forEachOutputLead((lead, slotOrdinal) -> leads.add(lead));
+        return leads;
+    }
+
+    /**
+     *
+     * Hands each lead kept so far to the consumer, in output order, along
+     * with the ordinal of the lead that first claimed its place in the
+     * output.  Every stripe is held meanwhile, so merges wait, and the
+     * consumer never sees half of a merge.
+     *
+     * @param consumer Receives each surviving lead and its output ordinal
+     */
+    public void forEachOutputLead(ObjLongConsumer<Lead> consumer) {
+        lockAll();
+        try {
+            for (Survivor survivor : survivors.values()){
+                consumer.accept(survivor.lead, survivor.slotOrdinal);
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * @return The number of leads kept so far
+     */
+    public int getOutputSize() {
+        return outputSize.get();
+    }
+
+    /**
+     *
+     * Puts back a lead that survived an earlier run.  Leads must be restored
+     * before any new leads are merged, and not while anything else uses the
+     * merger.
+     *
+     * @param lead The surviving lead, stamped with its own ordinal
+     * @param slotOrdinal The ordinal of the lead that first claimed its place
+     *                    in the output
+     */
+    public void restore(Lead lead, long slotOrdinal) {
+        if (idIndex.containsKey(key(lead.get_id())) || emailIndex.containsKey(key(lead.getEmail()))){
+            throw new IllegalStateException("A lead with the same id or email has already been restored: "
+                    + lead.toString());
+        }
+        add(lead, slotOrdinal);
+    }
+
+    /**
+     *
+     * Restores the leads kept by an earlier run, saved by this or any other
+     * merger.  This has to happen before any leads are merged.
+     *
+     * @param snapshotFile A snapshot written by saveSnapshot() or a
+     *                     DedupeServiceImpl
+     * @throws IOException if the snapshot can't be read
+     */
+    public void loadSnapshot(File snapshotFile) throws IOException {
+        if (nextOrdinal.get() != 0 || !survivors.isEmpty()){
+            throw new IllegalStateException("Snapshots can only be loaded before any leads are merged");
+        }
+        nextOrdinal.set(LeadSnapshot.read(snapshotFile, this));
+    }
+
+    /**
+     *
+     * Saves the leads kept so far, so a later run can carry on from here.
+     * Merges wait while the leads are written.
+     *
+     * @param snapshotFile The file to write the snapshot to
+     * @throws IOException if the snapshot can't be written
+     */
+    public void saveSnapshot(File snapshotFile) throws IOException {
+        // nothing can be merged between reading the ordinal and the leads
+        lockAll();
+        try {
+            LeadSnapshot.write(snapshotFile, this, nextOrdinal.get());
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     *
+     * Applies the LeadMerger's rules to a lead and the survivors it collides
+     * with, all of whose stripes are held.
+     */
+    private int merge(Lead lead, Survivor idMatch, Survivor emailMatch) {
+        LeadMerger.logger.debug("Processing new record...");
+        if (idMatch == null && emailMatch == null){
+            //CASE: Neither Emails nor ids match an existing record
+            add(lead, lead.getOrdinal());
+            count(DedupeMetrics.ADDED);
+            return LeadMerger.ACCEPTED;
+        }
+
+        boolean kept;
+        if (idMatch == null){
+            // CASE: Email exists, IDs don't
+            kept = replace(emailMatch, lead);
+            count(kept ? DedupeMetrics.EMAIL_MATCH_REPLACED : DedupeMetrics.EMAIL_MATCH_DISCARDED);
+        } else if (emailMatch == null || emailMatch == idMatch){
+            // CASE: we've only collided with the record with the same id
+            boolean emailsMatch = emailMatch == idMatch;
+            kept = replace(idMatch, lead);
+            if (emailsMatch){
+                count(kept ? DedupeMetrics.SAME_LEAD_REPLACED : DedupeMetrics.SAME_LEAD_DISCARDED);
+            } else {
+                count(kept ? DedupeMetrics.ID_MATCH_REPLACED : DedupeMetrics.ID_MATCH_DISCARDED);
+            }
+        } else {
+            // CASE: we've collided with two records
+            kept = mergeThreeRecords(lead, idMatch, emailMatch);
+        }
+        return kept ? LeadMerger.REPLACED : LeadMerger.DROPPED;
+    }
+
+    /**
+     * Replaces an existing survivor with the lead if the lead is at least as
+     * new, in the survivor's place in the output.
+     */
+    private boolean replace(Survivor existing, Lead lead) {
+        if (lead.getEntryNanos() < existing.lead.getEntryNanos()){
+            return false;
+        }
+        if (LeadMerger.logger.isInfoEnabled()){
+            LeadMerger.logChanges(lead, existing.lead, logFieldDiffs);
+        }
+        unindex(existing);
+        add(lead, existing.slotOrdinal);
+        return true;
+    }
+
+    private boolean mergeThreeRecords(Lead lead, Survivor idMatch, Survivor emailMatch) {
+        if (LeadMerger.logger.isInfoEnabled()){
+            LeadMerger.logger.info("3-way collision!\n Current record:\n  {}\n Existing record with same email:\n  {}"
+                    + "\n Exisiting record with same id:\n  {}", lead, emailMatch.lead, idMatch.lead);
+        }
+        long idMatchDate = idMatch.lead.getEntryNanos();
+        long emailMatchDate = emailMatch.lead.getEntryNanos();
+        int threeWayCase = LeadMerger.threeWayCase(lead.getEntryNanos(), idMatchDate, emailMatchDate,
+                idMatch.lead.getOrdinal(), emailMatch.lead.getOrdinal());
+        count(threeWayCase);
+
+        switch (threeWayCase){
+            case DedupeMetrics.THREE_WAY_NEWEST:
+                remove(idMatch);
+                remove(emailMatch);
+                add(lead, lead.getOrdinal());
+                return true;
+            case DedupeMetrics.THREE_WAY_TIED_KEPT_NEW:
+                remove(emailMatch);
+                remove(idMatch);
+                add(lead, lead.getOrdinal());
+                return true;
+            case DedupeMetrics.THREE_WAY_OLDEST_UNCHANGED:
+                return false;
+            case DedupeMetrics.THREE_WAY_TIED_NEWER_LAST:
+                remove(emailMatch.lead.getOrdinal() < idMatch.lead.getOrdinal() ? emailMatch : idMatch);
+                return false;
+            default:
+                remove(emailMatchDate < idMatchDate ? emailMatch : idMatch);
+                return false;
+        }
+    }
+
+    private void add(Lead lead, long slotOrdinal) {
+        Survivor survivor = new Survivor(lead, slotOrdinal);
+        idIndex.put(key(lead.get_id()), survivor);
+        emailIndex.put(key(lead.getEmail()), survivor);
+        // a lead replacing its predecessor takes over the same slot
+        if (survivors.put(slotOrdinal, survivor) == null){
+            outputSize.incrementAndGet();
+        }
+        if (LeadMerger.logger.isDebugEnabled()){
+            LeadMerger.logger.debug("Adding Record: \n  {}", lead);
+        }
+    }
+
+    private void remove(Survivor survivor) {
+        unindex(survivor);
+        if (survivors.remove(survivor.slotOrdinal, survivor)){
+            outputSize.decrementAndGet();
+        }
+        if (LeadMerger.logger.isDebugEnabled()){
+            LeadMerger.logger.debug("Removing Record: \n  {}", survivor.lead);
+        }
+    }
+
+    private void unindex(Survivor survivor) {
+        idIndex.remove(key(survivor.lead.get_id()), survivor);
+        emailIndex.remove(key(survivor.lead.getEmail()), survivor);
+    }
+
+    /**
+     * Takes every stripe, in ascending order like any merge, which waits
+     * out the merges in progress and holds off any more.
+     */
+    private void lockAll() {
+        for (ReentrantLock stripe : stripes){
+            stripe.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--){
+            stripes[i].unlock();
+        }
+    }
+
+    private void count(int mergeCase) {
+        if (metrics != null){
+            metrics.count(mergeCase);
+        }
+    }
+
+    /**
+     * Fills held with the distinct stripes guarding the lead's keys and the
+     * keys of the survivors it collides with, in ascending order.
+     *
+     * @return The number of stripes
+     */
+    private int stripesFor(Object id, Object email, Survivor idMatch, Survivor emailMatch, int[] held) {
+        int count = 0;
+        held[count++] = stripe(id);
+        held[count++] = stripe(email);
+        if (idMatch != null){
+            held[count++] = stripe(key(idMatch.lead.getEmail()));
+        }
+        if (emailMatch != null){
+            held[count++] = stripe(key(emailMatch.lead.get_id()));
+        }
+        Arrays.sort(held, 0, count);
+        int distinct = 1;
+        for (int i = 1; i < count; i++){
+            if (held[i] != held[distinct - 1]){
+                held[distinct++] = held[i];
+            }
+        }
+        return distinct;
+    }
+
+    private int stripe(Object key) {
+        return (int) KeyBytes.mix(key.hashCode()) & (stripes.length - 1);
+    }
+
+    private static Object key(String key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    /**
+     * A lead we've kept, and the ordinal of the lead that first claimed its
+     * place in the output.  A replacement is a new Survivor in the same
+     * place, so a survivor that's still indexed is exactly as it was looked
+     * up.
+     */
+    private static final class Survivor {
+        final Lead lead;
+        final long slotOrdinal;
+
+        Survivor(Lead lead, long slotOrdinal) {
+            this.lead = lead;
+            this.slotOrdinal = slotOrdinal;
+        }
+    }
+}
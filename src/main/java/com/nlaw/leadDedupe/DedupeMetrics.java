@@ -0,0 +1,292 @@
+package com.nlaw.leadDedupe;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *  DedupeMetrics
+ *
+ *  Counts what happens during a run: how many records were read and kept,
+ *  how often each of the LeadMerger's collision cases (and each of their
+ *  sub-cases) came up, how long each phase took, the peak number of keys
+ *  in the index and roughly how many bytes each kept lead costs.  Main
+ *  registers the metrics with JMX for the length of the run and prints them
+ *  as JSON at the end.
+ *
+ *  Phases are timed by wall clock and by the CPU time of the whole process,
+ *  which covers the worker threads of a phase and any garbage collection it
+ *  causes.  The streaming service parses and merges each lead in turn, so
+ *  only the merge is timed lead by lead and everything else in the loop
+ *  counts as parsing; reading the CPU clock for every lead would cost more
+ *  than the merge itself, so the loop's CPU time is shared out between the
+ *  two in proportion to their wall time.  The stages of the
+ *  PipelinedDedupeServiceImpl run at the same time, so each of its phases
+ *  is timed on its own threads instead, and the phases add up to more than
+ *  the run took.
+ *
+ *  Counters may be updated from several threads at once, e.g. by the
+ *  mergers of the ClusterDedupeServiceImpl.
+ *
+ *  @author nlawrence
+ *
+ */
+public class DedupeMetrics implements DedupeMetricsMXBean {
+    public static final String OBJECT_NAME = "com.nlaw.leadDedupe:type=DedupeMetrics";
+
+    // phases
+    public static final String SNAPSHOT = "snapshot";
+    public static final String PARSE = "parse";
+    public static final String MERGE = "merge";
+    public static final String WRITE = "write";
+    public static final String AUDIT = "audit"; // finishing the audit log once merging is done
+
+    // collision cases, as handled by the LeadMerger
+    public static final int ADDED = 0;
+    public static final int SAME_LEAD_REPLACED = 1;
+    public static final int SAME_LEAD_DISCARDED = 2;
+    public static final int ID_MATCH_REPLACED = 3;
+    public static final int ID_MATCH_DISCARDED = 4;
+    public static final int EMAIL_MATCH_REPLACED = 5;
+    public static final int EMAIL_MATCH_DISCARDED = 6;
+    public static final int THREE_WAY_NEWEST = 7;
+    public static final int THREE_WAY_BETWEEN = 8;
+    public static final int THREE_WAY_OLDEST_REMOVED_ONE = 9;
+    public static final int THREE_WAY_OLDEST_UNCHANGED = 10;
+    public static final int THREE_WAY_TIED_KEPT_NEW = 11;
+    public static final int THREE_WAY_TIED_NEWER_FIRST = 12;
+    public static final int THREE_WAY_TIED_NEWER_LAST = 13;
+    private static final String[] CASE_NAMES = {"added", "sameLeadReplaced", "sameLeadDiscarded",
+            "idMatchReplaced", "idMatchDiscarded", "emailMatchReplaced", "emailMatchDiscarded",
+            "threeWayNewest", "threeWayBetween", "threeWayOldestRemovedOne", "threeWayOldestUnchanged",
+            "threeWayTiedKeptNew", "threeWayTiedNewerFirst", "threeWayTiedNewerLast"};
+
+    private final LongAdder[] caseCounts = new LongAdder[CASE_NAMES.length];
+    private final LongAdder recordsRead = new LongAdder();
+    private volatile long recordsKept = 0;
+    private final LongAccumulator peakIndexKeys = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator retainedBytes = new LongAccumulator(Math::max, -1); // -1 if unknown
+
+    // phase name to {wall nanos, cpu nanos}, in the order phases first ran
+    private final Map<String,long[]> phaseNanos = new LinkedHashMap<>();
+    private final Map<String,long[]> phaseStarts = new HashMap<>();
+
+    public DedupeMetrics() {
+        for (int i = 0; i < caseCounts.length; i++){
+            caseCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param mergeCase One of the collision case constants
+     */
+    public void count(int mergeCase) {
+        caseCounts[mergeCase].increment();
+    }
+
+    /**
+     * @param mergeCase One of the collision case constants
+     * @return The number of times the case came up
+     */
+    public long getCount(int mergeCase) {
+        return caseCounts[mergeCase].sum();
+    }
+
+    public void addRecordsRead(long records) {
+        recordsRead.add(records);
+    }
+
+    public void setRecordsKept(long recordsKept) {
+        this.recordsKept = recordsKept;
+    }
+
+    /**
+     * @param keys The number of keys in an index, kept if it's the largest
+     *             seen so far
+     */
+    public void recordIndexKeys(long keys) {
+        peakIndexKeys.accumulate(keys);
+    }
+
+    /**
+     * @param bytes An estimate of the memory held by the kept leads and
+     *              their indexes, kept if it's the largest seen so far
+     */
+    public void recordRetainedBytes(long bytes) {
+        retainedBytes.accumulate(bytes);
+    }
+
+    /**
+     *
+     * Starts timing a phase.  A phase may be timed more than once, in which
+     * case the times add up.
+     *
+     * @param phase The name of the phase
+     */
+    public synchronized void startPhase(String phase) {
+        phaseStarts.put(phase, new long[] {System.nanoTime(), processCpuNanos()});
+    }
+
+    /**
+     * @param phase The name of a phase passed to startPhase()
+     */
+    public void endPhase(String phase) {
+        long wallEnd = System.nanoTime();
+        long cpuEnd = processCpuNanos();
+        long[] start;
+        synchronized (this){
+            start = phaseStarts.remove(phase);
+        }
+        if (start == null){
+            throw new IllegalStateException("Phase " + phase + " was never started");
+        }
+        addPhaseTime(phase, wallEnd - start[0], cpuEnd - start[1]);
+    }
+
+    /**
+     * @param phase The name of the phase
+     * @param wallNanos Wall clock time to add to the phase
+     * @param cpuNanos CPU time to add to the phase
+     */
+    public synchronized void addPhaseTime(String phase, long wallNanos, long cpuNanos) {
+        long[] nanos = phaseNanos.computeIfAbsent(phase, name -> new long[2]);
+        nanos[0] += wallNanos;
+        nanos[1] += cpuNanos;
+    }
+
+    public long getRecordsRead() {
+        return recordsRead.sum();
+    }
+
+    public long getRecordsKept() {
+        return recordsKept;
+    }
+
+    /**
+     * @return The records read per second of all the phases timed so far
+     */
+    public synchronized double getRecordsPerSecond() {
+        long wallNanos = 0;
+        for (long[] nanos : phaseNanos.values()){
+            wallNanos += nanos[0];
+        }
+        return wallNanos == 0 ? 0 : getRecordsRead() * 1e9 / wallNanos;
+    }
+
+    public Map<String,Long> getPhaseWallMillis() {
+        return phaseMillis(0);
+    }
+
+    public Map<String,Long> getPhaseCpuMillis() {
+        return phaseMillis(1);
+    }
+
+    public Map<String,Long> getCollisionCases() {
+        Map<String,Long> cases = new LinkedHashMap<>();
+        for (int i = 0; i < CASE_NAMES.length; i++){
+            cases.put(CASE_NAMES[i], caseCounts[i].sum());
+        }
+        return cases;
+    }
+
+    public long getPeakIndexKeys() {
+        return peakIndexKeys.get();
+    }
+
+    /**
+     * @return The estimated bytes of memory held for each kept lead, or -1
+     *         if the service doesn't estimate its memory
+     */
+    public long getEstimatedBytesPerLead() {
+        long bytes = retainedBytes.get();
+        if (bytes < 0){
+            return -1;
+        }
+        return recordsKept == 0 ? 0 : bytes / recordsKept;
+    }
+
+    /**
+     *
+     * Registers the metrics with the platform MBean server under
+     * OBJECT_NAME, replacing any metrics registered by an earlier run in the
+     * same JVM.
+     *
+     * @throws JMException if the metrics can't be registered
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)){
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+    }
+
+    /**
+     * @return A pretty printed JSON summary of the metrics
+     */
+    public String toJson() {
+        JsonObject summary = new JsonObject();
+        summary.addProperty("recordsRead", getRecordsRead());
+        summary.addProperty("recordsKept", getRecordsKept());
+        summary.addProperty("recordsPerSecond", Math.round(getRecordsPerSecond()));
+
+        JsonObject phases = new JsonObject();
+        Map<String,Long> cpuMillis = getPhaseCpuMillis();
+        for (Map.Entry<String,Long> wallMillis : getPhaseWallMillis().entrySet()){
+            JsonObject phase = new JsonObject();
+            phase.addProperty("wallMillis", wallMillis.getValue());
+            phase.addProperty("cpuMillis", cpuMillis.get(wallMillis.getKey()));
+            phases.add(wallMillis.getKey(), phase);
+        }
+        summary.add("phases", phases);
+
+        JsonObject cases = new JsonObject();
+        for (Map.Entry<String,Long> collisionCase : getCollisionCases().entrySet()){
+            cases.addProperty(collisionCase.getKey(), collisionCase.getValue());
+        }
+        summary.add("collisionCases", cases);
+
+        summary.addProperty("peakIndexKeys", getPeakIndexKeys());
+        summary.addProperty("estimatedBytesPerLead", getEstimatedBytesPerLead());
+        return new GsonBuilder().setPrettyPrinting().create().toJson(summary);
+    }
+
+    private synchronized Map<String,Long> phaseMillis(int field) {
+        Map<String,Long> millis = new LinkedHashMap<>();
+        for (Map.Entry<String,long[]> phase : phaseNanos.entrySet()){
+            millis.put(phase.getKey(), TimeUnit.NANOSECONDS.toMillis(phase.getValue()[field]));
+        }
+        return millis;
+    }
+
+    /**
+     * @return The CPU time used by the whole process, or by the current
+     *         thread where the JVM can't tell us about the process
+     */
+    static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean){
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return threadCpuNanos();
+    }
+
+    /**
+     * @return The CPU time used by the current thread
+     */
+    static long threadCpuNanos() {
+        return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+    }
+}
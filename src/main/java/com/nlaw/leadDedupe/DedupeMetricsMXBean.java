@@ -0,0 +1,33 @@
+package com.nlaw.leadDedupe;
+
+import java.util.Map;
+
+/**
+ *  DedupeMetricsMXBean
+ *
+ *  The JMX view of a run's DedupeMetrics, so a long run can be watched from
+ *  jconsole or any other JMX client while it's going.  Times are in
+ *  milliseconds; the maps are keyed by phase and by collision case, and
+ *  show up as tables.
+ *
+ *  @author nlawrence
+ *
+ */
+public interface DedupeMetricsMXBean {
+
+    long getRecordsRead();
+
+    long getRecordsKept();
+
+    double getRecordsPerSecond();
+
+    Map<String,Long> getPhaseWallMillis();
+
+    Map<String,Long> getPhaseCpuMillis();
+
+    Map<String,Long> getCollisionCases();
+
+    long getPeakIndexKeys();
+
+    long getEstimatedBytesPerLead();
+}
@@ -0,0 +1,147 @@
+package com.nlaw.leadDedupe;
+
+/**
+ *  DedupeOptions JavaBean
+ *
+ *  Holds the settings for a single run of the program, as given on the
+ *  command line.
+ *
+ *  @author nlawrence
+ *
+ */
+public class DedupeOptions {
+
+    private String inputPath;
+    private String outputPath;
+    private int threads = 1;
+    private boolean offHeapIndex = false;
+    private long memoryBudget = 0; // in bytes, 0 to keep everything in memory
+    private String snapshotPath;
+    private boolean logFieldDiffs = true;
+    private String logLevel; // null to leave it to the log4j configuration
+    private String auditLogPath;
+    private String inputFormat; // null to go by the file extension
+    private String outputFormat; // null to go by the file extension
+    private boolean pipeline = false;
+    private boolean compactOutput = false;
+    private int servePort = 0; // 0 to run once over a file instead of serving
+
+    public String getInputPath() {
+        return inputPath;
+    }
+
+    public void setInputPath(String inputPath) {
+        this.inputPath = inputPath;
+    }
+
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    public void setOutputPath(String outputPath) {
+        this.outputPath = outputPath;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public boolean isOffHeapIndex() {
+        return offHeapIndex;
+    }
+
+    public void setOffHeapIndex(boolean offHeapIndex) {
+        this.offHeapIndex = offHeapIndex;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public String getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    public void setSnapshotPath(String snapshotPath) {
+        this.snapshotPath = snapshotPath;
+    }
+
+    public boolean isLogFieldDiffs() {
+        return logFieldDiffs;
+    }
+
+    public void setLogFieldDiffs(boolean logFieldDiffs) {
+        this.logFieldDiffs = logFieldDiffs;
+    }
+
+    public String getLogLevel() {
+        return logLevel;
+    }
+
+    public void setLogLevel(String logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    public String getAuditLogPath() {
+        return auditLogPath;
+    }
+
+    public void setAuditLogPath(String auditLogPath) {
+        this.auditLogPath = auditLogPath;
+    }
+
+    public String getInputFormat() {
+        return inputFormat;
+    }
+
+    public void setInputFormat(String inputFormat) {
+        this.inputFormat = inputFormat;
+    }
+
+    public String getOutputFormat() {
+        return outputFormat;
+    }
+
+    public void setOutputFormat(String outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    public boolean isPipeline() {
+        return pipeline;
+    }
+
+    public void setPipeline(boolean pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public boolean isCompactOutput() {
+        return compactOutput;
+    }
+
+    public void setCompactOutput(boolean compactOutput) {
+        this.compactOutput = compactOutput;
+    }
+
+    public int getServePort() {
+        return servePort;
+    }
+
+    public void setServePort(int servePort) {
+        this.servePort = servePort;
+    }
+
+    /**
+     * @return A new, empty KeyIndex of the kind these options ask for
+     */
+    public KeyIndex createKeyIndex() {
+        return offHeapIndex ? new OffHeapKeyIndex() : new DictionaryKeyIndex();
+    }
+}
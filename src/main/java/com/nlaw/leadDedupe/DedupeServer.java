@@ -0,0 +1,300 @@
+package com.nlaw.leadDedupe;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  DedupeServer
+ *
+ *  Keeps a warm index of the leads kept so far in memory and deduplicates leads
+ *  as they're posted to it over HTTP, so a client that receives leads all
+ *  day can dedupe them continuously instead of paying for JVM start up, JIT
+ *  warm up and rebuilding the index on every batch.  It's built on the
+ *  JDK's own com.sun.net.httpserver, so it needs nothing beyond the JRE.
+ *
+ *  POST /leads merges a batch of leads, in the same {"leads":[...]} form as
+ *  an input file, or newline delimited with a Content-Type of
+ *  application/x-ndjson or ?format=ndjson.  The leads are merged on top of
+ *  everything posted before, in the order they arrived, and the response
+ *  gives the decision for each lead in the batch, in order:
+ *
+ *    {"accepted":1,"replaced":1,"dropped":1,"decisions":["accept","replace","drop"]}
+ *
+ *  A lead is accepted if it was kept without colliding with anything,
+ *  replaced if it was kept in place of one or two leads, and dropped if it
+ *  wasn't kept.  Note that a dropped lead can still remove a kept lead in a
+ *  three-way collision; see LeadMerger.
+ *
+ *  GET /leads returns the deduplicated set as it stands, as Json or, with
+ *  ?format=ndjson, a lead per line.  GET /metrics returns the same JSON
+ *  summary of DedupeMetrics that a run prints at the end.
+ *
+ *  Requests are handled on a pool of threads, one per processor, which
+ *  read, parse and merge batches in parallel.  Leads are merged into a
+ *  ConcurrentLeadMerger, so batches posted at the same time are merged at
+ *  the same time, by as many threads, and the leads of two such batches
+ *  may be interleaved.  The outcome is always that of merging every lead
+ *  one at a time in some order, in which each batch's leads keep their own
+ *  order and come after every batch whose response had already been sent.
+ *  The set returned by a GET is taken between two leads of that order.
+ *
+ *  @author nlawrence
+ *
+ */
+public class DedupeServer {
+    public static final String LEADS_PATH = "/leads";
+    public static final String METRICS_PATH = "/metrics";
+    // batches larger than this are turned away rather than buffered
+    public static final int MAX_BATCH_BYTES = 64 * 1024 * 1024;
+
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+    private static final String[] DECISIONS = {"accept", "replace", "drop"};
+    private static final int WRITE_BUFFER_CHARS = 1 << 16;
+
+    // how long stop() waits for the batches being merged
+    private static final int STOP_TIMEOUT_SECONDS = 30;
+
+    private final ConcurrentLeadMerger merger;
+    private final DedupeMetrics metrics;
+    private final boolean compactOutput;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param merger The merger to merge leads with, holding any leads
+     *               kept before the server started
+     * @param metrics Where to record the records read and kept and the time
+     *                spent parsing and merging
+     * @param address Where to listen, with a port of 0 for any free port
+     * @param compactOutput Whether to return Json without indentation
+     * @throws IOException if the server can't listen on the address
+     */
+    public DedupeServer(ConcurrentLeadMerger merger, DedupeMetrics metrics, InetSocketAddress address,
+                        boolean compactOutput) throws IOException {
+        this.merger = merger;
+        this.metrics = metrics;
+        this.compactOutput = compactOutput;
+        server = HttpServer.create(address, 0);
+        server.createContext(LEADS_PATH, this::handleLeads);
+        server.createContext(METRICS_PATH, this::handleMetrics);
+        executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "server-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     *
+     * Stops the server, dropping the connections of any requests still in
+     * progress, and waits a while for the batches already being merged to
+     * finish, so that nothing is left half merged.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The port the server is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleLeads(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestURI().getPath().equals(LEADS_PATH)){
+                sendText(exchange, 404, "Not found");
+            } else if (exchange.getRequestMethod().equals("POST")){
+                postLeads(exchange);
+            } else if (exchange.getRequestMethod().equals("GET")){
+                getLeads(exchange);
+            } else {
+                exchange.getResponseHeaders().set("Allow", "GET, POST");
+                sendText(exchange, 405, exchange.getRequestMethod() + " isn't supported");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestURI().getPath().equals(METRICS_PATH)){
+                sendText(exchange, 404, "Not found");
+            } else if (exchange.getRequestMethod().equals("GET")){
+                exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+                send(exchange, 200, metrics.toJson());
+            } else {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendText(exchange, 405, exchange.getRequestMethod() + " isn't supported");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     *
+     * Parses the posted batch, merges it and reports what became of each
+     * lead.  Nothing is merged until the whole batch has been parsed.
+     */
+    private void postLeads(HttpExchange exchange) throws IOException {
+        long contentLength;
+        try {
+            contentLength = contentLength(exchange);
+        } catch (NumberFormatException e){
+            sendText(exchange, 400, "Bad Content-Length: " + e.getMessage());
+            return;
+        }
+        byte[] body = contentLength > MAX_BATCH_BYTES ? null : readBody(exchange);
+        if (body == null){
+            sendText(exchange, 413, "Batches can't be larger than " + MAX_BATCH_BYTES + " bytes");
+            return;
+        }
+
+        long parseStart = System.nanoTime();
+        long parseCpuStart = DedupeMetrics.threadCpuNanos();
+        List<Lead> leads = new ArrayList<>();
+        try (LeadReader leadReader = new LeadReader(ByteBuffer.wrap(body), isLineDelimited(exchange))){
+            while (leadReader.hasNext()){
+                leads.add(leadReader.next());
+            }
+        } catch (IOException | RuntimeException e){
+            // nothing in a bad batch is merged
+            sendText(exchange, 400, "Could not parse leads: " + e.getMessage());
+            return;
+        }
+        metrics.addPhaseTime(DedupeMetrics.PARSE, System.nanoTime() - parseStart,
+                DedupeMetrics.threadCpuNanos() - parseCpuStart);
+
+        int[] decisions = new int[leads.size()];
+        long mergeStart = System.nanoTime();
+        long mergeCpuStart = DedupeMetrics.threadCpuNanos();
+        for (int i = 0; i < decisions.length; i++){
+            decisions[i] = merger.merge(leads.get(i));
+        }
+        metrics.addPhaseTime(DedupeMetrics.MERGE, System.nanoTime() - mergeStart,
+                DedupeMetrics.threadCpuNanos() - mergeCpuStart);
+        metrics.addRecordsRead(decisions.length);
+        metrics.setRecordsKept(merger.getOutputSize());
+
+        int[] counts = new int[DECISIONS.length];
+        StringBuilder decisionList = new StringBuilder();
+        for (int decision : decisions){
+            counts[decision]++;
+            decisionList.append(decisionList.length() == 0 ? "\"" : ",\"").append(DECISIONS[decision]).append('"');
+        }
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        send(exchange, 200, "{\"accepted\":" + counts[LeadMerger.ACCEPTED]
+                + ",\"replaced\":" + counts[LeadMerger.REPLACED]
+                + ",\"dropped\":" + counts[LeadMerger.DROPPED]
+                + ",\"decisions\":[" + decisionList + "]}");
+    }
+
+    /**
+     *
+     * Streams out the leads kept so far.  They're copied out first, so posts
+     * only wait for the copy and not for the client to read them.
+     */
+    private void getLeads(HttpExchange exchange) throws IOException {
+        List<Lead> leads = merger.getOutputLeads();
+        boolean lineDelimited = isLineDelimited(exchange);
+        exchange.getResponseHeaders().set("Content-Type", lineDelimited ? NDJSON_CONTENT_TYPE : JSON_CONTENT_TYPE);
+        // a length of zero sends the body in chunks, as it's written
+        exchange.sendResponseHeaders(200, 0);
+        try (LeadWriter leadWriter = new JsonLeadWriter(new BufferedWriter(new OutputStreamWriter(
+                exchange.getResponseBody(), StandardCharsets.UTF_8), WRITE_BUFFER_CHARS),
+                lineDelimited, compactOutput)){
+            for (Lead lead : leads){
+                leadWriter.write(lead);
+            }
+        }
+    }
+
+    /**
+     * @return The length the client gave for the request body, or -1 if it
+     *         didn't give one
+     * @throws NumberFormatException if the length isn't a whole number of
+     *         bytes
+     */
+    private static long contentLength(HttpExchange exchange) {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength == null){
+            return -1;
+        }
+        long length = Long.parseLong(contentLength.trim());
+        if (length < 0){
+            throw new NumberFormatException("Negative length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * @return The request body, or null if it's larger than MAX_BATCH_BYTES
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()){
+            byte[] buffer = new byte[1 << 16];
+            for (int count = in.read(buffer); count >= 0; count = in.read(buffer)){
+                if (body.size() + count > MAX_BATCH_BYTES){
+                    return null;
+                }
+                body.write(buffer, 0, count);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static boolean isLineDelimited(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null && Arrays.asList(query.split("&")).contains("format=" + JsonFileUtilsImpl.NDJSON_FORMAT)){
+            return true;
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        return contentType != null && contentType.startsWith(NDJSON_CONTENT_TYPE);
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        send(exchange, status, message + "\n");
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()){
+            out.write(bytes);
+        }
+    }
+}
@@ -7,12 +7,11 @@ import java.util.List;
  *
  *  Provides methods for the deduplication of a list of items.
  *
- *  Only exposes one public method, since we only need to let the outside world
- *  give us a list of things to deduplicate. This means most of its logic will
- *  be contained in private helper methods.  While this isn't ideal from a
- *  testing perspective, this will simplify the implementation a bit by allowing
- *  us to avoid passing a bunch of data structures around and avoids exposing
- *  methods that wouldn't really have context elsewhere.
+ *  Only exposes two methods: deduplicateItems() lets the outside world give
+ *  us a list of things to deduplicate, and getMetrics() lets it see how the
+ *  runs went.  The rules themselves live in the LeadMerger, so that every
+ *  implementation resolves collisions the same way and only differs in how
+ *  it feeds leads to the merger.
  *
  *  @author nlawrence
  *
@@ -21,4 +20,10 @@ public interface DedupeService {
 
     List<Lead> deduplicateItems(String inputFilename);
 
+    /**
+     * @return The metrics of this service's runs, which are updated while
+     *         deduplicateItems() runs
+     */
+    DedupeMetrics getMetrics();
+
 }
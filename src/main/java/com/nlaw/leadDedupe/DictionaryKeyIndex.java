@@ -0,0 +1,128 @@
+package com.nlaw.leadDedupe;
+
+import java.util.Arrays;
+
+/**
+ *  DictionaryKeyIndex
+ *
+ *  The default KeyIndex.  Keys are interned into symbols by a KeyDictionary,
+ *  and since symbols are handed out densely from zero, the symbol to slot
+ *  map is nothing more than an int array indexed by symbol.  There are no
+ *  boxed Integers or map nodes, and a lookup is a single probe of the
+ *  dictionary followed by an array read.
+ *
+ *  Removing a key only clears its slot; the key keeps its symbol in case it
+ *  comes back, which for ids and emails it often does.
+ *
+ *  @author nlawrence
+ *
+ */
+public class DictionaryKeyIndex implements KeyIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final KeyDictionary dictionary = new KeyDictionary();
+    private int[] slotsBySymbol = newSlots(INITIAL_CAPACITY); // -1 for no slot
+    private int nullKeySlot = -1; // leads may be missing an id or email
+    private int size = 0;
+
+    public int get(String key) {
+        if (key == null){
+            return nullKeySlot;
+        }
+        int symbol = dictionary.find(key);
+        return symbol < 0 ? -1 : slotsBySymbol[symbol];
+    }
+
+    public void put(String key, int slot) {
+        if (slot < 0){
+            throw new IllegalArgumentException("Slots can't be negative: " + slot);
+        }
+        if (key == null){
+            putNullKey(slot);
+            return;
+        }
+        putSymbol(dictionary.intern(key), slot);
+    }
+
+    public void remove(String key) {
+        if (key == null){
+            removeNullKey();
+            return;
+        }
+        removeSymbol(dictionary.find(key));
+    }
+
+    public int get(byte[] bytes, int offset, int length) {
+        if (length < 0){
+            return nullKeySlot;
+        }
+        int symbol = dictionary.find(bytes, offset, length);
+        return symbol < 0 ? -1 : slotsBySymbol[symbol];
+    }
+
+    public void put(byte[] bytes, int offset, int length, int slot) {
+        if (slot < 0){
+            throw new IllegalArgumentException("Slots can't be negative: " + slot);
+        }
+        if (length < 0){
+            putNullKey(slot);
+            return;
+        }
+        putSymbol(dictionary.intern(bytes, offset, length), slot);
+    }
+
+    public void remove(byte[] bytes, int offset, int length) {
+        if (length < 0){
+            removeNullKey();
+            return;
+        }
+        removeSymbol(dictionary.find(bytes, offset, length));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long estimatedBytes() {
+        return dictionary.estimatedBytes() + 4L * slotsBySymbol.length;
+    }
+
+    private void putSymbol(int symbol, int slot) {
+        if (symbol >= slotsBySymbol.length){
+            int oldLength = slotsBySymbol.length;
+            slotsBySymbol = Arrays.copyOf(slotsBySymbol, oldLength * 2);
+            Arrays.fill(slotsBySymbol, oldLength, slotsBySymbol.length, -1);
+        }
+        if (slotsBySymbol[symbol] < 0){
+            size++;
+        }
+        slotsBySymbol[symbol] = slot;
+    }
+
+    private void removeSymbol(int symbol) {
+        if (symbol >= 0 && slotsBySymbol[symbol] >= 0){
+            slotsBySymbol[symbol] = -1;
+            size--;
+        }
+    }
+
+    private void putNullKey(int slot) {
+        if (nullKeySlot < 0){
+            size++;
+        }
+        nullKeySlot = slot;
+    }
+
+    private void removeNullKey() {
+        if (nullKeySlot >= 0){
+            size--;
+        }
+        nullKeySlot = -1;
+    }
+
+    private static int[] newSlots(int capacity) {
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        return slots;
+    }
+}
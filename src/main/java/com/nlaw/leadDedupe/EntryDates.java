@@ -0,0 +1,231 @@
+package com.nlaw.leadDedupe;
+
+import java.time.DateTimeException;
+import java.time.OffsetDateTime;
+
+/**
+ *  EntryDates
+ *
+ *  Decodes lead entry dates into a primitive number of nanoseconds since the
+ *  epoch, so dates can be parsed once when a lead is read and then compared
+ *  as plain longs.
+ *
+ *  Entry dates are ISO-8601 offset date-times, e.g. 2014-05-07T17:30:20+00:00,
+ *  the same format OffsetDateTime.parse accepts.  The common shape (a four
+ *  digit year, optional seconds and fraction, and a Z or +HH:MM[:ss] offset)
+ *  is decoded directly from the characters without allocating anything.
+ *  Anything else, including invalid dates, is handed to OffsetDateTime.parse
+ *  so that we accept and reject exactly what we did before.
+ *
+ *  Epoch nanos only cover the years 1677 through 2262; dates outside that
+ *  range are rejected.  A lead with no entry date at all decodes to MISSING,
+ *  which ranks it older than any lead that has one.
+ *
+ *  @author nlawrence
+ *
+ */
+public final class EntryDates {
+    // the entry nanos of a lead with no entry date
+    public static final long MISSING = Long.MIN_VALUE;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final int SECONDS_PER_DAY = 86400;
+    private static final int DAYS_0000_TO_1970 = 719528;
+
+    private EntryDates() {
+    }
+
+    /**
+     *
+     * Converts an ISO-8601 offset date-time into nanoseconds since the epoch.
+     *
+     * @param entryDate The date string, e.g. 2014-05-07T17:30:20+00:00, or
+     *                  null if the lead has no entry date
+     * @return The instant the string represents, in epoch nanoseconds, or
+     *         MISSING if it's null
+     * @throws java.time.format.DateTimeParseException if the string can't be
+     *         parsed
+     * @throws DateTimeException if the date can't be represented in epoch nanos
+     */
+    public static long toEpochNanos(CharSequence entryDate) {
+        if (entryDate == null){
+            return MISSING;
+        }
+        long nanos = decode(entryDate);
+        if (nanos != Long.MIN_VALUE){
+            return nanos;
+        }
+        OffsetDateTime dateTime = OffsetDateTime.parse(entryDate);
+        try {
+            long seconds = dateTime.toEpochSecond();
+            nanos = Math.addExact(Math.multiplyExact(seconds, NANOS_PER_SECOND),
+                    dateTime.getNano());
+        } catch (ArithmeticException e) {
+            throw new DateTimeException("Entry date out of range: " + entryDate, e);
+        }
+        // the very first instant is taken by MISSING
+        if (nanos == MISSING){
+            throw new DateTimeException("Entry date out of range: " + entryDate);
+        }
+        return nanos;
+    }
+
+    /**
+     *
+     * Like toEpochNanos(), but treats a date that can't be decoded as
+     * missing instead of throwing.  Leads are only built from invalid dates
+     * in code, since every reader rejects them.
+     *
+     * @param entryDate The date string, or null
+     * @return The instant the string represents, in epoch nanoseconds, or
+     *         MISSING if it's null or invalid
+     */
+    public static long toEpochNanosOrMissing(CharSequence entryDate) {
+        try {
+            return toEpochNanos(entryDate);
+        } catch (DateTimeException e){
+            return MISSING;
+        }
+    }
+
+    /**
+     * Decodes the common shape, returning Long.MIN_VALUE for anything the
+     * slow path should handle instead.
+     */
+    private static long decode(CharSequence s) {
+        int length = s.length();
+        // shortest form is yyyy-MM-ddTHH:mmZ
+        if (length < 17){
+            return Long.MIN_VALUE;
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || s.charAt(4) != '-' || s.charAt(7) != '-'
+                || (s.charAt(10) != 'T' && s.charAt(10) != 't') || s.charAt(13) != ':'
+                || day > daysInMonth(year, month)){
+            return Long.MIN_VALUE;
+        }
+
+        int pos = 16;
+        int second = 0;
+        int nano = 0;
+        if (s.charAt(pos) == ':'){
+            second = digits(s, pos + 1, 2);
+            if (second < 0 || second > 59){
+                return Long.MIN_VALUE;
+            }
+            pos += 3;
+            if (pos < length && s.charAt(pos) == '.'){
+                pos++;
+                int fractionDigits = 0;
+                while (pos < length && fractionDigits < 9 && isDigit(s.charAt(pos))){
+                    nano = nano * 10 + (s.charAt(pos) - '0');
+                    fractionDigits++;
+                    pos++;
+                }
+                if (fractionDigits == 0){
+                    return Long.MIN_VALUE;
+                }
+                for (int i = fractionDigits; i < 9; i++){
+                    nano *= 10;
+                }
+            }
+        }
+
+        if (pos >= length){
+            return Long.MIN_VALUE;
+        }
+        int offsetSeconds;
+        char sign = s.charAt(pos);
+        if ((sign == 'Z' || sign == 'z') && pos + 1 == length){
+            offsetSeconds = 0;
+        } else if ((sign == '+' || sign == '-') && (length - pos == 6 || length - pos == 9)){
+            int offsetHours = digits(s, pos + 1, 2);
+            int offsetMinutes = digits(s, pos + 4, 2);
+            int offsetExtra = length - pos == 9 ? digits(s, pos + 7, 2) : 0;
+            if (s.charAt(pos + 3) != ':' || offsetHours < 0 || offsetHours > 18
+                    || offsetMinutes < 0 || offsetMinutes > 59
+                    || (length - pos == 9 && s.charAt(pos + 6) != ':')
+                    || offsetExtra < 0 || offsetExtra > 59){
+                return Long.MIN_VALUE;
+            }
+            offsetSeconds = offsetHours * 3600 + offsetMinutes * 60 + offsetExtra;
+            if (offsetSeconds > 18 * 3600){
+                return Long.MIN_VALUE;
+            }
+            if (sign == '-'){
+                offsetSeconds = -offsetSeconds;
+            }
+        } else {
+            return Long.MIN_VALUE;
+        }
+
+        long epochSecond = epochDay(year, month, day) * SECONDS_PER_DAY
+                + hour * 3600 + minute * 60 + second - offsetSeconds;
+        // stay clear of overflow, the slow path reports the range error
+        if (epochSecond < -9223372035L || epochSecond > 9223372035L){
+            return Long.MIN_VALUE;
+        }
+        return epochSecond * NANOS_PER_SECOND + nano;
+    }
+
+    /**
+     * Reads a run of digits as a number, or returns -1 if any character
+     * isn't a digit.
+     */
+    private static int digits(CharSequence s, int start, int count) {
+        if (start + count > s.length()){
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < start + count; i++){
+            char c = s.charAt(i);
+            if (!isDigit(c)){
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month){
+            case 2:
+                boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Same arithmetic as LocalDate.toEpochDay, for non-negative years.
+     */
+    private static long epochDay(int year, int month, int day) {
+        long total = 365L * year;
+        total += (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2){
+            total--;
+            boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+            if (!leap){
+                total--;
+            }
+        }
+        return total - DAYS_0000_TO_1970;
+    }
+}
@@ -0,0 +1,610 @@
+package com.nlaw.leadDedupe;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  ExternalDedupeServiceImpl
+ *
+ *  An implementation of the DedupeService for inputs that are too large to
+ *  hold in memory, even a single copy of.  Only small fixed-width tuples are
+ *  ever sorted, and those are sorted with an ExternalSorter that spills to
+ *  temporary files whenever it goes over the memory budget.
+ *
+ *  Like the ClusterDedupeServiceImpl, this works on collision clusters, the
+ *  groups of leads connected by shared ids and emails:
+ *
+ *  1. Each lead is written to a payload file in a compact binary form, and a
+ *     tuple of its id fingerprint, email fingerprint, ordinal and payload
+ *     location is handed to the sorter.  Each tuple starts out labelled with
+ *     its own ordinal.
+ *  2. The labels are treated as parent pointers, and each round hooks
+ *     together the trees of leads that share an id or an email, then
+ *     shortcuts every tuple to the root of its tree by pointer jumping.
+ *     Once a round hooks nothing, every lead is labelled with the smallest
+ *     ordinal in its cluster.  See labelClusters().
+ *  3. The tuples are sorted by label and ordinal, which brings each cluster
+ *     together in input order.  Each cluster's leads are read back from the
+ *     payload file and resolved by a LeadMerger, just as the other
+ *     implementations do.  Leads that don't collide with anything are never
+ *     read back at all.
+ *  4. The survivors are sorted by the ordinal that decides their output
+ *     position, which gives the same order as the streaming
+ *     DedupeServiceImpl.
+ *
+ *  Keys are compared by their 64-bit fingerprints.  Two different keys with
+ *  the same fingerprint only put two clusters together, which the
+ *  LeadMerger resolves correctly since it compares the keys themselves.
+ *
+ *  The number of labelling passes grows with the log of the size of the
+ *  largest cluster, even when its leads are linked in one long chain of
+ *  alternating ids and emails.  Each collision cluster has to fit in memory.
+ *
+ *  The returned list reads the survivors back from disk as it is walked, so
+ *  it is best walked in order.  Temporary files go to java.io.tmpdir and are
+ *  deleted when the program exits.
+ *
+ *  @author nlawrence
+ *
+ */
+public class ExternalDedupeServiceImpl implements DedupeService {
+    // tuple fields
+    private static final int ID = 0;
+    private static final int EMAIL = 1;
+    private static final int ORDINAL = 2;
+    private static final int OFFSET = 3;
+    private static final int LENGTH = 4;
+    private static final int LABEL = 5;
+    private static final int TUPLE_FIELDS = 6;
+
+    // hook fields: a root and the smaller label to hook it onto
+    private static final int HOOK_ROOT = 0;
+    private static final int HOOK_LABEL = 1;
+    private static final int HOOK_FIELDS = 2;
+
+    // parent fields: a tuple's ordinal and its label
+    private static final int PARENT_ORDINAL = 0;
+    private static final int PARENT_LABEL = 1;
+    private static final int PARENT_FIELDS = 2;
+
+    // survivor fields, sorted on the ordinal of the slot they ended up in
+    private static final int SLOT_ORDINAL = 0;
+    private static final int SURVIVOR_ORDINAL = 1;
+    private static final int SURVIVOR_OFFSET = 2;
+    private static final int SURVIVOR_LENGTH = 3;
+    private static final int SURVIVOR_FIELDS = 4;
+
+    private static final long NULL_KEY_FINGERPRINT = 0;
+
+    private final long memoryBudget;
+    private final boolean logFieldDiffs;
+    private final String inputFormat; // null to go by the file extension
+    private final DedupeMetrics metrics = new DedupeMetrics();
+    private final File tempDir;
+
+    private JsonFileUtilsImpl fileUtils = new JsonFileUtilsImpl();
+    private final KeyBytes keyBytes = new KeyBytes();
+    private int labelPasses = 0;
+
+    /**
+     * @param options The options for this run, used for the memory budget
+     */
+    public ExternalDedupeServiceImpl(DedupeOptions options) {
+        if (options.getMemoryBudget() <= 0){
+            throw new IllegalArgumentException("A positive memory budget is required, got "
+                    + options.getMemoryBudget());
+        }
+        this.memoryBudget = options.getMemoryBudget();
+        this.tempDir = new File(System.getProperty("java.io.tmpdir"));
+        this.logFieldDiffs = options.isLogFieldDiffs();
+        this.inputFormat = options.getInputFormat();
+    }
+
+    /**
+     *
+     * Deduplicates the input using temporary files for anything that doesn't
+     * fit in the memory budget, returning the survivors in the same order the
+     * streaming DedupeServiceImpl would.
+     *
+     * @param inputFilename The filename of the input file
+     * @return A list of unique (deduplicated) Leads, read from disk on demand
+     */
+    public List<Lead> deduplicateItems(String inputFilename) {
+        File inputJson = fileUtils.getInputFile(inputFilename);
+        File payloadFile = null;
+        ExternalSorter tuples = null;
+        metrics.startPhase(DedupeMetrics.PARSE);
+        try {
+            payloadFile = createTempFile("leads");
+            tuples = newTupleSorter(ID);
+            writePayloads(inputJson, payloadFile, tuples);
+        } catch (IOException e){
+            System.out.println("Could not parse input Json");
+            e.printStackTrace();
+            System.out.println("Aborting!");
+            System.exit(1);
+        }
+        metrics.endPhase(DedupeMetrics.PARSE);
+
+        try {
+            metrics.startPhase(DedupeMetrics.MERGE);
+            ExternalSorter clusters = labelClusters(tuples);
+            ExternalSorter survivors = resolveClusters(clusters, payloadFile);
+            List<Lead> outputLeads = writeSurvivorIndex(survivors, payloadFile);
+            metrics.endPhase(DedupeMetrics.MERGE);
+            metrics.setRecordsKept(outputLeads.size());
+            return outputLeads;
+        } catch (IOException e){
+            System.out.println("Could not sort leads using temporary files");
+            e.printStackTrace();
+            System.out.println("Aborting!");
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public DedupeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The number of passes over the tuples the last run took to
+     *         label its clusters
+     */
+    public int getLabelPasses() {
+        return labelPasses;
+    }
+
+    /**
+     * Copies every lead to the payload file, handing its tuple to the sorter.
+     */
+    private void writePayloads(File inputJson, File payloadFile, ExternalSorter tuples) throws IOException {
+        long[] tuple = new long[TUPLE_FIELDS];
+        long offset = 0;
+        try (LeadReader leadReader = fileUtils.openLeadReader(inputJson, inputFormat);
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(payloadFile), 1 << 16))){
+            while (leadReader.hasNext()){
+                Lead lead = leadReader.next();
+                long length = BinaryLeadFormat.write(out, lead);
+                tuple[ID] = fingerprint(lead.get_id());
+                tuple[EMAIL] = fingerprint(lead.getEmail());
+                tuple[ORDINAL] = lead.getOrdinal();
+                tuple[OFFSET] = offset;
+                tuple[LENGTH] = length;
+                tuple[LABEL] = lead.getOrdinal();
+                tuples.add(tuple);
+                metrics.addRecordsRead(1);
+                offset += length;
+            }
+        }
+    }
+
+    /**
+     *
+     * Labels every tuple with the smallest ordinal in its cluster.  A tuple's
+     * label is the ordinal of its parent, and a root is labelled with its
+     * own ordinal, as every tuple starts out.  Each round:
+     *
+     * 1. Groups the tuples by id and then by email.  Within each group, the
+     *    root of every label is hooked onto the smallest label in the group.
+     * 2. Hooks each of those roots onto the smallest label it was given.
+     * 3. Shortcuts every tuple to the root of its tree by pointer jumping,
+     *    replacing each label with its parent's label until nothing changes.
+     *    Each pass halves the distance to the root, so a tree as deep as the
+     *    cluster is large only takes about log(depth) passes.
+     *
+     * In every round, each tree that shares a key with another tree is
+     * hooked onto one or has one hooked onto it, so a cluster's trees at
+     * least halve in number, and the rounds grow with the log of the
+     * cluster's size rather than with the length of its longest chain.
+     * Labels only ever get smaller, so hooks never form a cycle.
+     *
+     * @param tuples The tuples, ready to be sorted by id
+     * @return A sorter holding the labelled tuples, sorted by label and ordinal
+     */
+    private ExternalSorter labelClusters(ExternalSorter tuples) throws IOException {
+        labelPasses = 0;
+        ExternalSorter byOrdinal;
+        while (true){
+            ExternalSorter hooks = new ExternalSorter(HOOK_FIELDS, new int[] {HOOK_ROOT, HOOK_LABEL},
+                    sorterBudget(), tempDir);
+            ExternalSorter byEmail = newTupleSorter(EMAIL);
+            findHooks(tuples, ID, byEmail, hooks);
+            byOrdinal = new ExternalSorter(TUPLE_FIELDS, new int[] {ORDINAL}, sorterBudget(), tempDir);
+            findHooks(byEmail, EMAIL, byOrdinal, hooks);
+            if (hooks.size() == 0){
+                break;
+            }
+            tuples = shortcut(byOrdinal, hooks);
+        }
+
+        ExternalSorter clusters = new ExternalSorter(TUPLE_FIELDS, new int[] {LABEL, ORDINAL},
+                sorterBudget(), tempDir);
+        copy(byOrdinal, clusters);
+        return clusters;
+    }
+
+    /**
+     *
+     * Finds the hooks among the tuples sharing each key: the root of every
+     * label in a group is to be hooked onto the smallest label in the group.
+     * Tuples are sorted by key and then label, so that's the label of the
+     * first tuple of each group.  Every label is a root at this point.
+     *
+     * @param tuples The tuples, sorted by key and label
+     * @param key The field to group tuples by
+     * @param next Receives the tuples, unchanged
+     * @param hooks Receives a hook for each root to hook
+     */
+    private void findHooks(ExternalSorter tuples, int key, ExternalSorter next, ExternalSorter hooks)
+            throws IOException {
+        long[] tuple = new long[TUPLE_FIELDS];
+        long[] hook = new long[HOOK_FIELDS];
+        boolean firstTuple = true;
+        long groupKey = 0;
+        long groupLabel = 0;
+        long lastHooked = 0;
+        labelPasses++;
+        try (ExternalSorter.Cursor cursor = tuples.sort()){
+            while (cursor.next(tuple)){
+                if (firstTuple || tuple[key] != groupKey){
+                    firstTuple = false;
+                    groupKey = tuple[key];
+                    groupLabel = tuple[LABEL];
+                    lastHooked = groupLabel;
+                } else if (tuple[LABEL] != lastHooked){
+                    // labels in a group are sorted, so each root is hooked once
+                    hook[HOOK_ROOT] = tuple[LABEL];
+                    hook[HOOK_LABEL] = groupLabel;
+                    hooks.add(hook);
+                    lastHooked = tuple[LABEL];
+                }
+                next.add(tuple);
+            }
+        }
+    }
+
+    /**
+     *
+     * Hooks each root onto the smallest label it was given, then jumps
+     * every tuple's label to its parent's label until every tuple is
+     * labelled with its root.  Ordinals run from zero without gaps, so every
+     * label is the ordinal of exactly one tuple.
+     *
+     * @param byOrdinal The tuples, ready to be sorted by ordinal
+     * @param hooks The hooks, ready to be sorted by root and label
+     * @return A sorter holding the relabelled tuples, ready to be sorted by id
+     */
+    private ExternalSorter shortcut(ExternalSorter byOrdinal, ExternalSorter hooks) throws IOException {
+        ExternalSorter byLabel = newLabelSorter();
+        ExternalSorter parents = newParentSorter();
+        long[] tuple = new long[TUPLE_FIELDS];
+        long[] hook = new long[HOOK_FIELDS];
+        long[] parent = new long[PARENT_FIELDS];
+        labelPasses++;
+        try (ExternalSorter.Cursor cursor = byOrdinal.sort();
+             ExternalSorter.Cursor hookCursor = hooks.sort()){
+            boolean moreHooks = hookCursor.next(hook);
+            while (cursor.next(tuple)){
+                while (moreHooks && hook[HOOK_ROOT] < tuple[ORDINAL]){
+                    moreHooks = hookCursor.next(hook);
+                }
+                // the first hook of a root has the smallest label
+                if (moreHooks && hook[HOOK_ROOT] == tuple[ORDINAL] && hook[HOOK_LABEL] < tuple[LABEL]){
+                    tuple[LABEL] = hook[HOOK_LABEL];
+                }
+                addLabelled(tuple, parent, byLabel, parents);
+            }
+        }
+
+        boolean changed = true;
+        while (changed){
+            changed = false;
+            ExternalSorter nextByLabel = newLabelSorter();
+            ExternalSorter nextParents = newParentSorter();
+            long[] tupleParent = new long[PARENT_FIELDS];
+            labelPasses++;
+            try (ExternalSorter.Cursor cursor = byLabel.sort();
+                 ExternalSorter.Cursor parentCursor = parents.sort()){
+                boolean moreParents = parentCursor.next(tupleParent);
+                while (cursor.next(tuple)){
+                    while (moreParents && tupleParent[PARENT_ORDINAL] < tuple[LABEL]){
+                        moreParents = parentCursor.next(tupleParent);
+                    }
+                    if (!moreParents || tupleParent[PARENT_ORDINAL] != tuple[LABEL]){
+                        throw new IllegalStateException("No lead has the ordinal " + tuple[LABEL]);
+                    }
+                    if (tupleParent[PARENT_LABEL] != tuple[LABEL]){
+                        tuple[LABEL] = tupleParent[PARENT_LABEL];
+                        changed = true;
+                    }
+                    addLabelled(tuple, parent, nextByLabel, nextParents);
+                }
+            }
+            byLabel = nextByLabel;
+            parents = nextParents;
+        }
+
+        ExternalSorter byId = newTupleSorter(ID);
+        copy(byLabel, byId);
+        return byId;
+    }
+
+    private static void addLabelled(long[] tuple, long[] parent, ExternalSorter byLabel,
+                                    ExternalSorter parents) throws IOException {
+        byLabel.add(tuple);
+        parent[PARENT_ORDINAL] = tuple[ORDINAL];
+        parent[PARENT_LABEL] = tuple[LABEL];
+        parents.add(parent);
+    }
+
+    private static void copy(ExternalSorter from, ExternalSorter to) throws IOException {
+        long[] tuple = new long[TUPLE_FIELDS];
+        try (ExternalSorter.Cursor cursor = from.sort()){
+            while (cursor.next(tuple)){
+                to.add(tuple);
+            }
+        }
+    }
+
+    /**
+     *
+     * Walks the clusters in turn, resolving each with a LeadMerger.
+     *
+     * @param clusters The labelled tuples, sorted by label and ordinal
+     * @param payloadFile The file the leads were copied to
+     * @return A sorter holding every survivor, sorted by slot ordinal
+     */
+    private ExternalSorter resolveClusters(ExternalSorter clusters, File payloadFile) throws IOException {
+        ExternalSorter survivors = new ExternalSorter(SURVIVOR_FIELDS, new int[] {SLOT_ORDINAL},
+                sorterBudget(), tempDir);
+        long[] tuple = new long[TUPLE_FIELDS];
+        long[] survivor = new long[SURVIVOR_FIELDS];
+        Cluster cluster = new Cluster();
+
+        try (ExternalSorter.Cursor cursor = clusters.sort();
+             PayloadReader payloads = new PayloadReader(payloadFile)){
+            while (cursor.next(tuple)){
+                if (cluster.size > 0 && tuple[LABEL] != cluster.label){
+                    resolveCluster(cluster, payloads, survivors, survivor);
+                    cluster.clear();
+                }
+                cluster.add(tuple);
+            }
+            if (cluster.size > 0){
+                resolveCluster(cluster, payloads, survivors, survivor);
+            }
+        }
+        return survivors;
+    }
+
+    private void resolveCluster(Cluster cluster, PayloadReader payloads, ExternalSorter survivors,
+                                long[] survivor) throws IOException {
+        if (cluster.size == 1){
+            // nothing to collide with, so the lead survives as it is
+            addSurvivor(survivors, survivor, cluster.ordinals[0], cluster, 0);
+            metrics.count(DedupeMetrics.ADDED);
+            if (LeadMerger.logger.isDebugEnabled()){
+                // only read back to be logged as a merger would have
+                Lead lead = payloads.read(cluster.offsets[0], (int) cluster.lengths[0]);
+                lead.setOrdinal(cluster.ordinals[0]);
+                LeadMerger.logUncontested(lead);
+            }
+            return;
+        }
+        LeadMerger merger = new LeadMerger();
+        merger.setLogFieldDiffs(logFieldDiffs);
+        merger.setMetrics(metrics);
+        for (int i = 0; i < cluster.size; i++){
+            Lead lead = payloads.read(cluster.offsets[i], (int) cluster.lengths[i]);
+            lead.setOrdinal(cluster.ordinals[i]);
+            merger.merge(lead);
+        }
+        IOException[] failure = new IOException[1];
+        merger.forEachOutputLead((lead, slotOrdinal) -> {
+            // ordinals within a cluster are sorted, so we can find where the
+            // survivor's own payload is
+            int index = Arrays.binarySearch(cluster.ordinals, 0, cluster.size, lead.getOrdinal());
+            try {
+                addSurvivor(survivors, survivor, slotOrdinal, cluster, index);
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        metrics.recordIndexKeys(merger.getPeakIndexKeys());
+        if (failure[0] != null){
+            throw failure[0];
+        }
+    }
+
+    private void addSurvivor(ExternalSorter survivors, long[] survivor, long slotOrdinal,
+                             Cluster cluster, int index) throws IOException {
+        survivor[SLOT_ORDINAL] = slotOrdinal;
+        survivor[SURVIVOR_ORDINAL] = cluster.ordinals[index];
+        survivor[SURVIVOR_OFFSET] = cluster.offsets[index];
+        survivor[SURVIVOR_LENGTH] = cluster.lengths[index];
+        survivors.add(survivor);
+    }
+
+    /**
+     *
+     * Writes where each survivor's payload is, in output order, to an index
+     * file that backs the returned list.
+     *
+     * @param survivors The survivors, ready to be sorted by slot ordinal
+     * @param payloadFile The file the leads were copied to
+     * @return A list reading the survivors from disk
+     */
+    private List<Lead> writeSurvivorIndex(ExternalSorter survivors, File payloadFile) throws IOException {
+        File indexFile = createTempFile("survivors");
+        long[] survivor = new long[SURVIVOR_FIELDS];
+        int count = 0;
+        try (ExternalSorter.Cursor cursor = survivors.sort();
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16))){
+            while (cursor.next(survivor)){
+                out.writeLong(survivor[SURVIVOR_ORDINAL]);
+                out.writeLong(survivor[SURVIVOR_OFFSET]);
+                out.writeInt((int) survivor[SURVIVOR_LENGTH]);
+                count++;
+            }
+        }
+        return new SurvivorList(indexFile, payloadFile, count);
+    }
+
+    private long fingerprint(String key) {
+        return key == null ? NULL_KEY_FINGERPRINT : keyBytes.set(key).fingerprint();
+    }
+
+    private ExternalSorter newTupleSorter(int key) {
+        return new ExternalSorter(TUPLE_FIELDS, new int[] {key, LABEL}, sorterBudget(), tempDir);
+    }
+
+    private ExternalSorter newLabelSorter() {
+        return new ExternalSorter(TUPLE_FIELDS, new int[] {LABEL}, sorterBudget(), tempDir);
+    }
+
+    private ExternalSorter newParentSorter() {
+        return new ExternalSorter(PARENT_FIELDS, new int[] {PARENT_ORDINAL}, sorterBudget(), tempDir);
+    }
+
+    /**
+     * Up to four sorters hold buffers at once while labelling, two being
+     * read in step while the next two fill, and we leave room for a cluster
+     * being resolved.
+     */
+    private long sorterBudget() {
+        return memoryBudget / 5;
+    }
+
+    private File createTempFile(String prefix) throws IOException {
+        File file = File.createTempFile(prefix, ".bin", tempDir);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * The tuples of the cluster currently being collected.
+     */
+    private static class Cluster {
+        long label;
+        int size = 0;
+        long[] ordinals = new long[16];
+        long[] offsets = new long[16];
+        long[] lengths = new long[16];
+
+        void add(long[] tuple) {
+            if (size == ordinals.length){
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            label = tuple[LABEL];
+            ordinals[size] = tuple[ORDINAL];
+            offsets[size] = tuple[OFFSET];
+            lengths[size] = tuple[LENGTH];
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    /**
+     * Reads records from a file through a window, so that reads close to
+     * each other don't each need a seek.
+     */
+    private static class PayloadReader implements Closeable {
+        private static final int WINDOW_BYTES = 1 << 16;
+
+        private final RandomAccessFile file;
+        private byte[] window = new byte[WINDOW_BYTES];
+        private long windowStart = 0;
+        private int windowLength = 0;
+
+        PayloadReader(File file) throws IOException {
+            this.file = new RandomAccessFile(file, "r");
+        }
+
+        DataInputStream open(long offset, int length) throws IOException {
+            if (offset < windowStart || offset + length > windowStart + windowLength){
+                if (window.length < length){
+                    window = new byte[length];
+                }
+                file.seek(offset);
+                windowStart = offset;
+                windowLength = (int) Math.min(window.length, file.length() - offset);
+                file.readFully(window, 0, windowLength);
+            }
+            return new DataInputStream(new ByteArrayInputStream(window, (int) (offset - windowStart), length));
+        }
+
+        Lead read(long offset, int length) throws IOException {
+            return BinaryLeadFormat.read(open(offset, length));
+        }
+
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * The survivors, read back from the payload file through the survivor
+     * index whenever they're asked for.
+     */
+    private static class SurvivorList extends AbstractList<Lead> {
+        private static final int INDEX_ENTRY_BYTES = 20;
+
+        private final File indexFile;
+        private final File payloadFile;
+        private final int size;
+        private PayloadReader index;
+        private PayloadReader payloads;
+
+        SurvivorList(File indexFile, File payloadFile, int size) {
+            this.indexFile = indexFile;
+            this.payloadFile = payloadFile;
+            this.size = size;
+        }
+
+        @Override
+        public Lead get(int i) {
+            if (i < 0 || i >= size){
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+            }
+            try {
+                if (index == null){
+                    index = new PayloadReader(indexFile);
+                    payloads = new PayloadReader(payloadFile);
+                }
+                DataInputStream entry = index.open((long) i * INDEX_ENTRY_BYTES, INDEX_ENTRY_BYTES);
+                long ordinal = entry.readLong();
+                long offset = entry.readLong();
+                int length = entry.readInt();
+                Lead lead = payloads.read(offset, length);
+                lead.setOrdinal(ordinal);
+                return lead;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.nlaw.leadDedupe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ *  ExternalSorter
+ *
+ *  Sorts fixed-width records of longs that may not fit in memory.
+ *
+ *  Records are collected in a buffer sized from the memory budget.  Whenever
+ *  the buffer fills up it is sorted and spilled to a temporary file as a
+ *  sorted run.  Once every record has been added, the runs are combined
+ *  with a k-way merge.  If there are more runs than we can merge at once,
+ *  they are merged in several passes.  If everything fit in the buffer,
+ *  nothing touches the disk at all.
+ *
+ *  Records are compared on a list of fields, in order, as signed longs.  The
+ *  sort is stable, so records that compare equal come out in the order they
+ *  were added.
+ *
+ *  @author nlawrence
+ *
+ */
+public class ExternalSorter {
+    // runs merged at once, bounded so we don't run out of file handles
+    private static final int MAX_FAN_IN = 64;
+    private static final int MIN_BUFFER_BYTES = 64 * 1024;
+    private static final int MIN_BUFFERED_RECORDS = 16;
+
+    private final int fieldCount;
+    private final int[] sortFields;
+    private final File tempDir;
+    private final int streamBufferBytes;
+
+    private final int maxBufferedRecords;
+    private long[] buffer;
+    private int bufferedRecords = 0;
+    private List<File> runs = new ArrayList<>();
+    private long recordCount = 0;
+
+    /**
+     * @param fieldCount The number of longs in each record
+     * @param sortFields The fields to sort on, most significant first
+     * @param memoryBudget Roughly how many bytes the sorter may use
+     * @param tempDir Where sorted runs are written
+     */
+    public ExternalSorter(int fieldCount, int[] sortFields, long memoryBudget, File tempDir) {
+        this.fieldCount = fieldCount;
+        this.sortFields = sortFields.clone();
+        this.tempDir = tempDir;
+        // each buffered record also needs two ints while it's sorted
+        long recordBytes = fieldCount * 8L + 8;
+        this.maxBufferedRecords = (int) Math.max(MIN_BUFFERED_RECORDS,
+                Math.min(Integer.MAX_VALUE / fieldCount, memoryBudget / recordBytes));
+        // start small and grow, small inputs shouldn't pay for the whole budget
+        this.buffer = new long[Math.min(maxBufferedRecords, 1024) * fieldCount];
+        this.streamBufferBytes = (int) Math.max(MIN_BUFFER_BYTES,
+                Math.min(1 << 20, memoryBudget / (MAX_FAN_IN * 4)));
+    }
+
+    /**
+     *
+     * Adds a record, spilling a sorted run to disk if the buffer is full.
+     *
+     * @param record The record; only its first fieldCount values are used
+     * @throws IOException if a run can't be written
+     */
+    public void add(long[] record) throws IOException {
+        if ((bufferedRecords + 1) * fieldCount > buffer.length){
+            if (buffer.length < maxBufferedRecords * fieldCount){
+                int records = (int) Math.min(maxBufferedRecords, bufferedRecords * 2L);
+                buffer = Arrays.copyOf(buffer, records * fieldCount);
+            } else {
+                spill();
+            }
+        }
+        System.arraycopy(record, 0, buffer, bufferedRecords * fieldCount, fieldCount);
+        bufferedRecords++;
+        recordCount++;
+    }
+
+    /**
+     * @return The number of records added so far
+     */
+    public long size() {
+        return recordCount;
+    }
+
+    /**
+     *
+     * Finishes adding records and returns a cursor over all of them in
+     * sorted order.  The sorter can't be used again afterwards.
+     *
+     * @return A cursor over the sorted records
+     * @throws IOException if the runs can't be read or merged
+     */
+    public Cursor sort() throws IOException {
+        if (runs.isEmpty()){
+            int[] order = sortBuffer();
+            long[] records = buffer;
+            buffer = null;
+            return new BufferCursor(records, order, fieldCount);
+        }
+        spill();
+        buffer = null;
+        // merge neighbouring runs so that earlier records stay in earlier runs
+        while (runs.size() > MAX_FAN_IN){
+            List<File> mergedRuns = new ArrayList<>();
+            for (int start = 0; start < runs.size(); start += MAX_FAN_IN){
+                List<File> batch = runs.subList(start, Math.min(start + MAX_FAN_IN, runs.size()));
+                File merged = newRunFile();
+                try (Cursor cursor = new MergeCursor(batch);
+                     DataOutputStream out = openRun(merged)){
+                    long[] record = new long[fieldCount];
+                    while (cursor.next(record)){
+                        writeRecord(out, record, 0);
+                    }
+                }
+                mergedRuns.add(merged);
+            }
+            runs = mergedRuns;
+        }
+        List<File> finalRuns = runs;
+        runs = new ArrayList<>();
+        return new MergeCursor(finalRuns);
+    }
+
+    /**
+     *  Cursor
+     *
+     *  Reads records back in sorted order.
+     */
+    public interface Cursor extends Closeable {
+
+        /**
+         * Copies the next record into the given array.
+         *
+         * @return false if there are no records left
+         */
+        boolean next(long[] record) throws IOException;
+    }
+
+    private void spill() throws IOException {
+        if (bufferedRecords == 0){
+            return;
+        }
+        int[] order = sortBuffer();
+        File run = newRunFile();
+        try (DataOutputStream out = openRun(run)){
+            for (int i = 0; i < bufferedRecords; i++){
+                writeRecord(out, buffer, order[i] * fieldCount);
+            }
+        }
+        runs.add(run);
+        bufferedRecords = 0;
+    }
+
+    /**
+     * Merge sorts the indexes of the buffered records.
+     */
+    private int[] sortBuffer() {
+        int[] order = new int[bufferedRecords];
+        for (int i = 0; i < bufferedRecords; i++){
+            order[i] = i;
+        }
+        int[] scratch = new int[bufferedRecords];
+        for (int width = 1; width < bufferedRecords; width *= 2){
+            for (int start = 0; start < bufferedRecords; start += 2 * width){
+                int middle = Math.min(start + width, bufferedRecords);
+                int end = Math.min(start + 2 * width, bufferedRecords);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++){
+                    if (left < middle && (right >= end
+                            || compare(buffer, order[left] * fieldCount, buffer, order[right] * fieldCount) <= 0)){
+                        scratch[i] = order[left++];
+                    } else {
+                        scratch[i] = order[right++];
+                    }
+                }
+            }
+            int[] swap = order;
+            order = scratch;
+            scratch = swap;
+        }
+        return order;
+    }
+
+    private int compare(long[] first, int firstOffset, long[] second, int secondOffset) {
+        for (int field : sortFields){
+            int comparison = Long.compare(first[firstOffset + field], second[secondOffset + field]);
+            if (comparison != 0){
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    private File newRunFile() throws IOException {
+        File run = File.createTempFile("run", ".bin", tempDir);
+        run.deleteOnExit();
+        return run;
+    }
+
+    private DataOutputStream openRun(File run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), streamBufferBytes));
+    }
+
+    private void writeRecord(DataOutputStream out, long[] records, int offset) throws IOException {
+        for (int i = 0; i < fieldCount; i++){
+            out.writeLong(records[offset + i]);
+        }
+    }
+
+    /**
+     * Walks the in-memory buffer in sorted order.
+     */
+    private static class BufferCursor implements Cursor {
+        private final long[] records;
+        private final int[] order;
+        private final int fieldCount;
+        private int position = 0;
+
+        BufferCursor(long[] records, int[] order, int fieldCount) {
+            this.records = records;
+            this.order = order;
+            this.fieldCount = fieldCount;
+        }
+
+        public boolean next(long[] record) {
+            if (position == order.length){
+                return false;
+            }
+            System.arraycopy(records, order[position++] * fieldCount, record, 0, fieldCount);
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * Merges sorted runs with a priority queue holding the current record of
+     * each run.  Ties go to the earlier run, which keeps the sort stable.
+     * Each run file is deleted once it has been read completely.
+     */
+    private class MergeCursor implements Cursor {
+        private final PriorityQueue<RunReader> queue;
+        private final List<RunReader> readers = new ArrayList<>();
+
+        MergeCursor(List<File> runFiles) throws IOException {
+            queue = new PriorityQueue<>(Math.max(1, runFiles.size()), (first, second) -> {
+                int comparison = compare(first.current, 0, second.current, 0);
+                return comparison != 0 ? comparison : Integer.compare(first.index, second.index);
+            });
+            for (int i = 0; i < runFiles.size(); i++){
+                RunReader reader = new RunReader(runFiles.get(i), i);
+                readers.add(reader);
+                if (reader.advance()){
+                    queue.add(reader);
+                }
+            }
+        }
+
+        public boolean next(long[] record) throws IOException {
+            RunReader reader = queue.poll();
+            if (reader == null){
+                return false;
+            }
+            System.arraycopy(reader.current, 0, record, 0, fieldCount);
+            if (reader.advance()){
+                queue.add(reader);
+            }
+            return true;
+        }
+
+        public void close() throws IOException {
+            for (RunReader reader : readers){
+                reader.close();
+            }
+        }
+    }
+
+    private class RunReader implements Closeable {
+        private final File file;
+        private final int index;
+        private final DataInputStream in;
+        private final long[] current = new long[fieldCount];
+        private boolean closed = false;
+
+        RunReader(File file, int index) throws IOException {
+            this.file = file;
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), streamBufferBytes));
+        }
+
+        boolean advance() throws IOException {
+            try {
+                current[0] = in.readLong();
+            } catch (EOFException e) {
+                close();
+                return false;
+            }
+            for (int i = 1; i < fieldCount; i++){
+                current[i] = in.readLong();
+            }
+            return true;
+        }
+
+        public void close() throws IOException {
+            if (!closed){
+                closed = true;
+                in.close();
+                file.delete();
+            }
+        }
+    }
+}
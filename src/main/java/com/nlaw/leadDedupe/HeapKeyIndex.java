@@ -0,0 +1,68 @@
+package com.nlaw.leadDedupe;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *  HeapKeyIndex
+ *
+ *  The simplest KeyIndex, a HashMap from key to slot.  Quick for small and
+ *  medium inputs, but every entry costs a boxed Integer and a map node on
+ *  top of the key itself.  Keys given as bytes are decoded into Strings.
+ *
+ *  @author nlawrence
+ *
+ */
+public class HeapKeyIndex implements KeyIndex {
+
+    // map node, Integer, String and byte array headers on a 64 bit JVM
+    private static final int ENTRY_BYTES = 32 + 16 + 24 + 16;
+
+    private Map<String,Integer> slots = new HashMap<>();
+
+    public int get(String key) {
+        Integer slot = slots.get(key);
+        return slot == null ? -1 : slot;
+    }
+
+    public void put(String key, int slot) {
+        slots.put(key, slot);
+    }
+
+    public void remove(String key) {
+        slots.remove(key);
+    }
+
+    public int get(byte[] bytes, int offset, int length) {
+        return get(decode(bytes, offset, length));
+    }
+
+    public void put(byte[] bytes, int offset, int length, int slot) {
+        put(decode(bytes, offset, length), slot);
+    }
+
+    public void remove(byte[] bytes, int offset, int length) {
+        remove(decode(bytes, offset, length));
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Counts a map node, a boxed Integer and a String with its array for
+     * each entry, plus the map's table.
+     */
+    public long estimatedBytes() {
+        long bytes = 8L * slots.size() * 2; // tables are resized at 0.75 full
+        for (String key : slots.keySet()){
+            bytes += ENTRY_BYTES + (key == null ? 0 : key.length());
+        }
+        return bytes;
+    }
+
+    private static String decode(byte[] bytes, int offset, int length) {
+        return length < 0 ? null : new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+}
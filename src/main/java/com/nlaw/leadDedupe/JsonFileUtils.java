@@ -12,6 +12,12 @@ import java.util.List;
  *  doesn't make sense to separate our JSON and File methods into separate
  *  classes at this time.
  *
+ *  Leads can be read and written either as a single {"leads":[...]}
+ *  document or as newline delimited Json, one lead per line.  Methods that
+ *  take a format accept "json", "ndjson" or null to go by the file's
+ *  extension.  Output can also be written as a "binary" lead file, which
+ *  can't be read back as input; see BinaryLeadFile.
+ *
  *  @author nlawrence
  *
  */
@@ -21,7 +27,19 @@ public interface JsonFileUtils {
 
     File createOutputFile(String outputFilePath);
 
+    LeadReader openLeadReader(File inputFile) throws IOException;
+
+    LeadReader openLeadReader(File inputFile, String format) throws IOException;
+
     List<Lead> parseJson(File inputFile) throws IOException;
 
+    List<Lead> parseJson(File inputFile, String format, int threads) throws IOException;
+
     void writeOutputFile(File outputFile, List<Lead> outputLeads) throws IOException;
+
+    void writeOutputFile(File outputFile, List<Lead> outputLeads, String format) throws IOException;
+
+    void writeOutputFile(File outputFile, List<Lead> outputLeads, String format, boolean compact) throws IOException;
+
+    LeadWriter openLeadWriter(File outputFile, String format, boolean compact) throws IOException;
 }
@@ -1,12 +1,16 @@
 package com.nlaw.leadDedupe;
 
 import com.google.gson.Gson;
-import com.google.gson.stream.JsonReader;
-import com.google.gson.stream.JsonWriter;
+import com.google.gson.GsonBuilder;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  *
@@ -17,11 +21,41 @@ import java.util.List;
  * before trying to operate on those files themselves (likely after some
  * significant processing has occurred).
  *
+ * Files ending in .ndjson or .jsonl are read and written as newline
+ * delimited Json, one lead per line, unless another format is asked for.
+ * Both formats are streamed, so neither is ever held in memory as a whole,
+ * and both are read and written as UTF-8, through a buffer.  Json documents
+ * are indented unless compact output is asked for.
+ * Newline delimited files can be appended to while they're being produced,
+ * and split at any line boundary.
+ *
+ * Files whose names end in .gz, e.g. leads.json.gz or leads.ndjson.gz, are
+ * gzipped, and are decompressed and compressed on the fly by a background
+ * thread, so the codec works alongside the rest of the program rather than
+ * before or after it, and nothing is ever unpacked to disk.  Gzipped input
+ * can't be memory mapped, so it's always read by Gson, on a single thread.
+ *
+ * Output can also be written as a binary lead file, for jobs that look leads
+ * up by id or email rather than reading them all; see BinaryLeadFile.  Files
+ * ending in .leads are binary.  Binary files are only ever written, and
+ * can't be gzipped, since they're meant to be memory mapped.
+ *
  * @author nlawrence
  *
  */
 public class JsonFileUtilsImpl implements JsonFileUtils {
     public static final String defaultOutputFileName = "output.json";
+    public static final String JSON_FORMAT = "json";
+    public static final String NDJSON_FORMAT = "ndjson";
+    public static final String BINARY_FORMAT = "binary";
+    public static final String BINARY_EXTENSION = ".leads";
+    public static final String GZIP_EXTENSION = ".gz";
+    private static final int WRITE_BUFFER_CHARS = 1 << 16;
+    private static final int GZIP_BUFFER_BYTES = 1 << 16;
+    // leads are read and written by a LeadTypeAdapter rather than reflection
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Lead.class, new LeadTypeAdapter())
+            .create();
 
     private String workingDir = System.getProperty("user.dir");
     private String pathSeparator = System.getProperty("file.separator");
@@ -85,48 +119,244 @@ public class JsonFileUtilsImpl implements JsonFileUtils {
     }
 
 
+    /**
+     *
+     * Opens a streaming reader over the leads in the input file.  Leads are
+     * decoded one at a time as the caller asks for them, so the input never
+     * needs to be held in memory all at once.
+     *
+     * @param inputFile The Json file to read leads from
+     * @return A LeadReader positioned at the start of the file
+     * @throws IOException if the file can't be opened
+     */
+    public LeadReader openLeadReader(File inputFile) throws IOException {
+        return openLeadReader(inputFile, null);
+    }
+
+    /**
+     *
+     * Opens a streaming reader over the leads in the input file, in the given
+     * format.  The file is memory mapped and decoded straight from its bytes
+     * where it can be; see LeadDecoder.  Gzipped files are decompressed on a
+     * background thread as they're read instead.
+     *
+     * @param inputFile The file to read leads from
+     * @param format "json", "ndjson" or null to go by the file's extension
+     * @return A LeadReader positioned at the start of the file
+     * @throws IOException if the file can't be opened
+     */
+    public LeadReader openLeadReader(File inputFile, String format) throws IOException {
+        boolean lineDelimited = NDJSON_FORMAT.equals(resolveInputFormat(inputFile, format));
+        if (isGzipped(inputFile)){
+            return new LeadReader(new InputStreamReader(openInputStream(inputFile), StandardCharsets.UTF_8),
+                    lineDelimited);
+        }
+        FileChannel channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+        try {
+            return new LeadReader(channel, lineDelimited);
+        } catch (IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
     public List<Lead> parseJson(File inputFile) throws IOException {
         List<Lead> leads = new ArrayList<>();
-        JsonReader jsonReader = new JsonReader(new FileReader(inputFile));
-        Gson gson = new Gson();
-
-        //consume first curly brace {
-        jsonReader.beginObject();
-        while (jsonReader.hasNext()){
-            String name = jsonReader.nextName();
-            //our leads are buried inside an array in a "leads" object
-            if (name.equals("leads")){
-                //consume the first bracket [
-                jsonReader.beginArray();
-                while (jsonReader.hasNext()){
-                    Lead lead = gson.fromJson(jsonReader, Lead.class);
-                    leads.add(lead);
-                }
-                //consume closing bracket ]
-                jsonReader.endArray();
+        try (LeadReader leadReader = openLeadReader(inputFile)){
+            while (leadReader.hasNext()){
+                leads.add(leadReader.next());
             }
         }
-        //consume closing curly brace }
-        jsonReader.endObject();
-        jsonReader.close();
         return leads;
     }
 
+    /**
+     *
+     * Reads every lead in the input, decoding chunks of it on several
+     * threads when it's large enough to be worth it.  See ParallelLeadParser.
+     *
+     * @param inputFile The file to read leads from
+     * @param format "json", "ndjson" or null to go by the file's extension
+     * @param threads The number of threads to parse on
+     * @return The leads, in input order
+     * @throws IOException if the file can't be read or isn't valid Json
+     */
+    public List<Lead> parseJson(File inputFile, String format, int threads) throws IOException {
+        return new ParallelLeadParser(threads).parse(inputFile, format);
+    }
+
     public void writeOutputFile(File outputFile, List<Lead> outputLeads) throws IOException {
-        JsonWriter writer = new JsonWriter(new FileWriter(outputFile));
-        Gson gson = new Gson();
-
-        writer.setIndent("  ");
-        writer.beginObject();
-        // we need the same format, so we need to re-create the "leads" object
-        // and bury our leads inside an array in that object
-        writer.name("leads");
-        writer.beginArray();
-        for (Lead lead:outputLeads) {
-            gson.toJson(lead, Lead.class, writer);
-        }
-        writer.endArray();
-        writer.endObject();
-        writer.close();
+        writeOutputFile(outputFile, outputLeads, null);
+    }
+
+    /**
+     *
+     * Writes the leads to the output file in the given format.
+     *
+     * @param outputFile The file to write to
+     * @param outputLeads The leads to write, in order
+     * @param format "json", "ndjson" or null to go by the file's extension
+     * @throws IOException if the file can't be written
+     */
+    public void writeOutputFile(File outputFile, List<Lead> outputLeads, String format) throws IOException {
+        writeOutputFile(outputFile, outputLeads, format, false);
+    }
+
+    /**
+     *
+     * Writes the leads to the output file in the given format, leaving out
+     * the indentation of a json document if asked to.
+     *
+     * @param outputFile The file to write to
+     * @param outputLeads The leads to write, in order
+     * @param format "json", "ndjson" or null to go by the file's extension
+     * @param compact Whether to write a json document without whitespace
+     * @throws IOException if the file can't be written
+     */
+    public void writeOutputFile(File outputFile, List<Lead> outputLeads, String format,
+                                boolean compact) throws IOException {
+        try (LeadWriter leadWriter = openLeadWriter(outputFile, format, compact)){
+            for (Lead lead:outputLeads) {
+                leadWriter.write(lead);
+            }
+        }
+    }
+
+    /**
+     *
+     * Opens a streaming, buffered writer for leads to the output file, in the
+     * given format, gzipped if the file's name ends in .gz.  The caller must
+     * close it to finish the file.
+     *
+     * @param outputFile The file to write to
+     * @param format "json", "ndjson", "binary" or null to go by the file's
+     *               extension
+     * @param compact Whether to write a json document without whitespace
+     * @return A LeadWriter at the start of the file
+     * @throws IOException if the file can't be opened, or is to be binary
+     *                     and gzipped
+     */
+    public LeadWriter openLeadWriter(File outputFile, String format, boolean compact) throws IOException {
+        String resolvedFormat = resolveFormat(outputFile, format);
+        if (BINARY_FORMAT.equals(resolvedFormat)){
+            if (isGzipped(outputFile)){
+                throw new IOException("Binary output can't be gzipped, since it's meant to be memory mapped");
+            }
+            OutputStream out = new FileOutputStream(outputFile);
+            try {
+                return new BinaryLeadWriter(out);
+            } catch (IOException e){
+                out.close();
+                throw e;
+            }
+        }
+        boolean lineDelimited = NDJSON_FORMAT.equals(resolvedFormat);
+        Writer out = new BufferedWriter(new OutputStreamWriter(openOutputStream(outputFile),
+                StandardCharsets.UTF_8), WRITE_BUFFER_CHARS);
+        try {
+            return new JsonLeadWriter(out, lineDelimited, compact);
+        } catch (IOException e){
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     *
+     * Opens a file for reading, decompressing it on a background thread if
+     * it's gzipped.
+     *
+     * @param inputFile The file to read
+     * @return A stream of the file's bytes, decompressed if need be
+     * @throws IOException if the file can't be opened, or claims to be
+     *                     gzipped and isn't
+     */
+    public static InputStream openInputStream(File inputFile) throws IOException {
+        InputStream in = new FileInputStream(inputFile);
+        if (!isGzipped(inputFile)){
+            return in;
+        }
+        try {
+            return new BackgroundInputStream(new GZIPInputStream(in, GZIP_BUFFER_BYTES), "gzip-reader");
+        } catch (IOException e){
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     *
+     * Opens a file for writing, compressing it on a background thread if
+     * it's to be gzipped.  The file is only complete once the stream has
+     * been closed.
+     *
+     * @param outputFile The file to write
+     * @return A stream to write the file's bytes to
+     * @throws IOException if the file can't be opened
+     */
+    public static OutputStream openOutputStream(File outputFile) throws IOException {
+        OutputStream out = new FileOutputStream(outputFile);
+        if (!isGzipped(outputFile)){
+            return out;
+        }
+        try {
+            return new BackgroundOutputStream(new GZIPOutputStream(out, GZIP_BUFFER_BYTES), "gzip-writer");
+        } catch (IOException e){
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Whether the file is gzipped, going by its extension
+     */
+    public static boolean isGzipped(File file) {
+        return file.getName().endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     *
+     * Works out which format a file is in, going by its extension unless a
+     * format is given.  A .gz extension is looked past, so leads.ndjson.gz
+     * is newline delimited.
+     *
+     * @param file The file to be read or written
+     * @param format "json", "ndjson", "binary" or null to go by the file's
+     *               extension
+     * @return "json", "ndjson" or "binary"
+     */
+    public static String resolveFormat(File file, String format) {
+        if (format != null){
+            if (!format.equals(JSON_FORMAT) && !format.equals(NDJSON_FORMAT) && !format.equals(BINARY_FORMAT)){
+                throw new IllegalArgumentException("Unknown format " + format);
+            }
+            return format;
+        }
+        String name = file.getName();
+        if (name.endsWith(GZIP_EXTENSION)){
+            name = name.substring(0, name.length() - GZIP_EXTENSION.length());
+        }
+        if (name.endsWith(BINARY_EXTENSION)){
+            return BINARY_FORMAT;
+        }
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl") ? NDJSON_FORMAT : JSON_FORMAT;
+    }
+
+    /**
+     *
+     * Works out which format an input file is in, as resolveFormat does,
+     * turning away binary lead files, which can't be read as input.
+     *
+     * @param file The file to be read
+     * @param format "json", "ndjson" or null to go by the file's extension
+     * @return "json" or "ndjson"
+     * @throws IOException if the file is a binary lead file
+     */
+    public static String resolveInputFormat(File file, String format) throws IOException {
+        String resolvedFormat = resolveFormat(file, format);
+        if (BINARY_FORMAT.equals(resolvedFormat)){
+            throw new IOException(file + " is a binary lead file, which can only be read with a BinaryLeadFile");
+        }
+        return resolvedFormat;
     }
 }
@@ -0,0 +1,81 @@
+package com.nlaw.leadDedupe;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ *  JsonLeadWriter
+ *
+ *  A LeadWriter for a {"leads":[...]} document, or for newline delimited
+ *  Json with a lead on each line.  It's the counterpart of the LeadReader.
+ *
+ *  Leads are written by the LeadTypeAdapter registered on
+ *  JsonFileUtilsImpl.GSON, escaped and without null fields, just as
+ *  Gson.toJson() would write them.  A document is indented by two spaces
+ *  unless it's asked to be compact, in which case it's written without any
+ *  whitespace at all.  Newline delimited output is always compact.
+ *
+ *  The document is opened as the writer is created and closed by close(),
+ *  which also closes the underlying writer.  Nothing is buffered here, so
+ *  callers writing to a file should hand us a buffered writer.
+ *
+ *  @author nlawrence
+ *
+ */
+public class JsonLeadWriter implements LeadWriter {
+    private static final TypeAdapter<Lead> LEAD_ADAPTER = JsonFileUtilsImpl.GSON.getAdapter(Lead.class);
+
+    private final Writer out;
+    private final JsonWriter jsonWriter;
+    private final boolean lineDelimited;
+
+    /**
+     * @param out Where to write the leads
+     * @param lineDelimited Whether to write a lead per line rather than a
+     *                      single {"leads":[...]} document
+     * @param compact Whether to leave out the indentation of a document
+     * @throws IOException if the start of the document can't be written
+     */
+    public JsonLeadWriter(Writer out, boolean lineDelimited, boolean compact) throws IOException {
+        this.out = out;
+        this.lineDelimited = lineDelimited;
+        this.jsonWriter = new JsonWriter(out);
+        // escape and leave out nulls the way Gson.toJson() does
+        jsonWriter.setHtmlSafe(true);
+        jsonWriter.setSerializeNulls(false);
+        if (lineDelimited){
+            // lenient, since every line is a top level value of its own
+            jsonWriter.setLenient(true);
+            return;
+        }
+        if (!compact){
+            jsonWriter.setIndent("  ");
+        }
+        jsonWriter.beginObject();
+        // we need the same format, so we need to re-create the "leads" object
+        // and bury our leads inside an array in that object
+        jsonWriter.name("leads");
+        jsonWriter.beginArray();
+    }
+
+    public void write(Lead lead) throws IOException {
+        LEAD_ADAPTER.write(jsonWriter, lead);
+        if (lineDelimited){
+            out.write('\n');
+        }
+    }
+
+    public void close() throws IOException {
+        if (lineDelimited){
+            jsonWriter.flush();
+            out.close();
+            return;
+        }
+        jsonWriter.endArray();
+        jsonWriter.endObject();
+        jsonWriter.close();
+    }
+}
@@ -0,0 +1,44 @@
+package com.nlaw.leadDedupe;
+
+import java.util.function.ObjLongConsumer;
+
+/**
+ *  KeptLeads
+ *
+ *  The leads a merger has chosen to keep, as far as a LeadSnapshot needs to
+ *  see them to save a merger's state and to put it back.  Implemented by the
+ *  LeadMerger and the ConcurrentLeadMerger, so a snapshot saved by either
+ *  can be loaded into either.
+ *
+ *  @author nlawrence
+ *
+ */
+public interface KeptLeads {
+
+    /**
+     * @return The number of leads kept so far
+     */
+    int getOutputSize();
+
+    /**
+     *
+     * Hands each lead kept so far to the consumer, in output order, along
+     * with the ordinal of the lead that first claimed its place in the
+     * output.
+     *
+     * @param consumer Receives each surviving lead and its output ordinal
+     */
+    void forEachOutputLead(ObjLongConsumer<Lead> consumer);
+
+    /**
+     *
+     * Puts back a lead that survived an earlier run, as handed out by
+     * forEachOutputLead().  Leads must be restored in output order, and
+     * before any new leads are merged.
+     *
+     * @param lead The surviving lead, stamped with its own ordinal
+     * @param slotOrdinal The ordinal of the lead that first claimed its place
+     *                    in the output
+     */
+    void restore(Lead lead, long slotOrdinal);
+}
@@ -0,0 +1,129 @@
+package com.nlaw.leadDedupe;
+
+import java.util.Arrays;
+
+/**
+ *  KeyBytes
+ *
+ *  A reusable buffer holding the UTF-8 bytes of a key, so keys can be
+ *  hashed and compared as bytes without allocating a new array for every
+ *  lookup.
+ *
+ *  Also provides the 64-bit fingerprint we hash keys with.  Fingerprints
+ *  are good enough to tell keys apart almost all of the time, but anything
+ *  that relies on them for correctness should compare the bytes as well.
+ *
+ *  @author nlawrence
+ *
+ */
+public class KeyBytes {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private byte[] bytes = new byte[64];
+    private int length = 0;
+
+    /**
+     *
+     * Replaces the buffer contents with the UTF-8 encoding of the key.
+     * Unpaired surrogates are encoded as '?', the same as String.getBytes.
+     *
+     * @param key The key to encode
+     * @return This buffer
+     */
+    public KeyBytes set(CharSequence key) {
+        int charCount = key.length();
+        // worst case is three bytes per char
+        ensureCapacity(charCount * 3);
+        int position = 0;
+        for (int i = 0; i < charCount; i++){
+            char c = key.charAt(i);
+            if (c < 0x80){
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800){
+                bytes[position++] = (byte) (0xc0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < charCount
+                    && Character.isLowSurrogate(key.charAt(i + 1))){
+                int codePoint = Character.toCodePoint(c, key.charAt(++i));
+                bytes[position++] = (byte) (0xf0 | (codePoint >> 18));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)){
+                bytes[position++] = (byte) '?';
+            } else {
+                bytes[position++] = (byte) (0xe0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                bytes[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        length = position;
+        return this;
+    }
+
+    /**
+     *
+     * Replaces the buffer contents with a copy of some already encoded bytes.
+     *
+     * @param source The array holding the key's UTF-8 bytes
+     * @param offset Where the key starts
+     * @param length The number of bytes in the key
+     * @return This buffer
+     */
+    public KeyBytes set(byte[] source, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(source, offset, bytes, 0, length);
+        this.length = length;
+        return this;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long fingerprint() {
+        return fingerprint(bytes, 0, length);
+    }
+
+    /**
+     *
+     * Computes the 64-bit fingerprint of a run of bytes: FNV-1a, followed by
+     * a final mix so that the low bits are usable as a hash table index.
+     *
+     * @param bytes The array holding the key
+     * @param offset Where the key starts
+     * @param length The number of bytes in the key
+     * @return The fingerprint
+     */
+    public static long fingerprint(byte[] bytes, int offset, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = offset; i < offset + length; i++){
+            hash ^= bytes[i] & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * MurmurHash3's 64-bit finalizer.
+     */
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (bytes.length < capacity){
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+}
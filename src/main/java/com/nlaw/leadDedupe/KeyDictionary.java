@@ -0,0 +1,281 @@
+package com.nlaw.leadDedupe;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  KeyDictionary
+ *
+ *  Interns keys (ids or emails) into symbols, small ints handed out in the
+ *  order the keys are first seen.  Once a key has a symbol, anything that
+ *  needs to remember the key can store the symbol instead, in a plain int
+ *  array indexed by symbol.
+ *
+ *  Each key is stored once, as its length followed by its UTF-8 bytes, in an
+ *  arena of byte array pages.  Lookups go through an open addressing table
+ *  with linear probing.  The low bits of a key's 64-bit fingerprint pick
+ *  where its probe starts, and the table holds the high 32 bits next to the
+ *  symbol.  A matching fingerprint is always confirmed against the stored
+ *  bytes, so fingerprint collisions can't mix up two keys, but they are rare
+ *  enough that a lookup almost never has to look at the bytes of a key other
+ *  than its own.
+ *
+ *  That comes to two ints per table entry and one per symbol on top of the
+ *  key's bytes, with no per-key objects for the garbage collector to trace.
+ *
+ *  Symbols are never taken back, so the dictionary holds every key it has
+ *  ever been given.
+ *
+ *  @author nlawrence
+ *
+ */
+public class KeyDictionary {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.7;
+
+    // key addresses are a page number and an offset packed into an int
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_BYTES = 1 << PAGE_SHIFT;
+    private static final int MAX_PAGES = 1 << (31 - PAGE_SHIFT);
+
+    // the hash table, symbol + 1 so that 0 marks an empty entry
+    private int[] tableTags = new int[INITIAL_CAPACITY];
+    private int[] tableSymbols = new int[INITIAL_CAPACITY];
+    private int mask = INITIAL_CAPACITY - 1;
+
+    // where each symbol's key is stored, by symbol
+    private int[] keyAddresses = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private List<byte[]> pages = new ArrayList<>();
+    private byte[] page; // the page keys are currently appended to
+    private int pagePosition = 0;
+
+    private final KeyBytes keyBytes = new KeyBytes();
+
+    /**
+     * @param key The key to look up
+     * @return The key's symbol, or -1 if the key hasn't been interned
+     */
+    public int find(CharSequence key) {
+        keyBytes.set(key);
+        return find(keyBytes.getBytes(), 0, keyBytes.getLength());
+    }
+
+    /**
+     * @param bytes The array holding the key's UTF-8 bytes
+     * @param offset Where the key starts
+     * @param length The number of bytes in the key
+     * @return The key's symbol, or -1 if the key hasn't been interned
+     */
+    public int find(byte[] bytes, int offset, int length) {
+        int entry = findEntry(KeyBytes.fingerprint(bytes, offset, length), bytes, offset, length);
+        return entry < 0 ? -1 : tableSymbols[entry] - 1;
+    }
+
+    /**
+     *
+     * Looks up a key's symbol, giving it the next symbol if it doesn't have
+     * one yet.
+     *
+     * @param key The key to intern
+     * @return The key's symbol
+     */
+    public int intern(CharSequence key) {
+        keyBytes.set(key);
+        return intern(keyBytes.getBytes(), 0, keyBytes.getLength());
+    }
+
+    /**
+     *
+     * Looks up the symbol of a key given as UTF-8 bytes, giving it the next
+     * symbol if it doesn't have one yet.
+     *
+     * @param bytes The array holding the key's UTF-8 bytes
+     * @param offset Where the key starts
+     * @param length The number of bytes in the key
+     * @return The key's symbol
+     */
+    public int intern(byte[] bytes, int offset, int length) {
+        long fingerprint = KeyBytes.fingerprint(bytes, offset, length);
+        int entry = findEntry(fingerprint, bytes, offset, length);
+        if (entry >= 0){
+            return tableSymbols[entry] - 1;
+        }
+        if (size + 1 > tableSymbols.length * MAX_LOAD){
+            rehash(tableSymbols.length * 2);
+            entry = findEntry(fingerprint, bytes, offset, length);
+        }
+        int symbol = size++;
+        if (symbol == keyAddresses.length){
+            keyAddresses = Arrays.copyOf(keyAddresses, symbol * 2);
+        }
+        keyAddresses[symbol] = appendKey(bytes, offset, length);
+        tableTags[~entry] = tag(fingerprint);
+        tableSymbols[~entry] = symbol + 1;
+        return symbol;
+    }
+
+    /**
+     * @param symbol A symbol handed out by intern()
+     * @return The key the symbol stands for
+     */
+    public String key(int symbol) {
+        if (symbol < 0 || symbol >= size){
+            throw new IndexOutOfBoundsException("Symbol " + symbol + " has not been handed out");
+        }
+        int address = keyAddresses[symbol];
+        byte[] keyPage = pages.get(address >>> PAGE_SHIFT);
+        int position = address & (PAGE_BYTES - 1);
+        int length = readLength(keyPage, position);
+        return new String(keyPage, position + lengthBytes(length), length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The number of symbols handed out, which is also one more than
+     *         the largest symbol
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Roughly how many bytes the table and the interned keys take
+     */
+    public long estimatedBytes() {
+        long bytes = 4L * (tableTags.length + tableSymbols.length + keyAddresses.length);
+        for (byte[] keyPage : pages){
+            bytes += keyPage.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Finds the entry holding a key.  Returns the entry's index, or the
+     * bitwise complement of the empty entry where the key would be inserted
+     * if it isn't in the table.
+     */
+    private int findEntry(long fingerprint, byte[] bytes, int offset, int length) {
+        int tag = tag(fingerprint);
+        int entry = (int) fingerprint & mask;
+        while (true){
+            int symbol = tableSymbols[entry] - 1;
+            if (symbol < 0){
+                return ~entry;
+            }
+            if (tableTags[entry] == tag && keyMatches(symbol, bytes, offset, length)){
+                return entry;
+            }
+            entry = (entry + 1) & mask;
+        }
+    }
+
+    private boolean keyMatches(int symbol, byte[] bytes, int offset, int length) {
+        int address = keyAddresses[symbol];
+        byte[] keyPage = pages.get(address >>> PAGE_SHIFT);
+        int position = address & (PAGE_BYTES - 1);
+        if (readLength(keyPage, position) != length){
+            return false;
+        }
+        position += lengthBytes(length);
+        for (int i = 0; i < length; i++){
+            if (keyPage[position + i] != bytes[offset + i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Grows the table.  Only the high half of each fingerprint is kept in the
+     * table, so the low half is worked out again from the key's bytes.
+     */
+    private void rehash(int capacity) {
+        int[] oldTags = tableTags;
+        int[] oldSymbols = tableSymbols;
+        tableTags = new int[capacity];
+        tableSymbols = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldSymbols.length; i++){
+            if (oldSymbols[i] != 0){
+                int address = keyAddresses[oldSymbols[i] - 1];
+                byte[] keyPage = pages.get(address >>> PAGE_SHIFT);
+                int position = address & (PAGE_BYTES - 1);
+                int length = readLength(keyPage, position);
+                long fingerprint = KeyBytes.fingerprint(keyPage, position + lengthBytes(length), length);
+                int entry = (int) fingerprint & mask;
+                while (tableSymbols[entry] != 0){
+                    entry = (entry + 1) & mask;
+                }
+                tableTags[entry] = oldTags[i];
+                tableSymbols[entry] = oldSymbols[i];
+            }
+        }
+    }
+
+    /**
+     * Stores a key at the end of the arena, starting a new page when the
+     * current one is full.  A key too long for a page gets a bigger page of
+     * its own, starting at offset zero so that its address still fits.
+     */
+    private int appendKey(byte[] bytes, int offset, int length) {
+        int storedLength = lengthBytes(length) + length;
+        if (page == null || page.length - pagePosition < storedLength){
+            if (pages.size() == MAX_PAGES){
+                throw new IllegalStateException("The key dictionary is full");
+            }
+            page = new byte[Math.max(PAGE_BYTES, storedLength)];
+            pages.add(page);
+            pagePosition = 0;
+        }
+        int address = ((pages.size() - 1) << PAGE_SHIFT) | pagePosition;
+        pagePosition = writeLength(page, pagePosition, length);
+        System.arraycopy(bytes, offset, page, pagePosition, length);
+        pagePosition += length;
+        if (pagePosition >= PAGE_BYTES){
+            // an oversized page only ever holds one key
+            pagePosition = page.length;
+        }
+        return address;
+    }
+
+    private static int tag(long fingerprint) {
+        return (int) (fingerprint >>> 32);
+    }
+
+    /**
+     * Lengths are stored seven bits to a byte, so the usual short key only
+     * needs a single byte for its length.
+     */
+    private static int lengthBytes(int length) {
+        int count = 1;
+        while (length >= 0x80){
+            length >>>= 7;
+            count++;
+        }
+        return count;
+    }
+
+    private static int writeLength(byte[] bytes, int position, int length) {
+        while (length >= 0x80){
+            bytes[position++] = (byte) (length | 0x80);
+            length >>>= 7;
+        }
+        bytes[position++] = (byte) length;
+        return position;
+    }
+
+    private static int readLength(byte[] bytes, int position) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position++];
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return length;
+    }
+}
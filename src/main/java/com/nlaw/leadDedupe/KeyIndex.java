@@ -0,0 +1,39 @@
+package com.nlaw.leadDedupe;
+
+/**
+ *  KeyIndex
+ *
+ *  Maps the keys we deduplicate on (ids and emails) to the slot of the lead
+ *  that currently owns them.  Slots are never negative, so lookups return -1
+ *  for keys that aren't in the index.
+ *
+ *  Keys can be given either as Strings or as a range of UTF-8 bytes, which
+ *  lets callers that keep leads as bytes (see LeadColumns) look keys up
+ *  without decoding them.  A length of -1 stands for a null key.  Both forms
+ *  of a key refer to the same entry.
+ *
+ *  @author nlawrence
+ *
+ */
+public interface KeyIndex {
+
+    int get(String key);
+
+    void put(String key, int slot);
+
+    void remove(String key);
+
+    int get(byte[] bytes, int offset, int length);
+
+    void put(byte[] bytes, int offset, int length, int slot);
+
+    void remove(byte[] bytes, int offset, int length);
+
+    int size();
+
+    /**
+     * @return Roughly how many bytes of memory the index holds, on or off
+     *         the heap
+     */
+    long estimatedBytes();
+}
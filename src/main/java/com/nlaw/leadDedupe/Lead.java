@@ -5,6 +5,13 @@ package com.nlaw.leadDedupe;
  *
  *  Leads in this context are contact records used in sales/marketing.
  *
+ *  Besides the fields from the input, each lead carries its ordinal, i.e. its
+ *  position in the input it was read from, and its entry date decoded into
+ *  epoch nanoseconds so that dates can be compared without parsing them
+ *  again.  Both are transient so they never show up in our Json output.  A
+ *  lead whose entry date is missing, or can't be decoded, ranks as older
+ *  than any lead with a date; see EntryDates.MISSING.
+ *
  *  @author nlawrence
  *
  */
@@ -16,6 +23,8 @@ public class Lead {
     private String lastName;
     private String address;
     private String entryDate;
+    private transient long ordinal;
+    private transient long entryNanos;
 
     public Lead(String _id, String email, String firstName, String lastName,
                 String address, String entryDate) {
@@ -25,6 +34,23 @@ public class Lead {
         this.lastName = lastName;
         this.address = address;
         this.entryDate = entryDate;
+        this.entryNanos = EntryDates.toEpochNanosOrMissing(entryDate);
+    }
+
+    /**
+     * Creates a lead whose entry date has already been decoded, e.g. when
+     * reading it back from a LeadColumns row.
+     */
+    Lead(String _id, String email, String firstName, String lastName,
+         String address, String entryDate, long entryNanos, long ordinal) {
+        this._id = _id;
+        this.email = email;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.address = address;
+        this.entryDate = entryDate;
+        this.entryNanos = entryNanos;
+        this.ordinal = ordinal;
     }
 
     @Override
@@ -81,5 +107,22 @@ public class Lead {
 
     public void setEntryDate(String entryDate) {
         this.entryDate = entryDate;
+        this.entryNanos = EntryDates.toEpochNanosOrMissing(entryDate);
+    }
+
+    public long getEntryNanos() {
+        return entryNanos;
+    }
+
+    public void setEntryNanos(long entryNanos) {
+        this.entryNanos = entryNanos;
+    }
+
+    public long getOrdinal() {
+        return ordinal;
+    }
+
+    public void setOrdinal(long ordinal) {
+        this.ordinal = ordinal;
     }
 }
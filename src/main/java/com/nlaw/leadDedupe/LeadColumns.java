@@ -0,0 +1,507 @@
+package com.nlaw.leadDedupe;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  LeadColumns
+ *
+ *  A column store for leads.  Instead of one Lead object and six Strings per
+ *  record, each record is a row: its fields are packed one after the other
+ *  as UTF-8 bytes into a shared arena of byte array pages, and the rest of
+ *  what we know about it lives in parallel primitive arrays indexed by row:
+ *
+ *    rowAddresses  where the row's bytes start in the arena
+ *    entryNanos    the decoded entry date
+ *    ordinals      the lead's position in the input
+ *
+ *  Each field is stored as its length plus one, seven bits to a byte,
+ *  followed by its bytes; a stored length of zero stands for a null field.
+ *  The id and email come first, so finding the keys of a row only means
+ *  skipping a length or two.
+ *
+ *  A row takes its bytes plus 24 bytes of columns, a fraction of what a Lead
+ *  with its Strings takes, and the garbage collector only ever sees a
+ *  handful of large arrays.  Lead objects are only created when a row is
+ *  asked for as one, which normally means when it is written out.
+ *
+ *  Rows are appended and never change, except that the last row can be
+ *  taken back off and compact() can drop rows that are no longer needed.
+ *
+ *  @author nlawrence
+ *
+ */
+public class LeadColumns {
+    public static final int ID = 0;
+    public static final int EMAIL = 1;
+    public static final int FIRST_NAME = 2;
+    public static final int LAST_NAME = 3;
+    public static final int ADDRESS = 4;
+    public static final int ENTRY_DATE = 5;
+    public static final int FIELD_COUNT = 6;
+
+    private static final int INITIAL_ROWS = 16;
+    private static final int FIRST_PAGE_BYTES = 1 << 12;
+    private static final int MAX_PAGE_BYTES = 1 << 20;
+
+    private List<byte[]> pages = new ArrayList<>();
+    private byte[] page; // the page rows are currently appended to
+    private int pagePosition = 0;
+    private long byteCount = 0; // bytes used by all rows
+
+    private long[] rowAddresses = new long[INITIAL_ROWS]; // page << 32 | offset
+    private long[] entryNanos = new long[INITIAL_ROWS];
+    private long[] ordinals = new long[INITIAL_ROWS];
+    private int rows = 0;
+
+    // the row being built by add()
+    private byte[] rowBuffer = new byte[256];
+    private int rowLength = 0;
+    private final KeyBytes fieldBytes = new KeyBytes();
+
+    /**
+     *
+     * Appends a lead, keeping its ordinal and decoded entry date.
+     *
+     * @param lead The lead to add
+     * @return The lead's row
+     */
+    public int add(Lead lead) {
+        return add(lead.get_id(), lead.getEmail(), lead.getFirstName(), lead.getLastName(),
+                lead.getAddress(), lead.getEntryDate(), lead.getOrdinal(), lead.getEntryNanos());
+    }
+
+    /**
+     *
+     * Appends a lead given as its fields.
+     *
+     * @param entryNanos The entry date, decoded by EntryDates
+     * @return The lead's row
+     */
+    public int add(String id, String email, String firstName, String lastName, String address,
+                   String entryDate, long ordinal, long entryNanos) {
+        rowLength = 0;
+        appendField(id);
+        appendField(email);
+        appendField(firstName);
+        appendField(lastName);
+        appendField(address);
+        appendField(entryDate);
+        return addRow(ordinal, entryNanos);
+    }
+
+    /**
+     *
+     * Appends a lead given as the UTF-8 bytes of its fields, e.g. as found
+     * by a LeadDecoder, without decoding them.
+     *
+     * @param bytes The array holding the fields
+     * @param offsets Where each field starts, indexed by field
+     * @param lengths The number of bytes in each field, or -1 if it is null
+     * @param entryNanos The entry date, decoded by EntryDates
+     * @return The lead's row
+     */
+    public int add(byte[] bytes, int[] offsets, int[] lengths, long ordinal, long entryNanos) {
+        rowLength = 0;
+        for (int field = 0; field < FIELD_COUNT; field++){
+            appendField(bytes, offsets[field], lengths[field]);
+        }
+        return addRow(ordinal, entryNanos);
+    }
+
+    /**
+     *
+     * Appends a copy of a row of another store, keeping its ordinal and
+     * decoded entry date, without decoding its fields.
+     *
+     * @param source The store holding the row
+     * @param row The row to copy
+     * @return The copy's row
+     */
+    public int add(LeadColumns source, int row) {
+        source.checkRow(row);
+        if (rows == rowAddresses.length){
+            growRows();
+        }
+        rowAddresses[rows] = appendRow(source.pageOf(row), source.offsetOf(row), source.rowBytes(row));
+        entryNanos[rows] = source.entryNanos[row];
+        ordinals[rows] = source.ordinals[row];
+        return rows++;
+    }
+
+    /**
+     *
+     * Takes the last row back off, e.g. because it turned out not to be
+     * needed.  Its bytes are reused by the next row.
+     */
+    public void removeLastRow() {
+        if (rows == 0){
+            throw new IllegalStateException("There are no rows to remove");
+        }
+        int row = rows - 1;
+        int length = rowBytes(row);
+        byteCount -= length;
+        if (pageOf(row) == page){
+            pagePosition = offsetOf(row);
+        }
+        rows--;
+    }
+
+    /**
+     * @return The number of rows
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return The number of bytes used by all the rows in the arena
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return The number of bytes taken by the pages and the row arrays,
+     *         including space not used yet
+     */
+    public long estimatedBytes() {
+        long bytes = 8L * (rowAddresses.length + entryNanos.length + ordinals.length) + rowBuffer.length;
+        for (byte[] rowPage : pages){
+            bytes += rowPage.length;
+        }
+        return bytes;
+    }
+
+    public long getEntryNanos(int row) {
+        checkRow(row);
+        return entryNanos[row];
+    }
+
+    public long getOrdinal(int row) {
+        checkRow(row);
+        return ordinals[row];
+    }
+
+    public void setOrdinal(int row, long ordinal) {
+        checkRow(row);
+        ordinals[row] = ordinal;
+    }
+
+    /**
+     * @return The page holding a row's bytes, for use with fieldOffset()
+     */
+    public byte[] pageOf(int row) {
+        checkRow(row);
+        return pages.get((int) (rowAddresses[row] >>> 32));
+    }
+
+    /**
+     * @return Where a field's bytes start in the row's page
+     */
+    public int fieldOffset(int row, int field) {
+        return fieldOffset(pageOf(row), offsetOf(row), field);
+    }
+
+    /**
+     * @return The number of bytes in a field, or -1 if it is null
+     */
+    public int fieldLength(int row, int field) {
+        return fieldLength(pageOf(row), offsetOf(row), field);
+    }
+
+    /**
+     * @return Where a field's bytes start, given a row's bytes as copied by
+     *         copyRow()
+     */
+    static int fieldOffset(byte[] bytes, int rowOffset, int field) {
+        int position = skipFields(bytes, rowOffset, field);
+        return position + lengthBytes(readLength(bytes, position));
+    }
+
+    /**
+     * @return The number of bytes in a field, or -1 if it is null, given a
+     *         row's bytes as copied by copyRow()
+     */
+    static int fieldLength(byte[] bytes, int rowOffset, int field) {
+        return readLength(bytes, skipFields(bytes, rowOffset, field));
+    }
+
+    /**
+     * @return Whether a field holds the same value in two rows
+     */
+    public boolean fieldEquals(int row, int otherRow, int field) {
+        int length = fieldLength(row, field);
+        if (length != fieldLength(otherRow, field)){
+            return false;
+        }
+        byte[] rowPage = pageOf(row);
+        byte[] otherPage = pageOf(otherRow);
+        int offset = fieldOffset(row, field);
+        int otherOffset = fieldOffset(otherRow, field);
+        for (int i = 0; i < length; i++){
+            if (rowPage[offset + i] != otherPage[otherOffset + i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return A field's value, decoded into a String
+     */
+    public String getField(int row, int field) {
+        int length = fieldLength(row, field);
+        if (length < 0){
+            return null;
+        }
+        return new String(pageOf(row), fieldOffset(row, field), length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     *
+     * Creates a Lead from a row, complete with its ordinal and entry date.
+     *
+     * @param row The row to read
+     * @return A new Lead holding the row's values
+     */
+    public Lead getLead(int row) {
+        checkRow(row);
+        return readLead(pageOf(row), offsetOf(row), entryNanos[row], ordinals[row]);
+    }
+
+    /**
+     *
+     * Copies a row's bytes out of the arena, e.g. to hand them to another
+     * thread.  They can be turned back into a Lead with readLead().
+     *
+     * @param row The row to copy
+     * @param destination Where to copy the bytes to, with room for
+     *                    rowBytes(row) bytes
+     * @param offset Where in destination to copy them to
+     * @return The number of bytes copied
+     */
+    public int copyRow(int row, byte[] destination, int offset) {
+        int length = rowBytes(row);
+        System.arraycopy(pageOf(row), offsetOf(row), destination, offset, length);
+        return length;
+    }
+
+    /**
+     *
+     * Creates a Lead from a row's bytes, as copied by copyRow().
+     *
+     * @param bytes The array holding the row
+     * @param offset Where the row starts
+     * @param entryNanos The lead's decoded entry date
+     * @param ordinal The lead's ordinal
+     * @return A new Lead holding the row's values
+     */
+    public static Lead readLead(byte[] bytes, int offset, long entryNanos, long ordinal) {
+        String[] values = new String[FIELD_COUNT];
+        int position = offset;
+        for (int field = 0; field < FIELD_COUNT; field++){
+            int length = readLength(bytes, position);
+            position += lengthBytes(length);
+            if (length >= 0){
+                values[field] = new String(bytes, position, length, StandardCharsets.UTF_8);
+                position += length;
+            }
+        }
+        return new Lead(values[ID], values[EMAIL], values[FIRST_NAME], values[LAST_NAME],
+                values[ADDRESS], values[ENTRY_DATE], entryNanos, ordinal);
+    }
+
+    /**
+     *
+     * A list view of every row as a Lead.  The Leads are created each time
+     * they are asked for, so walking the list once holds on to nothing.
+     *
+     * @return A view of the rows as Leads
+     */
+    public List<Lead> asLeadList() {
+        return new AbstractList<Lead>() {
+            @Override
+            public Lead get(int index) {
+                return getLead(index);
+            }
+
+            @Override
+            public int size() {
+                return rows;
+            }
+        };
+    }
+
+    /**
+     * @return The number of bytes a row takes up in the arena
+     */
+    public int rowBytes(int row) {
+        int start = offsetOf(row);
+        return skipFields(pageOf(row), start, FIELD_COUNT) - start;
+    }
+
+    /**
+     *
+     * Keeps only the given rows, renumbered in the order given: keptRows[i]
+     * becomes row i.  The kept rows are copied into a fresh arena, so the
+     * space taken by the others is given back.
+     *
+     * @param keptRows The rows to keep
+     * @param count The number of rows in keptRows to use
+     */
+    public void compact(int[] keptRows, int count) {
+        List<byte[]> oldPages = pages;
+        long[] oldAddresses = rowAddresses;
+        long[] oldEntryNanos = entryNanos;
+        long[] oldOrdinals = ordinals;
+        for (int i = 0; i < count; i++){
+            checkRow(keptRows[i]);
+        }
+
+        pages = new ArrayList<>();
+        page = null;
+        pagePosition = 0;
+        byteCount = 0;
+        int capacity = Math.max(INITIAL_ROWS, count);
+        rowAddresses = new long[capacity];
+        entryNanos = new long[capacity];
+        ordinals = new long[capacity];
+
+        for (int i = 0; i < count; i++){
+            int row = keptRows[i];
+            byte[] rowPage = oldPages.get((int) (oldAddresses[row] >>> 32));
+            int start = (int) oldAddresses[row];
+            int end = skipFields(rowPage, start, FIELD_COUNT);
+            rowAddresses[i] = appendRow(rowPage, start, end - start);
+            entryNanos[i] = oldEntryNanos[row];
+            ordinals[i] = oldOrdinals[row];
+        }
+        rows = count;
+    }
+
+    /**
+     * Adds the row built up in rowBuffer.
+     */
+    private int addRow(long ordinal, long entryNanos) {
+        if (rows == rowAddresses.length){
+            growRows();
+        }
+        rowAddresses[rows] = appendRow(rowBuffer, 0, rowLength);
+        this.entryNanos[rows] = entryNanos;
+        ordinals[rows] = ordinal;
+        return rows++;
+    }
+
+    private void growRows() {
+        rowAddresses = Arrays.copyOf(rowAddresses, rows * 2);
+        entryNanos = Arrays.copyOf(entryNanos, rows * 2);
+        ordinals = Arrays.copyOf(ordinals, rows * 2);
+    }
+
+    private void appendField(String value) {
+        if (value == null){
+            appendField(null, 0, -1);
+            return;
+        }
+        fieldBytes.set(value);
+        appendField(fieldBytes.getBytes(), 0, fieldBytes.getLength());
+    }
+
+    private void appendField(byte[] bytes, int offset, int length) {
+        if (length < 0){
+            ensureRowCapacity(1);
+            rowLength = writeLength(rowBuffer, rowLength, -1);
+            return;
+        }
+        ensureRowCapacity(5 + length);
+        rowLength = writeLength(rowBuffer, rowLength, length);
+        System.arraycopy(bytes, offset, rowBuffer, rowLength, length);
+        rowLength += length;
+    }
+
+    private void ensureRowCapacity(int extra) {
+        if (rowBuffer.length < rowLength + extra){
+            rowBuffer = Arrays.copyOf(rowBuffer, Math.max(rowLength + extra, rowBuffer.length * 2));
+        }
+    }
+
+    /**
+     * Copies a row's bytes to the end of the arena, starting a new page when
+     * the current one is full.  Pages grow up to MAX_PAGE_BYTES, so small
+     * stores stay small, and a row longer than that gets a page of its own.
+     */
+    private long appendRow(byte[] bytes, int offset, int length) {
+        if (page == null || page.length - pagePosition < length){
+            int pageBytes = page == null ? FIRST_PAGE_BYTES : Math.min(page.length * 2, MAX_PAGE_BYTES);
+            page = new byte[Math.max(pageBytes, length)];
+            pages.add(page);
+            pagePosition = 0;
+        }
+        long address = ((long) (pages.size() - 1) << 32) | pagePosition;
+        System.arraycopy(bytes, offset, page, pagePosition, length);
+        pagePosition += length;
+        byteCount += length;
+        return address;
+    }
+
+    private int offsetOf(int row) {
+        return (int) rowAddresses[row];
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows){
+            throw new IndexOutOfBoundsException("Row " + row + " does not exist");
+        }
+    }
+
+    /**
+     * @return The position just past the first count fields of a row
+     */
+    private static int skipFields(byte[] bytes, int position, int count) {
+        for (int i = 0; i < count; i++){
+            int length = readLength(bytes, position);
+            position += lengthBytes(length) + Math.max(length, 0);
+        }
+        return position;
+    }
+
+    /**
+     * Lengths are stored plus one, seven bits to a byte, so that a null
+     * field can be told apart from an empty one.
+     */
+    private static int lengthBytes(int length) {
+        int stored = length + 1;
+        int count = 1;
+        while (stored >= 0x80){
+            stored >>>= 7;
+            count++;
+        }
+        return count;
+    }
+
+    private static int writeLength(byte[] bytes, int position, int length) {
+        int stored = length + 1;
+        while (stored >= 0x80){
+            bytes[position++] = (byte) (stored | 0x80);
+            stored >>>= 7;
+        }
+        bytes[position++] = (byte) stored;
+        return position;
+    }
+
+    private static int readLength(byte[] bytes, int position) {
+        int stored = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position++];
+            stored |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return stored - 1;
+    }
+}
@@ -0,0 +1,877 @@
+package com.nlaw.leadDedupe;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ *  LeadDecoder
+ *
+ *  Decodes leads straight from the UTF-8 bytes of the input, without going
+ *  through chars, Strings or Gson.  It only knows the six fields of a Lead:
+ *  each record is scanned once, the bytes of the six values are collected
+ *  (unescaped where they need it) and any other member is checked and
+ *  skipped.  Nothing becomes a String until it's asked for.  A lead added to
+ *  a LeadColumns store is copied over as bytes, so a lead that is dropped
+ *  later never costs a String at all.
+ *
+ *  The input is either a ByteBuffer holding all of it, or a file that is
+ *  memory mapped a window of up to WINDOW_BYTES at a time.
+ *
+ *  Only strict Json of the shape we write ourselves is decoded here: a
+ *  {"leads":[...]} document whose first name is "leads", or objects
+ *  separated by whitespace for newline delimited input.  When anything else
+ *  turns up (other top level names, escaped names, lone surrogates, invalid
+ *  UTF-8, very deep nesting, a lead larger than a window, a newline delimited
+ *  lead that spans lines, or any kind of error) advance() says so, and the
+ *  LeadReader carries on from the end of the last lead decoded here with
+ *  Gson.  remainingInput() hands over the rest of the input, so unusual
+ *  input is read, or rejected, just as Gson would have.
+ *
+ *  @author nlawrence
+ *
+ */
+public class LeadDecoder implements Closeable {
+    // what advance() found
+    public static final int RECORD = 0;
+    public static final int END = 1;
+    public static final int UNEXPECTED = 2;
+
+    public static final int WINDOW_BYTES = 1 << 30;
+
+    private static final int FAILED = -1;
+    private static final int INCOMPLETE = -2; // the window ended before the input did
+    private static final int MAX_DEPTH = 64;
+    private static final byte[][] FIELD_NAMES = {bytes("_id"), bytes("email"), bytes("firstName"),
+            bytes("lastName"), bytes("address"), bytes("entryDate")}; // in LeadColumns order
+    private static final byte[] LEADS_NAME = bytes("\"leads\"");
+    private static final byte[] NULL = bytes("null");
+    private static final byte[] TRUE = bytes("true");
+    private static final byte[] FALSE = bytes("false");
+    private static final byte[] ARRAY_PREFIX = bytes("{\"leads\":[");
+    private static final byte[] SKIPPED_LEAD_PREFIX = bytes("{\"leads\":[{}");
+
+    private final FileChannel channel; // null when decoding a buffer
+    private final ByteBuffer buffer;
+    private final long size;
+    private final boolean lineDelimited;
+    private final int windowBytes;
+    private ByteBuffer window;
+    private long windowStart = 0;
+    private int limit;
+
+    private long position = 0; // just past the last lead consumed, or the opening bracket
+    private boolean inLeadsArray = false;
+    private long leadsConsumed = 0;
+    private boolean recordReady = false;
+    private long recordEnd;
+    private boolean finished = false;
+
+    // the fields of the record found by advance(), one after the other
+    private byte[] values = new byte[256];
+    private int valuesLength = 0;
+    private final int[] offsets = new int[LeadColumns.FIELD_COUNT];
+    private final int[] lengths = new int[LeadColumns.FIELD_COUNT];
+    private final AsciiChars entryDateChars = new AsciiChars();
+
+    /**
+     * @param buffer The whole input, from its position to its limit
+     * @param lineDelimited Whether the input holds a lead per line rather
+     *                      than a single {"leads":[...]} document
+     */
+    public LeadDecoder(ByteBuffer buffer, boolean lineDelimited) {
+        this.channel = null;
+        this.buffer = buffer.slice();
+        this.size = this.buffer.limit();
+        this.lineDelimited = lineDelimited;
+        this.windowBytes = this.buffer.limit();
+        this.window = this.buffer;
+        this.limit = window.limit();
+    }
+
+    /**
+     * @param channel The file to decode, which is closed along with the
+     *                decoder
+     * @param lineDelimited Whether the input holds a lead per line rather
+     *                      than a single {"leads":[...]} document
+     * @throws IOException if the file can't be mapped
+     */
+    public LeadDecoder(FileChannel channel, boolean lineDelimited) throws IOException {
+        this(channel, lineDelimited, WINDOW_BYTES);
+    }
+
+    /**
+     * @param channel The file to decode, which is closed along with the
+     *                decoder
+     * @param lineDelimited Whether the input holds a lead per line rather
+     *                      than a single {"leads":[...]} document
+     * @param windowBytes The most of the file to map at once
+     * @throws IOException if the file can't be mapped
+     */
+    public LeadDecoder(FileChannel channel, boolean lineDelimited, int windowBytes) throws IOException {
+        if (windowBytes < 1){
+            throw new IllegalArgumentException("Windows must hold at least one byte, got " + windowBytes);
+        }
+        this.channel = channel;
+        this.buffer = null;
+        this.size = channel.size();
+        this.lineDelimited = lineDelimited;
+        this.windowBytes = windowBytes;
+        map(0);
+    }
+
+    /**
+     *
+     * Finds the next lead and decodes it, unless it has been found already.
+     * Nothing is consumed until consumeLead() or consumeRow() is called.
+     *
+     * @return RECORD if a lead is ready, END at the end of the leads, or
+     *         UNEXPECTED if the rest of the input has to be read by Gson
+     * @throws IOException if the input can't be mapped
+     */
+    public int advance() throws IOException {
+        if (recordReady){
+            return RECORD;
+        }
+        if (finished){
+            return END;
+        }
+        while (true){
+            int found = findRecord();
+            if (found != INCOMPLETE){
+                return found;
+            }
+            // carry on in a window starting where we left off, unless that's
+            // where this one started and the lead is too big for a window
+            if (channel == null || position == windowStart){
+                return UNEXPECTED;
+            }
+            map(position);
+        }
+    }
+
+    /**
+     *
+     * Consumes the lead found by advance() and creates a Lead from it.
+     *
+     * @param ordinal The lead's ordinal
+     * @return The lead, stamped with its ordinal and entry date
+     * @throws java.time.DateTimeException if the lead's entry date is invalid
+     */
+    public Lead consumeLead(long ordinal) {
+        consume();
+        String[] fields = new String[LeadColumns.FIELD_COUNT];
+        for (int field = 0; field < fields.length; field++){
+            if (lengths[field] >= 0){
+                fields[field] = new String(values, offsets[field], lengths[field], StandardCharsets.UTF_8);
+            }
+        }
+        String entryDate = fields[LeadColumns.ENTRY_DATE];
+        return new Lead(fields[LeadColumns.ID], fields[LeadColumns.EMAIL], fields[LeadColumns.FIRST_NAME],
+                fields[LeadColumns.LAST_NAME], fields[LeadColumns.ADDRESS], entryDate,
+                EntryDates.toEpochNanos(entryDate), ordinal);
+    }
+
+    /**
+     *
+     * Consumes the lead found by advance() and copies its bytes straight
+     * into a column store.
+     *
+     * @param columns The store to append the lead to
+     * @param ordinal The lead's ordinal
+     * @return The lead's row in the store
+     * @throws java.time.DateTimeException if the lead's entry date is invalid
+     */
+    public int consumeRow(LeadColumns columns, long ordinal) {
+        consume();
+        long entryNanos = EntryDates.toEpochNanos(entryDate());
+        return columns.add(values, offsets, lengths, ordinal, entryNanos);
+    }
+
+    /**
+     * @return Whether the leads array had been entered when the decoder
+     *         stopped, in which case remainingInput() starts inside it
+     */
+    public boolean isInLeadsArray() {
+        return inLeadsArray;
+    }
+
+    /**
+     * @return The number of leads consumed so far
+     */
+    public long getLeadsConsumed() {
+        return leadsConsumed;
+    }
+
+    /**
+     *
+     * The input from just past the last lead consumed, for Gson to carry on
+     * with once advance() has returned UNEXPECTED.  Inside the leads array
+     * the rest of the array is preceded by {"leads":[ and, if any leads were
+     * consumed, by an empty lead standing in for the last of them, which the
+     * reader should skip.
+     *
+     * @return The rest of the input
+     * @throws IOException if the file can't be read
+     */
+    public InputStream remainingInput() throws IOException {
+        InputStream rest;
+        if (channel == null){
+            rest = new ByteBufferInputStream(buffer, (int) position);
+        } else {
+            channel.position(position);
+            rest = Channels.newInputStream(channel);
+        }
+        if (!inLeadsArray){
+            return rest;
+        }
+        byte[] prefix = leadsConsumed > 0 ? SKIPPED_LEAD_PREFIX : ARRAY_PREFIX;
+        return new SequenceInputStream(new ByteArrayInputStream(prefix), rest);
+    }
+
+    public void close() throws IOException {
+        if (channel != null){
+            channel.close();
+        }
+    }
+
+    private void consume() {
+        if (!recordReady){
+            throw new IllegalStateException("No lead has been decoded");
+        }
+        recordReady = false;
+        position = recordEnd;
+        leadsConsumed++;
+    }
+
+    private CharSequence entryDate() {
+        int length = lengths[LeadColumns.ENTRY_DATE];
+        if (length < 0){
+            return null;
+        }
+        int offset = offsets[LeadColumns.ENTRY_DATE];
+        for (int i = offset; i < offset + length; i++){
+            if (values[i] < 0){
+                return new String(values, offset, length, StandardCharsets.UTF_8);
+            }
+        }
+        return entryDateChars.set(values, offset, length);
+    }
+
+    /**
+     * Moves past whatever separates the last lead from the next one and
+     * decodes it.  Returns RECORD, END, UNEXPECTED or INCOMPLETE.
+     */
+    private int findRecord() {
+        int i = (int) (position - windowStart);
+        if (lineDelimited){
+            i = skipWhitespace(i);
+            if (i >= limit && !moreInput()){
+                finished = true;
+                return END;
+            }
+            return decodeAt(i);
+        }
+
+        if (!inLeadsArray){
+            i = skipWhitespace(i);
+            if (at(i) != '{'){
+                return status(i);
+            }
+            i = skipWhitespace(i + 1);
+            for (byte b : LEADS_NAME){
+                if (at(i) != b){
+                    return status(i);
+                }
+                i++;
+            }
+            i = skipWhitespace(i);
+            if (at(i) != ':'){
+                return status(i);
+            }
+            i = skipWhitespace(i + 1);
+            if (at(i) != '['){
+                return status(i);
+            }
+            position = windowStart + i + 1;
+            inLeadsArray = true;
+            i++;
+        }
+
+        i = skipWhitespace(i);
+        int c = at(i);
+        if (c == ']'){
+            // anything after the leads array goes to Gson, which skips it
+            i = skipWhitespace(i + 1);
+            if (at(i) != '}'){
+                return status(i);
+            }
+            finished = true;
+            return END;
+        }
+        if (leadsConsumed > 0){
+            if (c != ','){
+                return status(i);
+            }
+            i = skipWhitespace(i + 1);
+        }
+        return decodeAt(i);
+    }
+
+    private int decodeAt(int i) {
+        if (at(i) != '{'){
+            return status(i);
+        }
+        int end = decodeRecord(i);
+        if (end < 0){
+            return end == INCOMPLETE ? INCOMPLETE : UNEXPECTED;
+        }
+        if (lineDelimited && containsNewline(i, end)){
+            // left for Gson to reject
+            return UNEXPECTED;
+        }
+        recordEnd = windowStart + end;
+        recordReady = true;
+        return RECORD;
+    }
+
+    private boolean containsNewline(int from, int to) {
+        for (int i = from; i < to; i++){
+            if (window.get(i) == '\n'){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int status(int i) {
+        return failed(i) == INCOMPLETE ? INCOMPLETE : UNEXPECTED;
+    }
+
+    /**
+     * Decodes the object starting at i, returning the index just past it.
+     * The last value of a field wins, as it does with Gson.
+     */
+    private int decodeRecord(int i) {
+        valuesLength = 0;
+        Arrays.fill(lengths, -1);
+        i = skipWhitespace(i + 1);
+        int c = at(i);
+        if (c == '}'){
+            return i + 1;
+        }
+        while (true){
+            if (c != '"'){
+                return failed(i);
+            }
+            int nameEnd = findNameEnd(i + 1);
+            if (nameEnd < 0){
+                return nameEnd;
+            }
+            int field = fieldOf(i + 1, nameEnd);
+            i = skipWhitespace(nameEnd + 1);
+            if (at(i) != ':'){
+                return failed(i);
+            }
+            i = skipWhitespace(i + 1);
+            if (field < 0){
+                int mark = valuesLength;
+                i = skipValue(i, 0);
+                valuesLength = mark;
+            } else {
+                i = readValue(i, field);
+            }
+            if (i < 0){
+                return i;
+            }
+            i = skipWhitespace(i);
+            c = at(i);
+            if (c == '}'){
+                return i + 1;
+            }
+            if (c != ','){
+                return failed(i);
+            }
+            i = skipWhitespace(i + 1);
+            c = at(i);
+        }
+    }
+
+    /**
+     * Reads a field's value the way Gson reads a String field: nulls stay
+     * null, and numbers and booleans are kept as their text.
+     */
+    private int readValue(int i, int field) {
+        int start = valuesLength;
+        int c = at(i);
+        int end;
+        if (c == '"'){
+            end = readString(i + 1);
+        } else if (c == 'n'){
+            end = matchLiteral(i, NULL);
+            start = -1;
+        } else if (c == 't' || c == 'f'){
+            end = matchLiteral(i, c == 't' ? TRUE : FALSE);
+            append(i, end);
+        } else {
+            end = skipNumber(i);
+            append(i, end);
+        }
+        if (end < 0){
+            return end;
+        }
+        offsets[field] = start;
+        lengths[field] = start < 0 ? -1 : valuesLength - start;
+        return end;
+    }
+
+    /**
+     * Checks and skips any value.  Strings are read into values, so the
+     * caller should take them back off again.
+     */
+    private int skipValue(int i, int depth) {
+        int c = at(i);
+        switch (c){
+            case '"':
+                return readString(i + 1);
+            case 'n':
+                return matchLiteral(i, NULL);
+            case 't':
+                return matchLiteral(i, TRUE);
+            case 'f':
+                return matchLiteral(i, FALSE);
+            case '{':
+            case '[':
+                if (depth == MAX_DEPTH){
+                    return FAILED;
+                }
+                int close = c == '{' ? '}' : ']';
+                i = skipWhitespace(i + 1);
+                if (at(i) == close){
+                    return i + 1;
+                }
+                while (true){
+                    if (c == '{'){
+                        if (at(i) != '"'){
+                            return failed(i);
+                        }
+                        i = findNameEnd(i + 1);
+                        if (i < 0){
+                            return i;
+                        }
+                        i = skipWhitespace(i + 1);
+                        if (at(i) != ':'){
+                            return failed(i);
+                        }
+                        i = skipWhitespace(i + 1);
+                    }
+                    i = skipValue(i, depth + 1);
+                    if (i < 0){
+                        return i;
+                    }
+                    i = skipWhitespace(i);
+                    int next = at(i);
+                    if (next == close){
+                        return i + 1;
+                    }
+                    if (next != ','){
+                        return failed(i);
+                    }
+                    i = skipWhitespace(i + 1);
+                }
+            default:
+                return skipNumber(i);
+        }
+    }
+
+    /**
+     * Reads the rest of a string into values, unescaping it and checking
+     * that it is valid UTF-8, and returns the index just past its closing
+     * quote.
+     */
+    private int readString(int i) {
+        while (true){
+            int c = at(i);
+            if (c == '"'){
+                return i + 1;
+            }
+            if (c == '\\'){
+                i = unescape(i + 1);
+                if (i < 0){
+                    return i;
+                }
+            } else if (c >= 0x80){
+                int end = checkUtf8(i, c);
+                if (end < 0){
+                    return end;
+                }
+                append(i, end);
+                i = end;
+            } else if (c < 0){
+                return failed(i);
+            } else {
+                if (valuesLength == values.length){
+                    values = Arrays.copyOf(values, values.length * 2);
+                }
+                values[valuesLength++] = (byte) c;
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Decodes the escape sequence following a backslash.  Anything Json
+     * doesn't allow, and \\u escapes that leave a lone surrogate, are left
+     * for Gson.
+     */
+    private int unescape(int i) {
+        int c = at(i);
+        switch (c){
+            case '"':
+            case '\\':
+            case '/':
+                appendByte(c);
+                return i + 1;
+            case 'b':
+                appendByte('\b');
+                return i + 1;
+            case 'f':
+                appendByte('\f');
+                return i + 1;
+            case 'n':
+                appendByte('\n');
+                return i + 1;
+            case 'r':
+                appendByte('\r');
+                return i + 1;
+            case 't':
+                appendByte('\t');
+                return i + 1;
+            case 'u':
+                int codePoint = hex(i + 1);
+                if (codePoint < 0){
+                    return codePoint;
+                }
+                i += 5;
+                if (Character.isHighSurrogate((char) codePoint)){
+                    if (at(i) != '\\' || at(i + 1) != 'u'){
+                        return failed(i + 1);
+                    }
+                    int low = hex(i + 2);
+                    if (low < 0){
+                        return low;
+                    }
+                    if (!Character.isLowSurrogate((char) low)){
+                        return FAILED;
+                    }
+                    codePoint = Character.toCodePoint((char) codePoint, (char) low);
+                    i += 6;
+                } else if (Character.isLowSurrogate((char) codePoint)){
+                    return FAILED;
+                }
+                appendCodePoint(codePoint);
+                return i;
+            default:
+                return failed(i);
+        }
+    }
+
+    private int hex(int i) {
+        int value = 0;
+        for (int j = i; j < i + 4; j++){
+            int digit = Character.digit(at(j), 16);
+            if (digit < 0){
+                return failed(j);
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Checks the multi byte sequence starting at i, returning the index just
+     * past it.  Sequences Java would replace when decoding, such as overlong
+     * forms and encoded surrogates, are left for Gson.
+     */
+    private int checkUtf8(int i, int c) {
+        int count;
+        int min = 0x80;
+        int max = 0xbf;
+        if (c >= 0xc2 && c <= 0xdf){
+            count = 2;
+        } else if (c >= 0xe0 && c <= 0xef){
+            count = 3;
+            min = c == 0xe0 ? 0xa0 : 0x80;
+            max = c == 0xed ? 0x9f : 0xbf;
+        } else if (c >= 0xf0 && c <= 0xf4){
+            count = 4;
+            min = c == 0xf0 ? 0x90 : 0x80;
+            max = c == 0xf4 ? 0x8f : 0xbf;
+        } else {
+            return FAILED;
+        }
+        for (int j = i + 1; j < i + count; j++){
+            int b = at(j);
+            if (b < 0){
+                return failed(j);
+            }
+            if (b < min || b > max){
+                return FAILED;
+            }
+            min = 0x80;
+            max = 0xbf;
+        }
+        return i + count;
+    }
+
+    /**
+     * Skips a number, as strictly as Json defines them.
+     */
+    private int skipNumber(int i) {
+        if (at(i) == '-'){
+            i++;
+        }
+        if (at(i) == '0'){
+            i++;
+        } else if (isDigit(at(i))){
+            while (isDigit(at(i))){
+                i++;
+            }
+        } else {
+            return failed(i);
+        }
+        if (at(i) == '.'){
+            i++;
+            if (!isDigit(at(i))){
+                return failed(i);
+            }
+            while (isDigit(at(i))){
+                i++;
+            }
+        }
+        int c = at(i);
+        if (c == 'e' || c == 'E'){
+            i++;
+            if (at(i) == '+' || at(i) == '-'){
+                i++;
+            }
+            if (!isDigit(at(i))){
+                return failed(i);
+            }
+            while (isDigit(at(i))){
+                i++;
+            }
+        }
+        // the window may have cut the number short
+        return at(i) < 0 ? failed(i) : i;
+    }
+
+    private int matchLiteral(int i, byte[] literal) {
+        for (byte b : literal){
+            if (at(i) != b){
+                return failed(i);
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Finds the closing quote of a name.  Escaped names are left for Gson.
+     */
+    private int findNameEnd(int i) {
+        while (true){
+            int c = at(i);
+            if (c == '"'){
+                return i;
+            }
+            if (c == '\\' || c < 0){
+                return failed(i);
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @return The field a name stands for, or -1 if it isn't one of ours
+     */
+    private int fieldOf(int start, int end) {
+        int length = end - start;
+        for (int field = 0; field < FIELD_NAMES.length; field++){
+            byte[] name = FIELD_NAMES[field];
+            if (name.length != length){
+                continue;
+            }
+            int j = 0;
+            while (j < length && window.get(start + j) == name[j]){
+                j++;
+            }
+            if (j == length){
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    private int skipWhitespace(int i) {
+        while (i < limit){
+            byte b = window.get(i);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t'){
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return The byte at index i of the window, or -1 past its end
+     */
+    private int at(int i) {
+        return i < limit ? window.get(i) & 0xff : -1;
+    }
+
+    /**
+     * Gives up on the current lead.  If that's because the window ended
+     * early the lead is tried again in a new window, otherwise it's left
+     * for Gson.
+     */
+    private int failed(int i) {
+        return i >= limit && moreInput() ? INCOMPLETE : FAILED;
+    }
+
+    private boolean moreInput() {
+        return windowStart + limit < size;
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private void append(int start, int end) {
+        if (end < 0){
+            return;
+        }
+        ensureCapacity(end - start);
+        for (int i = start; i < end; i++){
+            values[valuesLength++] = window.get(i);
+        }
+    }
+
+    private void appendByte(int b) {
+        ensureCapacity(1);
+        values[valuesLength++] = (byte) b;
+    }
+
+    private void appendCodePoint(int codePoint) {
+        ensureCapacity(4);
+        if (codePoint < 0x80){
+            values[valuesLength++] = (byte) codePoint;
+        } else if (codePoint < 0x800){
+            values[valuesLength++] = (byte) (0xc0 | (codePoint >> 6));
+            values[valuesLength++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (codePoint < 0x10000){
+            values[valuesLength++] = (byte) (0xe0 | (codePoint >> 12));
+            values[valuesLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            values[valuesLength++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else {
+            values[valuesLength++] = (byte) (0xf0 | (codePoint >> 18));
+            values[valuesLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            values[valuesLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            values[valuesLength++] = (byte) (0x80 | (codePoint & 0x3f));
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (values.length < valuesLength + extra){
+            values = Arrays.copyOf(values, Math.max(valuesLength + extra, values.length * 2));
+        }
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowBytes, size - start));
+        limit = window.limit();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An ASCII entry date as a CharSequence, so EntryDates can decode it
+     * without a String being created.
+     */
+    private static class AsciiChars implements CharSequence {
+        private byte[] bytes;
+        private int offset;
+        private int length;
+
+        AsciiChars set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            return this;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length){
+                throw new IndexOutOfBoundsException("Index " + index + " out of " + length);
+            }
+            return (char) bytes[offset + index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Reads a ByteBuffer from an index onwards, without moving its position.
+     */
+    static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        private int index;
+
+        ByteBufferInputStream(ByteBuffer buffer, int index) {
+            this.buffer = buffer;
+            this.index = index;
+        }
+
+        @Override
+        public int read() {
+            return index < buffer.limit() ? buffer.get(index++) & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0){
+                return 0;
+            }
+            if (index >= buffer.limit()){
+                return -1;
+            }
+            int count = Math.min(length, buffer.limit() - index);
+            for (int i = 0; i < count; i++){
+                bytes[offset + i] = buffer.get(index++);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,636 @@
+package com.nlaw.leadDedupe;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ObjLongConsumer;
+
+/**
+ *  LeadMerger
+ *
+ *  Applies our deduplication rules to leads one at a time, in input order,
+ *  and keeps track of the leads we've chosen to keep.  The rules are:
+ *
+ *  1. The data from the newest date should be preferred
+ *  2. Duplicate IDs count as dupes. Duplicate emails count as dupes. Other
+ *     duplicate values do not constitute a duplicate record.
+ *  3. If dates are identical, use the record provided last in the list.
+ *
+ *  There are three main cases we'll run into when examining a record:
+ *
+ *  1. The email address and ID of the record do not match a record we have
+ *  chosen to keep up to this point.
+ *  2. The email address, ID, or both match one existing record we've chosen
+ *  to keep.
+ *  3. The email address and ID match two separate existing records.
+ *
+ *  In the first case, we simply add the item to the output.  In the second,
+ *  we compare the dates of the item using rules 1 and 3 as our guide and
+ *  update the existing item if necessary.
+ *
+ *  The third case, however, is tricky.  The assumption this implementation
+ *  uses is that based on our rules, we should only keep one record, and
+ *  that should be the newest record.  We toss out the other two records
+ *  involved in the three-way collision.
+ *
+ *  Leads are kept as rows of a LeadColumns store rather than as Lead
+ *  objects, and the rows of the leads we keep are stored in outputSlots.
+ *  Each incoming lead is appended to the store before it is merged, and
+ *  taken back off again if we don't keep it.  Rows of leads that are later
+ *  replaced or removed stay behind as garbage until there is enough of it
+ *  to be worth compacting the store.  We rely on the ordinal each lead is
+ *  stamped with when it is read to compare the positions of records in the
+ *  input file in three-way collisions.
+ *
+ *  For faster lookups, we keep track of the email addresses and ids from the
+ *  output in two KeyIndexes, idIndex and emailIndex, which map each id and
+ *  each email to a slot, the location of the lead that owns it in
+ *  outputSlots.  A lead never changes slots while it survives, so removing
+ *  or replacing a lead is constant time and never requires us to remap the
+ *  other leads.  The DedupeServiceImpl uses DictionaryKeyIndexes, which
+ *  store keys compactly on the heap; for very large inputs an OffHeapKeyIndex
+ *  keeps them out of the garbage collector's way.
+ *
+ *  Every change is logged, but merging is the hot path, so messages are
+ *  only built once we know their level is enabled.  With logging turned
+ *  down to warn or off, merging a lead doesn't create any objects at all.
+ *  Replacements log a line for each field that changed unless field diffs
+ *  are turned off with setLogFieldDiffs().  The same changes can also be
+ *  reported as structured events to an AuditLog, and given DedupeMetrics,
+ *  the merger counts how often each case and sub-case comes up.
+ *
+ *  @author nlawrence
+ *
+ */
+public class LeadMerger implements KeptLeads {
+
+    public static final Logger logger = LogManager.getLogger(LeadMerger.class.getName());
+
+    // what mergeRow() did with a lead
+    public static final int ACCEPTED = 0; // kept, without displacing anything
+    public static final int REPLACED = 1; // kept in place of one or two leads
+    public static final int DROPPED = 2; // not kept
+
+    // compact once garbage is over half the store and at least this big
+    private static final long MIN_COMPACTION_BYTES = 1 << 20;
+
+    private LeadColumns columns = new LeadColumns(); // every lead we hold
+    private LeadSlots outputSlots = new LeadSlots(); // rows of our unique leads
+    private long garbageBytes = 0; // bytes of rows no longer in a slot
+    private KeyIndex idIndex; // maps id to slot
+    private KeyIndex emailIndex; // maps email to slot
+    private boolean logFieldDiffs = true;
+    private AuditLog auditLog; // null unless structured events are wanted
+    private DedupeMetrics metrics; // null unless collision cases are counted
+    private int peakIndexKeys = 0;
+
+    /**
+     * Creates a merger with HashMap backed indexes, which are the cheapest
+     * for small merges such as a single collision cluster.
+     */
+    public LeadMerger() {
+        this(new HeapKeyIndex(), new HeapKeyIndex());
+    }
+
+    /**
+     * @param idIndex An empty index to track ids in
+     * @param emailIndex An empty index to track emails in
+     */
+    public LeadMerger(KeyIndex idIndex, KeyIndex emailIndex) {
+        this.idIndex = idIndex;
+        this.emailIndex = emailIndex;
+    }
+
+    /**
+     * @param logFieldDiffs Whether replacing a lead should log each field
+     *                      that changed, on top of the old and new records
+     */
+    public void setLogFieldDiffs(boolean logFieldDiffs) {
+        this.logFieldDiffs = logFieldDiffs;
+    }
+
+    /**
+     * @param auditLog Where to report each change to the output, or null to
+     *                 not report them
+     */
+    public void setAuditLog(AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * @param metrics Where to count each collision case, or null to not
+     *                count them
+     */
+    public void setMetrics(DedupeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return The most keys the id and email indexes have held between them
+     */
+    public int getPeakIndexKeys() {
+        return peakIndexKeys;
+    }
+
+    /**
+     * @return Roughly how many bytes of memory our store, slots and indexes
+     *         hold, including garbage that hasn't been compacted yet
+     */
+    public long estimatedBytes() {
+        return columns.estimatedBytes() + outputSlots.estimatedBytes()
+                + idIndex.estimatedBytes() + emailIndex.estimatedBytes();
+    }
+
+    /**
+     *
+     * Compacts the store down to the leads we've kept so far, in output
+     * order, and returns a view of them.  Leads are only created as the view
+     * is read, and the view is only valid until the next lead is merged.
+     *
+     * @return The leads we've kept so far, in output order
+     */
+    public List<Lead> getOutputLeads() {
+        compact();
+        return columns.asLeadList();
+    }
+
+    /**
+     * @return The store our leads are kept in, which new leads can be
+     *         appended to and then merged with mergeRow()
+     */
+    public LeadColumns getColumns() {
+        return columns;
+    }
+
+    /**
+     *
+     * Hands each lead we've kept so far to the consumer, in output order,
+     * along with the ordinal of the lead that first claimed its place in the
+     * output.  A surviving lead takes over the place of a lead it replaced,
+     * so merging leads separately (e.g. one collision cluster at a time) and
+     * then sorting the survivors by that ordinal gives the same order as
+     * merging them all together.
+     *
+     * @param consumer Receives each surviving lead and its output ordinal
+     */
+    public void forEachOutputLead(ObjLongConsumer<Lead> consumer) {
+        outputSlots.forEach(slot -> consumer.accept(columns.getLead(outputSlots.get(slot)),
+                outputSlots.getSlotOrdinal(slot)));
+    }
+
+    /**
+     * @return The number of leads we've kept so far
+     */
+    public int getOutputSize() {
+        return outputSlots.size();
+    }
+
+    /**
+     *
+     * Puts back a lead that survived an earlier run, as handed out by
+     * forEachOutputLead().  Leads must be restored in output order, and
+     * before any new leads are merged.
+     *
+     * @param lead The surviving lead, stamped with its own ordinal
+     * @param slotOrdinal The ordinal of the lead that first claimed its place
+     *                    in the output
+     */
+    public void restore(Lead lead, long slotOrdinal) {
+        int row = columns.add(lead);
+        if (lookup(idIndex, row, LeadColumns.ID) >= 0 || lookup(emailIndex, row, LeadColumns.EMAIL) >= 0){
+            columns.removeLastRow();
+            throw new IllegalStateException("A lead with the same id or email has already been restored: "
+                    + lead.toString());
+        }
+        int slot = outputSlots.add(row, slotOrdinal);
+        index(row, slot);
+    }
+
+    /**
+     *
+     * Merges a single lead into the output, based on which of the three
+     * cases described above it falls into.  Leads must be merged in the
+     * order they appear in the input.
+     *
+     * @param lead The lead read from the input.
+     * @return ACCEPTED, REPLACED or DROPPED
+     */
+    public int merge(Lead lead) {
+        return mergeRow(columns.add(lead));
+    }
+
+    /**
+     *
+     * Merges the lead in the last row of our store, which the caller has
+     * just appended to getColumns().
+     *
+     * @param row The row of the lead read from the input.
+     * @return ACCEPTED if the lead was kept without colliding with any lead
+     *         we'd kept, REPLACED if it was kept in place of one or two of
+     *         them, or DROPPED if it wasn't kept
+     */
+    public int mergeRow(int row) {
+        if (row != columns.size() - 1){
+            throw new IllegalArgumentException("Only the last row of the store can be merged, got " + row);
+        }
+        logger.debug("Processing new record...");
+
+        int idSlot = lookup(idIndex, row, LeadColumns.ID);
+        int emailSlot = lookup(emailIndex, row, LeadColumns.EMAIL);
+        boolean idExists = idSlot >= 0;
+        boolean emailExists = emailSlot >= 0;
+        boolean kept;
+
+        if (!idExists && !emailExists){
+            //CASE: Neither Emails nor ids match an existing record
+            addNewRecord(row);
+            kept = true;
+            count(DedupeMetrics.ADDED);
+
+        } else if (idExists){
+            int idMatchRow = outputSlots.get(idSlot); //IDs match if we're here
+            boolean emailsMatch = columns.fieldEquals(row, idMatchRow, LeadColumns.EMAIL);
+
+            if (emailsMatch || !emailExists){
+                // CASE: Either both the ids and emails match
+                // OR
+                // CASE: emails don't match, but no existing item with the same
+                // email as the new record.
+                // in either case, we've only collided with one record
+                kept = mergeWithExistingRecord(row, idSlot, idMatchRow);
+                if (emailsMatch){
+                    count(kept ? DedupeMetrics.SAME_LEAD_REPLACED : DedupeMetrics.SAME_LEAD_DISCARDED);
+                } else {
+                    count(kept ? DedupeMetrics.ID_MATCH_REPLACED : DedupeMetrics.ID_MATCH_DISCARDED);
+                }
+            } else {
+                // CASE: The id's match but the emails don't match
+                // AND
+                // CASE: there's already an existing record with that email
+                // So, we've collided with two records.
+                kept = mergeThreeRecords(row, idSlot, emailSlot);
+            }
+        } else {
+            // CASE: Email exists, IDs don't (because we don't currently
+            // have this id listed)
+            int emailMatchRow = outputSlots.get(emailSlot);
+            kept = mergeWithExistingRecord(row, emailSlot, emailMatchRow);
+            count(kept ? DedupeMetrics.EMAIL_MATCH_REPLACED : DedupeMetrics.EMAIL_MATCH_DISCARDED);
+        }
+
+        if (!kept){
+            // nothing refers to the new row, so it can go straight away
+            columns.removeLastRow();
+        }
+        if (garbageBytes > MIN_COMPACTION_BYTES && garbageBytes > columns.getByteCount() / 2){
+            compact();
+        }
+        if (!kept){
+            return DROPPED;
+        }
+        return idExists || emailExists ? REPLACED : ACCEPTED;
+    }
+
+    /**
+     *
+     * Adds a new record, i.e. an email and id that we don't currently have in
+     * the list, to the output list for later serialization to JSON and logs
+     * that change to the list.
+     *
+     * @param row The row of the lead to be added to the list.
+     */
+    private void addNewRecord(int row) {
+        int slot = outputSlots.add(row, columns.getOrdinal(row));
+
+        index(row, slot);
+        if (auditLog != null){
+            auditLog.added(columns, row);
+        }
+        if (logger.isDebugEnabled()){
+            logger.debug("Adding Record: \n  {}", columns.getLead(row));
+        }
+    }
+
+    /**
+     *
+     * Logs a lead that was kept without going through a merger, because
+     * nothing could collide with it, just as merging it would have.
+     *
+     * @param lead The lead that was kept
+     */
+    static void logUncontested(Lead lead) {
+        if (logger.isDebugEnabled()){
+            logger.debug("Processing new record...");
+            logger.debug("Adding Record: \n  {}", lead);
+        }
+    }
+
+    /**
+     *
+     * Handles a collision between a new record and one existing record.
+     *
+     * We compare the dates of the current/new record and the existing record
+     * using the rules:
+     *
+     * 1. The data from the newest date should be preferred
+     * 3. If dates are identical, use the record provided last in the list.
+     *
+     * If the new record is preferred over the old record, then the existing record is
+     * replaced by the new record and the changes are logged.  If the existing record
+     * is preferred, then the new record is simply discarded.
+     *
+     * @param row The row of the new record.
+     * @param itemSlot The slot of the existing record in the output.
+     * @param originalRow The row of the existing record.
+     * @return Whether the new record was kept.
+     */
+    private boolean mergeWithExistingRecord(int row, int itemSlot, int originalRow) {
+        long origDate = columns.getEntryNanos(originalRow);
+        long leadDate = columns.getEntryNanos(row);
+
+        /* Since the new record is later in the file, if the dates are equal
+           then we update the same as if the date is newer, aka after the
+           date currently mapped. */
+        if (leadDate >= origDate) {
+
+            if (auditLog != null){
+                auditLog.replaced(columns, originalRow, row);
+            }
+            if (logger.isInfoEnabled()){
+                logChanges(columns.getLead(row), columns.getLead(originalRow), logFieldDiffs);
+            }
+
+            // because we only collide with one record, either the id or the
+            // email of the new record may differ from the existing one, so
+            // move both keys over to the new record.
+            unindex(originalRow);
+            index(row, itemSlot);
+            outputSlots.set(itemSlot, row);
+            garbageBytes += columns.rowBytes(originalRow);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     *
+     * Handles a collision between a new record and two existing records.
+     *
+     * The assumption here is that collisions should be handled in chronological
+     * order.
+     *
+     * There are 4 main cases we can encounter, with most having additional
+     * sub-cases.
+     *
+     * If the new record is newer than both existing records, or is equal to
+     * both (by date) then we keep the new record only and toss the two
+     * existing records.
+     *
+     * If the new record is between the two existing records, we evaluate the
+     * order of the existing records in the original list. The thought here is
+     * that either:
+     *
+     * 1. If the oldest of the existing items comes first, then the new record
+     *    would have first replaced the oldest existing record, and then would
+     *    have subsequently been replaced by the other existing record,
+     * OR
+     * 2. If the newest existing record was earlier in the list, then the
+     *    collision between the oldest existing record and the new (or middle)
+     *    record would have never occurred, therefore leaving the two existing
+     *    records in the list (since the middle record would have been discarded
+     *    when compared with the newest existing record).
+     *
+     * If the record is tied by date with only one of the existing records then
+     * we again evaluate the order of the records in the list, such that:
+     *
+     * 1. If either of the existing records is younger than the lead, then a
+     *    middle collision would have occurred and we toss out both existing
+     *    records in favor of the new (as the new record comes second in the
+     *    file after the existing record it's tied with by date).
+     * OR
+     * 2. If one of the existing records is older than the lead date, then
+     *    we toss the existing record that's further down in the list and
+     *    the new record.
+     *
+     * Finally, if the newest record is older than both records, then we need to
+     * verify if the first two records are tied by date.  If they are, we do
+     * nothing, as they both supersede the current record.  If they are not,
+     * then we need to evaluate the position of the records in the list:
+     *
+     * 1. If the newer existing item was in the file first, then both records
+     *    supersede the current record and we do nothing.
+     * OR
+     * 2. If the older existing item was in the file first, we remove it, as
+     *    it would have been replaced by the current record.
+     *
+     * @param row The row of the new record.
+     * @param idMatchSlot The slot of the existing record which collides with
+     *                    the new record by id.
+     * @param emailMatchSlot The slot of the existing record which collides
+     *                       with the new record by email.
+     * @return Whether the new record was kept.
+     */
+    private boolean mergeThreeRecords(int row, int idMatchSlot, int emailMatchSlot) {
+        int idMatchRow = outputSlots.get(idMatchSlot);
+        int emailMatchRow = outputSlots.get(emailMatchSlot);
+
+        if (auditLog != null){
+            auditLog.collided(columns, row, emailMatchRow, idMatchRow);
+        }
+        if (logger.isInfoEnabled()){
+            logger.info("3-way collision!\n Current record:\n  {}\n Existing record with same email:\n  {}"
+                    + "\n Exisiting record with same id:\n  {}", columns.getLead(row),
+                    columns.getLead(emailMatchRow), columns.getLead(idMatchRow));
+        }
+
+        long idMatchDate = columns.getEntryNanos(idMatchRow);
+        long emailMatchDate = columns.getEntryNanos(emailMatchRow);
+        long idMatchFileLocation = columns.getOrdinal(idMatchRow);
+        long emailMatchFileLocation = columns.getOrdinal(emailMatchRow);
+        int threeWayCase = threeWayCase(columns.getEntryNanos(row), idMatchDate, emailMatchDate,
+                idMatchFileLocation, emailMatchFileLocation);
+        count(threeWayCase);
+
+        switch (threeWayCase){
+            case DedupeMetrics.THREE_WAY_NEWEST:
+                // remove both existing records and add the current record
+                removeRecord(idMatchSlot);
+                removeRecord(emailMatchSlot);
+                addNewRecord(row);
+                return true;
+            case DedupeMetrics.THREE_WAY_TIED_KEPT_NEW:
+                removeRecord(emailMatchSlot);
+                removeRecord(idMatchSlot);
+                addNewRecord(row);
+                return true;
+            case DedupeMetrics.THREE_WAY_OLDEST_UNCHANGED:
+                // both existing records supersede the current record
+                return false;
+            case DedupeMetrics.THREE_WAY_TIED_NEWER_LAST:
+                // remove the first in the list
+                removeRecord(emailMatchFileLocation < idMatchFileLocation ? emailMatchSlot : idMatchSlot);
+                return false;
+            default:
+                // THREE_WAY_BETWEEN, THREE_WAY_OLDEST_REMOVED_ONE and
+                // THREE_WAY_TIED_NEWER_FIRST all remove the older existing
+                // record and discard the current one
+                removeRecord(emailMatchDate < idMatchDate ? emailMatchSlot : idMatchSlot);
+                return false;
+        }
+    }
+
+    /**
+     *
+     * Works out which of the cases described for mergeThreeRecords() a
+     * three-way collision falls into, from nothing but the dates of the three
+     * records and the positions of the two existing ones in the input, so
+     * that anything resolving collisions applies exactly the same rules.
+     *
+     * @param leadDate The entry date of the new record
+     * @param idMatchDate The entry date of the record it shares an id with
+     * @param emailMatchDate The entry date of the record it shares an email with
+     * @param idMatchFileLocation The ordinal of the record it shares an id with
+     * @param emailMatchFileLocation The ordinal of the record it shares an email with
+     * @return One of DedupeMetrics' THREE_WAY_ cases
+     */
+    static int threeWayCase(long leadDate, long idMatchDate, long emailMatchDate,
+                            long idMatchFileLocation, long emailMatchFileLocation) {
+        // if the lead date is after both dates or is equal to both dates then
+        // keep the new record only.
+        if ((leadDate > idMatchDate && leadDate > emailMatchDate) ||
+                (leadDate == idMatchDate && leadDate == emailMatchDate)){
+            return DedupeMetrics.THREE_WAY_NEWEST;
+
+        } else if (leadDate > idMatchDate && leadDate < emailMatchDate ||
+                (leadDate > emailMatchDate && leadDate < idMatchDate)){
+            //if the lead date is in the middle
+            return DedupeMetrics.THREE_WAY_BETWEEN;
+
+        } else if (leadDate < idMatchDate && leadDate < emailMatchDate){
+            // lead date is first
+            // lead < email == id or lead < email < id or lead < id < email
+
+            /* lead < email < id and id match comes first
+               lead < id < email and email match comes first in the file
+               in any three of the cases, the middle collision occurred.
+               */
+            if ((emailMatchDate < idMatchDate && emailMatchFileLocation < idMatchFileLocation) ||
+                    (idMatchDate < emailMatchDate && idMatchFileLocation < emailMatchFileLocation)){
+                // remove the first chronological instance, because the middle collision occurred.
+                return DedupeMetrics.THREE_WAY_OLDEST_REMOVED_ONE;
+            }
+            // because the lead would have been replaced by the first
+            // of the two existing records that are encountered, and the two
+            // existing records do not collide, we pass.
+            return DedupeMetrics.THREE_WAY_OLDEST_UNCHANGED;
+        }
+
+        //lead date tied with one of existing records, the only case left
+
+        // if the first in the record in the list is younger or the second
+        // record in the list is younger, then remove both existing records
+        if ((emailMatchDate < leadDate || idMatchDate < leadDate)){
+            return DedupeMetrics.THREE_WAY_TIED_KEPT_NEW;
+        } else if ((emailMatchDate > leadDate && emailMatchFileLocation < idMatchFileLocation) ||
+                (idMatchDate > leadDate && idMatchFileLocation < emailMatchFileLocation)){
+            // otherwise if the first record in the list is older, remove the second
+            return DedupeMetrics.THREE_WAY_TIED_NEWER_FIRST;
+        }
+        // otherwise if the second record in the list is older
+        // remove the first
+        return DedupeMetrics.THREE_WAY_TIED_NEWER_LAST;
+    }
+
+    /**
+     *
+     * Removes a single record from the output and all tracking maps.  The
+     * record's email and id are read from the record itself, so the maps
+     * can't be left pointing at a removed slot.
+     *
+     * @param slot The slot of the item to be removed from the output
+     */
+    private void removeRecord(int slot){
+        int row = outputSlots.get(slot);
+        outputSlots.remove(slot);
+        unindex(row);
+        garbageBytes += columns.rowBytes(row);
+        if (auditLog != null){
+            auditLog.removed(columns, row);
+        }
+        if (logger.isDebugEnabled()){
+            logger.debug("Removing Record: \n  {}", columns.getLead(row));
+        }
+    }
+
+    private int lookup(KeyIndex index, int row, int field) {
+        return index.get(columns.pageOf(row), columns.fieldOffset(row, field),
+                columns.fieldLength(row, field));
+    }
+
+    /**
+     * Points a row's id and email at a slot.
+     */
+    private void index(int row, int slot) {
+        byte[] page = columns.pageOf(row);
+        idIndex.put(page, columns.fieldOffset(row, LeadColumns.ID),
+                columns.fieldLength(row, LeadColumns.ID), slot);
+        emailIndex.put(page, columns.fieldOffset(row, LeadColumns.EMAIL),
+                columns.fieldLength(row, LeadColumns.EMAIL), slot);
+        peakIndexKeys = Math.max(peakIndexKeys, idIndex.size() + emailIndex.size());
+    }
+
+    private void count(int mergeCase) {
+        if (metrics != null){
+            metrics.count(mergeCase);
+        }
+    }
+
+    private void unindex(int row) {
+        byte[] page = columns.pageOf(row);
+        emailIndex.remove(page, columns.fieldOffset(row, LeadColumns.EMAIL),
+                columns.fieldLength(row, LeadColumns.EMAIL));
+        idIndex.remove(page, columns.fieldOffset(row, LeadColumns.ID),
+                columns.fieldLength(row, LeadColumns.ID));
+    }
+
+    /**
+     * Drops every row that isn't in a slot from the store, renumbering the
+     * rows that are in slot order.
+     */
+    private void compact() {
+        int[] keptRows = new int[outputSlots.size()];
+        int[] count = new int[1];
+        outputSlots.forEach(slot -> {
+            keptRows[count[0]] = outputSlots.get(slot);
+            outputSlots.set(slot, count[0]++);
+        });
+        columns.compact(keptRows, count[0]);
+        garbageBytes = 0;
+    }
+
+    static void logChanges(Lead oldRecord, Lead newRecord, boolean logFieldDiffs){
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("Merging one record:\n");
+        stringBuilder.append("  Old Record:\n  ").append(oldRecord).append('\n');
+        stringBuilder.append("  New Record:\n  ").append(newRecord).append('\n');
+
+        if (logFieldDiffs){
+            appendChange(stringBuilder, "id", oldRecord.get_id(), newRecord.get_id());
+            appendChange(stringBuilder, "email", oldRecord.getEmail(), newRecord.getEmail());
+            appendChange(stringBuilder, "firstName", oldRecord.getFirstName(), newRecord.getFirstName());
+            appendChange(stringBuilder, "lastName", oldRecord.getLastName(), newRecord.getLastName());
+            appendChange(stringBuilder, "address", oldRecord.getAddress(), newRecord.getAddress());
+            appendChange(stringBuilder, "entryDate", oldRecord.getEntryDate(), newRecord.getEntryDate());
+        }
+        logger.info(stringBuilder.toString());
+    }
+
+    private static void appendChange(StringBuilder stringBuilder, String field, String from, String to){
+        if (!Objects.equals(from, to)){
+            stringBuilder.append("  ").append(field).append(" changed -- Value From: \"").append(from)
+                    .append("\" --> Value To: \"").append(to).append("\" \n");
+        }
+    }
+}
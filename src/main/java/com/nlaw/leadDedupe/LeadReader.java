@@ -0,0 +1,319 @@
+package com.nlaw.leadDedupe;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *  LeadReader
+ *
+ *  Pulls leads one at a time out of a {"leads":[...]} document, or out of
+ *  newline delimited Json with a lead on each line, so callers can process
+ *  records as they arrive instead of holding the whole input list in
+ *  memory.
+ *
+ *  Each lead is stamped with its ordinal, its zero based position in the
+ *  leads array, and its decoded entry date as it is read, so nothing
+ *  downstream needs to parse dates again.  nextRow() reads a lead straight
+ *  into a LeadColumns store instead, without creating a Lead for it.
+ *
+ *  The reader positions itself inside the "leads" array on the first call to
+ *  hasNext(), and consumes the rest of the document once the array has been
+ *  exhausted.  If the document has more than one "leads" array, their leads
+ *  are read one array after another, as though they had been one.  Any
+ *  other top level names are skipped.  Newline delimited
+ *  input is read a line at a time, leniently, as that's how the JsonReader
+ *  accepts more than one top level value; blank lines are skipped, and a
+ *  lead that spans lines is rejected, so that the input can be split at any
+ *  newline.
+ *
+ *  A reader created over a file or a ByteBuffer decodes leads with a
+ *  LeadDecoder, straight from the bytes, for as long as the input looks
+ *  the way we expect, and hands the rest of the input to Gson as soon as it
+ *  doesn't.  Either way the same leads come out, or the same input is
+ *  rejected.
+ *
+ *  @author nlawrence
+ *
+ */
+public class LeadReader implements Closeable {
+    private static final LeadTypeAdapter LEAD_ADAPTER = new LeadTypeAdapter();
+
+    private JsonReader jsonReader; // null while the decoder is reading
+    private LeadDecoder decoder;
+    private Reader lines; // the newline delimited input, read a line at a time into jsonReader
+    private final String[] fields = new String[LeadColumns.FIELD_COUNT];
+    private final boolean lineDelimited;
+
+    private boolean inLeadsArray = false;
+    private boolean finished = false;
+    private long nextOrdinal = 0;
+
+    public LeadReader(Reader reader) {
+        this(reader, false);
+    }
+
+    /**
+     * @param reader The input to read leads from
+     * @param lineDelimited Whether the input holds a lead per line rather
+     *                      than a single {"leads":[...]} document
+     */
+    public LeadReader(Reader reader, boolean lineDelimited) {
+        if (lineDelimited){
+            this.lines = new BufferedReader(reader);
+        } else {
+            this.jsonReader = new JsonReader(reader);
+        }
+        this.lineDelimited = lineDelimited;
+    }
+
+    /**
+     * @param channel The file to read leads from, decoded straight from its
+     *                mapped bytes, and closed along with the reader
+     * @param lineDelimited Whether the input holds a lead per line rather
+     *                      than a single {"leads":[...]} document
+     * @throws IOException if the file can't be mapped
+     */
+    public LeadReader(FileChannel channel, boolean lineDelimited) throws IOException {
+        this.decoder = new LeadDecoder(channel, lineDelimited);
+        this.lineDelimited = lineDelimited;
+    }
+
+    /**
+     * @param input The whole input, from its position to its limit,
+     *              decoded straight from its bytes
+     * @param lineDelimited Whether the input holds a lead per line rather
+     *                      than a single {"leads":[...]} document
+     */
+    public LeadReader(ByteBuffer input, boolean lineDelimited) {
+        this.decoder = new LeadDecoder(input, lineDelimited);
+        this.lineDelimited = lineDelimited;
+    }
+
+    /**
+     *
+     * Checks whether another lead is available, advancing into (or out of)
+     * the "leads" array as necessary.
+     *
+     * @return true if a call to next() will return a lead
+     * @throws IOException if the underlying input can't be read
+     */
+    public boolean hasNext() throws IOException {
+        if (finished){
+            return false;
+        }
+        if (decoder != null){
+            switch (decoder.advance()){
+                case LeadDecoder.RECORD:
+                    return true;
+                case LeadDecoder.END:
+                    finished = true;
+                    return false;
+                default:
+                    switchToGson();
+            }
+        }
+        if (lineDelimited){
+            finished = atEndOfLines();
+            return !finished;
+        }
+        if (!inLeadsArray){
+            //consume first curly brace {
+            jsonReader.beginObject();
+            if (!seekLeadsArray()){
+                finish();
+                return false;
+            }
+        }
+        while (!jsonReader.hasNext()){
+            //consume closing bracket ]
+            jsonReader.endArray();
+            inLeadsArray = false;
+            // a later leads array carries on where this one left off
+            if (!seekLeadsArray()){
+                finish();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * Reads the next lead from the input and stamps it with its ordinal and
+     * entry date.  Callers should check hasNext() first.
+     *
+     * @return the next lead in the input
+     * @throws IOException if the underlying input can't be read
+     * @throws java.time.DateTimeException if the lead's entry date is invalid
+     */
+    public Lead next() throws IOException {
+        if (!hasNext()){
+            throw new IllegalStateException("No leads left in input");
+        }
+        if (decoder != null){
+            return decoder.consumeLead(nextOrdinal++);
+        }
+        // read the way Gson.fromJson() reads a value: leniently, with
+        // anything malformed reported as a JsonSyntaxException
+        boolean lenient = jsonReader.isLenient();
+        jsonReader.setLenient(true);
+        try {
+            return LEAD_ADAPTER.read(jsonReader, nextOrdinal++);
+        } catch (IllegalStateException | IOException e){
+            throw new JsonSyntaxException(e);
+        } finally {
+            jsonReader.setLenient(lenient);
+        }
+    }
+
+    /**
+     *
+     * Reads the next lead from the input straight into a column store,
+     * stamped with its ordinal and entry date.  Callers should check
+     * hasNext() first.
+     *
+     * @param columns The store to append the lead to
+     * @return the lead's row in the store
+     * @throws IOException if the underlying input can't be read
+     * @throws java.time.DateTimeException if the lead's entry date is invalid
+     */
+    public int nextRow(LeadColumns columns) throws IOException {
+        if (!hasNext()){
+            throw new IllegalStateException("No leads left in input");
+        }
+        if (decoder != null){
+            return decoder.consumeRow(columns, nextOrdinal++);
+        }
+        // leniently, just as next() reads a lead
+        boolean lenient = jsonReader.isLenient();
+        jsonReader.setLenient(true);
+        try {
+            LeadTypeAdapter.readFields(jsonReader, fields);
+        } catch (IllegalStateException | IOException e){
+            throw new JsonSyntaxException(e);
+        } finally {
+            jsonReader.setLenient(lenient);
+        }
+        String entryDate = fields[LeadColumns.ENTRY_DATE];
+        return columns.add(fields[LeadColumns.ID], fields[LeadColumns.EMAIL], fields[LeadColumns.FIRST_NAME],
+                fields[LeadColumns.LAST_NAME], fields[LeadColumns.ADDRESS], entryDate,
+                nextOrdinal++, EntryDates.toEpochNanos(entryDate));
+    }
+
+    public void close() throws IOException {
+        if (decoder != null){
+            decoder.close();
+        }
+        if (jsonReader != null){
+            jsonReader.close();
+        }
+        if (lines != null){
+            lines.close();
+        }
+    }
+
+    /**
+     * Carries on with Gson from wherever the decoder stopped.  If that's
+     * inside the leads array after a lead, the input starts with an empty
+     * lead in its place, which is skipped so that Gson sees the separator
+     * that followed it.
+     */
+    private void switchToGson() throws IOException {
+        Reader remainingInput = new InputStreamReader(decoder.remainingInput(), StandardCharsets.UTF_8);
+        if (lineDelimited){
+            lines = new BufferedReader(remainingInput);
+            decoder = null;
+            return;
+        }
+        jsonReader = new JsonReader(remainingInput);
+        if (decoder.isInLeadsArray()){
+            jsonReader.beginObject();
+            seekLeadsArray();
+            if (decoder.getLeadsConsumed() > 0){
+                jsonReader.skipValue();
+            }
+        }
+        decoder = null;
+    }
+
+    /**
+     * Skips ahead to the "leads" name and consumes the opening bracket [ of
+     * its array.  Returns false if the object has no leads array.
+     */
+    private boolean seekLeadsArray() throws IOException {
+        while (jsonReader.hasNext()){
+            String name = jsonReader.nextName();
+            //our leads are buried inside an array in a "leads" object
+            if (name.equals("leads") && jsonReader.peek() == JsonToken.BEGIN_ARRAY){
+                jsonReader.beginArray();
+                inLeadsArray = true;
+                return true;
+            }
+            jsonReader.skipValue();
+        }
+        return false;
+    }
+
+    /**
+     * Checks for the end of newline delimited input, moving on to the next
+     * line that holds a value once the current one runs out.  Each line gets
+     * its own JsonReader, so a lead can't carry on past the end of its line.
+     */
+    private boolean atEndOfLines() throws IOException {
+        while (jsonReader == null || jsonReader.peek() == JsonToken.END_DOCUMENT){
+            String line = nextLine();
+            if (line == null){
+                return true;
+            }
+            jsonReader = new JsonReader(new StringReader(line));
+            jsonReader.setLenient(true);
+            try {
+                jsonReader.peek();
+            } catch (EOFException e){
+                // the JsonReader throws on a line that is only whitespace
+                jsonReader = null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The next line of newline delimited input, without its
+     *         newline, or null at the end of the input.  Only a newline ends
+     *         a line, as only a newline is split on when leads are read in
+     *         parallel.
+     */
+    private String nextLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c = lines.read();
+        if (c < 0){
+            return null;
+        }
+        while (c >= 0 && c != '\n'){
+            line.append((char) c);
+            c = lines.read();
+        }
+        return line.toString();
+    }
+
+    /**
+     * Consumes the closing curly brace } once there are no leads arrays
+     * left.
+     */
+    private void finish() throws IOException {
+        jsonReader.endObject();
+        finished = true;
+    }
+}
@@ -0,0 +1,150 @@
+package com.nlaw.leadDedupe;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ *  LeadSlots
+ *
+ *  An append-only array of slots for the leads we've chosen to keep.  Each
+ *  slot holds the row of its lead in a LeadColumns store.
+ *
+ *  A lead keeps the slot it was added in for as long as it survives, so
+ *  anything that maps keys to slots never has to be updated when other leads
+ *  are removed.  Replacing a lead reuses its slot, and removing one just
+ *  leaves a tombstone (a row of -1) behind.  Walking the slots in order and
+ *  skipping the tombstones gives the same order an ArrayList would have had
+ *  if every removal had shifted the later items down.
+ *
+ *  Each slot also remembers the ordinal of the lead that was added to it,
+ *  which stays with the slot when its lead is replaced.
+ *
+ *  All operations other than forEach() are constant time.
+ *
+ *  @author nlawrence
+ *
+ */
+public class LeadSlots {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] rows = new int[INITIAL_CAPACITY];
+    private long[] slotOrdinals = new long[INITIAL_CAPACITY];
+    private int used = 0; // number of slots handed out, including tombstones
+    private int live = 0; // number of slots currently holding a lead
+
+    /**
+     *
+     * Adds a lead to the next free slot at the end of the array.
+     *
+     * @param row The lead's row
+     * @param slotOrdinal The ordinal to remember for the slot, normally the
+     *                    lead's own
+     * @return The slot the lead was stored in
+     */
+    public int add(int row, long slotOrdinal) {
+        if (row < 0){
+            throw new IllegalArgumentException("Rows can't be negative: " + row);
+        }
+        if (used == rows.length){
+            rows = Arrays.copyOf(rows, rows.length * 2);
+            slotOrdinals = Arrays.copyOf(slotOrdinals, slotOrdinals.length * 2);
+        }
+        rows[used] = row;
+        slotOrdinals[used] = slotOrdinal;
+        live++;
+        return used++;
+    }
+
+    /**
+     * @param slot A slot previously returned by add()
+     * @return The row of the lead in the slot, or -1 if it has been removed
+     */
+    public int get(int slot) {
+        checkSlot(slot);
+        return rows[slot];
+    }
+
+    /**
+     * @param slot A slot previously returned by add()
+     * @return The ordinal of the lead the slot was allocated for
+     */
+    public long getSlotOrdinal(int slot) {
+        checkSlot(slot);
+        return slotOrdinals[slot];
+    }
+
+    /**
+     *
+     * Replaces the lead in a live slot, keeping its position in the output.
+     *
+     * @param slot A slot currently holding a lead
+     * @param row The row of the lead to store in its place
+     */
+    public void set(int slot, int row) {
+        checkLiveSlot(slot);
+        if (row < 0){
+            throw new IllegalArgumentException("Rows can't be negative: " + row);
+        }
+        rows[slot] = row;
+    }
+
+    /**
+     *
+     * Removes the lead in a live slot, leaving a tombstone behind.
+     *
+     * @param slot A slot currently holding a lead
+     */
+    public void remove(int slot) {
+        checkLiveSlot(slot);
+        rows[slot] = -1;
+        live--;
+    }
+
+    /**
+     * @return The number of leads currently stored
+     */
+    public int size() {
+        return live;
+    }
+
+    /**
+     * @return The number of bytes taken by the slot arrays
+     */
+    public long estimatedBytes() {
+        return 4L * rows.length + 8L * slotOrdinals.length;
+    }
+
+    /**
+     * @return The number of slots handed out, including tombstones
+     */
+    public int slotCount() {
+        return used;
+    }
+
+    /**
+     *
+     * Hands each live slot to the consumer, in slot order.
+     *
+     * @param consumer Receives each slot that currently holds a lead
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < used; i++){
+            if (rows[i] >= 0){
+                consumer.accept(i);
+            }
+        }
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= used){
+            throw new IndexOutOfBoundsException("Slot " + slot + " has not been allocated");
+        }
+    }
+
+    private void checkLiveSlot(int slot) {
+        checkSlot(slot);
+        if (rows[slot] < 0){
+            throw new IllegalStateException("Slot " + slot + " has already been removed");
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.nlaw.leadDedupe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ *  LeadSnapshot
+ *
+ *  Saves the state of a merger to a file and loads it back, so that a
+ *  later run can merge new leads into the results of an earlier one without
+ *  going through the earlier input again.
+ *
+ *  The leads a merger has kept are all there is to its state: each kept lead
+ *  owns its id and email in the indexes, so the indexes are rebuilt from the
+ *  leads on load.  The file holds:
+ *
+ *    | magic (4) | next ordinal (8) | lead count (4) |
+ *
+ *  followed by each kept lead, in output order:
+ *
+ *    | slot ordinal (8) | ordinal (8) | lead (BinaryLeadFormat) |
+ *
+ *  The next ordinal is the ordinal to give the first lead of the next input,
+ *  so that three-way collisions still see new leads as later in the input
+ *  than every lead that came before them.
+ *
+ *  @author nlawrence
+ *
+ */
+public final class LeadSnapshot {
+    private static final int MAGIC = 0x4c445331; // "LDS1"
+
+    private LeadSnapshot() {
+    }
+
+    /**
+     *
+     * Writes the merger's kept leads to a snapshot file.  The snapshot is
+     * written next to the file and then moved over it, so an earlier
+     * snapshot is never left half overwritten.
+     *
+     * @param snapshotFile The file to write
+     * @param merger The merger to save
+     * @param nextOrdinal The ordinal to give the next lead merged
+     * @throws IOException if the snapshot can't be written
+     */
+    public static void write(File snapshotFile, KeptLeads merger, long nextOrdinal) throws IOException {
+        File partFile = new File(snapshotFile.getAbsoluteFile().getParentFile(),
+                snapshotFile.getName() + ".part");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partFile), 1 << 16))){
+            out.writeInt(MAGIC);
+            out.writeLong(nextOrdinal);
+            out.writeInt(merger.getOutputSize());
+            IOException[] failure = new IOException[1];
+            merger.forEachOutputLead((lead, slotOrdinal) -> {
+                if (failure[0] != null){
+                    return;
+                }
+                try {
+                    out.writeLong(slotOrdinal);
+                    out.writeLong(lead.getOrdinal());
+                    BinaryLeadFormat.write(out, lead);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null){
+                throw failure[0];
+            }
+        }
+        Files.move(partFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     *
+     * Restores the leads in a snapshot file into a merger.
+     *
+     * @param snapshotFile The file to read
+     * @param merger An empty merger to restore the leads into
+     * @return The ordinal to give the next lead merged
+     * @throws IOException if the snapshot can't be read or isn't a snapshot
+     */
+    public static long read(File snapshotFile, KeptLeads merger) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(snapshotFile), 1 << 16))){
+            if (in.readInt() != MAGIC){
+                throw new IOException(snapshotFile + " is not a lead snapshot");
+            }
+            long nextOrdinal = in.readLong();
+            int leadCount = in.readInt();
+            for (int i = 0; i < leadCount; i++){
+                long slotOrdinal = in.readLong();
+                long ordinal = in.readLong();
+                Lead lead = BinaryLeadFormat.read(in);
+                lead.setOrdinal(ordinal);
+                merger.restore(lead, slotOrdinal);
+            }
+            return nextOrdinal;
+        }
+    }
+}
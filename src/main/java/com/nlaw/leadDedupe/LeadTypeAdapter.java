@@ -0,0 +1,151 @@
+package com.nlaw.leadDedupe;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ *  LeadTypeAdapter
+ *
+ *  Reads and writes leads field by field, instead of leaving it to Gson's
+ *  reflection.  Member names are matched against the six Lead fields with a
+ *  switch, so nothing about them is kept, and any other member is skipped
+ *  without being read.  A lead is stamped with its decoded entry date as it
+ *  is read, and with its ordinal when the caller knows it.
+ *
+ *  The output is exactly what reflection produces: the fields in the order
+ *  they're declared in Lead, with null fields left out as long as the writer
+ *  doesn't serialize nulls.  It's registered on JsonFileUtilsImpl.GSON.
+ *
+ *  @author nlawrence
+ *
+ */
+public class LeadTypeAdapter extends TypeAdapter<Lead> {
+    private static final String[] FIELD_NAMES = {"_id", "email", "firstName", "lastName", "address",
+            "entryDate"}; // in LeadColumns order
+
+    /**
+     *
+     * Reads a lead for Gson, e.g. from Gson.fromJson().  Its ordinal is
+     * left at zero.
+     *
+     * @param in The reader, positioned at a lead or a null
+     * @return The lead, or null for a Json null
+     * @throws IOException if the lead can't be read
+     */
+    @Override
+    public Lead read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL){
+            in.nextNull();
+            return null;
+        }
+        return read(in, 0);
+    }
+
+    /**
+     *
+     * Reads a lead and stamps it with its ordinal and entry date.
+     *
+     * @param in The reader, positioned at a lead
+     * @param ordinal The lead's position in the input
+     * @return The lead
+     * @throws IOException if the lead can't be read
+     * @throws java.time.DateTimeException if the lead's entry date is invalid
+     */
+    public Lead read(JsonReader in, long ordinal) throws IOException {
+        String[] fields = new String[LeadColumns.FIELD_COUNT];
+        readFields(in, fields);
+        String entryDate = fields[LeadColumns.ENTRY_DATE];
+        return new Lead(fields[LeadColumns.ID], fields[LeadColumns.EMAIL], fields[LeadColumns.FIRST_NAME],
+                fields[LeadColumns.LAST_NAME], fields[LeadColumns.ADDRESS], entryDate,
+                EntryDates.toEpochNanos(entryDate), ordinal);
+    }
+
+    @Override
+    public void write(JsonWriter out, Lead lead) throws IOException {
+        if (lead == null){
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name(FIELD_NAMES[LeadColumns.ID]).value(lead.get_id());
+        out.name(FIELD_NAMES[LeadColumns.EMAIL]).value(lead.getEmail());
+        out.name(FIELD_NAMES[LeadColumns.FIRST_NAME]).value(lead.getFirstName());
+        out.name(FIELD_NAMES[LeadColumns.LAST_NAME]).value(lead.getLastName());
+        out.name(FIELD_NAMES[LeadColumns.ADDRESS]).value(lead.getAddress());
+        out.name(FIELD_NAMES[LeadColumns.ENTRY_DATE]).value(lead.getEntryDate());
+        out.endObject();
+    }
+
+    /**
+     *
+     * Reads the fields of a lead object, indexed as in LeadColumns.  Fields
+     * missing from the object are null, and if a field turns up more than
+     * once the last value wins.
+     *
+     * @param in The reader, positioned at a lead
+     * @param fields Where to put the fields, FIELD_COUNT long
+     * @throws IOException if the lead can't be read
+     */
+    public static void readFields(JsonReader in, String[] fields) throws IOException {
+        Arrays.fill(fields, null);
+        in.beginObject();
+        while (in.hasNext()){
+            int field = fieldOf(in.nextName());
+            if (field < 0){
+                in.skipValue();
+            } else {
+                fields[field] = readString(in);
+            }
+        }
+        in.endObject();
+    }
+
+    /**
+     * @return The field a member name stands for, or -1 if it isn't one of
+     *         ours
+     */
+    private static int fieldOf(String name) {
+        switch (name){
+            case "_id":
+                return LeadColumns.ID;
+            case "email":
+                return LeadColumns.EMAIL;
+            case "firstName":
+                return LeadColumns.FIRST_NAME;
+            case "lastName":
+                return LeadColumns.LAST_NAME;
+            case "address":
+                return LeadColumns.ADDRESS;
+            case "entryDate":
+                return LeadColumns.ENTRY_DATE;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Reads a field's value the way Gson reads a String field: nulls stay
+     * null, and numbers and booleans are kept as their text.
+     */
+    private static String readString(JsonReader in) throws IOException {
+        switch (in.peek()){
+            case NULL:
+                in.nextNull();
+                return null;
+            case BOOLEAN:
+                return Boolean.toString(in.nextBoolean());
+            case STRING:
+            case NUMBER:
+                return in.nextString();
+            default:
+                throw new JsonSyntaxException("Expected a string but was " + in.peek()
+                        + " at " + in.getPath());
+        }
+    }
+}
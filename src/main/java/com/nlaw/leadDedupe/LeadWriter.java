@@ -0,0 +1,38 @@
+package com.nlaw.leadDedupe;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ *  LeadWriter
+ *
+ *  Writes leads to an output one at a time, so callers can write records as
+ *  they become available instead of building the whole output list first.
+ *  The output is only complete once the writer has been closed.
+ *
+ *  A JsonLeadWriter writes Json documents or newline delimited Json, and a
+ *  BinaryLeadWriter writes files that can be memory mapped and searched by
+ *  a BinaryLeadFile.
+ *
+ *  @author nlawrence
+ *
+ */
+public interface LeadWriter extends Closeable {
+
+    /**
+     *
+     * Writes the next lead.
+     *
+     * @param lead The lead to write
+     * @throws IOException if the lead can't be written
+     */
+    void write(Lead lead) throws IOException;
+
+    /**
+     *
+     * Finishes the output and closes whatever it was written to.
+     *
+     * @throws IOException if the end of the output can't be written
+     */
+    void close() throws IOException;
+}
@@ -1,8 +1,15 @@
 package com.nlaw.leadDedupe;
 
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import javax.management.JMException;
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  *  LeadDeduper
@@ -29,40 +36,98 @@ import java.util.List;
  *  output will be written to output.json in the parent directory of the
  *  program.
  *
+ *  Options may be given anywhere among the arguments:
+ *
+ *  --threads N       Resolve collision clusters on N threads.  The output is
+ *                    the same as with the default of a single thread.
+ *  --off-heap-index  Keep the id and email indexes in direct memory, outside
+ *                    of the Java heap, for very large inputs.
+ *  --memory-budget MB
+ *                    Deduplicate inputs larger than memory by sorting on
+ *                    disk, keeping the sort buffers within about MB
+ *                    megabytes.  Takes precedence over --threads.
+ *  --snapshot FILE   Carry on from the leads kept by earlier runs, as saved
+ *                    in FILE, and save the new state back to it.  The output
+ *                    covers every input seen so far.  Can't be combined with
+ *                    --threads or --memory-budget.
+ *  --log-level LEVEL Log changes at LEVEL (trace, debug, info, warn, error or
+ *                    off) instead of the configured level.  At warn or off
+ *                    no log messages are built at all.
+ *  --no-field-diffs  Log replaced records without a line for each field
+ *                    that changed.
+ *  --audit-log FILE  Also write every change to FILE as a JSON line, from a
+ *                    background thread.  Can't be combined with --threads or
+ *                    --memory-budget.
+ *  --pipeline        Parse, merge and write on separate threads at the same
+ *                    time, handing leads between them in batches.  The
+ *                    output is the same.  Can't be combined with --threads,
+ *                    --memory-budget, --snapshot or --audit-log.
+ *  --compact         Write json output without indentation.
+ *  --serve PORT      Instead of deduplicating a file, listen for batches of
+ *                    leads posted to http://host:PORT/leads and dedupe them
+ *                    continuously against a warm index; see DedupeServer.
+ *                    Batches posted at the same time are merged at the
+ *                    same time.  Takes no input or output file.  With
+ *                    --snapshot, the snapshot is loaded at start up and
+ *                    saved at shut down.  Can't be combined with --threads,
+ *                    --off-heap-index, --memory-budget, --audit-log or
+ *                    --pipeline.
+ *  --input-format FORMAT, --output-format FORMAT
+ *                    Read or write json ({"leads":[...]}) or ndjson (one
+ *                    lead per line).  Otherwise files ending in .ndjson or
+ *                    .jsonl are newline delimited and anything else is json.
+ *                    Output can also be binary, which downstream jobs can
+ *                    memory map and look leads up in by id or email with a
+ *                    BinaryLeadFile.  Files ending in .leads are binary.
+ *
+ *  Input and output files whose names end in .gz (e.g. leads.json.gz) are
+ *  gzipped, and are decompressed or compressed on a background thread as
+ *  they're read or written.
+ *
+ *  Once the output is written, a JSON summary of the run's DedupeMetrics is
+ *  printed: records read and kept, the time spent in each phase and how
+ *  often each collision case came up.  The same metrics can be watched over
+ *  JMX while the program runs.
+ *
  *  @author nlawrence
  *
  */
 public class Main {
     public static String usage = "Usage:\n" +
-            "java -jar leadDedupe-[version].jar input_filename [output_filename]";
+            "java -jar leadDedupe-[version].jar [--threads N] [--off-heap-index] [--memory-budget MB] [--snapshot FILE] [--log-level LEVEL] [--no-field-diffs] [--audit-log FILE] [--pipeline] [--compact] [--input-format json|ndjson] [--output-format json|ndjson|binary] input_filename [output_filename]\n" +
+            "java -jar leadDedupe-[version].jar --serve PORT [--snapshot FILE] [--log-level LEVEL] [--no-field-diffs] [--compact]";
 
     public static void main(String[] args) {
 	    // Check arguments before doing anything else no need to waste memory
         // or time if we've got bogus input
-
-        if (args.length <= 0 || args.length > 2 || args[0] == null){
-            System.out.println("Please provide 1 or 2 arguments");
-            System.out.println(usage);
-            System.exit(1);
+        DedupeOptions options = parseArguments(args);
+        if (options.getLogLevel() != null){
+            Configurator.setLevel(Main.class.getPackage().getName(), Level.getLevel(options.getLogLevel()));
+        }
+        if (options.getServePort() > 0){
+            serve(options);
+            return;
         }
-
-        String inputPath;
-        String outputPath;
-
-        inputPath = args[0];
-        // don't try to assign an index out of bounds...
-        outputPath = args.length == 2 ? args[1] : null;
 
         JsonFileUtilsImpl fileUtils = new JsonFileUtilsImpl();
         // We should try to create the output file first, because we'll waste
         // time if we do all the work and can't write the file at the end.
-        File outputFile = fileUtils.createOutputFile(outputPath);
-
-        DedupeService deduper = new DedupeServiceImpl();
-        List<Lead> outputLeads = deduper.deduplicateItems(inputPath);
+        File outputFile = fileUtils.createOutputFile(options.getOutputPath());
 
+        DedupeService deduper = createDedupeService(options);
+        DedupeMetrics metrics = deduper.getMetrics();
+        registerMetrics(metrics);
         try {
-            fileUtils.writeOutputFile(outputFile, outputLeads);
+            if (deduper instanceof PipelinedDedupeServiceImpl){
+                // the pipeline writes the output itself, as soon as it can
+                ((PipelinedDedupeServiceImpl) deduper).deduplicateItems(options.getInputPath(), outputFile);
+            } else {
+                List<Lead> outputLeads = deduper.deduplicateItems(options.getInputPath());
+                metrics.startPhase(DedupeMetrics.WRITE);
+                fileUtils.writeOutputFile(outputFile, outputLeads, options.getOutputFormat(),
+                        options.isCompactOutput());
+                metrics.endPhase(DedupeMetrics.WRITE);
+            }
         } catch (IOException e) {
             System.out.println("Unable to write output file!");
             e.printStackTrace();
@@ -71,5 +136,231 @@ public class Main {
         }
 
         System.out.println("Done! Output file is at " + outputFile.getAbsolutePath().toString());
+        System.out.println(metrics.toJson());
+    }
+
+    /**
+     *
+     * Starts a DedupeServer on the given port and returns, leaving the
+     * server's threads to keep the program running until it's stopped.  Any
+     * snapshot is loaded first, and saved again when the program is stopped,
+     * e.g. with Ctrl-C.
+     *
+     * @param options The options for this run
+     */
+    private static void serve(DedupeOptions options) {
+        DedupeMetrics metrics = new DedupeMetrics();
+        registerMetrics(metrics);
+        ConcurrentLeadMerger merger = new ConcurrentLeadMerger();
+        merger.setLogFieldDiffs(options.isLogFieldDiffs());
+        merger.setMetrics(metrics);
+
+        File snapshotFile = options.getSnapshotPath() == null
+                ? null : new JsonFileUtilsImpl().getInputFile(options.getSnapshotPath());
+        if (snapshotFile != null && snapshotFile.exists()){
+            try {
+                merger.loadSnapshot(snapshotFile);
+            } catch (IOException e){
+                System.out.println("Could not load snapshot " + snapshotFile.getPath());
+                e.printStackTrace();
+                System.out.println("Aborting!");
+                System.exit(1);
+            }
+        }
+
+        DedupeServer server = null;
+        try {
+            server = new DedupeServer(merger, metrics, new InetSocketAddress(options.getServePort()),
+                    options.isCompactOutput());
+        } catch (IOException e){
+            System.out.println("Unable to listen on port " + options.getServePort());
+            e.printStackTrace();
+            System.out.println("Aborting!");
+            System.exit(1);
+        }
+
+        DedupeServer startedServer = server;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // waits for the batches being merged, if any
+            startedServer.stop();
+            if (snapshotFile != null){
+                try {
+                    merger.saveSnapshot(snapshotFile);
+                } catch (IOException e){
+                    System.out.println("Could not save snapshot " + snapshotFile.getPath());
+                    e.printStackTrace();
+                }
+            }
+        }, "server-shutdown"));
+        server.start();
+        System.out.println("Listening for leads at http://localhost:" + server.getPort()
+                + DedupeServer.LEADS_PATH);
+    }
+
+    /**
+     *
+     * Registers the metrics with JMX on a background thread, since starting
+     * the platform MBean server takes a few hundred milliseconds that the
+     * run doesn't need to wait for.  If the metrics can't be registered, they
+     * are still printed at the end.
+     *
+     * @param metrics The metrics of this run
+     */
+    private static void registerMetrics(DedupeMetrics metrics) {
+        Thread registration = new Thread(() -> {
+            try {
+                metrics.register();
+            } catch (JMException e) {
+                System.out.println("Could not register metrics with JMX");
+                e.printStackTrace();
+            }
+        }, "metrics-registration");
+        registration.setDaemon(true);
+        registration.start();
+    }
+
+    /**
+     *
+     * Picks the DedupeService implementation for the given options.  A
+     * single thread streams the input through the DedupeServiceImpl, more
+     * threads resolve collision clusters in parallel, a memory budget sorts
+     * the input on disk, and a pipeline runs each phase on its own thread.
+     *
+     * @param options The options for this run
+     * @return The service to deduplicate the input with
+     */
+    static DedupeService createDedupeService(DedupeOptions options) {
+        if (options.isPipeline()){
+            return new PipelinedDedupeServiceImpl(options);
+        }
+        if (options.getMemoryBudget() > 0){
+            return new ExternalDedupeServiceImpl(options);
+        }
+        if (options.getThreads() > 1){
+            return new ClusterDedupeServiceImpl(options);
+        }
+        return new DedupeServiceImpl(options);
+    }
+
+    /**
+     *
+     * Splits the command line into options and the input and output paths,
+     * exiting with the usage message if they don't make sense.
+     *
+     * @param args The command line arguments
+     * @return The options for this run
+     */
+    static DedupeOptions parseArguments(String[] args) {
+        DedupeOptions options = new DedupeOptions();
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if (arg == null){
+                exitWithUsage("Please provide 1 or 2 arguments");
+            } else if (arg.equals("--threads")){
+                options.setThreads(parsePositiveInt(arg, i + 1 < args.length ? args[++i] : null));
+            } else if (arg.equals("--off-heap-index")){
+                options.setOffHeapIndex(true);
+            } else if (arg.equals("--memory-budget")){
+                long megabytes = parsePositiveInt(arg, i + 1 < args.length ? args[++i] : null);
+                options.setMemoryBudget(megabytes * 1024 * 1024);
+            } else if (arg.equals("--snapshot")){
+                if (i + 1 >= args.length || args[i + 1] == null){
+                    exitWithUsage("--snapshot expects a file name");
+                }
+                options.setSnapshotPath(args[++i]);
+            } else if (arg.equals("--log-level")){
+                String level = i + 1 < args.length && args[i + 1] != null
+                        ? args[++i].toUpperCase(Locale.ROOT) : "";
+                if (Level.getLevel(level) == null){
+                    exitWithUsage("--log-level expects one of trace, debug, info, warn, error or off");
+                }
+                options.setLogLevel(level);
+            } else if (arg.equals("--audit-log")){
+                if (i + 1 >= args.length || args[i + 1] == null){
+                    exitWithUsage("--audit-log expects a file name");
+                }
+                options.setAuditLogPath(args[++i]);
+            } else if (arg.equals("--input-format")){
+                options.setInputFormat(parseFormat(arg, i + 1 < args.length ? args[++i] : null, false));
+            } else if (arg.equals("--output-format")){
+                options.setOutputFormat(parseFormat(arg, i + 1 < args.length ? args[++i] : null, true));
+            } else if (arg.equals("--pipeline")){
+                options.setPipeline(true);
+            } else if (arg.equals("--compact")){
+                options.setCompactOutput(true);
+            } else if (arg.equals("--serve")){
+                int port = parsePositiveInt(arg, i + 1 < args.length ? args[++i] : null);
+                if (port > 65535){
+                    exitWithUsage("--serve expects a port number");
+                }
+                options.setServePort(port);
+            } else if (arg.equals("--no-field-diffs")){
+                options.setLogFieldDiffs(false);
+            } else if (arg.startsWith("--")){
+                exitWithUsage("Unknown option " + arg);
+            } else {
+                paths.add(arg);
+            }
+        }
+
+        if (options.getServePort() > 0){
+            if (!paths.isEmpty()){
+                exitWithUsage("--serve doesn't take input or output files");
+            }
+            if (options.getThreads() > 1 || options.isOffHeapIndex() || options.getMemoryBudget() > 0
+                    || options.getAuditLogPath() != null || options.isPipeline()){
+                exitWithUsage("--serve can't be combined with --threads, --off-heap-index, --memory-budget, "
+                        + "--audit-log or --pipeline");
+            }
+            return options;
+        }
+        if (paths.size() <= 0 || paths.size() > 2){
+            exitWithUsage("Please provide 1 or 2 arguments");
+        }
+        if (options.getSnapshotPath() != null && (options.getThreads() > 1 || options.getMemoryBudget() > 0)){
+            exitWithUsage("--snapshot can't be combined with --threads or --memory-budget");
+        }
+        if (options.getAuditLogPath() != null && (options.getThreads() > 1 || options.getMemoryBudget() > 0)){
+            exitWithUsage("--audit-log can't be combined with --threads or --memory-budget");
+        }
+        if (options.isPipeline() && (options.getThreads() > 1 || options.getMemoryBudget() > 0
+                || options.getSnapshotPath() != null || options.getAuditLogPath() != null)){
+            exitWithUsage("--pipeline can't be combined with --threads, --memory-budget, --snapshot or --audit-log");
+        }
+        options.setInputPath(paths.get(0));
+        // don't try to assign an index out of bounds...
+        options.setOutputPath(paths.size() == 2 ? paths.get(1) : null);
+        return options;
+    }
+
+    private static int parsePositiveInt(String option, String value) {
+        int number = 0;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            // handled below along with zero and negative numbers
+        }
+        if (number < 1){
+            exitWithUsage(option + " expects a positive number");
+        }
+        return number;
+    }
+
+    private static String parseFormat(String option, String value, boolean allowBinary) {
+        if (allowBinary && JsonFileUtilsImpl.BINARY_FORMAT.equals(value)){
+            return value;
+        }
+        if (!JsonFileUtilsImpl.JSON_FORMAT.equals(value) && !JsonFileUtilsImpl.NDJSON_FORMAT.equals(value)){
+            exitWithUsage(option + (allowBinary ? " expects json, ndjson or binary" : " expects json or ndjson"));
+        }
+        return value;
+    }
+
+    private static void exitWithUsage(String message) {
+        System.out.println(message);
+        System.out.println(usage);
+        System.exit(1);
     }
 }
@@ -0,0 +1,328 @@
+package com.nlaw.leadDedupe;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  OffHeapKeyIndex
+ *
+ *  A KeyIndex that keeps everything in direct ByteBuffers, outside of the
+ *  Java heap, so that very large indexes don't slow down garbage collection.
+ *
+ *  The index is an open addressing hash table with linear probing.  Each
+ *  entry holds the key's 64-bit fingerprint, where the key's UTF-8 bytes are
+ *  stored, the key's length and the slot it maps to:
+ *
+ *    | fingerprint (8) | key address (8) | key length (4) | slot + 1 (4) |
+ *
+ *  A stored slot of 0 marks an empty entry, which is why slots are stored
+ *  plus one (direct buffers start out zeroed).  The key bytes live in a
+ *  separate arena of pages, and a matching fingerprint is always confirmed
+ *  against them, so fingerprint collisions can't mix up two keys.  A null
+ *  key is stored like any other, under a fixed fingerprint with a length of
+ *  -1 and no bytes, so it only ever matches another null key.
+ *
+ *  Removals shift later entries of the probe sequence back instead of
+ *  leaving tombstones.  The bytes of removed keys are left in the arena
+ *  until the table is rebuilt, either because it grew or because most of
+ *  the arena is garbage.
+ *
+ *  Direct memory is limited by -XX:MaxDirectMemorySize, which defaults to
+ *  the maximum heap size.
+ *
+ *  @author nlawrence
+ *
+ */
+public class OffHeapKeyIndex implements KeyIndex {
+    private static final int ENTRY_BYTES = 24;
+    private static final int KEY_ADDRESS = 8;
+    private static final int KEY_LENGTH = 16;
+    private static final int SLOT = 20;
+
+    // entries per table segment, keeps each buffer well under 2GB
+    private static final int SEGMENT_SHIFT = 25;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final long INITIAL_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.7;
+
+    private static final int FIRST_PAGE_BYTES = 1 << 16;
+    private static final int MAX_PAGE_BYTES = 1 << 26;
+
+    private static final int NULL_KEY_LENGTH = -1;
+    private static final long NULL_KEY_FINGERPRINT = KeyBytes.mix(NULL_KEY_LENGTH);
+
+    private ByteBuffer[] table;
+    private long capacity;
+    private long mask;
+    private int size = 0;
+
+    private List<ByteBuffer> pages = new ArrayList<>();
+    private long liveKeyBytes = 0;
+    private long deadKeyBytes = 0;
+
+    private final KeyBytes keyBytes = new KeyBytes();
+    private boolean nullKey = false; // whether the current key is null rather than what's in keyBytes
+
+    public OffHeapKeyIndex() {
+        allocateTable(INITIAL_CAPACITY);
+    }
+
+    public int get(String key) {
+        setCurrentKey(key);
+        return getCurrentKey();
+    }
+
+    public void put(String key, int slot) {
+        setCurrentKey(key);
+        putCurrentKey(slot);
+    }
+
+    public void remove(String key) {
+        setCurrentKey(key);
+        removeCurrentKey();
+    }
+
+    public int get(byte[] bytes, int offset, int length) {
+        setCurrentKey(bytes, offset, length);
+        return getCurrentKey();
+    }
+
+    public void put(byte[] bytes, int offset, int length, int slot) {
+        setCurrentKey(bytes, offset, length);
+        putCurrentKey(slot);
+    }
+
+    public void remove(byte[] bytes, int offset, int length) {
+        setCurrentKey(bytes, offset, length);
+        removeCurrentKey();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long estimatedBytes() {
+        long bytes = capacity * ENTRY_BYTES;
+        for (ByteBuffer page : pages){
+            bytes += page.capacity();
+        }
+        return bytes;
+    }
+
+    private void setCurrentKey(String key) {
+        nullKey = key == null;
+        if (!nullKey){
+            keyBytes.set(key);
+        }
+    }
+
+    private void setCurrentKey(byte[] bytes, int offset, int length) {
+        nullKey = length < 0;
+        if (!nullKey){
+            keyBytes.set(bytes, offset, length);
+        }
+    }
+
+    private long currentFingerprint() {
+        return nullKey ? NULL_KEY_FINGERPRINT : keyBytes.fingerprint();
+    }
+
+    private int currentLength() {
+        return nullKey ? NULL_KEY_LENGTH : keyBytes.getLength();
+    }
+
+    private int getCurrentKey() {
+        long entry = find(currentFingerprint());
+        return entry < 0 ? -1 : segment(entry).getInt(offset(entry) + SLOT) - 1;
+    }
+
+    private void putCurrentKey(int slot) {
+        if (slot < 0){
+            throw new IllegalArgumentException("Slots can't be negative: " + slot);
+        }
+        long fingerprint = currentFingerprint();
+        long entry = find(fingerprint);
+        if (entry >= 0){
+            segment(entry).putInt(offset(entry) + SLOT, slot + 1);
+            return;
+        }
+        if (size + 1 > capacity * MAX_LOAD){
+            rebuild(capacity * 2);
+            entry = find(fingerprint);
+        }
+        long address = nullKey ? 0 : appendKey(keyBytes.getBytes(), keyBytes.getLength());
+        writeEntry(~entry, fingerprint, address, currentLength(), slot + 1);
+        size++;
+    }
+
+    private void removeCurrentKey() {
+        long entry = find(currentFingerprint());
+        if (entry < 0){
+            return;
+        }
+        int keyLength = Math.max(segment(entry).getInt(offset(entry) + KEY_LENGTH), 0);
+        liveKeyBytes -= keyLength;
+        deadKeyBytes += keyLength;
+        deleteEntry(entry);
+        size--;
+
+        // don't let removed keys pile up forever
+        if (deadKeyBytes > MAX_PAGE_BYTES && deadKeyBytes > liveKeyBytes){
+            rebuild(capacity);
+        }
+    }
+
+    /**
+     * Finds the entry holding the current key.  Returns the
+     * entry's index, or the bitwise complement of the empty entry where the
+     * key would be inserted if it isn't in the table.
+     */
+    private long find(long fingerprint) {
+        long entry = fingerprint & mask;
+        while (true){
+            ByteBuffer segment = segment(entry);
+            int offset = offset(entry);
+            if (segment.getInt(offset + SLOT) == 0){
+                return ~entry;
+            }
+            if (segment.getLong(offset) == fingerprint
+                    && segment.getInt(offset + KEY_LENGTH) == currentLength()
+                    && (nullKey || keyMatches(segment.getLong(offset + KEY_ADDRESS)))){
+                return entry;
+            }
+            entry = (entry + 1) & mask;
+        }
+    }
+
+    private boolean keyMatches(long address) {
+        ByteBuffer page = pages.get((int) (address >>> 32));
+        int position = (int) address;
+        byte[] bytes = keyBytes.getBytes();
+        for (int i = 0; i < keyBytes.getLength(); i++){
+            if (page.get(position + i) != bytes[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Empties an entry, then walks the rest of its probe sequence moving back
+     * any entry that would no longer be reachable from its home position.
+     */
+    private void deleteEntry(long entry) {
+        long hole = entry;
+        long next = entry;
+        while (true){
+            next = (next + 1) & mask;
+            ByteBuffer segment = segment(next);
+            int offset = offset(next);
+            if (segment.getInt(offset + SLOT) == 0){
+                break;
+            }
+            long home = segment.getLong(offset) & mask;
+            // move the entry if its home isn't cyclically within (hole, next]
+            boolean reachable = hole <= next
+                    ? (home > hole && home <= next)
+                    : (home > hole || home <= next);
+            if (!reachable){
+                writeEntry(hole, segment.getLong(offset), segment.getLong(offset + KEY_ADDRESS),
+                        segment.getInt(offset + KEY_LENGTH), segment.getInt(offset + SLOT));
+                hole = next;
+            }
+        }
+        writeEntry(hole, 0, 0, 0, 0);
+    }
+
+    private void writeEntry(long entry, long fingerprint, long address, int keyLength, int storedSlot) {
+        ByteBuffer segment = segment(entry);
+        int offset = offset(entry);
+        segment.putLong(offset, fingerprint);
+        segment.putLong(offset + KEY_ADDRESS, address);
+        segment.putInt(offset + KEY_LENGTH, keyLength);
+        segment.putInt(offset + SLOT, storedSlot);
+    }
+
+    /**
+     * Copies every live key into a fresh arena and table, dropping the bytes
+     * of removed keys along the way.
+     */
+    private void rebuild(long newCapacity) {
+        ByteBuffer[] oldTable = table;
+        long oldCapacity = capacity;
+        List<ByteBuffer> oldPages = pages;
+
+        allocateTable(newCapacity);
+        pages = new ArrayList<>();
+        liveKeyBytes = 0;
+        deadKeyBytes = 0;
+
+        byte[] buffer = new byte[64];
+        for (long entry = 0; entry < oldCapacity; entry++){
+            ByteBuffer segment = oldTable[(int) (entry >>> SEGMENT_SHIFT)];
+            int offset = (int) (entry & SEGMENT_MASK) * ENTRY_BYTES;
+            int storedSlot = segment.getInt(offset + SLOT);
+            if (storedSlot == 0){
+                continue;
+            }
+            long fingerprint = segment.getLong(offset);
+            long address = segment.getLong(offset + KEY_ADDRESS);
+            int keyLength = segment.getInt(offset + KEY_LENGTH);
+            long newAddress = 0; // a null key has no bytes to copy
+            if (keyLength >= 0){
+                if (buffer.length < keyLength){
+                    buffer = new byte[keyLength];
+                }
+                ByteBuffer page = oldPages.get((int) (address >>> 32));
+                for (int i = 0; i < keyLength; i++){
+                    buffer[i] = page.get((int) address + i);
+                }
+                newAddress = appendKey(buffer, keyLength);
+            }
+
+            long newEntry = fingerprint & mask;
+            while (segment(newEntry).getInt(offset(newEntry) + SLOT) != 0){
+                newEntry = (newEntry + 1) & mask;
+            }
+            writeEntry(newEntry, fingerprint, newAddress, keyLength, storedSlot);
+        }
+    }
+
+    private void allocateTable(long newCapacity) {
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        long entriesPerSegment = Math.min(newCapacity, 1L << SEGMENT_SHIFT);
+        int segmentCount = (int) (newCapacity / entriesPerSegment);
+        table = new ByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++){
+            table[i] = ByteBuffer.allocateDirect((int) (entriesPerSegment * ENTRY_BYTES));
+        }
+    }
+
+    /**
+     * Stores a key at the end of the arena, starting a new page when the
+     * current one is full.  Pages grow up to MAX_PAGE_BYTES, so small indexes
+     * stay small.
+     */
+    private long appendKey(byte[] bytes, int length) {
+        ByteBuffer page = pages.isEmpty() ? null : pages.get(pages.size() - 1);
+        if (page == null || page.remaining() < length){
+            int pageBytes = page == null ? FIRST_PAGE_BYTES : Math.min(page.capacity() * 2, MAX_PAGE_BYTES);
+            page = ByteBuffer.allocateDirect(Math.max(pageBytes, length));
+            pages.add(page);
+        }
+        long address = ((long) (pages.size() - 1) << 32) | page.position();
+        page.put(bytes, 0, length);
+        liveKeyBytes += length;
+        return address;
+    }
+
+    private ByteBuffer segment(long entry) {
+        return table[(int) (entry >>> SEGMENT_SHIFT)];
+    }
+
+    private int offset(long entry) {
+        return (int) (entry & SEGMENT_MASK) * ENTRY_BYTES;
+    }
+}
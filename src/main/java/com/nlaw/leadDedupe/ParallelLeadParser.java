@@ -0,0 +1,526 @@
+package com.nlaw.leadDedupe;
+
+import com.google.gson.JsonSyntaxException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ *  ParallelLeadParser
+ *
+ *  Parses large inputs on several threads.  The input is memory mapped and
+ *  split into chunks of about chunkBytes at record boundaries, and each
+ *  chunk is mapped on its own and decoded by a LeadReader on a pool of
+ *  threads.  Chunks are handed back strictly in input order, with the
+ *  ordinals of their leads carrying on from the chunk before, so the result
+ *  is exactly what a single LeadReader would have read.
+ *
+ *  Boundaries in newline delimited input are simply the first newline after
+ *  each chunk's worth of bytes, which is safe because a LeadReader rejects a
+ *  lead that spans lines.  In a {"leads":[...]} document they are found
+ *  by a structural scan over the whole file, which only follows strings,
+ *  escapes and nesting to find where each record in the leads array starts
+ *  and ends; that's a small fraction of the cost of decoding the records.
+ *  Each chunk of records is then decoded as a document of its own.
+ *
+ *  Only a couple of chunks per thread are decoded ahead of the one being
+ *  handed back, so a caller that consumes chunks as they arrive only holds
+ *  a bounded number of leads at a time.
+ *
+ *  If the scan finds something it doesn't expect (no leads array, a lead
+ *  that isn't an object, a missing comma), there's only one thread or the
+ *  input is gzipped, the input is read by a single LeadReader instead,
+ *  which reports any error just as it would have without the parallel
+ *  parse.  Input is always read as UTF-8.
+ *
+ *  @author nlawrence
+ *
+ */
+public class ParallelLeadParser {
+    public static final int DEFAULT_CHUNK_BYTES = 4 << 20;
+
+    private static final int CHUNKS_AHEAD_PER_THREAD = 2;
+    private static final int SCAN_WINDOW_BYTES = 1 << 30; // the most we map at once while scanning
+    private static final int SCAN_BUFFER_BYTES = 1 << 16;
+    private static final int SEQUENTIAL_BATCH = 4096; // leads per chunk when reading sequentially
+    private static final byte[] LEADS_NAME = "leads".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CHUNK_PREFIX = "{\"leads\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CHUNK_SUFFIX = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private final int threads;
+    private final int chunkBytes;
+
+    private JsonFileUtilsImpl fileUtils = new JsonFileUtilsImpl();
+
+    /**
+     * @param threads The number of threads to decode chunks on
+     */
+    public ParallelLeadParser(int threads) {
+        this(threads, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param threads The number of threads to decode chunks on
+     * @param chunkBytes Roughly how many bytes of input each chunk holds
+     */
+    public ParallelLeadParser(int threads, int chunkBytes) {
+        if (threads < 1){
+            throw new IllegalArgumentException("At least one thread is required, got " + threads);
+        }
+        if (chunkBytes < 1){
+            throw new IllegalArgumentException("Chunks must hold at least one byte, got " + chunkBytes);
+        }
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     *
+     * Reads every lead in the input, in order.
+     *
+     * @param inputFile The file to read leads from
+     * @param format "json", "ndjson" or null to go by the file's extension
+     * @return The leads, stamped with their ordinals and entry dates
+     * @throws IOException if the file can't be read or isn't valid Json
+     */
+    public List<Lead> parse(File inputFile, String format) throws IOException {
+        List<Lead> leads = new ArrayList<>();
+        parse(inputFile, format, leads::addAll);
+        return leads;
+    }
+
+    /**
+     *
+     * Reads the input a chunk at a time, handing each chunk's leads to the
+     * consumer in input order.  The consumer is always called from the
+     * calling thread.
+     *
+     * @param inputFile The file to read leads from
+     * @param format "json", "ndjson" or null to go by the file's extension
+     * @param chunkConsumer Receives the leads of each chunk in turn
+     * @throws IOException if the file can't be read or isn't valid Json
+     */
+    public void parse(File inputFile, String format, Consumer<List<Lead>> chunkConsumer) throws IOException {
+        boolean lineDelimited = JsonFileUtilsImpl.NDJSON_FORMAT.equals(
+                JsonFileUtilsImpl.resolveInputFormat(inputFile, format));
+        List<long[]> chunks = null;
+        if (threads > 1 && inputFile.length() > chunkBytes && !JsonFileUtilsImpl.isGzipped(inputFile)){
+            try (FileChannel channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)){
+                chunks = lineDelimited ? findLineChunks(channel) : findRecordChunks(channel);
+            }
+        }
+        if (chunks == null){
+            parseSequentially(inputFile, lineDelimited, chunkConsumer);
+        } else {
+            decodeChunks(inputFile, chunks, lineDelimited, chunkConsumer);
+        }
+    }
+
+    private void parseSequentially(File inputFile, boolean lineDelimited,
+                                   Consumer<List<Lead>> chunkConsumer) throws IOException {
+        String format = lineDelimited ? JsonFileUtilsImpl.NDJSON_FORMAT : JsonFileUtilsImpl.JSON_FORMAT;
+        try (LeadReader leadReader = fileUtils.openLeadReader(inputFile, format)){
+            List<Lead> leads = new ArrayList<>();
+            while (leadReader.hasNext()){
+                leads.add(leadReader.next());
+                if (leads.size() == SEQUENTIAL_BATCH){
+                    chunkConsumer.accept(leads);
+                    leads = new ArrayList<>();
+                }
+            }
+            if (!leads.isEmpty()){
+                chunkConsumer.accept(leads);
+            }
+        }
+    }
+
+    /**
+     *
+     * Decodes the chunks on a pool of threads, keeping a few chunks per
+     * thread in flight, and hands them to the consumer in order.
+     *
+     */
+    private void decodeChunks(File inputFile, List<long[]> chunks, boolean lineDelimited,
+                              Consumer<List<Lead>> chunkConsumer) throws IOException {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "lead-parser-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)){
+            Deque<Future<List<Lead>>> pending = new ArrayDeque<>();
+            int nextChunk = 0;
+            int chunk = 0;
+            long ordinal = 0;
+            while (chunk < chunks.size()){
+                while (nextChunk < chunks.size() && pending.size() < threads * CHUNKS_AHEAD_PER_THREAD){
+                    long[] bounds = chunks.get(nextChunk++);
+                    pending.add(pool.submit(() -> decodeChunk(channel, bounds[0], bounds[1], lineDelimited)));
+                }
+                List<Lead> leads = await(pending.removeFirst(), chunks.get(chunk++));
+                for (Lead lead : leads){
+                    lead.setOrdinal(ordinal++);
+                }
+                chunkConsumer.accept(leads);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static List<Lead> decodeChunk(FileChannel channel, long start, long end,
+                                          boolean lineDelimited) throws IOException {
+        ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        if (!lineDelimited){
+            // the chunk is a run of records from the leads array, so wrap it
+            // up as a document of its own
+            ByteBuffer document = ByteBuffer.allocate(CHUNK_PREFIX.length + chunk.remaining() + CHUNK_SUFFIX.length);
+            document.put(CHUNK_PREFIX).put(chunk).put(CHUNK_SUFFIX);
+            document.flip();
+            chunk = document;
+        }
+        List<Lead> leads = new ArrayList<>();
+        try (LeadReader leadReader = new LeadReader(chunk, lineDelimited)){
+            while (leadReader.hasNext()){
+                leads.add(leadReader.next());
+            }
+        }
+        return leads;
+    }
+
+    private static List<Lead> await(Future<List<Lead>> future, long[] bounds) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing leads");
+        } catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            String where = " in the chunk of leads from byte " + bounds[0] + " to " + bounds[1];
+            if (cause instanceof IOException){
+                throw new IOException(cause.getMessage() + where, cause);
+            }
+            if (cause instanceof JsonSyntaxException){
+                throw new JsonSyntaxException(cause.getMessage() + where, cause);
+            }
+            if (cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error){
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     *
+     * Splits newline delimited input into chunks that end just after a
+     * newline, or at the end of the file.
+     *
+     * @return The start and end offset of each chunk
+     */
+    private List<long[]> findLineChunks(FileChannel channel) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_BYTES);
+        long start = 0;
+        while (start < size){
+            long end = nextLineStart(channel, buffer, Math.min(size, start + chunkBytes));
+            chunks.add(new long[] {start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Finds the first line that starts at or after position, returning the
+     * size of the file if there isn't one.
+     */
+    private static long nextLineStart(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long size = channel.size();
+        // a line starts at position if the byte before it is a newline
+        long searchFrom = position - 1;
+        while (searchFrom < size){
+            buffer.clear();
+            int read = channel.read(buffer, searchFrom);
+            if (read <= 0){
+                break;
+            }
+            for (int i = 0; i < read; i++){
+                if (buffer.get(i) == '\n'){
+                    return searchFrom + i + 1;
+                }
+            }
+            searchFrom += read;
+        }
+        return size;
+    }
+
+    /**
+     *
+     * Scans a {"leads":[...]} document for the records in its leads array
+     * and groups them into chunks.  Each chunk runs from the start of its
+     * first record to the end of its last, so it holds the commas between
+     * its own records but not those between chunks.
+     *
+     * @return The start and end offset of each chunk, or null if the
+     *         document isn't laid out as expected
+     */
+    private List<long[]> findRecordChunks(FileChannel channel) throws IOException {
+        Scanner scanner = new Scanner(channel);
+        if (!scanner.seekLeadsArray()){
+            return null;
+        }
+
+        List<long[]> chunks = new ArrayList<>();
+        long chunkStart = -1;
+        int c = scanner.nextToken();
+        if (c == ']'){
+            return scanner.finishDocument() ? chunks : null;
+        }
+        while (true){
+            if (c != '{'){
+                return null;
+            }
+            long recordStart = scanner.position() - 1;
+            if (!scanner.skipNested(c)){
+                return null;
+            }
+            if (chunkStart < 0){
+                chunkStart = recordStart;
+            }
+            if (scanner.position() - chunkStart >= chunkBytes){
+                chunks.add(new long[] {chunkStart, scanner.position()});
+                chunkStart = -1;
+            }
+            c = scanner.nextToken();
+            if (c == ']'){
+                break;
+            }
+            if (c != ','){
+                return null;
+            }
+            c = scanner.nextToken();
+        }
+        if (chunkStart >= 0){
+            chunks.add(new long[] {chunkStart, scanner.position() - 1});
+        }
+        return scanner.finishDocument() ? chunks : null;
+    }
+
+    /**
+     * Reads the bytes of a file in order, a mapped window at a time.
+     */
+    private static class Scanner {
+        private final FileChannel channel;
+        private final long size;
+        private final byte[] buffer = new byte[SCAN_BUFFER_BYTES];
+        private MappedByteBuffer window;
+        private long windowStart = 0;
+        private long bufferStart = 0;
+        private int bufferLength = 0;
+        private int bufferPosition = 0;
+
+        Scanner(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * @return The offset of the next byte to be read
+         */
+        long position() {
+            return bufferStart + bufferPosition;
+        }
+
+        /**
+         * @return The next byte, or -1 at the end of the file
+         */
+        int next() throws IOException {
+            if (bufferPosition == bufferLength && !fill()){
+                return -1;
+            }
+            return buffer[bufferPosition++] & 0xff;
+        }
+
+        /**
+         * @return The next byte that isn't whitespace, or -1 at the end of
+         *         the file
+         */
+        int nextToken() throws IOException {
+            int c = next();
+            while (c == ' ' || c == '\n' || c == '\r' || c == '\t'){
+                c = next();
+            }
+            return c;
+        }
+
+        /**
+         * Moves just inside the first leads array among the names of the
+         * top level object, the one a LeadReader would read.
+         */
+        boolean seekLeadsArray() throws IOException {
+            if (nextToken() != '{'){
+                return false;
+            }
+            int c = nextToken();
+            while (c == '"'){
+                boolean leads = readName();
+                if (nextToken() != ':'){
+                    return false;
+                }
+                c = nextToken();
+                if (leads && c == '['){
+                    return true;
+                }
+                if (!skipValue(c)){
+                    return false;
+                }
+                c = nextToken();
+                if (c != ','){
+                    return false;
+                }
+                c = nextToken();
+            }
+            return false;
+        }
+
+        /**
+         * Checks what's left after the leads array is a well formed end to
+         * the top level object.  A second leads array also sends the input
+         * to a LeadReader, which reads its leads after the first array's.
+         */
+        boolean finishDocument() throws IOException {
+            int c = nextToken();
+            while (c == ','){
+                if (nextToken() != '"' || readName()){
+                    return false;
+                }
+                if (nextToken() != ':' || !skipValue(nextToken())){
+                    return false;
+                }
+                c = nextToken();
+            }
+            return c == '}';
+        }
+
+        /**
+         * Reads the rest of a name after its opening quote, and whether it's
+         * "leads".  Names with escapes are never taken to be "leads", which
+         * at worst sends the input to a LeadReader.
+         */
+        private boolean readName() throws IOException {
+            int length = 0;
+            boolean matches = true;
+            int c = next();
+            while (c != '"'){
+                if (c < 0){
+                    return false;
+                }
+                if (c == '\\'){
+                    matches = false;
+                    next();
+                } else if (length >= LEADS_NAME.length || c != LEADS_NAME[length]){
+                    matches = false;
+                }
+                length++;
+                c = next();
+            }
+            return matches && length == LEADS_NAME.length;
+        }
+
+        /**
+         * Skips a value whose first byte has already been read.
+         */
+        private boolean skipValue(int c) throws IOException {
+            if (c == '{' || c == '['){
+                return skipNested(c);
+            }
+            if (c == '"'){
+                return skipString();
+            }
+            // a number or a literal, which runs up to the next separator
+            while (c >= 0 && c != ',' && c != '}' && c != ']' && c != ' ' && c != '\n' && c != '\r' && c != '\t'){
+                c = next();
+            }
+            bufferPosition--;
+            return c >= 0;
+        }
+
+        /**
+         * Skips an object or array whose opening bracket has already been
+         * read, up to and including its closing bracket.
+         */
+        boolean skipNested(int open) throws IOException {
+            int depth = 1;
+            while (depth > 0){
+                int c = next();
+                if (c < 0){
+                    return false;
+                } else if (c == '"'){
+                    if (!skipString()){
+                        return false;
+                    }
+                } else if (c == '{' || c == '['){
+                    depth++;
+                } else if (c == '}' || c == ']'){
+                    depth--;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Skips the rest of a string after its opening quote.
+         */
+        private boolean skipString() throws IOException {
+            while (true){
+                int c = next();
+                if (c < 0){
+                    return false;
+                }
+                if (c == '"'){
+                    return true;
+                }
+                if (c == '\\'){
+                    next();
+                }
+            }
+        }
+
+        private boolean fill() throws IOException {
+            long start = position();
+            if (start >= size){
+                return false;
+            }
+            if (window == null || start >= windowStart + window.capacity()){
+                windowStart = start;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SCAN_WINDOW_BYTES, size - start));
+            }
+            bufferStart = start;
+            bufferLength = (int) Math.min(buffer.length, windowStart + window.capacity() - start);
+            window.position((int) (start - windowStart));
+            window.get(buffer, 0, bufferLength);
+            bufferPosition = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.nlaw.leadDedupe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ *  PipelinedDedupeServiceImpl
+ *
+ *  Parses, merges and writes leads as a pipeline of stages on separate
+ *  threads, rather than one after the other.  A parser thread reads the
+ *  input into batches of rows, each a small LeadColumns store of its own,
+ *  and hands them over a bounded queue to the calling thread, which merges
+ *  them into a LeadMerger exactly as the DedupeServiceImpl does.  The
+ *  survivors are then handed, in output order and a batch at a time, over a
+ *  second bounded queue to a writer thread, which streams them out through
+ *  a buffered LeadWriter.  Each queue only holds a few batches, so a stage
+ *  that gets ahead waits for the next one instead of piling up leads.
+ *
+ *  Any later lead can replace a survivor by its id or its email, and a
+ *  three-way collision can remove one, so a survivor's final state is only
+ *  known once the last lead has been merged.  That's as early as they can
+ *  be emitted, and they are: the writer starts on the first batch while the
+ *  rest are still being turned back into Leads.  So parsing overlaps
+ *  merging, and building the output overlaps writing it.  The output is the
+ *  same as the DedupeServiceImpl's.
+ *
+ *  Each stage times itself.  Parsing and merging count the time they spent
+ *  working rather than waiting on their queue, with the CPU time of their
+ *  own thread, and writing counts everything from the end of the merge to
+ *  the end of the file.  As the stages overlap, the phases add up to more
+ *  than the run took.
+ *
+ *  @author nlawrence
+ *
+ */
+public class PipelinedDedupeServiceImpl implements DedupeService {
+    public static final int DEFAULT_BATCH_LEADS = 4096;
+
+    private static final int QUEUED_BATCHES = 4;
+    // handed on by a stage once it has nothing more to pass along
+    private static final LeadColumns END_OF_INPUT = new LeadColumns();
+    private static final List<Lead> END_OF_OUTPUT = new ArrayList<>();
+
+    private JsonFileUtilsImpl fileUtils = new JsonFileUtilsImpl();
+
+    private final LeadMerger merger;
+    private final DedupeMetrics metrics = new DedupeMetrics();
+    private final String inputFormat; // null to go by the file extension
+    private final String outputFormat; // null to go by the file extension
+    private final boolean compactOutput;
+    private final int batchLeads;
+
+    // set by a stage's thread before it hands on the end of its batches
+    private volatile Throwable parseFailure;
+    private volatile Throwable writeFailure;
+
+    public PipelinedDedupeServiceImpl() {
+        this(new DedupeOptions());
+    }
+
+    /**
+     * @param options The options for this run, used to pick the kind of key
+     *                index to track ids and emails in and for the input and
+     *                output formats
+     */
+    public PipelinedDedupeServiceImpl(DedupeOptions options) {
+        this(options, DEFAULT_BATCH_LEADS);
+    }
+
+    /**
+     * @param options The options for this run
+     * @param batchLeads The number of leads handed between stages at a time
+     */
+    public PipelinedDedupeServiceImpl(DedupeOptions options, int batchLeads) {
+        if (batchLeads < 1){
+            throw new IllegalArgumentException("Batches must hold at least one lead, got " + batchLeads);
+        }
+        this.merger = new LeadMerger(options.createKeyIndex(), options.createKeyIndex());
+        this.merger.setLogFieldDiffs(options.isLogFieldDiffs());
+        this.merger.setMetrics(metrics);
+        this.inputFormat = options.getInputFormat();
+        this.outputFormat = options.getOutputFormat();
+        this.compactOutput = options.isCompactOutput();
+        this.batchLeads = batchLeads;
+    }
+
+    /**
+     *
+     * Parses the input on a thread of its own while merging it, and returns
+     * the survivors without writing them anywhere.  See
+     * DedupeServiceImpl.deduplicateItems() for the rules.
+     *
+     * @param inputFilename The filename of the input file
+     * @return A list of unique (deduplicated) Leads
+     */
+    public List<Lead> deduplicateItems(String inputFilename) {
+        mergeInput(fileUtils.getInputFile(inputFilename));
+        return merger.getOutputLeads();
+    }
+
+    /**
+     *
+     * Runs the whole pipeline, writing the survivors to the output file as
+     * soon as their final state is known.
+     *
+     * @param inputFilename The filename of the input file
+     * @param outputFile The file to write the survivors to
+     * @throws IOException if the output file can't be written
+     */
+    public void deduplicateItems(String inputFilename, File outputFile) throws IOException {
+        mergeInput(fileUtils.getInputFile(inputFilename));
+        writeOutput(outputFile);
+    }
+
+    public DedupeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Merges batches of leads as the parser thread hands them over, until
+     * it runs out of input.  Parsing problems are reported the way the
+     * DedupeServiceImpl reports them.
+     */
+    private void mergeInput(File inputFile) {
+        BlockingQueue<LeadColumns> batches = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+        Thread parser = new Thread(() -> parse(inputFile, batches), "pipeline-parser");
+        parser.setDaemon(true);
+        parser.start();
+
+        long cpuStart = DedupeMetrics.threadCpuNanos();
+        long mergeNanos = 0;
+        long records = 0;
+        try {
+            for (LeadColumns batch = take(batches); batch != END_OF_INPUT; batch = take(batches)){
+                long mergeStart = System.nanoTime();
+                for (int row = 0; row < batch.size(); row++){
+                    LeadColumns columns = merger.getColumns();
+                    merger.mergeRow(columns.add(batch, row));
+                }
+                mergeNanos += System.nanoTime() - mergeStart;
+                records += batch.size();
+            }
+            rethrowUnchecked(parseFailure);
+            if (parseFailure != null){
+                throw (IOException) parseFailure;
+            }
+        } catch (IOException e){
+            System.out.println("Could not parse input Json");
+            e.printStackTrace();
+            System.out.println("Aborting!");
+            System.exit(1);
+        } finally {
+            // lets the parser go if we're giving up early
+            parser.interrupt();
+        }
+        metrics.addPhaseTime(DedupeMetrics.MERGE, mergeNanos, DedupeMetrics.threadCpuNanos() - cpuStart);
+        metrics.addRecordsRead(records);
+        metrics.setRecordsKept(merger.getOutputSize());
+        metrics.recordIndexKeys(merger.getPeakIndexKeys());
+        metrics.recordRetainedBytes(merger.estimatedBytes());
+    }
+
+    /**
+     * The parser thread: reads the input into batches and queues them,
+     * followed by END_OF_INPUT, which is queued after a failure too.
+     */
+    private void parse(File inputFile, BlockingQueue<LeadColumns> batches) {
+        long cpuStart = DedupeMetrics.threadCpuNanos();
+        long start = System.nanoTime();
+        long waitNanos = 0;
+        try (LeadReader leadReader = fileUtils.openLeadReader(inputFile, inputFormat)){
+            LeadColumns batch = new LeadColumns();
+            while (leadReader.hasNext()){
+                leadReader.nextRow(batch);
+                if (batch.size() == batchLeads){
+                    waitNanos += put(batches, batch);
+                    batch = new LeadColumns();
+                }
+            }
+            if (batch.size() > 0){
+                waitNanos += put(batches, batch);
+            }
+        } catch (InterruptedException e){
+            // the merging thread has given up, so nobody wants the rest
+            return;
+        } catch (IOException | RuntimeException | Error e){
+            parseFailure = e;
+        } finally {
+            metrics.addPhaseTime(DedupeMetrics.PARSE, System.nanoTime() - start - waitNanos,
+                    DedupeMetrics.threadCpuNanos() - cpuStart);
+        }
+        try {
+            batches.put(END_OF_INPUT);
+        } catch (InterruptedException e){
+            // likewise
+        }
+    }
+
+    /**
+     * Hands the survivors to the writer thread a batch at a time, creating
+     * the Leads of each batch while the writer works on the one before.
+     */
+    private void writeOutput(File outputFile) throws IOException {
+        metrics.startPhase(DedupeMetrics.WRITE);
+        LeadWriter leadWriter = fileUtils.openLeadWriter(outputFile, outputFormat, compactOutput);
+        BlockingQueue<List<Lead>> batches = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+        Thread writer = new Thread(() -> write(leadWriter, batches), "pipeline-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        try {
+            List<Lead> survivors = merger.getOutputLeads();
+            for (int start = 0; start < survivors.size() && writeFailure == null; start += batchLeads){
+                List<Lead> batch = new ArrayList<>(survivors.subList(start,
+                        Math.min(start + batchLeads, survivors.size())));
+                put(batches, batch);
+            }
+            put(batches, END_OF_OUTPUT);
+            writer.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            writer.interrupt();
+            throw new InterruptedIOException("Interrupted while writing leads");
+        }
+        rethrowUnchecked(writeFailure);
+        if (writeFailure != null){
+            throw (IOException) writeFailure;
+        }
+        metrics.endPhase(DedupeMetrics.WRITE);
+    }
+
+    /**
+     * The writer thread: writes out batches until END_OF_OUTPUT, and then
+     * finishes the file.  After a failure it carries on taking batches, so
+     * the merging thread is never left waiting for room in the queue.
+     */
+    private void write(LeadWriter leadWriter, BlockingQueue<List<Lead>> batches) {
+        boolean ended = false;
+        try (LeadWriter out = leadWriter){
+            for (List<Lead> batch = batches.take(); batch != END_OF_OUTPUT; batch = batches.take()){
+                for (Lead lead : batch){
+                    out.write(lead);
+                }
+            }
+            ended = true;
+        } catch (InterruptedException e){
+            writeFailure = new InterruptedIOException("Interrupted while writing leads");
+            return;
+        } catch (IOException | RuntimeException | Error e){
+            writeFailure = e;
+        }
+        try {
+            while (!ended){
+                // dropped, since the file is no good anyway
+                ended = batches.take() == END_OF_OUTPUT;
+            }
+        } catch (InterruptedException e){
+            // nobody is waiting on us any more
+        }
+    }
+
+    private static LeadColumns take(BlockingQueue<LeadColumns> batches) throws IOException {
+        try {
+            return batches.take();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing leads");
+        }
+    }
+
+    /**
+     * @return How long we waited for room in the queue, in nanoseconds
+     */
+    private static <T> long put(BlockingQueue<T> batches, T batch) throws InterruptedException {
+        long start = System.nanoTime();
+        batches.put(batch);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Rethrows a stage's failure on the calling thread if it's unchecked,
+     * e.g. a JsonSyntaxException or an invalid entry date, just as it would
+     * have been thrown without the pipeline.
+     */
+    private static void rethrowUnchecked(Throwable failure) {
+        if (failure instanceof RuntimeException){
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error){
+            throw (Error) failure;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.nlaw.leadDedupe.AsyncAuditLogImpl;
+import com.nlaw.leadDedupe.DedupeOptions;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadColumns;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *  Tests the asynchronous JSON lines audit log
+ *
+ *  @author nlawrence
+ */
+public class AsyncAuditLogImplTest {
+    private String workingdir = System.getProperty("user.dir");
+    private String fileSep = System.getProperty("file.separator");
+    private String testResourcePath = "src" + fileSep + "test" + fileSep
+            + "resources" + fileSep;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(workingdir));
+
+    @Test
+    public void eventsAreWrittenInOrderThroughASmallBuffer() throws IOException {
+        LeadColumns columns = new LeadColumns();
+        int first = columns.add(new Lead("a", "a@bar.com", "J\u00f6rg", "Smith", null,
+                "2014-05-07T17:30:20+00:00"));
+        int second = columns.add(new Lead("a", "b@bar.com", "J\u00f6rg", "Smith", "1 Street St",
+                "2014-05-07T17:30:20+00:00"));
+        columns.setOrdinal(second, 1);
+        File file = folder.newFile("audit.json");
+
+        AsyncAuditLogImpl auditLog = new AsyncAuditLogImpl(file, 3);
+        for (int i = 0; i < 1000; i++){
+            auditLog.added(columns, first);
+            auditLog.replaced(columns, first, second);
+            auditLog.removed(columns, second);
+            auditLog.collided(columns, first, second, first);
+        }
+        auditLog.close();
+
+        List<JsonObject> events = readEvents(file);
+        assertEquals(4000, events.size());
+        for (int i = 0; i < events.size(); i++){
+            assertEquals(i, events.get(i).get("seq").getAsLong());
+        }
+
+        JsonObject added = events.get(0);
+        assertEquals("add", added.get("event").getAsString());
+        assertEquals("J\u00f6rg", added.getAsJsonObject("lead").get("firstName").getAsString());
+        assertTrue(added.getAsJsonObject("lead").get("address").isJsonNull());
+
+        JsonObject replaced = events.get(1);
+        assertEquals("replace", replaced.get("event").getAsString());
+        assertEquals("a@bar.com", replaced.getAsJsonObject("old").get("email").getAsString());
+        assertEquals(1, replaced.getAsJsonObject("new").get("ordinal").getAsLong());
+        JsonArray changed = replaced.getAsJsonArray("changed");
+        assertEquals(2, changed.size());
+        assertEquals("email", changed.get(0).getAsString());
+        assertEquals("address", changed.get(1).getAsString());
+
+        assertEquals("remove", events.get(2).get("event").getAsString());
+        JsonObject collided = events.get(3);
+        assertEquals("collision", collided.get("event").getAsString());
+        assertEquals("b@bar.com", collided.getAsJsonObject("emailMatch").get("email").getAsString());
+        assertEquals("a@bar.com", collided.getAsJsonObject("idMatch").get("email").getAsString());
+    }
+
+    @Test
+    public void eventsAccountForTheOutput() throws IOException {
+        File file = new File(folder.getRoot(), "leads.audit.json");
+        DedupeOptions options = new DedupeOptions();
+        options.setAuditLogPath(file.getPath());
+
+        List<Lead> output = new DedupeServiceImpl(options).deduplicateItems(testResourcePath + "leads.json");
+
+        int live = 0;
+        for (JsonObject event : readEvents(file)){
+            String name = event.get("event").getAsString();
+            if (name.equals("add")){
+                live++;
+            } else if (name.equals("remove")){
+                live--;
+            }
+        }
+        assertEquals(output.size(), live);
+    }
+
+    @Test
+    public void valuesAreEscaped() throws IOException {
+        LeadColumns columns = new LeadColumns();
+        String address = "1 \"Main\" St\\\nApt 2\t\u0001";
+        int row = columns.add(new Lead("a", "a@bar.com", "John", "Smith", address,
+                "2014-05-07T17:30:20+00:00"));
+        File file = folder.newFile("escaped.json");
+
+        AsyncAuditLogImpl auditLog = new AsyncAuditLogImpl(file);
+        auditLog.added(columns, row);
+        auditLog.close();
+
+        List<JsonObject> events = readEvents(file);
+        assertEquals(1, events.size());
+        assertEquals(address, events.get(0).getAsJsonObject("lead").get("address").getAsString());
+    }
+
+    @Test(timeout = 10000)
+    public void writerFailuresAreThrownFromClose() throws IOException {
+        LeadColumns columns = new LeadColumns();
+        int row = columns.add(new Lead("a", "a@bar.com", "John", "Smith", "", "2014-05-07T17:30:20+00:00"));
+        IllegalStateException broken = new IllegalStateException("broken sink");
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+                throw broken;
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                throw broken;
+            }
+        };
+
+        // many times the capacity, so reporting has to wait on the writer
+        AsyncAuditLogImpl auditLog = new AsyncAuditLogImpl(sink, 4);
+        for (int i = 0; i < 1000; i++){
+            auditLog.added(columns, row);
+        }
+        try {
+            auditLog.close();
+            fail("Expected the writer's failure");
+        } catch (IOException e){
+            assertEquals(broken, e.getCause());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void reportingAfterCloseFails() throws IOException {
+        LeadColumns columns = new LeadColumns();
+        int row = columns.add(new Lead("a", "a@bar.com", "John", "Smith", "", "2014-05-07T17:30:20+00:00"));
+        AsyncAuditLogImpl auditLog = new AsyncAuditLogImpl(folder.newFile("closed.json"));
+        auditLog.close();
+        auditLog.added(columns, row);
+    }
+
+    private static List<JsonObject> readEvents(File file) throws IOException {
+        List<JsonObject> events = new ArrayList<>();
+        JsonParser parser = new JsonParser();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)){
+            events.add(parser.parse(line).getAsJsonObject());
+        }
+        return events;
+    }
+}
@@ -0,0 +1,94 @@
+import com.nlaw.leadDedupe.BackgroundInputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *  Tests that a BackgroundInputStream hands back exactly the bytes of the
+ *  stream it reads, however they're read, and reports the stream's failures.
+ *
+ *  @author nlawrence
+ */
+public class BackgroundInputStreamTest {
+
+    @Test
+    public void readsEveryByteInOrder() throws IOException {
+        byte[] bytes = new byte[100000];
+        new Random(7).nextBytes(bytes);
+        // chunk sizes that do and don't divide the input
+        for (int chunkBytes : new int[] {1, 1000, 4096, 100000, 1 << 20}){
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            try (InputStream in = new BackgroundInputStream(new ByteArrayInputStream(bytes), "test-reader",
+                    chunkBytes)){
+                read.write(in.read());
+                byte[] buffer = new byte[777];
+                for (int count = in.read(buffer); count >= 0; count = in.read(buffer)){
+                    read.write(buffer, 0, count);
+                }
+                assertEquals(-1, in.read());
+            }
+            assertArrayEquals(bytes, read.toByteArray());
+        }
+    }
+
+    @Test
+    public void readsEmptyStreams() throws IOException {
+        try (InputStream in = new BackgroundInputStream(new ByteArrayInputStream(new byte[0]), "test-reader")){
+            assertEquals(-1, in.read());
+            assertEquals(-1, in.read(new byte[10]));
+        }
+    }
+
+    @Test
+    public void reportsFailuresAfterTheBytesBeforeThem() throws IOException {
+        InputStream failing = new InputStream() {
+            private int position = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (position == 10){
+                    throw new IOException("broken");
+                }
+                return position++;
+            }
+        };
+        try (InputStream in = new BackgroundInputStream(failing, "test-reader", 4)){
+            for (int i = 0; i < 8; i++){
+                assertEquals(i, in.read());
+            }
+            try {
+                while (in.read() >= 0){
+                    // the last two bytes never made a whole chunk
+                }
+                fail("The failure should have been reported");
+            } catch (IOException e){
+                assertTrue(e.getMessage().contains("broken"));
+            }
+        }
+    }
+
+    @Test
+    public void closesBeforeTheEnd() throws IOException {
+        byte[] bytes = new byte[1 << 16];
+        InputStream in = new BackgroundInputStream(new ByteArrayInputStream(bytes), "test-reader", 16);
+        in.read();
+
+        in.close();
+
+        try {
+            in.read();
+            fail("A closed stream can't be read");
+        } catch (IOException e){
+            assertEquals("Stream closed", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import com.nlaw.leadDedupe.BackgroundOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *  Tests that a BackgroundOutputStream passes on exactly the bytes written
+ *  to it, and reports the failures of the stream it writes to.
+ *
+ *  @author nlawrence
+ */
+public class BackgroundOutputStreamTest {
+
+    @Test
+    public void writesEveryByteInOrder() throws IOException {
+        byte[] bytes = new byte[100000];
+        new Random(7).nextBytes(bytes);
+        for (int chunkBytes : new int[] {1, 1000, 4096, 100000, 1 << 20}){
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            try (OutputStream out = new BackgroundOutputStream(written, "test-writer", chunkBytes)){
+                out.write(bytes[0]);
+                for (int offset = 1; offset < bytes.length; offset += 777){
+                    out.write(bytes, offset, Math.min(777, bytes.length - offset));
+                    if (offset % 7 == 0){
+                        out.flush();
+                    }
+                }
+            }
+            assertArrayEquals(bytes, written.toByteArray());
+        }
+    }
+
+    @Test
+    public void reportsFailures() throws IOException {
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        OutputStream out = new BackgroundOutputStream(failing, "test-writer", 4);
+        IOException failure = null;
+        try {
+            // keeps writing long after the writer has failed
+            for (int i = 0; i < 1000; i++){
+                out.write(i);
+            }
+        } catch (IOException e){
+            failure = e;
+        }
+        try {
+            out.close();
+        } catch (IOException e){
+            failure = e;
+        }
+
+        assertNotNull(failure);
+        assertTrue(failure.getMessage().contains("broken"));
+    }
+}
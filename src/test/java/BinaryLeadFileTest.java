@@ -0,0 +1,118 @@
+import com.nlaw.leadDedupe.BinaryLeadFile;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.JsonFileUtilsImpl;
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadGenerator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ *  Tests that every lead written to a binary lead file can be found again
+ *  by its id and its email, and that nothing else can.
+ *
+ *  @author nlawrence
+ */
+public class BinaryLeadFileTest {
+    private static final String DATE = "2014-05-07T17:30:20+00:00";
+
+    private String workingdir = System.getProperty("user.dir");
+    private String fileSep = System.getProperty("file.separator");
+    private JsonFileUtilsImpl fileUtils = new JsonFileUtilsImpl();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(workingdir));
+
+    @Test
+    public void findsEverySurvivorByIdAndEmail() throws IOException {
+        LeadGenerator generator = new LeadGenerator();
+        generator.setLeads(5000);
+        generator.setIdDuplicateRate(0.2);
+        generator.setEmailDuplicateRate(0.2);
+        try (OutputStream out = new FileOutputStream(folder.newFile("generated.json"))){
+            generator.write(out);
+        }
+        List<Lead> survivors = new DedupeServiceImpl().deduplicateItems(
+                folder.getRoot().getName() + fileSep + "generated.json");
+
+        File binary = new File(folder.getRoot(), "output.leads");
+        fileUtils.writeOutputFile(binary, survivors);
+
+        try (BinaryLeadFile leads = new BinaryLeadFile(binary)){
+            assertEquals(survivors.size(), leads.size());
+            for (Lead survivor : survivors){
+                assertEquals(survivor.toString(), leads.findById(survivor.get_id()).toString());
+                assertEquals(survivor.toString(), leads.findByEmail(survivor.getEmail()).toString());
+            }
+            assertNull(leads.findById("no such id"));
+            assertNull(leads.findByEmail("nobody@nowhere.com"));
+            // ids aren't emails
+            assertNull(leads.findByEmail(survivors.get(0).get_id()));
+        }
+    }
+
+    @Test
+    public void keepsMissingFieldsAndMultiByteCharacters() throws IOException {
+        Lead unicode = new Lead("\u00e9\u4e2d\ud83d\ude00", "\u00e9@\u4e2d.com", "\u00c9mile", null, null, DATE);
+        Lead noEmail = new Lead("plain", null, null, null, null, DATE);
+        File binary = new File(folder.getRoot(), "output.leads");
+        fileUtils.writeOutputFile(binary, Arrays.asList(unicode, noEmail));
+
+        try (BinaryLeadFile leads = new BinaryLeadFile(binary)){
+            assertEquals(unicode.toString(), leads.findById("\u00e9\u4e2d\ud83d\ude00").toString());
+            assertEquals(unicode.toString(), leads.findByEmail("\u00e9@\u4e2d.com").toString());
+            assertEquals(noEmail.toString(), leads.findById("plain").toString());
+            assertNull(leads.findByEmail(null));
+            assertNull(leads.findById(null));
+        }
+    }
+
+    @Test
+    public void findsTheFirstLeadWrittenWithAKey() throws IOException {
+        Lead first = new Lead("shared", "first@bar.com", null, null, null, DATE);
+        Lead second = new Lead("shared", "second@bar.com", null, null, null, DATE);
+        File binary = new File(folder.getRoot(), "output.leads");
+        fileUtils.writeOutputFile(binary, Arrays.asList(first, second));
+
+        try (BinaryLeadFile leads = new BinaryLeadFile(binary)){
+            assertEquals(first.toString(), leads.findById("shared").toString());
+            assertEquals(second.toString(), leads.findByEmail("second@bar.com").toString());
+        }
+    }
+
+    @Test
+    public void opensEmptyFiles() throws IOException {
+        File binary = new File(folder.getRoot(), "output.bin");
+        fileUtils.writeOutputFile(binary, Collections.<Lead>emptyList(), JsonFileUtilsImpl.BINARY_FORMAT);
+
+        try (BinaryLeadFile leads = new BinaryLeadFile(binary)){
+            assertEquals(0, leads.size());
+            assertNull(leads.findById("anything"));
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        File json = new File(folder.getRoot(), "output.json");
+        fileUtils.writeOutputFile(json, Collections.singletonList(
+                new Lead("a", "b", null, null, null, DATE)));
+        try {
+            new BinaryLeadFile(json).close();
+            fail("A json file isn't a binary lead file");
+        } catch (IOException e){
+            assertEquals(json + " is not a binary lead file", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import com.nlaw.leadDedupe.ClusterDedupeServiceImpl;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.Lead;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ * Tests that the ClusterDedupeServiceImpl gives exactly the same output as
+ * the DedupeServiceImpl, including order, for each of our example inputs,
+ * both on one thread and resolving clusters in parallel.
+ *
+ * The three-way collision examples cover each of the cases handled by
+ * LeadMerger.mergeThreeRecords, and the interleaved example mixes several of
+ * them together with non-colliding leads so that output order across
+ * clusters is checked as well.
+ *
+ * @author nlawrence
+ *
+ */
+@RunWith(Parameterized.class)
+public class ClusterDedupeServiceImplTest {
+    private static String fileSep = System.getProperty("file.separator");
+    private static String testResourcePath = "src" + fileSep + "test" + fileSep +
+            "resources" + fileSep;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> inputFiles() {
+        return Arrays.asList(new Object[][] {
+                {"leads.json"},
+                {"leadsThreeWay123.json"},
+                {"leadsThreeWay132.json"},
+                {"leadsThreeWay213.json"},
+                {"leadsThreeWay231.json"},
+                {"leadsThreeWay312.json"},
+                {"leadsThreeWay321.json"},
+                {"leadsThreeWayOneOlder.json"},
+                {"leadsThreeWayOneYounger.json"},
+                {"leadsThreeWayThreeOlder.json"},
+                {"leadsThreeWayThreeYounger.json"},
+                {"leadsThreeWayTwoOlder.json"},
+                {"leadsThreeWayTwoYounger.json"},
+                {"leadsMiddleCollisionShift.json"},
+                {"leadsInterleavedClusters.json"},
+                {"leadsMissingEntryDate.json"},
+                {"leadsMissingKeys.json"},
+        });
+    }
+
+    private String inputFile;
+
+    public ClusterDedupeServiceImplTest(String inputFile) {
+        this.inputFile = inputFile;
+    }
+
+    @Test
+    public void clusterOutputMatchesStreamingOutput(){
+        String testJsonPath = testResourcePath + inputFile;
+
+        List<Lead> expected = new DedupeServiceImpl().deduplicateItems(testJsonPath);
+        List<Lead> actual = new ClusterDedupeServiceImpl().deduplicateItems(testJsonPath);
+
+        assertSameLeads(expected, actual);
+    }
+
+    @Test
+    public void parallelOutputMatchesStreamingOutput(){
+        String testJsonPath = testResourcePath + inputFile;
+
+        List<Lead> expected = new DedupeServiceImpl().deduplicateItems(testJsonPath);
+        List<Lead> actual = new ClusterDedupeServiceImpl(4).deduplicateItems(testJsonPath);
+
+        assertSameLeads(expected, actual);
+    }
+
+    static void assertSameLeads(List<Lead> expected, List<Lead> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++){
+            Lead expectedLead = expected.get(i);
+            Lead actualLead = actual.get(i);
+            assertEquals(expectedLead.getOrdinal(), actualLead.getOrdinal());
+            assertEquals(expectedLead.toString(), actualLead.toString());
+        }
+    }
+}
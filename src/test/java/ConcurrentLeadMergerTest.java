@@ -0,0 +1,232 @@
+import com.nlaw.leadDedupe.ConcurrentLeadMerger;
+import com.nlaw.leadDedupe.DedupeOptions;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.JsonFileUtilsImpl;
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadGenerator;
+import com.nlaw.leadDedupe.LeadMerger;
+import com.nlaw.leadDedupe.LeadReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *  Tests that the ConcurrentLeadMerger follows the LeadMerger's rules: on
+ *  one thread it gives exactly the same output and decisions, and with many
+ *  threads merging colliding leads at once, the output and every decision
+ *  are those of merging the leads one at a time in the order they were
+ *  stamped, with each thread's leads in the order that thread merged them.
+ *
+ *  @author nlawrence
+ */
+public class ConcurrentLeadMergerTest {
+    private static final String[] INPUTS = {
+            "leads.json",
+            "leadsThreeWay123.json",
+            "leadsThreeWay132.json",
+            "leadsThreeWay213.json",
+            "leadsThreeWay231.json",
+            "leadsThreeWay312.json",
+            "leadsThreeWay321.json",
+            "leadsThreeWayOneOlder.json",
+            "leadsThreeWayOneYounger.json",
+            "leadsThreeWayThreeOlder.json",
+            "leadsThreeWayThreeYounger.json",
+            "leadsThreeWayTwoOlder.json",
+            "leadsThreeWayTwoYounger.json",
+            "leadsMiddleCollisionShift.json",
+            "leadsInterleavedClusters.json",
+    };
+    private static final int THREADS = 4;
+
+    private String workingdir = System.getProperty("user.dir");
+    private String fileSep = System.getProperty("file.separator");
+    private String testResourcePath = "src" + fileSep + "test" + fileSep +
+            "resources" + fileSep;
+    private JsonFileUtilsImpl fileUtils = new JsonFileUtilsImpl();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(workingdir));
+
+    @Test
+    public void outputMatchesStreamingOutput() throws IOException {
+        for (String input : INPUTS){
+            String testJsonPath = testResourcePath + input;
+            ConcurrentLeadMerger merger = new ConcurrentLeadMerger();
+            for (Lead lead : fileUtils.parseJson(new File(testJsonPath))){
+                merger.merge(lead);
+            }
+
+            ClusterDedupeServiceImplTest.assertSameLeads(
+                    new DedupeServiceImpl().deduplicateItems(testJsonPath), merger.getOutputLeads());
+            assertEquals(input, merger.getOutputLeads().size(), merger.getOutputSize());
+        }
+    }
+
+    @Test
+    public void decisionsMatchLeadMerger() throws IOException {
+        for (String input : INPUTS){
+            ConcurrentLeadMerger merger = new ConcurrentLeadMerger();
+            LeadMerger expectedMerger = new LeadMerger();
+            for (Lead lead : fileUtils.parseJson(new File(testResourcePath + input))){
+                int decision = merger.merge(lead);
+                assertEquals(input, expectedMerger.merge(lead), decision);
+            }
+        }
+    }
+
+    @Test
+    public void concurrentMergesMatchSomeSingleOrder() throws Exception {
+        // a single stripe makes every merge contend, a few make collisions
+        // span stripes, and many leave most merges uncontended
+        for (int stripes : new int[] {1, 4, ConcurrentLeadMerger.DEFAULT_STRIPES}){
+            for (long seed = 1; seed <= 3; seed++){
+                checkConcurrentMerges(stripes, generateLeads(seed));
+            }
+        }
+    }
+
+    @Test
+    public void snapshotsCarryOverToTheDedupeService() throws IOException {
+        String[] inputs = {"leads.json", "leadsInterleavedClusters.json", "leadsThreeWayOneOlder.json"};
+        for (String input : inputs){
+            String testJsonPath = testResourcePath + input;
+            List<Lead> leads = fileUtils.parseJson(new File(testJsonPath));
+            ConcurrentLeadMerger merger = new ConcurrentLeadMerger();
+            for (Lead lead : leads.subList(0, leads.size() / 2)){
+                merger.merge(lead);
+            }
+            File snapshot = new File(folder.getRoot(), input + ".snapshot");
+            merger.saveSnapshot(snapshot);
+
+            // a second merger carries on where the first left off...
+            ConcurrentLeadMerger restored = new ConcurrentLeadMerger();
+            restored.loadSnapshot(snapshot);
+            for (Lead lead : fileUtils.parseJson(new File(testJsonPath)).subList(leads.size() / 2, leads.size())){
+                restored.merge(lead);
+            }
+            List<Lead> expected = new DedupeServiceImpl().deduplicateItems(testJsonPath);
+            ClusterDedupeServiceImplTest.assertSameLeads(expected, restored.getOutputLeads());
+            assertEquals(expected.size(), restored.getOutputSize());
+
+            // ...and so does the service
+            File rest = new File(folder.getRoot(), input);
+            fileUtils.writeOutputFile(rest, leads.subList(leads.size() / 2, leads.size()));
+            DedupeOptions options = new DedupeOptions();
+            options.setSnapshotPath(folder.getRoot().getName() + fileSep + input + ".snapshot");
+            List<Lead> actual = new DedupeServiceImpl(options).deduplicateItems(
+                    folder.getRoot().getName() + fileSep + input);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++){
+                assertEquals(expected.get(i).toString(), actual.get(i).toString());
+            }
+        }
+    }
+
+    @Test
+    public void snapshotsCanOnlyBeLoadedFirst() throws IOException {
+        ConcurrentLeadMerger merger = new ConcurrentLeadMerger();
+        merger.merge(new Lead("a", "a@bar.com", null, null, null, "2014-05-07T17:30:20+00:00"));
+        File snapshot = new File(folder.getRoot(), "leads.snapshot");
+        merger.saveSnapshot(snapshot);
+        try {
+            merger.loadSnapshot(snapshot);
+            fail("A snapshot can't be loaded on top of merged leads");
+        } catch (IllegalStateException e){
+            // expected
+        }
+    }
+
+    /**
+     * Merges the leads from several threads at once, dealt out in turn, then
+     * replays them one at a time in the order they were stamped.
+     */
+    private void checkConcurrentMerges(int stripes, List<Lead> leads) throws Exception {
+        ConcurrentLeadMerger merger = new ConcurrentLeadMerger(stripes);
+        int[] decisions = new int[leads.size()];
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++){
+            int first = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    long lastOrdinal = -1;
+                    for (int i = first; i < leads.size(); i += THREADS){
+                        decisions[i] = merger.merge(leads.get(i));
+                        // each thread's leads arrive in the order it merged them
+                        assertTrue(leads.get(i).getOrdinal() > lastOrdinal);
+                        lastOrdinal = leads.get(i).getOrdinal();
+                    }
+                } catch (Throwable e){
+                    synchronized (failures){
+                        failures.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads){
+            thread.join();
+        }
+        if (!failures.isEmpty()){
+            throw new AssertionError("Merging failed", failures.get(0));
+        }
+
+        List<Integer> arrivals = new ArrayList<>();
+        for (int i = 0; i < leads.size(); i++){
+            arrivals.add(i);
+        }
+        arrivals.sort(Comparator.comparingLong(i -> leads.get(i).getOrdinal()));
+        LeadMerger expectedMerger = new LeadMerger();
+        for (int i = 0; i < arrivals.size(); i++){
+            int index = arrivals.get(i);
+            assertEquals(i, leads.get(index).getOrdinal());
+            assertEquals("decision for lead " + index, expectedMerger.merge(leads.get(index)), decisions[index]);
+        }
+        ClusterDedupeServiceImplTest.assertSameLeads(expectedMerger.getOutputLeads(), merger.getOutputLeads());
+        assertEquals(expectedMerger.getOutputLeads().size(), merger.getOutputSize());
+    }
+
+    /**
+     * Generates leads that collide often and with recent leads, so threads
+     * are usually merging into the same clusters at the same time.
+     */
+    private static List<Lead> generateLeads(long seed) throws IOException {
+        LeadGenerator generator = new LeadGenerator();
+        generator.setLeads(10000);
+        generator.setIdDuplicateRate(0.3);
+        generator.setEmailDuplicateRate(0.3);
+        generator.setThreeWayRate(0.2);
+        generator.setDateTieRate(0.2);
+        generator.setHotKeyRate(0.1);
+        generator.setHotKeys(20);
+        generator.setWindow(20);
+        generator.setSeed(seed);
+        StringWriter json = new StringWriter();
+        generator.write(json);
+
+        List<Lead> leads = new ArrayList<>();
+        try (LeadReader leadReader = new LeadReader(new StringReader(json.toString()))){
+            while (leadReader.hasNext()){
+                leads.add(leadReader.next());
+            }
+        }
+        return leads;
+    }
+}
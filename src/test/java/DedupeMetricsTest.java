@@ -0,0 +1,137 @@
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.nlaw.leadDedupe.ClusterDedupeServiceImpl;
+import com.nlaw.leadDedupe.DedupeMetrics;
+import com.nlaw.leadDedupe.DedupeOptions;
+import com.nlaw.leadDedupe.DedupeService;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.ExternalDedupeServiceImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Tests the DedupeMetrics collected by each DedupeService implementation
+ *
+ * @author nlawrence
+ *
+ */
+public class DedupeMetricsTest {
+    private String fileSep = System.getProperty("file.separator");
+    private String testResourcePath = "src" + fileSep + "test" + fileSep +
+            "resources" + fileSep;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(System.getProperty("user.dir")));
+
+    @Test
+    public void testEveryRecordFallsIntoOneCase() {
+        DedupeService service = new DedupeServiceImpl();
+        service.deduplicateItems(testResourcePath + "leads.json");
+        DedupeMetrics metrics = service.getMetrics();
+
+        long cases = 0;
+        for (long count : metrics.getCollisionCases().values()){
+            cases += count;
+        }
+        assertEquals(10, metrics.getRecordsRead());
+        assertEquals(10, cases);
+        assertEquals(5, metrics.getRecordsKept());
+        assertTrue(metrics.getPeakIndexKeys() >= 10);
+        assertTrue(metrics.getEstimatedBytesPerLead() > 0);
+    }
+
+    @Test
+    public void testThreeWayCollisionIsCounted() {
+        DedupeService service = new DedupeServiceImpl();
+        service.deduplicateItems(testResourcePath + "leadsThreeWay123.json");
+        DedupeMetrics metrics = service.getMetrics();
+
+        assertEquals(2, metrics.getCount(DedupeMetrics.ADDED));
+        assertEquals(1, metrics.getCount(DedupeMetrics.THREE_WAY_NEWEST));
+    }
+
+    @Test
+    public void testServicesCountTheSameCases() {
+        String testJsonPath = testResourcePath + "leadsInterleavedClusters.json";
+        DedupeOptions externalOptions = new DedupeOptions();
+        externalOptions.setMemoryBudget(1 << 20);
+
+        Map<String,Long> expected = countCases(new DedupeServiceImpl(), testJsonPath);
+        assertEquals(expected, countCases(new ClusterDedupeServiceImpl(2), testJsonPath));
+        assertEquals(expected, countCases(new ExternalDedupeServiceImpl(externalOptions), testJsonPath));
+    }
+
+    @Test
+    public void testPhasesAreTimed() {
+        DedupeService service = new DedupeServiceImpl();
+        service.deduplicateItems(testResourcePath + "leads.json");
+        DedupeMetrics metrics = service.getMetrics();
+
+        assertTrue(metrics.getPhaseWallMillis().containsKey(DedupeMetrics.PARSE));
+        assertTrue(metrics.getPhaseWallMillis().containsKey(DedupeMetrics.MERGE));
+        assertTrue(metrics.getPhaseCpuMillis().containsKey(DedupeMetrics.MERGE));
+        assertTrue(metrics.getRecordsPerSecond() >= 0);
+    }
+
+    @Test
+    public void testAuditLogIsTimedApartFromMerging() {
+        DedupeOptions options = new DedupeOptions();
+        options.setAuditLogPath(new File(folder.getRoot(), "leads.audit.json").getPath());
+        DedupeService service = new DedupeServiceImpl(options);
+        service.deduplicateItems(testResourcePath + "leads.json");
+
+        assertTrue(service.getMetrics().getPhaseWallMillis().containsKey(DedupeMetrics.AUDIT));
+
+        DedupeService unaudited = new DedupeServiceImpl();
+        unaudited.deduplicateItems(testResourcePath + "leads.json");
+        assertFalse(unaudited.getMetrics().getPhaseWallMillis().containsKey(DedupeMetrics.AUDIT));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEndingAPhaseThatWasNeverStartedThrows() {
+        new DedupeMetrics().endPhase(DedupeMetrics.WRITE);
+    }
+
+    @Test
+    public void testToJson() {
+        DedupeService service = new DedupeServiceImpl();
+        service.deduplicateItems(testResourcePath + "leads.json");
+
+        JsonObject summary = new JsonParser().parse(service.getMetrics().toJson()).getAsJsonObject();
+
+        assertEquals(10, summary.get("recordsRead").getAsLong());
+        assertEquals(5, summary.get("recordsKept").getAsLong());
+        assertTrue(summary.getAsJsonObject("phases").getAsJsonObject("merge").has("cpuMillis"));
+        assertTrue(summary.getAsJsonObject("collisionCases").has("threeWayTiedNewerLast"));
+    }
+
+    @Test
+    public void testRegisterReplacesEarlierMetrics() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(DedupeMetrics.OBJECT_NAME);
+        DedupeMetrics first = new DedupeMetrics();
+        DedupeMetrics second = new DedupeMetrics();
+        second.addRecordsRead(3);
+
+        first.register();
+        second.register();
+
+        assertEquals(3L, server.getAttribute(name, "RecordsRead"));
+        server.unregisterMBean(name);
+    }
+
+    private Map<String,Long> countCases(DedupeService service, String inputPath) {
+        service.deduplicateItems(inputPath);
+        return service.getMetrics().getCollisionCases();
+    }
+}
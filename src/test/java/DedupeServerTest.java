@@ -0,0 +1,206 @@
+import com.nlaw.leadDedupe.ConcurrentLeadMerger;
+import com.nlaw.leadDedupe.DedupeMetrics;
+import com.nlaw.leadDedupe.DedupeServer;
+import com.nlaw.leadDedupe.JsonFileUtilsImpl;
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadMerger;
+import com.nlaw.leadDedupe.LeadReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *  Tests that the DedupeServer merges posted batches exactly as though they
+ *  had been one input file, reports the right decision for each lead, and
+ *  turns away requests it can't handle without merging anything.
+ *
+ *  @author nlawrence
+ */
+public class DedupeServerTest {
+    private static final String DATE = "2014-05-07T17:30:20+00:00";
+    private static final String LATER_DATE = "2014-05-07T17:31:20+00:00";
+
+    private String fileSep = System.getProperty("file.separator");
+    private String testResourcePath = "src" + fileSep + "test" + fileSep +
+            "resources" + fileSep;
+    private DedupeServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new DedupeServer(new ConcurrentLeadMerger(), new DedupeMetrics(),
+                new InetSocketAddress("localhost", 0), true);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void batchesAreMergedLikeOneFile() throws IOException {
+        String[] inputs = {"leads.json", "leadsThreeWay231.json", "leadsInterleavedClusters.json"};
+        for (String input : inputs){
+            List<Lead> leads = new JsonFileUtilsImpl().parseJson(new File(testResourcePath + input));
+            // one lead per line, in batches of three
+            for (int start = 0; start < leads.size(); start += 3){
+                StringBuilder batch = new StringBuilder();
+                for (Lead lead : leads.subList(start, Math.min(start + 3, leads.size()))){
+                    batch.append(JsonFileUtilsImpl.GSON.toJson(lead)).append('\n');
+                }
+                assertEquals(200, request("POST", "/leads?format=ndjson", batch.toString()).status);
+            }
+        }
+
+        // the same inputs, run as one file
+        LeadMerger expectedMerger = new LeadMerger();
+        long ordinal = 0;
+        for (String input : inputs){
+            for (Lead lead : new JsonFileUtilsImpl().parseJson(new File(testResourcePath + input))){
+                lead.setOrdinal(ordinal++);
+                expectedMerger.merge(lead);
+            }
+        }
+        Response response = request("GET", "/leads", null);
+        assertEquals(200, response.status);
+        List<Lead> served = new ArrayList<>();
+        try (LeadReader leadReader = new LeadReader(new StringReader(response.body))){
+            while (leadReader.hasNext()){
+                served.add(leadReader.next());
+            }
+        }
+        List<Lead> expected = expectedMerger.getOutputLeads();
+        assertEquals(expected.size(), served.size());
+        for (int i = 0; i < expected.size(); i++){
+            assertEquals(expected.get(i).toString(), served.get(i).toString());
+        }
+    }
+
+    @Test
+    public void reportsEachDecision() throws IOException {
+        Response response = request("POST", "/leads", "{\"leads\":["
+                + lead("a", "a@bar.com", DATE) + ","
+                + lead("b", "b@bar.com", DATE) + ","
+                + lead("a", "c@bar.com", LATER_DATE) + ","
+                + lead("b", "d@bar.com", "2014-05-07T17:29:20+00:00") + "]}");
+
+        assertEquals(200, response.status);
+        assertEquals("{\"accepted\":2,\"replaced\":1,\"dropped\":1,"
+                + "\"decisions\":[\"accept\",\"accept\",\"replace\",\"drop\"]}", response.body);
+
+        // later batches are merged on top of the earlier ones
+        response = request("POST", "/leads", "{\"leads\":[" + lead("e", "c@bar.com", DATE) + "]}");
+        assertEquals("{\"accepted\":0,\"replaced\":0,\"dropped\":1,\"decisions\":[\"drop\"]}", response.body);
+        response = request("POST", "/leads", "{\"leads\":[]}");
+        assertEquals("{\"accepted\":0,\"replaced\":0,\"dropped\":0,\"decisions\":[]}", response.body);
+    }
+
+    @Test
+    public void badBatchesAreNotMerged() throws IOException {
+        Response response = request("POST", "/leads", "{\"leads\":[" + lead("a", "a@bar.com", DATE) + ",{\"_id\":");
+        assertEquals(400, response.status);
+        assertTrue(response.body.startsWith("Could not parse leads"));
+
+        response = request("POST", "/leads", "{\"leads\":[" + lead("a", "a@bar.com", DATE) + "]}");
+        assertEquals("{\"accepted\":1,\"replaced\":0,\"dropped\":0,\"decisions\":[\"accept\"]}", response.body);
+    }
+
+    @Test
+    public void turnsAwayBadContentLengths() throws IOException {
+        String batch = "{\"leads\":[" + lead("a", "a@bar.com", DATE) + "]}";
+        for (String contentLength : new String[] {"lots", "-1", "99999999999999999999"}){
+            assertTrue(contentLength, rawPost(contentLength, batch).startsWith("HTTP/1.1 400 "));
+        }
+
+        Response response = request("GET", "/metrics", null);
+        assertTrue(response.body.contains("\"recordsRead\": 0"));
+    }
+
+    @Test
+    public void turnsAwayUnknownRequests() throws IOException {
+        assertEquals(405, request("DELETE", "/leads", null).status);
+        assertEquals(405, request("POST", "/metrics", "{}").status);
+        assertEquals(404, request("GET", "/leads/a", null).status);
+        assertEquals(404, request("GET", "/", null).status);
+    }
+
+    @Test
+    public void servesMetrics() throws IOException {
+        request("POST", "/leads", "{\"leads\":[" + lead("a", "a@bar.com", DATE) + "]}");
+
+        Response response = request("GET", "/metrics", null);
+
+        assertEquals(200, response.status);
+        assertTrue(response.body.contains("\"recordsRead\": 1"));
+        assertTrue(response.body.contains("\"recordsKept\": 1"));
+    }
+
+    private static String lead(String id, String email, String entryDate) {
+        return "{\"_id\":\"" + id + "\",\"email\":\"" + email + "\",\"entryDate\":\"" + entryDate + "\"}";
+    }
+
+    private Response request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://localhost:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null){
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()){
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = response.status < 400 ? connection.getInputStream() : connection.getErrorStream()){
+            byte[] buffer = new byte[4096];
+            for (int count = in.read(buffer); count >= 0; count = in.read(buffer)){
+                bytes.write(buffer, 0, count);
+            }
+        }
+        response.body = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        return response;
+    }
+
+    /**
+     * Posts a batch with the given Content-Length header, which
+     * HttpURLConnection would always set for itself, and returns the status
+     * line of the response.
+     */
+    private String rawPost(String contentLength, String body) throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())){
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /leads HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + contentLength
+                    + "\r\nConnection: close\r\n\r\n" + body).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            StringBuilder statusLine = new StringBuilder();
+            InputStream in = socket.getInputStream();
+            for (int c = in.read(); c >= 0 && c != '\r'; c = in.read()){
+                statusLine.append((char) c);
+            }
+            return statusLine.toString();
+        }
+    }
+
+    private static class Response {
+        int status;
+        String body;
+    }
+}
@@ -221,4 +221,37 @@ public class DedupeServiceImplTest {
         assertEquals("wabaj238238jdsnfsj23", lead.get_id());
         assertEquals("bog@bar.com", lead.getEmail());
     }
+
+    @Test
+    public void testMiddleCollisionKeepsLaterRecordsAddressable(){
+        String testJsonPath = testResourcePath + "leadsMiddleCollisionShift.json";
+
+        List<Lead> dedupeOutput = dedupeService.deduplicateItems(testJsonPath);
+
+        assertEquals(2, dedupeOutput.size());
+
+        Lead firstLead = dedupeOutput.get(0);
+        assertEquals("vug789238jdsnfsj23", firstLead.get_id());
+        assertEquals("bog@bar.com", firstLead.getEmail());
+
+        Lead secondLead = dedupeOutput.get(1);
+        assertEquals("sel045238jdsnfsj23", secondLead.get_id());
+        assertEquals("mae@bar.com", secondLead.getEmail());
+    }
+
+    @Test
+    public void testLeadsWithoutEntryDateRankOldest(){
+        String testJsonPath = testResourcePath + "leadsMissingEntryDate.json";
+
+        List<Lead> dedupeOutput = dedupeService.deduplicateItems(testJsonPath);
+
+        assertEquals(4, dedupeOutput.size());
+        // a dated lead is kept over an undated one, whichever came first
+        assertEquals("foo@bar.com", dedupeOutput.get(0).getEmail());
+        assertEquals("wuj08238jdsnfsj23", dedupeOutput.get(1).get_id());
+        // between two undated leads, the later one is kept
+        assertEquals("will@bar.com", dedupeOutput.get(2).getEmail());
+        assertNull(dedupeOutput.get(2).getEntryDate());
+        assertEquals("vug789238jdsnfsj23", dedupeOutput.get(3).get_id());
+    }
 }
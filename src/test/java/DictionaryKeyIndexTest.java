@@ -0,0 +1,124 @@
+import com.nlaw.leadDedupe.DictionaryKeyIndex;
+import com.nlaw.leadDedupe.KeyDictionary;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *  Tests the DictionaryKeyIndex and the KeyDictionary behind it, mostly by
+ *  checking them against a HashMap
+ *
+ *  @author nlawrence
+ */
+public class DictionaryKeyIndexTest {
+    private DictionaryKeyIndex index;
+
+    @Before
+    public void setUp(){
+        index = new DictionaryKeyIndex();
+    }
+
+    @Test
+    public void putGetAndRemove(){
+        assertEquals(-1, index.get("foo@bar.com"));
+
+        index.put("foo@bar.com", 3);
+        index.put("bog@bar.com", 0);
+        assertEquals(3, index.get("foo@bar.com"));
+        assertEquals(0, index.get("bog@bar.com"));
+        assertEquals(2, index.size());
+
+        index.put("foo@bar.com", 7);
+        assertEquals(7, index.get("foo@bar.com"));
+        assertEquals(2, index.size());
+
+        index.remove("foo@bar.com");
+        assertEquals(-1, index.get("foo@bar.com"));
+        assertEquals(0, index.get("bog@bar.com"));
+        assertEquals(1, index.size());
+
+        index.put("foo@bar.com", 5);
+        assertEquals(5, index.get("foo@bar.com"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void handlesNullKeys(){
+        assertEquals(-1, index.get(null));
+
+        index.put(null, 4);
+        assertEquals(4, index.get(null));
+        assertEquals(1, index.size());
+
+        index.remove(null);
+        assertEquals(-1, index.get(null));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void matchesHashMapThroughGrowthAndRemovals(){
+        Map<String,Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200000; i++){
+            String key = "key" + random.nextInt(50000) + "@bar.com";
+            if (random.nextInt(3) == 0){
+                expected.remove(key);
+                index.remove(key);
+            } else {
+                expected.put(key, i);
+                index.put(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < 50000; i++){
+            String key = "key" + i + "@bar.com";
+            Integer slot = expected.get(key);
+            assertEquals(key, slot == null ? -1 : slot, index.get(key));
+        }
+    }
+
+    @Test
+    public void dictionaryHandsOutDenseSymbols(){
+        KeyDictionary dictionary = new KeyDictionary();
+
+        assertEquals(-1, dictionary.find("foo@bar.com"));
+        assertEquals(0, dictionary.intern("foo@bar.com"));
+        assertEquals(1, dictionary.intern("jos\u00e9@bar.com"));
+        assertEquals(2, dictionary.intern("\ud83d\ude00@bar.com"));
+        assertEquals(3, dictionary.intern(""));
+        assertEquals(0, dictionary.intern("foo@bar.com"));
+        assertEquals(1, dictionary.find("jos\u00e9@bar.com"));
+        assertEquals(4, dictionary.size());
+
+        assertEquals("jos\u00e9@bar.com", dictionary.key(1));
+        assertEquals("\ud83d\ude00@bar.com", dictionary.key(2));
+        assertEquals("", dictionary.key(3));
+    }
+
+    @Test
+    public void dictionaryKeepsKeysAcrossPages(){
+        KeyDictionary dictionary = new KeyDictionary();
+        StringBuilder longKey = new StringBuilder();
+        for (int i = 0; i < 300000; i++){
+            longKey.append('x');
+        }
+
+        for (int i = 0; i < 100000; i++){
+            assertEquals(i, dictionary.intern("key" + i + "@bar.com"));
+        }
+        int longSymbol = dictionary.intern(longKey);
+
+        for (int i = 0; i < 100000; i++){
+            assertEquals(i, dictionary.find("key" + i + "@bar.com"));
+        }
+        assertEquals(longKey.toString(), dictionary.key(longSymbol));
+        assertEquals("key99999@bar.com", dictionary.key(99999));
+    }
+}
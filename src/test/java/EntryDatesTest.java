@@ -0,0 +1,78 @@
+import com.nlaw.leadDedupe.EntryDates;
+import com.nlaw.leadDedupe.Lead;
+import org.junit.Test;
+
+import java.time.DateTimeException;
+import java.time.OffsetDateTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *  Tests the EntryDates decoder against OffsetDateTime.parse
+ *
+ *  @author nlawrence
+ */
+public class EntryDatesTest {
+
+    private static long expectedNanos(String entryDate) {
+        OffsetDateTime dateTime = OffsetDateTime.parse(entryDate);
+        return dateTime.toEpochSecond() * 1000000000L + dateTime.getNano();
+    }
+
+    @Test
+    public void decodesSameInstantsAsOffsetDateTime(){
+        String[] entryDates = {
+                "2014-05-07T17:30:20+00:00",
+                "2014-05-07T17:30:20Z",
+                "2014-05-07t17:30:20z",
+                "2014-05-07T17:30+02:00",
+                "2014-05-07T17:30:20.5-07:30",
+                "2014-05-07T17:30:20.123456789+00:00",
+                "2014-05-07T17:30:20+05:30:15",
+                "2000-02-29T00:00:00+18:00",
+                "1969-12-31T23:59:59.999-01:00",
+                "1700-01-01T00:00:00Z",
+                "2262-04-11T23:47:16.854775807Z",
+        };
+        for (String entryDate : entryDates){
+            assertEquals(entryDate, expectedNanos(entryDate), EntryDates.toEpochNanos(entryDate));
+        }
+    }
+
+    @Test
+    public void ordersDatesAcrossOffsets(){
+        long earlier = EntryDates.toEpochNanos("2014-05-07T17:30:20+01:00");
+        long later = EntryDates.toEpochNanos("2014-05-07T17:30:20+00:00");
+        assertEquals(3600L * 1000000000L, later - earlier);
+    }
+
+    @Test(expected = DateTimeException.class)
+    public void rejectsInvalidDayOfMonth(){
+        EntryDates.toEpochNanos("2014-02-30T17:30:20+00:00");
+    }
+
+    @Test(expected = DateTimeException.class)
+    public void rejectsMissingOffset(){
+        EntryDates.toEpochNanos("2014-05-07T17:30:20");
+    }
+
+    @Test(expected = DateTimeException.class)
+    public void rejectsDatesOutsideEpochNanoRange(){
+        EntryDates.toEpochNanos("2300-01-01T00:00:00Z");
+    }
+
+    @Test
+    public void missingDatesRankOldest(){
+        assertEquals(EntryDates.MISSING, EntryDates.toEpochNanos(null));
+        assertTrue(EntryDates.MISSING < EntryDates.toEpochNanos("1677-09-22T00:00:00Z"));
+    }
+
+    @Test
+    public void leadsNeverThrowOverTheirDates(){
+        assertEquals(EntryDates.MISSING, new Lead("a", null, null, null, null, null).getEntryNanos());
+        Lead lead = new Lead("a", null, null, null, null, "2014-05-07T17:30:20+00:00");
+        lead.setEntryDate("not a date");
+        assertEquals(EntryDates.MISSING, lead.getEntryNanos());
+    }
+}
@@ -0,0 +1,66 @@
+import com.nlaw.leadDedupe.DedupeOptions;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.ExternalDedupeServiceImpl;
+import com.nlaw.leadDedupe.Lead;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ *
+ * Tests that the ExternalDedupeServiceImpl gives exactly the same output as
+ * the DedupeServiceImpl, including order, for each of our example inputs.
+ * A tiny memory budget makes every sort spill runs to disk, so the merges
+ * are exercised even on inputs this small.
+ *
+ * @author nlawrence
+ *
+ */
+@RunWith(Parameterized.class)
+public class ExternalDedupeServiceImplTest {
+    private static String fileSep = System.getProperty("file.separator");
+    private static String testResourcePath = "src" + fileSep + "test" + fileSep +
+            "resources" + fileSep;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> inputFiles() {
+        return ClusterDedupeServiceImplTest.inputFiles();
+    }
+
+    private String inputFile;
+
+    public ExternalDedupeServiceImplTest(String inputFile) {
+        this.inputFile = inputFile;
+    }
+
+    @Test
+    public void externalOutputMatchesStreamingOutput(){
+        String testJsonPath = testResourcePath + inputFile;
+
+        List<Lead> expected = new DedupeServiceImpl().deduplicateItems(testJsonPath);
+        List<Lead> actual = new ExternalDedupeServiceImpl(budgetOptions(1)).deduplicateItems(testJsonPath);
+
+        ClusterDedupeServiceImplTest.assertSameLeads(expected, actual);
+    }
+
+    @Test
+    public void inMemoryOutputMatchesStreamingOutput(){
+        String testJsonPath = testResourcePath + inputFile;
+
+        List<Lead> expected = new DedupeServiceImpl().deduplicateItems(testJsonPath);
+        List<Lead> actual = new ExternalDedupeServiceImpl(budgetOptions(1 << 20)).deduplicateItems(testJsonPath);
+
+        ClusterDedupeServiceImplTest.assertSameLeads(expected, actual);
+    }
+
+    private static DedupeOptions budgetOptions(long memoryBudget) {
+        DedupeOptions options = new DedupeOptions();
+        options.setMemoryBudget(memoryBudget);
+        return options;
+    }
+}
@@ -0,0 +1,54 @@
+import com.nlaw.leadDedupe.DedupeOptions;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.ExternalDedupeServiceImpl;
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadGenerator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * Tests that the ExternalDedupeServiceImpl labels long chains of colliding
+ * leads in a number of passes that grows with the log of the chain's
+ * length, not the length itself.
+ *
+ * @author nlawrence
+ *
+ */
+public class ExternalLabellingTest {
+    private static String fileSep = System.getProperty("file.separator");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(System.getProperty("user.dir")));
+
+    @Test
+    public void longChainsTakeLogarithmicPasses() throws IOException {
+        // every lead collides with the one before it, making one long chain
+        LeadGenerator generator = new LeadGenerator();
+        generator.setLeads(4000);
+        generator.setThreeWayRate(1);
+        generator.setOrder(LeadGenerator.CHAIN_ORDER);
+        try (OutputStream out = new FileOutputStream(folder.newFile("chain.json"))){
+            generator.write(out);
+        }
+        String chainPath = folder.getRoot().getName() + fileSep + "chain.json";
+
+        DedupeOptions options = new DedupeOptions();
+        options.setMemoryBudget(1 << 16);
+        ExternalDedupeServiceImpl external = new ExternalDedupeServiceImpl(options);
+        List<Lead> actual = external.deduplicateItems(chainPath);
+
+        ClusterDedupeServiceImplTest.assertSameLeads(new DedupeServiceImpl().deduplicateItems(chainPath), actual);
+        // one pass per link would take thousands
+        assertTrue("took " + external.getLabelPasses() + " passes", external.getLabelPasses() < 40);
+    }
+}
@@ -0,0 +1,80 @@
+import com.nlaw.leadDedupe.ExternalSorter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ *  Tests the ExternalSorter, both when everything fits in its buffer and
+ *  when it has to spill and merge runs.
+ *
+ *  @author nlawrence
+ */
+public class ExternalSorterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sortsInMemory() throws IOException {
+        checkSort(1000, 1 << 20);
+    }
+
+    @Test
+    public void sortsWithSpilledRuns() throws IOException {
+        // 16 records per run gives a few hundred runs, enough for more than
+        // one merge pass
+        checkSort(5000, 1);
+    }
+
+    @Test
+    public void spillsAreDeletedOnceRead() throws IOException {
+        checkSort(500, 1);
+        assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void emptySorterHasNoRecords() throws IOException {
+        ExternalSorter sorter = new ExternalSorter(2, new int[] {0}, 1, folder.getRoot());
+        try (ExternalSorter.Cursor cursor = sorter.sort()){
+            assertFalse(cursor.next(new long[2]));
+        }
+    }
+
+    /**
+     * Sorts records on their first field and then their second, with the
+     * third holding the order they were added in so that we can check the
+     * sort is stable.
+     */
+    private void checkSort(int count, long memoryBudget) throws IOException {
+        Random random = new Random(count);
+        ExternalSorter sorter = new ExternalSorter(3, new int[] {0, 1}, memoryBudget, folder.getRoot());
+        List<long[]> expected = new ArrayList<>();
+        for (int i = 0; i < count; i++){
+            long[] record = {random.nextInt(50) - 25, random.nextInt(4), i};
+            sorter.add(record);
+            expected.add(record.clone());
+        }
+        expected.sort(Comparator.<long[]>comparingLong(record -> record[0])
+                .thenComparingLong(record -> record[1]));
+        assertEquals(count, sorter.size());
+
+        long[] record = new long[3];
+        try (ExternalSorter.Cursor cursor = sorter.sort()){
+            for (long[] expectedRecord : expected){
+                cursor.next(record);
+                assertArrayEquals(expectedRecord, record);
+            }
+            assertFalse(cursor.next(record));
+        }
+    }
+}
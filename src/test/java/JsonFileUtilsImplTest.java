@@ -1,5 +1,6 @@
 import com.nlaw.leadDedupe.JsonFileUtilsImpl;
 import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadReader;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -7,14 +8,20 @@ import org.junit.contrib.java.lang.system.ExpectedSystemExit;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  *  Tests the JsonFileUtilsImpl class methods
@@ -89,6 +96,186 @@ public class JsonFileUtilsImplTest {
         assertEquals("2014-05-07T17:30:20+00:00", entryDate);
     }
 
+    @Test
+    public void openLeadReaderStreamsLeadsInOrder() throws IOException {
+        String testJsonPath = testResourcePath + "leads.json";
+        File testJsonFile = new File(testJsonPath);
+        List<Lead> parseOutput = fileUtils.parseJson(testJsonFile);
+
+        int count = 0;
+        try (LeadReader leadReader = fileUtils.openLeadReader(testJsonFile)){
+            while (leadReader.hasNext()){
+                Lead lead = leadReader.next();
+                assertEquals(parseOutput.get(count).get_id(), lead.get_id());
+                assertEquals(parseOutput.get(count).getEmail(), lead.getEmail());
+                assertEquals(count, lead.getOrdinal());
+                count++;
+            }
+            assertFalse(leadReader.hasNext());
+        }
+        assertEquals(10, count);
+    }
+
+    @Test
+    public void openLeadReaderSkipsOtherTopLevelNames() throws IOException {
+        File input = folder.newFile("extraNames.json");
+        Files.write(input.toPath(), ("{\"source\": {\"name\": \"crm\"}, \"leads\":[" +
+                "{\"_id\": \"a1\", \"email\": \"a@bar.com\", \"entryDate\": " +
+                "\"2014-05-07T17:30:20+00:00\"}], \"count\": 1}").getBytes("UTF-8"));
+
+        List<Lead> parseOutput = fileUtils.parseJson(input);
+
+        assertEquals(1, parseOutput.size());
+        assertEquals("a1", parseOutput.get(0).get_id());
+    }
+
+    @Test
+    public void openLeadReaderReadsEveryLeadsArray() throws IOException {
+        String json = "{\"leads\":[{\"_id\": \"a1\", \"entryDate\": \"2014-05-07T17:30:20+00:00\"}],"
+                + " \"count\": 1, \"leads\":[], \"leads\":[{\"_id\": \"c3\", \"entryDate\": "
+                + "\"2014-05-07T17:30:20+00:00\"}, {\"_id\": \"d4\", \"entryDate\": \"2014-05-07T17:30:20+00:00\"}]}";
+        File input = folder.newFile("twoArrays.json");
+        Files.write(input.toPath(), json.getBytes("UTF-8"));
+
+        List<Lead> decoded = fileUtils.parseJson(input);
+        List<Lead> parsed = new ArrayList<>();
+        try (LeadReader leadReader = new LeadReader(new StringReader(json))){
+            while (leadReader.hasNext()){
+                parsed.add(leadReader.next());
+            }
+        }
+
+        for (List<Lead> leads : Arrays.asList(decoded, parsed)){
+            assertEquals(3, leads.size());
+            assertEquals("a1", leads.get(0).get_id());
+            assertEquals("c3", leads.get(1).get_id());
+            assertEquals("d4", leads.get(2).get_id());
+            assertEquals(2, leads.get(2).getOrdinal());
+        }
+    }
+
+    @Test
+    public void openLeadReaderReadsNewlineDelimitedJson() throws IOException {
+        List<Lead> expected = fileUtils.parseJson(new File(testResourcePath + "leads.json"));
+
+        List<Lead> parseOutput = fileUtils.parseJson(new File(testResourcePath + "leads.ndjson"));
+
+        assertEquals(expected.size(), parseOutput.size());
+        for (int i = 0; i < expected.size(); i++){
+            assertEquals(expected.get(i).toString(), parseOutput.get(i).toString());
+            assertEquals(i, parseOutput.get(i).getOrdinal());
+        }
+    }
+
+    @Test
+    public void openLeadReaderSkipsBlankLines() throws IOException {
+        File input = folder.newFile("blankLines.txt");
+        Files.write(input.toPath(), ("\n{\"_id\": \"a1\", \"entryDate\": \"2014-05-07T17:30:20+00:00\"}\n\n" +
+                "{\"_id\": \"b2\", \"entryDate\": \"2014-05-07T17:30:20+00:00\"}\n\n").getBytes("UTF-8"));
+
+        List<String> ids = new ArrayList<>();
+        try (LeadReader leadReader = fileUtils.openLeadReader(input, JsonFileUtilsImpl.NDJSON_FORMAT)){
+            while (leadReader.hasNext()){
+                ids.add(leadReader.next().get_id());
+            }
+        }
+
+        assertEquals(2, ids.size());
+        assertEquals("b2", ids.get(1));
+    }
+
+    @Test
+    public void openLeadReaderReadsEmptyNewlineDelimitedFile() throws IOException {
+        File input = folder.newFile("empty.ndjson");
+
+        assertTrue(fileUtils.parseJson(input).isEmpty());
+    }
+
+    @Test
+    public void writeOutputFileWritesALeadPerLine() throws IOException {
+        File outputFile = folder.newFile("output.ndjson");
+        List<Lead> leads = fileUtils.parseJson(new File(testResourcePath + "leads.json"));
+
+        fileUtils.writeOutputFile(outputFile, leads);
+
+        List<String> lines = Files.readAllLines(outputFile.toPath());
+        assertEquals(leads.size(), lines.size());
+        assertTrue(lines.get(0).startsWith("{\"_id\":\"jkj238238jdsnfsj23\""));
+        List<Lead> readBack = fileUtils.parseJson(outputFile);
+        for (int i = 0; i < leads.size(); i++){
+            assertEquals(leads.get(i).toString(), readBack.get(i).toString());
+        }
+    }
+
+    @Test
+    public void writeOutputFileWritesCompactJson() throws IOException {
+        File outputFile = folder.newFile("compact.json");
+        List<Lead> leads = fileUtils.parseJson(new File(testResourcePath + "leads.json"));
+
+        fileUtils.writeOutputFile(outputFile, leads, null, true);
+
+        List<String> lines = Files.readAllLines(outputFile.toPath());
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"leads\":[{\"_id\":\"jkj238238jdsnfsj23\""));
+        List<Lead> readBack = fileUtils.parseJson(outputFile);
+        for (int i = 0; i < leads.size(); i++){
+            assertEquals(leads.get(i).toString(), readBack.get(i).toString());
+        }
+    }
+
+    @Test
+    public void readsAndWritesGzippedFiles() throws IOException {
+        List<Lead> leads = fileUtils.parseJson(new File(testResourcePath + "leads.json"));
+        for (String name : new String[] {"output.json.gz", "output.ndjson.gz"}){
+            File outputFile = folder.newFile(name);
+
+            fileUtils.writeOutputFile(outputFile, leads);
+
+            // really gzipped
+            try (InputStream in = new GZIPInputStream(new FileInputStream(outputFile))){
+                assertEquals('{', in.read());
+            }
+            List<Lead> readBack = fileUtils.parseJson(outputFile);
+            assertEquals(leads.size(), readBack.size());
+            for (int i = 0; i < leads.size(); i++){
+                assertEquals(leads.get(i).toString(), readBack.get(i).toString());
+                assertEquals(i, readBack.get(i).getOrdinal());
+            }
+        }
+    }
+
+    @Test
+    public void resolveFormatGoesByExtensionUnlessGiven() {
+        assertEquals("ndjson", JsonFileUtilsImpl.resolveFormat(new File("leads.ndjson"), null));
+        assertEquals("ndjson", JsonFileUtilsImpl.resolveFormat(new File("leads.jsonl"), null));
+        assertEquals("json", JsonFileUtilsImpl.resolveFormat(new File("leads.json"), null));
+        assertEquals("json", JsonFileUtilsImpl.resolveFormat(new File("leads.ndjson"), "json"));
+        assertEquals("ndjson", JsonFileUtilsImpl.resolveFormat(new File("leads.ndjson.gz"), null));
+        assertEquals("json", JsonFileUtilsImpl.resolveFormat(new File("leads.json.gz"), null));
+        assertEquals("binary", JsonFileUtilsImpl.resolveFormat(new File("leads.leads"), null));
+        assertEquals("binary", JsonFileUtilsImpl.resolveFormat(new File("leads.json"), "binary"));
+    }
+
+    @Test
+    public void binaryFilesAreOnlyWrittenUncompressed() throws IOException {
+        List<Lead> leads = fileUtils.parseJson(new File(testResourcePath + "leads.json"));
+        File outputFile = folder.newFile("output.leads");
+        fileUtils.writeOutputFile(outputFile, leads);
+
+        try {
+            fileUtils.parseJson(outputFile);
+            fail("Binary files can't be read as input");
+        } catch (IOException e){
+            assertTrue(e.getMessage().contains("binary lead file"));
+        }
+        try {
+            fileUtils.writeOutputFile(folder.newFile("output.leads.gz"), leads);
+            fail("Binary files can't be gzipped");
+        } catch (IOException e){
+            assertTrue(e.getMessage().contains("gzipped"));
+        }
+    }
+
     @Test
     public void testCreateOutputFileGivesCorrectPathForCreatedFile() throws IOException{
         String path = folder.getRoot().getName() + fileSep + "someOutput.json";
@@ -0,0 +1,130 @@
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadColumns;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *  Tests the LeadColumns store
+ *
+ *  @author nlawrence
+ */
+public class LeadColumnsTest {
+    private LeadColumns columns;
+
+    @Before
+    public void setUp(){
+        columns = new LeadColumns();
+    }
+
+    @Test
+    public void leadsRoundTrip(){
+        Lead lead = new Lead("jkj238238jdsnfsj23", "j\u00f6rg@bar.com", "J\u00f6rg",
+                null, "", "2014-05-07T17:30:20+00:00");
+        lead.setOrdinal(42);
+        lead.setEntryNanos(7);
+
+        int row = columns.add(lead);
+        Lead read = columns.getLead(row);
+
+        assertLeadEquals(lead, read);
+        assertEquals(42, read.getOrdinal());
+        assertEquals(7, read.getEntryNanos());
+        assertNull(columns.getField(row, LeadColumns.LAST_NAME));
+        assertEquals(-1, columns.fieldLength(row, LeadColumns.LAST_NAME));
+        assertEquals(0, columns.fieldLength(row, LeadColumns.ADDRESS));
+        assertEquals("j\u00f6rg@bar.com".length() + 1, columns.fieldLength(row, LeadColumns.EMAIL));
+    }
+
+    @Test
+    public void longFieldsAndManyRows(){
+        StringBuilder address = new StringBuilder();
+        for (int i = 0; i < 5000; i++){
+            address.append((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < 3000; i++){
+            columns.add("id" + i, i + "@bar.com", "First", "Last",
+                    i % 100 == 0 ? address.toString() : "Street " + i, "2014-05-07T17:30:20+00:00", i, i);
+        }
+
+        assertEquals(3000, columns.size());
+        for (int i = 0; i < 3000; i++){
+            Lead lead = columns.getLead(i);
+            assertEquals("id" + i, lead.get_id());
+            assertEquals(i % 100 == 0 ? address.toString() : "Street " + i, lead.getAddress());
+            assertEquals(i, lead.getOrdinal());
+        }
+    }
+
+    @Test
+    public void removeLastRowReusesItsBytes(){
+        columns.add(newLead("a", "a@bar.com"));
+        long bytes = columns.getByteCount();
+        columns.add(newLead("b", "b@bar.com"));
+
+        columns.removeLastRow();
+        assertEquals(1, columns.size());
+        assertEquals(bytes, columns.getByteCount());
+
+        int row = columns.add(newLead("c", "c@bar.com"));
+        assertEquals(1, row);
+        assertEquals("c", columns.getLead(row).get_id());
+        assertEquals("a", columns.getLead(0).get_id());
+    }
+
+    @Test
+    public void compactKeepsRowsInTheOrderGiven(){
+        for (int i = 0; i < 10; i++){
+            columns.add(newLead("id" + i, i + "@bar.com"));
+        }
+
+        columns.compact(new int[] {7, 2, 5, 0}, 3);
+
+        List<Lead> leads = columns.asLeadList();
+        assertEquals(3, leads.size());
+        assertEquals("id7", leads.get(0).get_id());
+        assertEquals("id2", leads.get(1).get_id());
+        assertEquals("id5", leads.get(2).get_id());
+        assertEquals(columns.rowBytes(0) + columns.rowBytes(1) + columns.rowBytes(2),
+                columns.getByteCount());
+    }
+
+    @Test
+    public void fieldEquals(){
+        int first = columns.add(newLead("a", "foo@bar.com"));
+        int second = columns.add(newLead("b", "foo@bar.com"));
+        int third = columns.add(newLead("a", null));
+
+        assertTrue(columns.fieldEquals(first, second, LeadColumns.EMAIL));
+        assertFalse(columns.fieldEquals(first, second, LeadColumns.ID));
+        assertTrue(columns.fieldEquals(first, third, LeadColumns.ID));
+        assertFalse(columns.fieldEquals(first, third, LeadColumns.EMAIL));
+        assertTrue(columns.fieldEquals(third, third, LeadColumns.EMAIL));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void missingRowsFail(){
+        columns.add(newLead("a", "a@bar.com"));
+        columns.removeLastRow();
+        columns.getLead(0);
+    }
+
+    private static Lead newLead(String id, String email){
+        return new Lead(id, email, "John", "Smith", "123 Street St", "2014-05-07T17:30:20+00:00");
+    }
+
+    private static void assertLeadEquals(Lead expected, Lead actual){
+        assertEquals(expected.get_id(), actual.get_id());
+        assertEquals(expected.getEmail(), actual.getEmail());
+        assertEquals(expected.getFirstName(), actual.getFirstName());
+        assertEquals(expected.getLastName(), actual.getLastName());
+        assertEquals(expected.getAddress(), actual.getAddress());
+        assertEquals(expected.getEntryDate(), actual.getEntryDate());
+    }
+}
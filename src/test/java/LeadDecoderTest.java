@@ -0,0 +1,269 @@
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadColumns;
+import com.nlaw.leadDedupe.LeadDecoder;
+import com.nlaw.leadDedupe.LeadGenerator;
+import com.nlaw.leadDedupe.LeadReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *  Tests that leads decoded by a LeadDecoder come out exactly as Gson reads
+ *  them, including inputs the decoder has to hand over to Gson part way
+ *  through.
+ *
+ *  @author nlawrence
+ */
+public class LeadDecoderTest {
+    private static final String DATE = "\"entryDate\": \"2014-05-07T17:30:20+00:00\"";
+
+    private String workingdir = System.getProperty("user.dir");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(workingdir));
+
+    @Test
+    public void decodesGeneratedLeads() throws IOException {
+        for (String format : new String[] {"json", "ndjson"}){
+            LeadGenerator generator = new LeadGenerator();
+            generator.setLeads(2000);
+            generator.setIdDuplicateRate(0.2);
+            generator.setFormat(format);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            generator.write(out);
+
+            assertDecodesLikeGson(out.toByteArray(), format.equals("ndjson"));
+
+            // and none of them had to be left for Gson
+            LeadDecoder decoder = new LeadDecoder(ByteBuffer.wrap(out.toByteArray()), format.equals("ndjson"));
+            long leads = 0;
+            while (decoder.advance() == LeadDecoder.RECORD){
+                decoder.consumeLead(leads++);
+            }
+            assertEquals(LeadDecoder.END, decoder.advance());
+            assertEquals(2000, leads);
+        }
+    }
+
+    @Test
+    public void decodesEscapesAndMultiByteCharacters() throws IOException {
+        assertDecodesLikeGson("{\"leads\": [{\"_id\": \"a\\\"b\\\\c\\/d\\n\\t\\b\\f\\r\", "
+                + "\"firstName\": \"\\u00e9\\u4e2d\\ud83d\\ude00\", \"lastName\": \"\u00e9\u4e2d\ud83d\ude00\", "
+                + DATE + "}]}");
+    }
+
+    @Test
+    public void keepsNumbersBooleansAndNullsAsText() throws IOException {
+        assertDecodesLikeGson("{\"leads\": [{\"_id\": 12, \"email\": -0.5e+3, \"firstName\": true, "
+                + "\"lastName\": false, \"address\": null, " + DATE + "}]}");
+    }
+
+    @Test
+    public void keepsTheLastOfRepeatedFields() throws IOException {
+        assertDecodesLikeGson("{\"leads\": [{\"_id\": \"a\", \"_id\": \"b\", \"email\": \"c\", \"email\": null, "
+                + DATE + "}]}");
+    }
+
+    @Test
+    public void skipsOtherMembers() throws IOException {
+        assertDecodesLikeGson("{\"leads\": [{\"tags\": [1, \"x\", {\"a\": [[], {}]}, null, true], \"_id\": \"a\", "
+                + "\"ordinal\": 7, \"extra\": {\"entryDate\": \"x\"}, " + DATE + "}]}");
+    }
+
+    @Test
+    public void handsUnexpectedDocumentsToGson() throws IOException {
+        String lead = "{\"_id\": \"a\", " + DATE + "}";
+        String[] documents = {
+                "{\"source\": \"x\", \"leads\": [" + lead + "]}",
+                "{\"leads\": [" + lead + "], \"count\": 1, \"leads\": [" + lead + "]}",
+                "{\"leads\": [" + lead + ", {\"\\u0065mail\": \"b\", " + DATE + "}]}",
+                "{\"leads\": [" + lead + ", {\"_id\": \"\\ud83d\", " + DATE + "}]}",
+                "{\"leads\": [" + lead + ", " + lead + ",]}",
+                "{\"leads\": [" + lead + " " + lead + "]}",
+                "{\"leads\": [" + lead + ", \"not a lead\"]}",
+                "{\"leads\": [" + lead + ", {}]}",
+                "{\"leads\": [" + lead + ", {\"_id\": 012, " + DATE + "}]}",
+                "{\"leads\": [" + lead + ", {\"_id\": \"\\x\", " + DATE + "}]}",
+                "{\"leads\": [" + lead + ", {\"_id\": {\"a\": 1}, " + DATE + "}]}",
+                "{\"leads\": [" + lead + ", {\"_id\": \"a\", \"entryDate\": \"yesterday\"}]}",
+                "{\"leads\": [" + lead + ", {\"_id\": \"a\"",
+                "{\"leads\": {}}",
+                "{\"leads\": []}",
+                "[" + lead + "]",
+                "",
+        };
+        for (String document : documents){
+            assertDecodesLikeGson(document);
+        }
+    }
+
+    @Test
+    public void handsUnexpectedLinesToGson() throws IOException {
+        String lead = "{\"_id\": \"a\", " + DATE + "}";
+        String[] inputs = {
+                lead + "\n\n" + lead + "\n",
+                lead + "\n{'_id': 'b', 'entryDate': '2014-05-07T17:30:20+00:00'}\n" + lead,
+                lead + "\n// a comment\n" + lead,
+                lead + "\n[" + lead + "]",
+                lead + "\n" + lead.substring(0, 10),
+                "\n  \n",
+                "",
+        };
+        for (String input : inputs){
+            assertEquals(outcome(bytes(input), true, false), outcome(bytes(input), true, true));
+        }
+    }
+
+    @Test
+    public void handsInvalidUtf8ToGson() throws IOException {
+        byte[] lead = bytes("{\"_id\": \"a\", " + DATE + "},");
+        byte[] invalid = bytes("{\"_id\": \"a?b\", " + DATE + "}]}");
+        invalid[10] = (byte) 0xc0;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(bytes("{\"leads\": ["));
+        out.write(lead);
+        out.write(invalid);
+
+        assertDecodesLikeGson(out.toByteArray(), false);
+    }
+
+    @Test
+    public void decodesAcrossWindows() throws IOException {
+        StringBuilder json = new StringBuilder("{\"leads\": [");
+        for (int i = 0; i < 50; i++){
+            json.append(i == 0 ? "" : ", ").append("{\"_id\": \"id-").append(i).append("\", \"address\": \"\u00e9")
+                    .append(i).append("\", ").append(DATE).append("}");
+        }
+        json.append("]}");
+        File input = folder.newFile("leads.json");
+        Files.write(input.toPath(), bytes(json.toString()));
+
+        List<String> leads = new ArrayList<>();
+        try (LeadDecoder decoder = new LeadDecoder(FileChannel.open(input.toPath(), StandardOpenOption.READ),
+                false, 100)){
+            while (decoder.advance() == LeadDecoder.RECORD){
+                leads.add(describe(decoder.consumeLead(leads.size())));
+            }
+            assertEquals(LeadDecoder.END, decoder.advance());
+        }
+        assertEquals(outcome(bytes(json.toString()), false, false), leads);
+    }
+
+    @Test
+    public void givesUpOnLeadsLargerThanAWindow() throws IOException {
+        File input = folder.newFile("leads.json");
+        Files.write(input.toPath(), bytes("{\"leads\": [{\"_id\": \"a long lead id\", " + DATE + "}]}"));
+
+        try (LeadDecoder decoder = new LeadDecoder(FileChannel.open(input.toPath(), StandardOpenOption.READ),
+                false, 20)){
+            assertEquals(LeadDecoder.UNEXPECTED, decoder.advance());
+        }
+    }
+
+    @Test
+    public void readsRowsStraightIntoColumns() throws IOException {
+        byte[] json = bytes("{\"leads\": [{\"_id\": \"a\", \"email\": \"\u00e9@b\", \"address\": null, " + DATE
+                + "}, {\"_id\": \"b\", \"firstName\": \"\\u00e9\", \"entryDate\": \"2014-05-07T17:30:20.5Z\"}]}");
+        LeadColumns gsonColumns = new LeadColumns();
+        LeadColumns decodedColumns = new LeadColumns();
+
+        readRows(new LeadReader(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8)),
+                gsonColumns);
+        readRows(new LeadReader(ByteBuffer.wrap(json), false), decodedColumns);
+
+        assertEquals(2, decodedColumns.size());
+        for (int row = 0; row < 2; row++){
+            assertEquals(describe(gsonColumns.getLead(row)), describe(decodedColumns.getLead(row)));
+        }
+    }
+
+    @Test
+    public void readsNewlineDelimitedLinesLikeGson() throws IOException {
+        String lead = "{\"_id\": \"a\", " + DATE + "}";
+        // blank lines, carriage returns and several leads on a line are fine...
+        assertDecodesLikeGson(bytes("\n" + lead + "\r\n\n  \n" + lead + " " + lead + "\n"), true);
+        assertEquals(3, outcome(bytes("\n" + lead + "\r\n\n  \n" + lead + " " + lead + "\n"), true, true).size());
+        // ...but a lead that spans lines isn't, even part way through
+        byte[] spanning = bytes(lead + "\n{\"_id\": \"b\",\n" + DATE + "}\n");
+        assertDecodesLikeGson(spanning, true);
+        assertEquals("threw com.google.gson.JsonSyntaxException", outcome(spanning, true, true).get(1));
+    }
+
+    @Test
+    public void readsLenientRowsLikeLeads() throws IOException {
+        // single-quoted and unquoted names and values are only read by Gson
+        byte[] json = bytes("{\"leads\": [{'_id': 'a', email: b@c, " + DATE
+                + "}, {\"_id\": \"b\", 'firstName': 'x', " + DATE + "}]}");
+        for (boolean decode : new boolean[] {false, true}){
+            LeadColumns columns = new LeadColumns();
+            readRows(decode ? new LeadReader(ByteBuffer.wrap(json), false)
+                    : new LeadReader(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8)),
+                    columns);
+
+            List<String> expected = outcome(json, false, false);
+            assertEquals(2, columns.size());
+            for (int row = 0; row < 2; row++){
+                assertEquals(expected.get(row), describe(columns.getLead(row)));
+            }
+        }
+    }
+
+    private void readRows(LeadReader leadReader, LeadColumns columns) throws IOException {
+        try (LeadReader reader = leadReader){
+            while (reader.hasNext()){
+                reader.nextRow(columns);
+            }
+        }
+    }
+
+    private void assertDecodesLikeGson(String document) throws IOException {
+        assertDecodesLikeGson(bytes(document), false);
+    }
+
+    private void assertDecodesLikeGson(byte[] input, boolean lineDelimited) throws IOException {
+        assertEquals(new String(input, StandardCharsets.UTF_8),
+                outcome(input, lineDelimited, false), outcome(input, lineDelimited, true));
+    }
+
+    /**
+     * Reads the input with Gson alone or with the decoder, returning the
+     * leads read followed by the class of anything thrown.
+     */
+    private List<String> outcome(byte[] input, boolean lineDelimited, boolean decode) throws IOException {
+        List<String> outcome = new ArrayList<>();
+        LeadReader leadReader = decode ? new LeadReader(ByteBuffer.wrap(input), lineDelimited)
+                : new LeadReader(new InputStreamReader(new ByteArrayInputStream(input), StandardCharsets.UTF_8),
+                lineDelimited);
+        try (LeadReader reader = leadReader){
+            while (reader.hasNext()){
+                outcome.add(describe(reader.next()));
+            }
+        } catch (IOException | RuntimeException e){
+            outcome.add("threw " + e.getClass().getName());
+        }
+        return outcome;
+    }
+
+    private String describe(Lead lead) {
+        return lead + " at " + lead.getEntryNanos() + " #" + lead.getOrdinal();
+    }
+
+    private byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,158 @@
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.EntryDates;
+import com.nlaw.leadDedupe.JsonFileUtilsImpl;
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadGenerator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.time.OffsetDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *  Tests the synthetic lead generator
+ *
+ *  @author nlawrence
+ */
+public class LeadGeneratorTest {
+    private String workingdir = System.getProperty("user.dir");
+    private String fileSep = System.getProperty("file.separator");
+    private JsonFileUtilsImpl fileUtils = new JsonFileUtilsImpl();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(workingdir));
+
+    @Test
+    public void writesValidLeads() throws IOException {
+        LeadGenerator generator = newGenerator(5000);
+        generator.setIdDuplicateRate(0.2);
+        generator.setEmailDuplicateRate(0.2);
+        generator.setThreeWayRate(0.1);
+        generator.setDateTieRate(0.5);
+        generator.setHotKeyRate(0.3);
+
+        List<Lead> leads = fileUtils.parseJson(write(generator, "valid.json"));
+
+        assertEquals(5000, leads.size());
+        for (Lead lead : leads){
+            // strict parsing, so impossible dates would be caught here
+            OffsetDateTime date = OffsetDateTime.parse(lead.getEntryDate());
+            assertEquals(2014, date.getYear());
+            assertTrue(lead.get_id().startsWith("id-"));
+            assertTrue(lead.getEmail().endsWith("@example.com"));
+        }
+    }
+
+    @Test
+    public void sameSeedGivesSameOutput() throws IOException {
+        LeadGenerator generator = newGenerator(1000);
+        generator.setIdDuplicateRate(0.3);
+        generator.setThreeWayRate(0.2);
+
+        assertArrayEquals(generate(generator), generate(generator));
+    }
+
+    @Test
+    public void noDuplicateRatesGiveUniqueLeads() throws IOException {
+        LeadGenerator generator = newGenerator(2000);
+
+        assertEquals(2000, deduplicate(generator, "unique.json").size());
+    }
+
+    @Test
+    public void chainsCollapseToOneLead() throws IOException {
+        LeadGenerator generator = newGenerator(2000);
+        generator.setIdDuplicateRate(1);
+        generator.setOrder(LeadGenerator.CHAIN_ORDER);
+
+        List<Lead> leads = deduplicate(generator, "chain.json");
+
+        assertEquals(1, leads.size());
+        assertEquals("id-0", leads.get(0).get_id());
+    }
+
+    @Test
+    public void ascendingDatesIncreaseBySeconds() throws IOException {
+        LeadGenerator generator = newGenerator(3);
+        generator.setOrder(LeadGenerator.ASCENDING_ORDER);
+
+        List<Lead> leads = fileUtils.parseJson(write(generator, "ascending.json"));
+
+        assertEquals("2014-01-01T00:00:00+00:00", leads.get(0).getEntryDate());
+        assertEquals(EntryDates.toEpochNanos(leads.get(0).getEntryDate()) + 2000000000L,
+                EntryDates.toEpochNanos(leads.get(2).getEntryDate()));
+    }
+
+    @Test
+    public void threeWayCollisionsUseTwoDifferentLeads() throws IOException {
+        LeadGenerator generator = newGenerator(500);
+        generator.setThreeWayRate(1);
+
+        List<Lead> leads = fileUtils.parseJson(write(generator, "threeWay.json"));
+
+        Set<String> ids = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        for (Lead lead : leads){
+            ids.add(lead.get_id());
+            emails.add(lead.getEmail());
+        }
+        // only the first two leads bring keys of their own
+        assertEquals(2, ids.size());
+        assertEquals(2, emails.size());
+    }
+
+    private static LeadGenerator newGenerator(long leads){
+        LeadGenerator generator = new LeadGenerator();
+        generator.setLeads(leads);
+        generator.setSeed(42);
+        return generator;
+    }
+
+    private static byte[] generate(LeadGenerator generator) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generator.write(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void writesNewlineDelimitedLeads() throws IOException {
+        LeadGenerator generator = newGenerator(1000);
+        generator.setIdDuplicateRate(0.2);
+        List<Lead> expected = fileUtils.parseJson(write(generator, "leads.json"));
+        generator.setFormat(JsonFileUtilsImpl.NDJSON_FORMAT);
+
+        File file = write(generator, "leads.ndjson");
+
+        assertEquals(1000, Files.readAllLines(file.toPath()).size());
+        List<Lead> leads = fileUtils.parseJson(file);
+        for (int i = 0; i < expected.size(); i++){
+            assertEquals(expected.get(i).toString(), leads.get(i).toString());
+        }
+    }
+
+    private File write(LeadGenerator generator, String name) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (OutputStream out = new FileOutputStream(file)){
+            generator.write(out);
+        }
+        return file;
+    }
+
+    private List<Lead> deduplicate(LeadGenerator generator, String name) throws IOException {
+        write(generator, name);
+        return new DedupeServiceImpl().deduplicateItems(folder.getRoot().getName() + fileSep + name);
+    }
+}
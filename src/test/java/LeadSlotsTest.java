@@ -0,0 +1,66 @@
+import com.nlaw.leadDedupe.LeadSlots;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *  Tests the LeadSlots output store
+ *
+ *  @author nlawrence
+ */
+public class LeadSlotsTest {
+    private LeadSlots slots;
+
+    @Before
+    public void setUp(){
+        slots = new LeadSlots();
+    }
+
+    @Test
+    public void slotsAreStableAcrossRemovals(){
+        int first = slots.add(10, 0);
+        int second = slots.add(11, 1);
+        int third = slots.add(12, 2);
+
+        slots.remove(first);
+
+        assertEquals(-1, slots.get(first));
+        assertEquals(11, slots.get(second));
+        assertEquals(12, slots.get(third));
+        assertEquals(2, slots.size());
+    }
+
+    @Test
+    public void forEachVisitsLiveSlotsInSlotOrder(){
+        int first = slots.add(10, 0);
+        int second = slots.add(11, 1);
+        slots.remove(first);
+        slots.set(second, 10);
+        int third = slots.add(12, 2);
+
+        List<Integer> rows = new ArrayList<>();
+        slots.forEach(slot -> rows.add(slots.get(slot)));
+
+        assertEquals(Arrays.asList(10, 12), rows);
+        assertEquals(1, slots.getSlotOrdinal(second));
+        assertEquals(2, slots.getSlotOrdinal(third));
+        assertEquals(3, slots.slotCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void removingTwiceFails(){
+        int first = slots.add(10, 0);
+        slots.remove(first);
+        slots.remove(first);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRowsAreRejected(){
+        slots.add(-1, 0);
+    }
+}
@@ -0,0 +1,90 @@
+import com.nlaw.leadDedupe.DedupeOptions;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.JsonFileUtilsImpl;
+import com.nlaw.leadDedupe.Lead;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *  Tests that running incrementally against a snapshot gives exactly the
+ *  same output as deduplicating all of the input in one go.
+ *
+ *  The inputs are split at every possible point, so each kind of collision
+ *  gets resolved across the two runs at least once.
+ *
+ *  @author nlawrence
+ */
+public class LeadSnapshotTest {
+    private String workingdir = System.getProperty("user.dir");
+    private String fileSep = System.getProperty("file.separator");
+    private String testResourcePath = "src" + fileSep + "test" + fileSep
+            + "resources" + fileSep;
+    private JsonFileUtilsImpl fileUtils = new JsonFileUtilsImpl();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(workingdir));
+
+    @Test
+    public void incrementalRunsMatchFullRunForExampleLeads() throws IOException {
+        checkEverySplit("leads.json");
+    }
+
+    @Test
+    public void incrementalRunsMatchFullRunForInterleavedClusters() throws IOException {
+        checkEverySplit("leadsInterleavedClusters.json");
+    }
+
+    @Test
+    public void incrementalRunsMatchFullRunForThreeWayCollisions() throws IOException {
+        checkEverySplit("leadsThreeWay132.json");
+        checkEverySplit("leadsThreeWayOneOlder.json");
+    }
+
+    @Test
+    public void snapshotIsCreatedWhenMissing() throws IOException {
+        String snapshotPath = relativePath("new.snapshot");
+        assertFalse(new File(snapshotPath).exists());
+
+        snapshotService(snapshotPath).deduplicateItems(testResourcePath + "leads.json");
+
+        assertTrue(new File(snapshotPath).exists());
+        assertFalse(new File(snapshotPath + ".part").exists());
+    }
+
+    private void checkEverySplit(String inputFile) throws IOException {
+        List<Lead> inputLeads = fileUtils.parseJson(new File(testResourcePath + inputFile));
+        List<Lead> expected = new DedupeServiceImpl().deduplicateItems(testResourcePath + inputFile);
+
+        for (int split = 0; split <= inputLeads.size(); split++){
+            String prefix = inputFile + "." + split;
+            String firstPart = relativePath(prefix + ".first.json");
+            String secondPart = relativePath(prefix + ".second.json");
+            String snapshotPath = relativePath(prefix + ".snapshot");
+            fileUtils.writeOutputFile(new File(firstPart), inputLeads.subList(0, split));
+            fileUtils.writeOutputFile(new File(secondPart), inputLeads.subList(split, inputLeads.size()));
+
+            snapshotService(snapshotPath).deduplicateItems(firstPart);
+            List<Lead> actual = snapshotService(snapshotPath).deduplicateItems(secondPart);
+
+            ClusterDedupeServiceImplTest.assertSameLeads(expected, actual);
+        }
+    }
+
+    private DedupeServiceImpl snapshotService(String snapshotPath) {
+        DedupeOptions options = new DedupeOptions();
+        options.setSnapshotPath(snapshotPath);
+        return new DedupeServiceImpl(options);
+    }
+
+    private String relativePath(String fileName) {
+        return folder.getRoot().getName() + fileSep + fileName;
+    }
+}
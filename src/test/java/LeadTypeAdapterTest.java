@@ -0,0 +1,96 @@
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.nlaw.leadDedupe.EntryDates;
+import com.nlaw.leadDedupe.JsonFileUtilsImpl;
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadTypeAdapter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ *  Tests that the LeadTypeAdapter reads and writes leads exactly as Gson's
+ *  reflection does.
+ *
+ *  @author nlawrence
+ */
+public class LeadTypeAdapterTest {
+    private static final String DATE = "2014-05-07T17:30:20+00:00";
+
+    private String workingdir = System.getProperty("user.dir");
+    private Gson reflectiveGson = new Gson();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(workingdir));
+
+    @Test
+    public void writesWhatReflectionWrites() {
+        for (Lead lead : leads()){
+            assertEquals(reflectiveGson.toJson(lead), JsonFileUtilsImpl.GSON.toJson(lead));
+        }
+    }
+
+    @Test
+    public void readsWhatReflectionReads() {
+        String json = "{\"extra\": {\"_id\": \"x\"}, \"_id\": 12, \"email\": \"a@b.c\", \"email\": \"d@e.f\", "
+                + "\"firstName\": true, \"lastName\": null, \"tags\": [1, 2], \"entryDate\": \"" + DATE + "\"}";
+
+        Lead lead = JsonFileUtilsImpl.GSON.fromJson(json, Lead.class);
+
+        assertEquals(reflectiveGson.fromJson(json, Lead.class).toString(), lead.toString());
+        assertEquals(EntryDates.toEpochNanos(DATE), lead.getEntryNanos());
+        assertNull(JsonFileUtilsImpl.GSON.fromJson("null", Lead.class));
+    }
+
+    @Test
+    public void stampsLeadsWithTheirOrdinal() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("{\"_id\": \"a\", \"entryDate\": \"" + DATE + "\"}"));
+
+        Lead lead = new LeadTypeAdapter().read(reader, 41);
+
+        assertEquals(41, lead.getOrdinal());
+        assertEquals("a", lead.get_id());
+        assertEquals(EntryDates.toEpochNanos(DATE), lead.getEntryNanos());
+    }
+
+    @Test
+    public void writesOutputFilesAsBefore() throws IOException {
+        File output = folder.newFile("output.json");
+        StringWriter expected = new StringWriter();
+        JsonWriter writer = new JsonWriter(expected);
+        writer.setIndent("  ");
+        writer.beginObject();
+        writer.name("leads");
+        writer.beginArray();
+        for (Lead lead : leads()){
+            reflectiveGson.toJson(lead, Lead.class, writer);
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.close();
+
+        new JsonFileUtilsImpl().writeOutputFile(output, leads());
+
+        assertEquals(expected.toString(), new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private List<Lead> leads() {
+        return Arrays.asList(
+                new Lead("id-1", "a@b.c", "Ann", "Lee", "1 Main St", DATE),
+                new Lead("id-2", null, null, "O'Brien", "<b>&amp;</b> = \u00e9\u4e2d\ud83d\ude00", DATE),
+                new Lead("id-\"3\"\\", "tab\there@x.y", "line\nbreak", "\u2028", null, DATE));
+    }
+}
@@ -1,15 +1,28 @@
 
+import com.nlaw.leadDedupe.BinaryLeadFile;
+import com.nlaw.leadDedupe.JsonFileUtilsImpl;
+import com.nlaw.leadDedupe.Lead;
 import com.nlaw.leadDedupe.Main;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.ExpectedSystemExit;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 
@@ -93,4 +106,193 @@ public class MainTest {
             assertEquals(expected.get(i), actual.get(i));
         }
     }
+
+    @Test
+    public void testInvalidThreadsExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--threads", "zero", "/path/to/file"});
+    }
+
+    @Test
+    public void testSnapshotWithThreadsExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--snapshot", "leads.snapshot", "--threads", "2", "/path/to/file"});
+    }
+
+    @Test
+    public void testAuditLogWithMemoryBudgetExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--audit-log", "audit.json", "--memory-budget", "4", "/path/to/file"});
+    }
+
+    @Test
+    public void testInvalidLogLevelExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--log-level", "loud", "/path/to/file"});
+    }
+
+    @Test
+    public void testInvalidFormatExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--input-format", "xml", "/path/to/file"});
+    }
+
+    @Test
+    public void testEndToEndSystemConvertsNewlineDelimitedJson() throws IOException {
+        String outputPath = folder.getRoot().getName() + fileSep + "testOutput.txt";
+        String inputPath = testResourcePath + "leads.ndjson";
+        File expectedFile = new File(testResourcePath + "integrationTestOutput.json");
+
+        Main.main(new String[]{"--output-format", "json", inputPath, outputPath});
+
+        assertEquals(Files.readAllLines(expectedFile.toPath()), Files.readAllLines(new File(outputPath).toPath()));
+    }
+
+    @Test
+    public void testUnknownOptionExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--bogus", "/path/to/file"});
+    }
+
+    @Test
+    public void testEndToEndSystemProvidesProperOutputWithThreads() throws IOException {
+
+        String outputPath = folder.getRoot().getName() + fileSep + "threadedOutput.json";
+        String inputPath = testResourcePath + "leads.json";
+        File outputFile = new File(outputPath);
+        File expectedFile = new File(testResourcePath + "integrationTestOutput.json");
+
+        Main.main(new String[]{"--threads", "4", inputPath, outputPath});
+
+        assertArrayEquals(Files.readAllBytes(expectedFile.toPath()),
+                Files.readAllBytes(outputFile.toPath()));
+    }
+
+    @Test
+    public void testEndToEndSystemProvidesProperOutputWithMemoryBudget() throws IOException {
+
+        String outputPath = folder.getRoot().getName() + fileSep + "externalOutput.json";
+        String inputPath = testResourcePath + "leads.json";
+        File outputFile = new File(outputPath);
+        File expectedFile = new File(testResourcePath + "integrationTestOutput.json");
+
+        Main.main(new String[]{"--memory-budget", "1", inputPath, outputPath});
+
+        assertArrayEquals(Files.readAllBytes(expectedFile.toPath()),
+                Files.readAllBytes(outputFile.toPath()));
+    }
+
+    @Test
+    public void testEndToEndSystemProvidesProperOutputWithoutLogging() throws IOException {
+
+        String outputPath = folder.getRoot().getName() + fileSep + "quietOutput.json";
+        String inputPath = testResourcePath + "leads.json";
+        File outputFile = new File(outputPath);
+        File expectedFile = new File(testResourcePath + "integrationTestOutput.json");
+
+        try {
+            Main.main(new String[]{"--log-level", "off", "--no-field-diffs", inputPath, outputPath});
+        } finally {
+            // the level is global, so put it back for the other tests
+            Configurator.setLevel("com.nlaw.leadDedupe", Level.TRACE);
+        }
+
+        assertArrayEquals(Files.readAllBytes(expectedFile.toPath()),
+                Files.readAllBytes(outputFile.toPath()));
+    }
+
+    @Test
+    public void testEndToEndSystemProvidesProperOutputWithPipeline() throws IOException {
+
+        String outputPath = folder.getRoot().getName() + fileSep + "pipelinedOutput.json";
+        String inputPath = testResourcePath + "leads.json";
+        File outputFile = new File(outputPath);
+        File expectedFile = new File(testResourcePath + "integrationTestOutput.json");
+
+        Main.main(new String[]{"--pipeline", inputPath, outputPath});
+
+        assertArrayEquals(Files.readAllBytes(expectedFile.toPath()),
+                Files.readAllBytes(outputFile.toPath()));
+    }
+
+    @Test
+    public void testPipelineWithSnapshotExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--pipeline", "--snapshot", "leads.snapshot", "/path/to/file"});
+    }
+
+    @Test
+    public void testEndToEndSystemReadsAndWritesGzippedFiles() throws IOException {
+
+        String inputPath = folder.getRoot().getName() + fileSep + "leads.json.gz";
+        String outputPath = folder.getRoot().getName() + fileSep + "gzippedOutput.json.gz";
+        File expectedFile = new File(testResourcePath + "integrationTestOutput.json");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(inputPath))){
+            Files.copy(new File(testResourcePath + "leads.json").toPath(), out);
+        }
+
+        Main.main(new String[]{inputPath, outputPath});
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new FileInputStream(outputPath))){
+            byte[] buffer = new byte[4096];
+            for (int count = in.read(buffer); count >= 0; count = in.read(buffer)){
+                output.write(buffer, 0, count);
+            }
+        }
+        assertArrayEquals(Files.readAllBytes(expectedFile.toPath()), output.toByteArray());
+    }
+
+    @Test
+    public void testEndToEndSystemWritesBinaryOutput() throws IOException {
+
+        String inputPath = testResourcePath + "leads.json";
+        List<Lead> expected = new JsonFileUtilsImpl().parseJson(new File(testResourcePath + "integrationTestOutput.json"));
+        for (String pipeline : new String[] {"--log-level", "--pipeline"}){
+            String outputPath = folder.getRoot().getName() + fileSep + "output" + pipeline + ".bin";
+            String[] args = pipeline.equals("--pipeline")
+                    ? new String[]{pipeline, "--output-format", "binary", inputPath, outputPath}
+                    : new String[]{pipeline, "info", "--output-format", "binary", inputPath, outputPath};
+
+            Main.main(args);
+
+            try (BinaryLeadFile leads = new BinaryLeadFile(new File(outputPath))){
+                assertEquals(expected.size(), leads.size());
+                for (Lead lead : expected){
+                    assertEquals(lead.toString(), leads.findById(lead.get_id()).toString());
+                    assertEquals(lead.toString(), leads.findByEmail(lead.getEmail()).toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testServeWithInputFileExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--serve", "8080", "/path/to/file"});
+    }
+
+    @Test
+    public void testServeWithThreadsExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--serve", "8080", "--threads", "4"});
+    }
+
+    @Test
+    public void testServeWithOffHeapIndexExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--serve", "8080", "--off-heap-index"});
+    }
+
+    @Test
+    public void testServeWithBadPortExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--serve", "70000"});
+    }
+
+    @Test
+    public void testBinaryInputFormatExits(){
+        exit.expectSystemExitWithStatus(1);
+        Main.main(new String[] {"--input-format", "binary", "/path/to/file"});
+    }
 }
@@ -0,0 +1,81 @@
+import com.nlaw.leadDedupe.ClusterDedupeServiceImpl;
+import com.nlaw.leadDedupe.DedupeOptions;
+import com.nlaw.leadDedupe.DedupeService;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.ExternalDedupeServiceImpl;
+import com.nlaw.leadDedupe.LeadMerger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *  Tests that the batch engines log the same merges as the streaming one,
+ *  including for leads that don't collide with anything and so never reach
+ *  a LeadMerger.  Clusters are resolved in their own order, so only the
+ *  messages are compared, not their order.
+ *
+ *  @author nlawrence
+ */
+public class MergeLogTest {
+    private String fileSep = System.getProperty("file.separator");
+    private String testResourcePath = "src" + fileSep + "test" + fileSep +
+            "resources" + fileSep;
+
+    private final Logger logger = (Logger) LogManager.getLogger(LeadMerger.class.getName());
+    private final MessageCollector collector = new MessageCollector();
+
+    @Before
+    public void setUp() {
+        collector.start();
+        logger.addAppender(collector);
+    }
+
+    @After
+    public void tearDown() {
+        logger.removeAppender(collector);
+        collector.stop();
+    }
+
+    @Test
+    public void batchEnginesLogTheSameMerges() {
+        DedupeOptions externalOptions = new DedupeOptions();
+        externalOptions.setMemoryBudget(1);
+        for (String input : new String[] {"leads.json", "leadsInterleavedClusters.json", "leadsMissingKeys.json"}){
+            String testJsonPath = testResourcePath + input;
+            List<String> expected = messages(new DedupeServiceImpl(), testJsonPath);
+
+            assertEquals(input, expected, messages(new ClusterDedupeServiceImpl(), testJsonPath));
+            assertEquals(input, expected, messages(new ExternalDedupeServiceImpl(externalOptions), testJsonPath));
+        }
+    }
+
+    private List<String> messages(DedupeService service, String testJsonPath) {
+        collector.messages.clear();
+        service.deduplicateItems(testJsonPath);
+        List<String> messages = new ArrayList<>(collector.messages);
+        Collections.sort(messages);
+        return messages;
+    }
+
+    private static class MessageCollector extends AbstractAppender {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+        MessageCollector() {
+            super("MessageCollector", null, null);
+        }
+
+        public void append(LogEvent event) {
+            messages.add(event.getMessage().getFormattedMessage());
+        }
+    }
+}
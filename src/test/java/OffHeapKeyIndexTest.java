@@ -0,0 +1,154 @@
+import com.nlaw.leadDedupe.DedupeOptions;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.HeapKeyIndex;
+import com.nlaw.leadDedupe.JsonFileUtilsImpl;
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadMerger;
+import com.nlaw.leadDedupe.OffHeapKeyIndex;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *  Tests the OffHeapKeyIndex, mostly by checking it against a HashMap
+ *
+ *  @author nlawrence
+ */
+public class OffHeapKeyIndexTest {
+    private String fileSep = System.getProperty("file.separator");
+    private String testResourcePath = "src" + fileSep + "test" + fileSep +
+            "resources" + fileSep;
+    private OffHeapKeyIndex index;
+
+    @Before
+    public void setUp(){
+        index = new OffHeapKeyIndex();
+    }
+
+    @Test
+    public void putGetAndRemove(){
+        assertEquals(-1, index.get("foo@bar.com"));
+
+        index.put("foo@bar.com", 3);
+        index.put("bog@bar.com", 0);
+        assertEquals(3, index.get("foo@bar.com"));
+        assertEquals(0, index.get("bog@bar.com"));
+        assertEquals(2, index.size());
+
+        index.put("foo@bar.com", 7);
+        assertEquals(7, index.get("foo@bar.com"));
+        assertEquals(2, index.size());
+
+        index.remove("foo@bar.com");
+        assertEquals(-1, index.get("foo@bar.com"));
+        assertEquals(0, index.get("bog@bar.com"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void handlesNonAsciiKeys(){
+        index.put("jos\u00e9@bar.com", 1);
+        index.put("\u6f22\u5b57@bar.com", 2);
+        index.put("\ud83d\ude00@bar.com", 3);
+
+        assertEquals(1, index.get("jos\u00e9@bar.com"));
+        assertEquals(2, index.get("\u6f22\u5b57@bar.com"));
+        assertEquals(3, index.get("\ud83d\ude00@bar.com"));
+        assertEquals(-1, index.get("jose@bar.com"));
+    }
+
+    @Test
+    public void nullKeysAreKeysLikeAnyOther(){
+        byte[] bytes = new byte[0];
+        index.put((String) null, 4);
+        index.put("", 5);
+        assertEquals(4, index.get((String) null));
+        assertEquals(4, index.get(bytes, 0, -1));
+        assertEquals(5, index.get(bytes, 0, 0));
+        assertEquals(2, index.size());
+
+        index.put(bytes, 0, -1, 6);
+        assertEquals(6, index.get((String) null));
+        assertEquals(2, index.size());
+
+        index.remove((String) null);
+        assertEquals(-1, index.get(bytes, 0, -1));
+        assertEquals(5, index.get(""));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void nullKeysSurviveGrowth(){
+        index.put((String) null, 0);
+        for (int i = 1; i < 100000; i++){
+            index.put("key" + i + "@bar.com", i);
+        }
+        assertEquals(0, index.get((String) null));
+        assertEquals(99999, index.get("key99999@bar.com"));
+    }
+
+    @Test
+    public void matchesHashMapThroughGrowthAndRemovals(){
+        Map<String,Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200000; i++){
+            String key = "key" + random.nextInt(50000) + "@bar.com";
+            if (random.nextInt(3) == 0){
+                expected.remove(key);
+                index.remove(key);
+            } else {
+                expected.put(key, i);
+                index.put(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < 50000; i++){
+            String key = "key" + i + "@bar.com";
+            Integer slot = expected.get(key);
+            assertEquals(key, slot == null ? -1 : slot, index.get(key));
+        }
+    }
+
+    @Test
+    public void leadsMissingKeysMergeAsWithHeapIndex() throws IOException {
+        LeadMerger heapMerger = new LeadMerger(new HeapKeyIndex(), new HeapKeyIndex());
+        LeadMerger offHeapMerger = new LeadMerger(new OffHeapKeyIndex(), new OffHeapKeyIndex());
+        for (Lead lead : new JsonFileUtilsImpl().parseJson(new File(testResourcePath + "leadsMissingKeys.json"))){
+            assertEquals(lead.toString(), heapMerger.merge(lead), offHeapMerger.merge(lead));
+        }
+
+        List<Lead> expected = heapMerger.getOutputLeads();
+        List<Lead> actual = offHeapMerger.getOutputLeads();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++){
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        }
+    }
+
+    @Test
+    public void dedupeWithOffHeapIndexMatchesDefault(){
+        for (String input : new String[] {"leadsInterleavedClusters.json", "leadsMissingKeys.json"}){
+            String testJsonPath = testResourcePath + input;
+            DedupeOptions options = new DedupeOptions();
+            options.setOffHeapIndex(true);
+
+            List<Lead> expected = new DedupeServiceImpl().deduplicateItems(testJsonPath);
+            List<Lead> actual = new DedupeServiceImpl(options).deduplicateItems(testJsonPath);
+
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++){
+                assertEquals(expected.get(i).toString(), actual.get(i).toString());
+            }
+        }
+    }
+}
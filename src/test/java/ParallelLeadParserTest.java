@@ -0,0 +1,188 @@
+import com.google.gson.JsonSyntaxException;
+import com.nlaw.leadDedupe.JsonFileUtilsImpl;
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.LeadGenerator;
+import com.nlaw.leadDedupe.ParallelLeadParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *  Tests that the ParallelLeadParser reads exactly what a single LeadReader
+ *  would, using chunks small enough to split even the test inputs up.
+ *
+ *  @author nlawrence
+ */
+public class ParallelLeadParserTest {
+    private String workingdir = System.getProperty("user.dir");
+    private JsonFileUtilsImpl fileUtils = new JsonFileUtilsImpl();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(workingdir));
+
+    @Test
+    public void parsesDocumentsInOrder() throws IOException {
+        File input = generate("leads.json", JsonFileUtilsImpl.JSON_FORMAT);
+
+        assertSameLeads(fileUtils.parseJson(input), new ParallelLeadParser(3, 1000).parse(input, null));
+    }
+
+    @Test
+    public void parsesNewlineDelimitedInputInOrder() throws IOException {
+        File input = generate("leads.ndjson", JsonFileUtilsImpl.NDJSON_FORMAT);
+
+        assertSameLeads(fileUtils.parseJson(input), new ParallelLeadParser(3, 1000).parse(input, null));
+    }
+
+    @Test
+    public void handsChunksBackInOrder() throws IOException {
+        File input = generate("leads.json", JsonFileUtilsImpl.JSON_FORMAT);
+        List<Integer> chunkSizes = new ArrayList<>();
+        List<Long> firstOrdinals = new ArrayList<>();
+
+        new ParallelLeadParser(2, 5000).parse(input, null, leads -> {
+            chunkSizes.add(leads.size());
+            firstOrdinals.add(leads.get(0).getOrdinal());
+        });
+
+        assertTrue(chunkSizes.size() > 1);
+        long expectedOrdinal = 0;
+        for (int i = 0; i < chunkSizes.size(); i++){
+            assertEquals(expectedOrdinal, (long) firstOrdinals.get(i));
+            expectedOrdinal += chunkSizes.get(i);
+        }
+        assertEquals(2000, expectedOrdinal);
+    }
+
+    @Test
+    public void skipsBracketsAndQuotesInsideStrings() throws IOException {
+        StringBuilder json = new StringBuilder("{\"source\": {\"note\": \"]}\\\"{\"}, \"leads\": [");
+        for (int i = 0; i < 200; i++){
+            json.append(i == 0 ? "" : ",\n").append("{\"_id\": \"id-").append(i % 50)
+                    .append("\", \"email\": \"}{[\\\"]\", \"address\": \"").append("\\u00f6").append(i)
+                    .append("\", \"extra\": [{\"a\": [1, 2]}], \"entryDate\": \"2014-05-07T17:30:20+00:00\"}");
+        }
+        json.append("], \"count\": 200, \"tags\": [\"leads\"]}");
+        File input = write("tricky.json", json.toString());
+
+        List<Lead> leads = new ParallelLeadParser(4, 300).parse(input, null);
+
+        assertSameLeads(fileUtils.parseJson(input), leads);
+        assertEquals(200, leads.size());
+        assertEquals("}{[\"]", leads.get(7).getEmail());
+        assertEquals("\u00f67", leads.get(7).getAddress());
+    }
+
+    @Test
+    public void readsEmptyLeadsArrays() throws IOException {
+        File input = write("empty.json", "{\"leads\": [ ], \"padding\": \"" + new String(new char[2000]).replace('\0', 'x') + "\"}");
+
+        assertTrue(new ParallelLeadParser(2, 100).parse(input, null).isEmpty());
+    }
+
+    @Test
+    public void readsLaterLeadsArraysLikeALeadReader() throws IOException {
+        StringBuilder json = new StringBuilder("{\"leads\": [");
+        for (int i = 0; i < 100; i++){
+            json.append(i == 0 ? "" : ",").append("{\"_id\": \"id-").append(i)
+                    .append("\", \"entryDate\": \"2014-05-07T17:30:20+00:00\"}");
+        }
+        json.append("], \"leads\": [{\"_id\": \"id-100\", \"entryDate\": \"2014-05-07T17:30:20+00:00\"}]}");
+        File input = write("twoArrays.json", json.toString());
+
+        List<Lead> leads = new ParallelLeadParser(2, 100).parse(input, null);
+
+        assertEquals(101, leads.size());
+        assertEquals("id-100", leads.get(100).get_id());
+        assertSameLeads(fileUtils.parseJson(input), leads);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void reportsUnexpectedLayoutsLikeALeadReader() throws IOException {
+        StringBuilder json = new StringBuilder("{\"leads\": [");
+        for (int i = 0; i < 100; i++){
+            json.append("{\"_id\": \"id-").append(i).append("\", \"entryDate\": \"2014-05-07T17:30:20+00:00\"},");
+        }
+        // a lead that isn't an object sends the input to a single LeadReader
+        json.append("\"not a lead\"]}");
+        File input = write("broken.json", json.toString());
+
+        new ParallelLeadParser(2, 100).parse(input, null);
+    }
+
+    @Test
+    public void rejectsLeadsSpanningLinesLikeALeadReader() throws IOException {
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < 100; i++){
+            ndjson.append("{\"_id\": \"id-").append(i).append("\",\n\"entryDate\": \"2014-05-07T17:30:20+00:00\"}\n");
+        }
+        File input = write("spanning.ndjson", ndjson.toString());
+
+        for (ParallelLeadParser parser : new ParallelLeadParser[] {new ParallelLeadParser(1),
+                new ParallelLeadParser(2, 100)}){
+            try {
+                parser.parse(input, JsonFileUtilsImpl.NDJSON_FORMAT);
+                fail("Expected a JsonSyntaxException");
+            } catch (JsonSyntaxException e){
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void reportsWhereMalformedChunksStart() throws IOException {
+        StringBuilder json = new StringBuilder("{\"leads\": [");
+        for (int i = 0; i < 100; i++){
+            json.append("{\"_id\": \"id-").append(i).append("\", \"entryDate\": \"2014-05-07T17:30:20+00:00\"},");
+        }
+        json.append("{\"_id\" \"id-100\", \"entryDate\": \"2014-05-07T17:30:20+00:00\"}]}");
+        File input = write("malformed.json", json.toString());
+
+        try {
+            new ParallelLeadParser(2, 100).parse(input, null);
+            fail("Expected a JsonSyntaxException");
+        } catch (JsonSyntaxException e){
+            assertTrue(e.getMessage().contains("in the chunk of leads from byte"));
+        }
+    }
+
+    private File generate(String name, String format) throws IOException {
+        LeadGenerator generator = new LeadGenerator();
+        generator.setLeads(2000);
+        generator.setIdDuplicateRate(0.2);
+        generator.setFormat(format);
+        File file = new File(folder.getRoot(), name);
+        try (OutputStream out = new FileOutputStream(file)){
+            generator.write(out);
+        }
+        return file;
+    }
+
+    private File write(String name, String contents) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private void assertSameLeads(List<Lead> expected, List<Lead> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++){
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+            assertEquals(expected.get(i).getEntryNanos(), actual.get(i).getEntryNanos());
+            assertEquals(i, actual.get(i).getOrdinal());
+        }
+    }
+}
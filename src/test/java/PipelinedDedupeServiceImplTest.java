@@ -0,0 +1,92 @@
+import com.nlaw.leadDedupe.DedupeOptions;
+import com.nlaw.leadDedupe.DedupeServiceImpl;
+import com.nlaw.leadDedupe.JsonFileUtilsImpl;
+import com.nlaw.leadDedupe.Lead;
+import com.nlaw.leadDedupe.PipelinedDedupeServiceImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ *
+ * Tests that the PipelinedDedupeServiceImpl gives exactly the same output as
+ * the DedupeServiceImpl for each of our example inputs, whether the leads
+ * are handed between its stages one at a time or in larger batches, and
+ * that the file it writes is the one the DedupeServiceImpl's output would
+ * have been written as.
+ *
+ * @author nlawrence
+ *
+ */
+@RunWith(Parameterized.class)
+public class PipelinedDedupeServiceImplTest {
+    private static String workingdir = System.getProperty("user.dir");
+    private static String fileSep = System.getProperty("file.separator");
+    private static String testResourcePath = "src" + fileSep + "test" + fileSep +
+            "resources" + fileSep;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> inputFiles() {
+        return Arrays.asList(new Object[][] {
+                {"leads.json"},
+                {"leads.ndjson"},
+                {"leadsThreeWay123.json"},
+                {"leadsThreeWay231.json"},
+                {"leadsThreeWay321.json"},
+                {"leadsThreeWayOneOlder.json"},
+                {"leadsThreeWayThreeYounger.json"},
+                {"leadsMiddleCollisionShift.json"},
+                {"leadsInterleavedClusters.json"},
+        });
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(workingdir));
+
+    private String inputFile;
+
+    public PipelinedDedupeServiceImplTest(String inputFile) {
+        this.inputFile = inputFile;
+    }
+
+    @Test
+    public void pipelinedOutputMatchesStreamingOutput(){
+        String testJsonPath = testResourcePath + inputFile;
+
+        List<Lead> expected = new DedupeServiceImpl().deduplicateItems(testJsonPath);
+
+        ClusterDedupeServiceImplTest.assertSameLeads(expected,
+                new PipelinedDedupeServiceImpl().deduplicateItems(testJsonPath));
+        ClusterDedupeServiceImplTest.assertSameLeads(expected,
+                new PipelinedDedupeServiceImpl(new DedupeOptions(), 1).deduplicateItems(testJsonPath));
+    }
+
+    @Test
+    public void pipelinedFileMatchesStreamingFile() throws IOException {
+        String testJsonPath = testResourcePath + inputFile;
+        for (boolean compact : new boolean[] {false, true}){
+            DedupeOptions options = new DedupeOptions();
+            options.setCompactOutput(compact);
+            File expected = folder.newFile("expected" + compact + ".json");
+            File actual = folder.newFile("actual" + compact + ".json");
+
+            new JsonFileUtilsImpl().writeOutputFile(expected, new DedupeServiceImpl().deduplicateItems(testJsonPath),
+                    null, compact);
+            new PipelinedDedupeServiceImpl(options, 2).deduplicateItems(testJsonPath, actual);
+
+            assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+        }
+    }
+}
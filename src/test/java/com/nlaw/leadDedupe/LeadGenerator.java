@@ -0,0 +1,482 @@
+package com.nlaw.leadDedupe;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ *  LeadGenerator
+ *
+ *  Writes synthetic {"leads":[...]} inputs of any size, or newline delimited
+ *  ones with a lead per line, with control over how the leads collide:
+ *
+ *    threeWayRate        how often a lead takes the id of one earlier lead
+ *                        and the email of another, a three-way collision
+ *    idDuplicateRate     how often any other lead reuses the id of an
+ *                        earlier lead
+ *    emailDuplicateRate  how often any other lead reuses the email of an
+ *                        earlier lead (the same one, if it reuses the id
+ *                        too)
+ *    dateTieRate         how often a lead that reuses keys also has the
+ *                        same entry date as the lead it reuses them from
+ *    hotKeyRate          how often keys are reused from the first hotKeys
+ *                        leads instead of from recent ones, which skews
+ *                        collisions onto a few hot keys
+ *
+ *  Keys are otherwise reused from the last window leads, so that they
+ *  usually land on a lead that is still in the output.
+ *
+ *  The order decides how entry dates run through the file:
+ *
+ *    random     dates are spread over a year at random
+ *    ascending  every lead is newer than the one before it, so every
+ *               collision replaces an existing lead and has its changes
+ *               logged, the most work a collision can cause
+ *    chain      keys are always reused from the lead just before, so the
+ *               collisions link the leads into long chains.  Each chain is
+ *               a single collision cluster, the worst case for finding
+ *               clusters and for resolving them in parallel
+ *
+ *  Leads are written as they are generated, and only the keys and dates of
+ *  the last window leads and of the hot leads are remembered, so the size
+ *  of the output is only limited by the disk.  The same settings and seed
+ *  always give the same output.  An output file whose name ends in .gz is
+ *  gzipped.
+ *
+ *  @author nlawrence
+ *
+ */
+public class LeadGenerator {
+    public static final String RANDOM_ORDER = "random";
+    public static final String ASCENDING_ORDER = "ascending";
+    public static final String CHAIN_ORDER = "chain";
+
+    public static String usage = "Usage:\n" +
+            "java -cp leadDedupe-[version].jar:leadDedupe-[version]-tests.jar com.nlaw.leadDedupe.LeadGenerator " +
+            "[--leads N] [--id-duplicates RATE] [--email-duplicates RATE] [--three-way RATE] [--date-ties RATE] " +
+            "[--hot-keys N] [--skew RATE] [--window N] [--order random|ascending|chain] [--format json|ndjson] [--seed N] " +
+            "output_filename|-";
+
+    private static final long FIRST_DATE = 1388534400L; // 2014-01-01T00:00:00Z
+    private static final int DATE_RANGE = 365 * 86400;
+    private static final String[] FIRST_NAMES = {"John", "Ted", "Fran", "Mae", "Jorge", "Priya", "Wei", "Ana"};
+    private static final String[] LAST_NAMES = {"Smith", "Masters", "Jones", "Doe", "Garcia", "Chen", "Patel"};
+
+    private long leads = 1000;
+    private double idDuplicateRate = 0;
+    private double emailDuplicateRate = 0;
+    private double threeWayRate = 0;
+    private double dateTieRate = 0;
+    private double hotKeyRate = 0;
+    private int hotKeys = 100;
+    private int window = 1000;
+    private String order = RANDOM_ORDER;
+    private long seed = 1;
+    private String format = JsonFileUtilsImpl.JSON_FORMAT;
+
+    // the keys and dates of the last window leads, and of the hot leads
+    private long[] recentIds;
+    private long[] recentEmails;
+    private long[] recentDates;
+    private long[] hotIds;
+    private long[] hotEmails;
+    private long[] hotDates;
+    private Random random;
+    private String fieldBreak; // between the fields of a lead
+
+    public static void main(String[] args) {
+        LeadGenerator generator = new LeadGenerator();
+        String outputPath = null;
+        boolean formatGiven = false;
+        for (int i = 0; i < args.length; i++){
+            String arg = args[i];
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if (arg == null){
+                exitWithUsage("Please provide an output filename");
+            } else if (arg.equals("--leads")){
+                generator.setLeads(parseNumber(arg, value));
+                i++;
+            } else if (arg.equals("--id-duplicates")){
+                generator.setIdDuplicateRate(parseRate(arg, value));
+                i++;
+            } else if (arg.equals("--email-duplicates")){
+                generator.setEmailDuplicateRate(parseRate(arg, value));
+                i++;
+            } else if (arg.equals("--three-way")){
+                generator.setThreeWayRate(parseRate(arg, value));
+                i++;
+            } else if (arg.equals("--date-ties")){
+                generator.setDateTieRate(parseRate(arg, value));
+                i++;
+            } else if (arg.equals("--hot-keys")){
+                generator.setHotKeys((int) Math.min(Integer.MAX_VALUE, parseNumber(arg, value)));
+                i++;
+            } else if (arg.equals("--skew")){
+                generator.setHotKeyRate(parseRate(arg, value));
+                i++;
+            } else if (arg.equals("--window")){
+                long window = parseNumber(arg, value);
+                if (window < 2){
+                    exitWithUsage("--window expects a number of two or more");
+                }
+                generator.setWindow((int) Math.min(Integer.MAX_VALUE, window));
+                i++;
+            } else if (arg.equals("--order")){
+                if (!RANDOM_ORDER.equals(value) && !ASCENDING_ORDER.equals(value) && !CHAIN_ORDER.equals(value)){
+                    exitWithUsage("--order expects random, ascending or chain");
+                }
+                generator.setOrder(value);
+                i++;
+            } else if (arg.equals("--format")){
+                if (!JsonFileUtilsImpl.JSON_FORMAT.equals(value) && !JsonFileUtilsImpl.NDJSON_FORMAT.equals(value)){
+                    exitWithUsage("--format expects json or ndjson");
+                }
+                generator.setFormat(value);
+                formatGiven = true;
+                i++;
+            } else if (arg.equals("--seed")){
+                generator.setSeed(parseNumber(arg, value));
+                i++;
+            } else if (arg.startsWith("--")){
+                exitWithUsage("Unknown option " + arg);
+            } else if (outputPath == null){
+                outputPath = arg;
+            } else {
+                exitWithUsage("Please provide a single output filename");
+            }
+        }
+        if (outputPath == null){
+            exitWithUsage("Please provide an output filename");
+        }
+        if (!formatGiven){
+            generator.setFormat(JsonFileUtilsImpl.resolveFormat(new File(outputPath), null));
+        }
+
+        try {
+            if (outputPath.equals("-")){
+                generator.write(System.out);
+            } else {
+                try (OutputStream out = JsonFileUtilsImpl.openOutputStream(new File(outputPath))){
+                    generator.write(out);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to write generated leads!");
+            e.printStackTrace();
+            System.err.println("Aborting!");
+            System.exit(1);
+        }
+    }
+
+    /**
+     *
+     * Writes the leads as UTF-8.  The stream is flushed but not closed.
+     *
+     * @param outputStream Where to write the leads
+     * @throws IOException if the leads can't be written
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 1 << 20);
+        write(out);
+        out.flush();
+    }
+
+    /**
+     *
+     * Writes the leads as a {"leads":[...]} document, or as newline
+     * delimited Json if that's the format.
+     *
+     * @param out Where to write the leads
+     * @throws IOException if the leads can't be written
+     */
+    public void write(Writer out) throws IOException {
+        random = new Random(seed);
+        recentIds = new long[window];
+        recentEmails = new long[window];
+        recentDates = new long[window];
+        hotIds = new long[hotKeys];
+        hotEmails = new long[hotKeys];
+        hotDates = new long[hotKeys];
+
+        StringBuilder lead = new StringBuilder(256);
+        if (JsonFileUtilsImpl.NDJSON_FORMAT.equals(format)){
+            // one lead per line, so the fields have to share it
+            fieldBreak = " ";
+            for (long i = 0; i < leads; i++){
+                lead.setLength(0);
+                appendLead(lead, i);
+                out.append(lead).append('\n');
+            }
+            return;
+        }
+        fieldBreak = "\n";
+        out.write("{\"leads\":[\n");
+        for (long i = 0; i < leads; i++){
+            lead.setLength(0);
+            if (i > 0){
+                lead.append(",\n");
+            }
+            appendLead(lead, i);
+            out.append(lead);
+        }
+        out.write("\n]}\n");
+    }
+
+    /**
+     * Works out the keys and date of lead i, remembers them, and appends the
+     * lead to the builder.
+     */
+    private void appendLead(StringBuilder lead, long i) {
+        long id = i;
+        long email = i;
+        long date = ASCENDING_ORDER.equals(order) ? FIRST_DATE + i : FIRST_DATE + random.nextInt(DATE_RANGE);
+
+        if (i > 0){
+            double roll = random.nextDouble();
+            if (i > 1 && roll < threeWayRate){
+                long idSource = pickEarlierLead(i, -1);
+                long emailSource = pickEarlierLead(i, idSource);
+                id = idOf(idSource);
+                email = emailOf(emailSource);
+                date = tieDate(date, idSource);
+            } else {
+                boolean sameId = random.nextDouble() < idDuplicateRate;
+                boolean sameEmail = random.nextDouble() < emailDuplicateRate;
+                if (sameId || sameEmail){
+                    long source = pickEarlierLead(i, -1);
+                    id = sameId ? idOf(source) : id;
+                    email = sameEmail ? emailOf(source) : email;
+                    date = tieDate(date, source);
+                }
+            }
+        }
+        remember(i, id, email, date);
+
+        lead.append('{').append(fieldBreak).append("\"_id\": \"id-").append(id)
+                .append("\",").append(fieldBreak).append("\"email\": \"email-").append(email)
+                .append("@example.com\",").append(fieldBreak).append("\"firstName\": \"")
+                .append(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)])
+                .append("\",").append(fieldBreak).append("\"lastName\": \"")
+                .append(LAST_NAMES[random.nextInt(LAST_NAMES.length)])
+                .append("\",").append(fieldBreak).append("\"address\": \"").append(1 + random.nextInt(9999))
+                .append(" Street St\",").append(fieldBreak).append("\"entryDate\": \"");
+        appendDate(lead, date);
+        lead.append('"').append(fieldBreak).append('}');
+    }
+
+    /**
+     * Picks an earlier lead to reuse keys from: the one just before in chain
+     * order, a hot lead for a share of hotKeyRate, and a recent one
+     * otherwise.  Tries not to pick the lead given as other.
+     */
+    private long pickEarlierLead(long i, long other) {
+        if (CHAIN_ORDER.equals(order)){
+            return other == i - 1 ? i - 2 : i - 1;
+        }
+        for (int attempt = 0; attempt < 8; attempt++){
+            long source;
+            if (hotKeys > 0 && random.nextDouble() < hotKeyRate){
+                source = random.nextInt((int) Math.min(hotKeys, i));
+            } else {
+                source = i - 1 - random.nextInt((int) Math.min(window, i));
+            }
+            if (source != other){
+                return source;
+            }
+        }
+        return other == i - 1 ? i - 2 : i - 1;
+    }
+
+    private long tieDate(long date, long source) {
+        return random.nextDouble() < dateTieRate ? dateOf(source) : date;
+    }
+
+    private void remember(long i, long id, long email, long date) {
+        int recent = (int) (i % window);
+        recentIds[recent] = id;
+        recentEmails[recent] = email;
+        recentDates[recent] = date;
+        if (i < hotKeys){
+            hotIds[(int) i] = id;
+            hotEmails[(int) i] = email;
+            hotDates[(int) i] = date;
+        }
+    }
+
+    private long idOf(long source) {
+        return source < hotKeys ? hotIds[(int) source] : recentIds[(int) (source % window)];
+    }
+
+    private long emailOf(long source) {
+        return source < hotKeys ? hotEmails[(int) source] : recentEmails[(int) (source % window)];
+    }
+
+    private long dateOf(long source) {
+        return source < hotKeys ? hotDates[(int) source] : recentDates[(int) (source % window)];
+    }
+
+    /**
+     * Appends epoch seconds as an entry date, e.g. 2014-05-07T17:30:20+00:00.
+     */
+    private static void appendDate(StringBuilder builder, long epochSeconds) {
+        long days = Math.floorDiv(epochSeconds, 86400);
+        int secondOfDay = (int) Math.floorMod(epochSeconds, 86400);
+        // civil from days, after Howard Hinnant's algorithm
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        long month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        builder.append(year).append('-');
+        appendTwoDigits(builder, month);
+        builder.append('-');
+        appendTwoDigits(builder, day);
+        builder.append('T');
+        appendTwoDigits(builder, secondOfDay / 3600);
+        builder.append(':');
+        appendTwoDigits(builder, secondOfDay / 60 % 60);
+        builder.append(':');
+        appendTwoDigits(builder, secondOfDay % 60);
+        builder.append("+00:00");
+    }
+
+    private static void appendTwoDigits(StringBuilder builder, long value) {
+        if (value < 10){
+            builder.append('0');
+        }
+        builder.append(value);
+    }
+
+    private static long parseNumber(String option, String value) {
+        long number = -1;
+        try {
+            number = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // handled below along with negative numbers
+        }
+        if (number < 0){
+            exitWithUsage(option + " expects a number of zero or more");
+        }
+        return number;
+    }
+
+    private static double parseRate(String option, String value) {
+        double rate = -1;
+        try {
+            rate = Double.parseDouble(value);
+        } catch (NumberFormatException | NullPointerException e) {
+            // handled below along with rates out of range
+        }
+        if (!(rate >= 0 && rate <= 1)){
+            exitWithUsage(option + " expects a rate between 0 and 1");
+        }
+        return rate;
+    }
+
+    private static void exitWithUsage(String message) {
+        System.err.println(message);
+        System.err.println(usage);
+        System.exit(1);
+    }
+
+    public long getLeads() {
+        return leads;
+    }
+
+    public void setLeads(long leads) {
+        this.leads = leads;
+    }
+
+    public double getIdDuplicateRate() {
+        return idDuplicateRate;
+    }
+
+    public void setIdDuplicateRate(double idDuplicateRate) {
+        this.idDuplicateRate = idDuplicateRate;
+    }
+
+    public double getEmailDuplicateRate() {
+        return emailDuplicateRate;
+    }
+
+    public void setEmailDuplicateRate(double emailDuplicateRate) {
+        this.emailDuplicateRate = emailDuplicateRate;
+    }
+
+    public double getThreeWayRate() {
+        return threeWayRate;
+    }
+
+    public void setThreeWayRate(double threeWayRate) {
+        this.threeWayRate = threeWayRate;
+    }
+
+    public double getDateTieRate() {
+        return dateTieRate;
+    }
+
+    public void setDateTieRate(double dateTieRate) {
+        this.dateTieRate = dateTieRate;
+    }
+
+    public double getHotKeyRate() {
+        return hotKeyRate;
+    }
+
+    public void setHotKeyRate(double hotKeyRate) {
+        this.hotKeyRate = hotKeyRate;
+    }
+
+    public int getHotKeys() {
+        return hotKeys;
+    }
+
+    public void setHotKeys(int hotKeys) {
+        this.hotKeys = hotKeys;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public void setWindow(int window) {
+        if (window < 2){
+            throw new IllegalArgumentException("The window must hold at least two leads, got " + window);
+        }
+        this.window = window;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public String getOrder() {
+        return order;
+    }
+
+    public void setOrder(String order) {
+        this.order = order;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}